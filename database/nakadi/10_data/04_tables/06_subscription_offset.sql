@@ -0,0 +1,8 @@
+CREATE TABLE zn_data.subscription_offset (
+  so_subscription_id VARCHAR(36)  NOT NULL,
+  so_topic           VARCHAR(255) NOT NULL,
+  so_partition       VARCHAR(255) NOT NULL,
+  so_offset          VARCHAR(255) NOT NULL,
+  so_version         INT          NOT NULL,
+  PRIMARY KEY (so_subscription_id, so_topic, so_partition)
+);
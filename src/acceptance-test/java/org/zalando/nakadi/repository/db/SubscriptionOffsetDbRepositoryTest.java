@@ -0,0 +1,201 @@
+package org.zalando.nakadi.repository.db;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.curator.framework.CuratorFramework;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.zalando.nakadi.repository.SubscriptionOffsetRepository;
+import org.zalando.nakadi.repository.zookeeper.ZkSubscriptionOffsetRepository;
+import org.zalando.nakadi.repository.zookeeper.ZooKeeperHolder;
+import org.zalando.nakadi.service.subscription.model.Partition;
+import org.zalando.nakadi.service.subscription.zk.ZKSubscription;
+import org.zalando.nakadi.webservice.utils.ZookeeperTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.zalando.nakadi.utils.TestUtils.randomUUID;
+
+public class SubscriptionOffsetDbRepositoryTest extends AbstractDbRepositoryTest {
+
+    private static final Partition.PartitionKey P0 = new Partition.PartitionKey("topic", "0");
+    private static final Partition.PartitionKey P1 = new Partition.PartitionKey("topic", "1");
+    private static final String ZOOKEEPER_URL = "localhost:2181";
+
+    private CuratorFramework curator;
+    private SubscriptionOffsetDbRepository repository;
+    private String sid;
+
+    public SubscriptionOffsetDbRepositoryTest() {
+        super("zn_data.subscription_offset");
+    }
+
+    @Before
+    public void setUp() {
+        super.setUp();
+        curator = ZookeeperTestUtils.createCurator(ZOOKEEPER_URL);
+        final ZooKeeperHolder zkHolder = mock(ZooKeeperHolder.class);
+        when(zkHolder.get()).thenReturn(curator);
+        repository = new SubscriptionOffsetDbRepository(template, mapper, zkHolder, 50);
+        sid = randomUUID();
+        setTopologyVersion(0);
+        repository.createOffsets(sid, ImmutableMap.of(P0, 10L, P1, 20L));
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        repository.close();
+        try {
+            curator.delete().deletingChildrenIfNeeded().forPath("/nakadi/subscriptions/" + sid);
+        } catch (final Exception e) {
+            throw new IllegalStateException(e);
+        } finally {
+            curator.close();
+        }
+        super.tearDown();
+    }
+
+    @Test
+    public void testOffsetsCreated() {
+        final Map<Partition.PartitionKey, SubscriptionOffsetRepository.Offset> offsets =
+                repository.getOffsets(sid, ImmutableList.of(P0, P1));
+
+        assertEquals("10", offsets.get(P0).getValue());
+        assertEquals("20", offsets.get(P1).getValue());
+        assertEquals(10L, repository.getOffset(sid, P0));
+    }
+
+    @Test
+    public void testOffsetsAreNotUpdatedIfChangedConcurrently() {
+        final Map<Partition.PartitionKey, SubscriptionOffsetRepository.Offset> offsets =
+                repository.getOffsets(sid, ImmutableList.of(P0, P1));
+
+        assertTrue(repository.updateOffsets(sid, offsets, ImmutableMap.of(P0, "11"), 0));
+        assertFalse(repository.updateOffsets(sid, offsets, ImmutableMap.of(P0, "12", P1, "21"), 0));
+
+        assertEquals(11L, repository.getOffset(sid, P0));
+        assertEquals(20L, repository.getOffset(sid, P1));
+    }
+
+    @Test
+    public void testOffsetsAreNotUpdatedIfTopologyChanged() {
+        final Map<Partition.PartitionKey, SubscriptionOffsetRepository.Offset> offsets =
+                repository.getOffsets(sid, ImmutableList.of(P0, P1));
+        setTopologyVersion(1);
+
+        assertFalse(repository.updateOffsets(sid, offsets, ImmutableMap.of(P0, "11"), 0));
+        assertEquals(10L, repository.getOffset(sid, P0));
+
+        assertTrue(repository.updateOffsets(sid, offsets, ImmutableMap.of(P0, "11"), 1));
+        assertEquals(11L, repository.getOffset(sid, P0));
+    }
+
+    @Test
+    public void testCommitMovesOffsetsForwardOnly() {
+        repository.commitOffsets(sid, ImmutableMap.of(P0, 15L, P1, 5L)).join();
+
+        assertEquals(15L, repository.getOffset(sid, P0));
+        assertEquals(20L, repository.getOffset(sid, P1));
+    }
+
+    @Test
+    public void testOffsetsDeleted() {
+        repository.deleteOffsets(sid);
+
+        assertTrue(repository.getOffsets(sid, ImmutableList.of(P0, P1)).isEmpty());
+    }
+
+    @Test(timeout = 10000)
+    public void testListenerIsCalledWhenOffsetChanged() throws InterruptedException {
+        final CountDownLatch changed = new CountDownLatch(1);
+        final ZKSubscription subscription = repository.subscribeForOffsetChanges(sid, P0, changed::countDown);
+
+        repository.commitOffsets(sid, ImmutableMap.of(P0, 15L)).join();
+
+        changed.await();
+        subscription.cancel();
+    }
+
+    @Ignore("Benchmark, run manually")
+    @Test
+    public void commitThroughputBenchmark() throws Exception {
+        final int subscriptions = 2000;
+        final int commitsPerSubscription = 20;
+        final ZooKeeperHolder zkHolder = mock(ZooKeeperHolder.class);
+        when(zkHolder.get()).thenReturn(curator);
+        final long zkRate = measureCommitRate(
+                new ZkSubscriptionOffsetRepository(zkHolder), subscriptions, commitsPerSubscription);
+        final long dbRate = measureCommitRate(repository, subscriptions, commitsPerSubscription);
+        System.out.println("Commits/s of " + subscriptions + " concurrently committing streams: zookeeper "
+                + zkRate + ", database " + dbRate);
+    }
+
+    // Topology node is created with version 0, every following write increments its version
+    private void setTopologyVersion(final int version) {
+        final String path = "/nakadi/subscriptions/" + sid + "/topology";
+        final byte[] data = String.valueOf(version).getBytes(StandardCharsets.UTF_8);
+        try {
+            if (version == 0) {
+                curator.create().creatingParentsIfNeeded().forPath(path, data);
+            } else {
+                curator.setData().withVersion(version - 1).forPath(path, data);
+            }
+        } catch (final Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long measureCommitRate(final SubscriptionOffsetRepository offsetRepository,
+                                          final int subscriptions, final int commitsPerSubscription)
+            throws InterruptedException {
+        final List<String> ids = new ArrayList<>();
+        for (int i = 0; i < subscriptions; ++i) {
+            final String id = randomUUID();
+            offsetRepository.createOffsets(id, ImmutableMap.of(P0, 0L));
+            ids.add(id);
+        }
+        // Zookeeper store is writing in the committing thread, so the threads are limiting its concurrency
+        final ExecutorService committers = Executors.newFixedThreadPool(500);
+        final CountDownLatch done = new CountDownLatch(subscriptions);
+        final long start = System.nanoTime();
+        // Every stream is committing one cursor after another, as streams of a subscription do
+        for (final String id : ids) {
+            commitSequentially(offsetRepository, committers, id, 1, commitsPerSubscription, done);
+        }
+        assertTrue(done.await(10, TimeUnit.MINUTES));
+        final long elapsedNs = System.nanoTime() - start;
+        committers.shutdown();
+        return (long) subscriptions * commitsPerSubscription * TimeUnit.SECONDS.toNanos(1) / elapsedNs;
+    }
+
+    private static void commitSequentially(final SubscriptionOffsetRepository offsetRepository,
+                                           final ExecutorService committers, final String id, final long offset,
+                                           final int lastOffset, final CountDownLatch done) {
+        final CompletableFuture<Void> commit = CompletableFuture
+                .supplyAsync(() -> offsetRepository.commitOffsets(id, ImmutableMap.of(P0, offset)), committers)
+                .thenCompose(future -> future);
+        commit.whenComplete((ignore, e) -> {
+            if (null != e || offset == lastOffset) {
+                done.countDown();
+            } else {
+                commitSequentially(offsetRepository, committers, id, offset + 1, lastOffset, done);
+            }
+        });
+    }
+}
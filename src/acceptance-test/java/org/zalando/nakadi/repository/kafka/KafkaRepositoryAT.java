@@ -1,5 +1,6 @@
 package org.zalando.nakadi.repository.kafka;
 
+import com.codahale.metrics.MetricRegistry;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -72,6 +73,7 @@ public class KafkaRepositoryAT extends BaseAT {
                 DEFAULT_TOPIC_ROTATION,
                 DEFAULT_COMMIT_TIMEOUT,
                 NAKADI_POLL_TIMEOUT,
+                NAKADI_POLL_TIMEOUT,
                 NAKADI_SEND_TIMEOUT,
                 TIMELINE_WAIT_TIMEOUT,
                 NAKADI_EVENT_MAX_BYTES,
@@ -195,6 +197,7 @@ public class KafkaRepositoryAT extends BaseAT {
 
         return new KafkaTopicRepository(zooKeeperHolder,
                 factory,
+                new KafkaWatermarks(factory, 0, new MetricRegistry()),
                 nakadiSettings,
                 kafkaSettings,
                 zookeeperSettings,
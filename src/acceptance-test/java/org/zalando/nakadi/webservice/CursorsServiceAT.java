@@ -18,10 +18,14 @@ import org.zalando.nakadi.exceptions.NakadiException;
 import org.zalando.nakadi.repository.EventTypeRepository;
 import org.zalando.nakadi.repository.TopicRepository;
 import org.zalando.nakadi.repository.db.SubscriptionDbRepository;
+import org.zalando.nakadi.repository.zookeeper.ZkSubscriptionOffsetRepository;
 import org.zalando.nakadi.repository.zookeeper.ZooKeeperHolder;
 import org.zalando.nakadi.service.CursorConverter;
 import org.zalando.nakadi.service.CursorTokenService;
 import org.zalando.nakadi.service.CursorsService;
+import org.zalando.nakadi.service.subscription.LocalStreamRegistry;
+import org.zalando.nakadi.service.subscription.model.Partition;
+import org.zalando.nakadi.service.subscription.zk.Topology;
 import org.zalando.nakadi.util.FeatureToggleService;
 import org.zalando.nakadi.view.SubscriptionCursor;
 import org.zalando.nakadi.webservice.utils.ZookeeperTestUtils;
@@ -36,6 +40,8 @@ import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.zalando.nakadi.service.CursorConverter.CURSOR_OFFSET_LENGTH;
 import static org.zalando.nakadi.utils.TestUtils.randomUUID;
@@ -102,13 +108,14 @@ public class CursorsServiceAT extends BaseAT {
         when(featureToggleService.isFeatureEnabled(eq(FeatureToggleService.Feature.ZERO_PADDED_OFFSETS)))
                 .thenReturn(Boolean.TRUE);
         cursorsService = new CursorsService(zkHolder, topicRepository, subscriptionRepo, eventTypeRepository,
-                tokenService, new CursorConverter(featureToggleService));
+                tokenService, new CursorConverter(featureToggleService), mock(LocalStreamRegistry.class),
+                new ZkSubscriptionOffsetRepository(zkHolder));
 
         // bootstrap data in ZK
         CURATOR.create().creatingParentsIfNeeded().forPath(offsetPath(P1), OLD_OFFSET.getBytes(UTF_8));
-        CURATOR.setData().forPath(partitionPath(P1), (streamId + ": :ASSIGNED").getBytes(UTF_8));
         CURATOR.create().creatingParentsIfNeeded().forPath(offsetPath(P2), OLD_OFFSET.getBytes(UTF_8));
-        CURATOR.setData().forPath(partitionPath(P2), (streamId + ": :ASSIGNED").getBytes(UTF_8));
+        CURATOR.create().creatingParentsIfNeeded().forPath(topologyPath(),
+                topology(streamId, streamId).serialize());
         CURATOR.create().creatingParentsIfNeeded().forPath(sessionPath(streamId));
     }
 
@@ -136,7 +143,7 @@ public class CursorsServiceAT extends BaseAT {
 
     @Test
     public void whenPartitionIsStreamedToDifferentClientThenFalse() throws Exception {
-        CURATOR.setData().forPath(partitionPath(P1), ("wrong-stream-id" + ": :ASSIGNED").getBytes(UTF_8));
+        CURATOR.setData().forPath(topologyPath(), topology("wrong-stream-id", streamId).serialize());
         try {
             cursorsService.commitCursors(streamId, sid, testCursors);
             fail("Expected InvalidStreamIdException to be thrown");
@@ -145,6 +152,21 @@ public class CursorsServiceAT extends BaseAT {
         checkCurrentOffsetInZk(P1, OLD_OFFSET);
     }
 
+    @Test
+    public void whenOnePartitionIsStreamedToDifferentClientThenNoCursorsAreCommitted() throws Exception {
+        CURATOR.setData().forPath(topologyPath(), topology(streamId, "wrong-stream-id").serialize());
+        testCursors = ImmutableList.of(
+                new SubscriptionCursor(P1, NEW_OFFSET, etName, token),
+                new SubscriptionCursor(P2, NEW_OFFSET, etName, token));
+        try {
+            cursorsService.commitCursors(streamId, sid, testCursors);
+            fail("Expected InvalidStreamIdException to be thrown");
+        } catch (final InvalidStreamIdException ignore) {
+        }
+        checkCurrentOffsetInZk(P1, OLD_OFFSET);
+        checkCurrentOffsetInZk(P2, OLD_OFFSET);
+    }
+
     @Test
     public void whenCommitOldCursorsThenFalse() throws Exception {
         testCursors = ImmutableList.of(new SubscriptionCursor(P1, OLDEST_OFFSET, etName, token));
@@ -214,6 +236,7 @@ public class CursorsServiceAT extends BaseAT {
 
         checkCurrentOffsetInZk(P1, "000000000000000130");
         checkCurrentOffsetInZk(P2, "000000000000000825");
+        verify(eventTypeRepository, times(1)).findByName(etName);
     }
 
     @Test
@@ -237,8 +260,15 @@ public class CursorsServiceAT extends BaseAT {
         return format("{0}/{1}/topics/{2}/{3}/offset", SUBSCRIPTIONS_PATH, sid, topic, partition);
     }
 
-    private String partitionPath(final String partition) {
-        return format("{0}/{1}/topics/{2}/{3}", SUBSCRIPTIONS_PATH, sid, topic, partition);
+    private String topologyPath() {
+        return format("{0}/{1}/topology", SUBSCRIPTIONS_PATH, sid);
+    }
+
+    private Topology topology(final String p1Session, final String p2Session) {
+        return new Topology(new Partition[]{
+                new Partition(new Partition.PartitionKey(topic, P1), p1Session, null, Partition.State.ASSIGNED),
+                new Partition(new Partition.PartitionKey(topic, P2), p2Session, null, Partition.State.ASSIGNED)},
+                0);
     }
 
     private String sessionPath(final String sessionId) {
@@ -4,12 +4,14 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
 import com.jayway.restassured.http.ContentType;
+import com.jayway.restassured.response.ValidatableResponse;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.http.HttpStatus;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Test;
 import org.zalando.nakadi.config.JsonConfig;
+import org.zalando.nakadi.domain.ConsumptionQuota;
 import org.zalando.nakadi.domain.EventType;
 import org.zalando.nakadi.service.BlacklistService;
 import org.zalando.nakadi.utils.JsonTestHelper;
@@ -20,10 +22,16 @@ import java.io.IOException;
 import java.util.Collections;
 
 import static com.jayway.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.zalando.nakadi.utils.TestUtils.randomValidStringOfLength;
+import static org.zalando.nakadi.utils.TestUtils.waitFor;
 
 public class SettingsControllerAT extends BaseAT {
 
     private static final String BLACKLIST_URL = "/settings/blacklist";
+    private static final String QUOTAS_URL = "/settings/quotas";
     private static final ObjectMapper MAPPER = (new JsonConfig()).jacksonObjectMapper();
     private static final JsonTestHelper JSON_HELPER = new JsonTestHelper(MAPPER);
     private static final CuratorFramework CURATOR = ZookeeperTestUtils.createCurator(ZOOKEEPER_URL);
@@ -31,6 +39,7 @@ public class SettingsControllerAT extends BaseAT {
     @After
     public void setUp() {
         clearFloodersData();
+        clearQuotas();
     }
 
     @Test
@@ -75,6 +84,62 @@ public class SettingsControllerAT extends BaseAT {
                 );
     }
 
+    @Test
+    public void testSetQuota() throws Exception {
+        final String clientId = randomValidStringOfLength(10);
+
+        setQuota(clientId + "/orders", "{\"bytes_per_second\":1000,\"events_per_second\":10}")
+                .statusCode(HttpStatus.SC_NO_CONTENT);
+
+        Assert.assertEquals(new ConsumptionQuota(1000, 10), MAPPER.readValue(
+                CURATOR.getData().forPath("/nakadi/quotas/consumers/" + clientId + "/orders"),
+                ConsumptionQuota.class));
+        waitFor(() -> given()
+                .get(QUOTAS_URL)
+                .then()
+                .statusCode(HttpStatus.SC_OK)
+                .body(clientId + ".event_types.orders.bytes_per_second", equalTo(1000))
+                .body(clientId + ".event_types.orders.events_per_second", equalTo(10)));
+    }
+
+    @Test
+    public void testNegativeQuotaIsRejected() throws Exception {
+        setQuota(randomValidStringOfLength(10), "{\"bytes_per_second\":-1,\"events_per_second\":0}")
+                .statusCode(HttpStatus.SC_UNPROCESSABLE_ENTITY);
+    }
+
+    @Test
+    public void testRemoveQuota() throws Exception {
+        final String clientId = randomValidStringOfLength(10);
+        setQuota(clientId, "{\"bytes_per_second\":1000,\"events_per_second\":0}")
+                .statusCode(HttpStatus.SC_NO_CONTENT);
+        waitFor(() -> given().get(QUOTAS_URL).then().body(clientId, notNullValue()));
+
+        given()
+                .delete(QUOTAS_URL + "/" + clientId)
+                .then()
+                .statusCode(HttpStatus.SC_NO_CONTENT);
+
+        Assert.assertNull(CURATOR.checkExists().forPath("/nakadi/quotas/consumers/" + clientId));
+        waitFor(() -> given().get(QUOTAS_URL).then().body(clientId, nullValue()));
+    }
+
+    private static ValidatableResponse setQuota(final String path, final String quota) {
+        return given()
+                .contentType(ContentType.JSON)
+                .body(quota)
+                .put(QUOTAS_URL + "/" + path)
+                .then();
+    }
+
+    private void clearQuotas() {
+        try {
+            CURATOR.delete().deletingChildrenIfNeeded().forPath("/nakadi/quotas/consumers");
+        } catch (final Exception exception) {
+            // nothing to do
+        }
+    }
+
     private void clearFloodersData() {
         try {
             CURATOR.delete().deletingChildrenIfNeeded().forPath("/nakadi/blacklist/consumers");
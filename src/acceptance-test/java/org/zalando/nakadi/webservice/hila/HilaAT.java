@@ -240,6 +240,21 @@ public class HilaAT extends BaseAT {
                 .statusCode(SC_CONFLICT);
     }
 
+    @Test(timeout = 10000)
+    public void whenBatchLimitBytesIsNegativeThenUnprocessableEntity() throws Exception {
+        given()
+                .param("batch_limit_bytes", -1)
+                .get(format("/subscriptions/{0}/events", subscription.getId()))
+                .then()
+                .statusCode(HttpStatus.SC_UNPROCESSABLE_ENTITY);
+        given()
+                .param("subscription_id", subscription.getId())
+                .param("batch_limit_bytes", -1)
+                .get("/subscriptions/events")
+                .then()
+                .statusCode(HttpStatus.SC_UNPROCESSABLE_ENTITY);
+    }
+
     @Test(timeout = 10000)
     public void whenConnectionIsClosedByClientNakadiRecognizesIt() throws Exception {
 
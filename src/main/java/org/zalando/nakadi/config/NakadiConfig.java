@@ -23,9 +23,11 @@ import org.springframework.scheduling.annotation.EnableScheduling;
 import org.zalando.nakadi.plugin.api.ApplicationService;
 import org.zalando.nakadi.plugin.api.ApplicationServiceFactory;
 import org.zalando.nakadi.plugin.api.SystemProperties;
+import org.zalando.nakadi.repository.SubscriptionOffsetRepository;
 import org.zalando.nakadi.repository.zookeeper.ZooKeeperHolder;
 import org.zalando.nakadi.repository.zookeeper.ZooKeeperLockFactory;
 import org.zalando.nakadi.service.subscription.zk.ZkSubscriptionClientFactory;
+import org.zalando.nakadi.util.FeatureToggleService;
 
 import java.lang.management.ManagementFactory;
 
@@ -62,8 +64,10 @@ public class NakadiConfig {
     }
 
     @Bean
-    public ZkSubscriptionClientFactory zkSubscriptionClientFactory(final ZooKeeperHolder zooKeeperHolder) {
-        return new ZkSubscriptionClientFactory(zooKeeperHolder);
+    public ZkSubscriptionClientFactory zkSubscriptionClientFactory(
+            final ZooKeeperHolder zooKeeperHolder, final SubscriptionOffsetRepository subscriptionOffsetRepository,
+            final FeatureToggleService featureToggleService) {
+        return new ZkSubscriptionClientFactory(zooKeeperHolder, subscriptionOffsetRepository, featureToggleService);
     }
 
     @Bean
@@ -14,6 +14,7 @@ public class NakadiSettings {
     private final long defaultTopicRotationMs;
     private final long defaultCommitTimeoutSeconds;
     private final long kafkaPollTimeoutMs;
+    private final long kafkaPollMaxIdleTimeoutMs;
     private final long kafkaSendTimeoutMs;
     private final long timelineWaitTimeoutMs;
     private final long eventMaxBytes;
@@ -27,6 +28,7 @@ public class NakadiSettings {
                           @Value("${nakadi.topic.default.rotationMs}") final long defaultTopicRotationMs,
                           @Value("${nakadi.stream.default.commitTimeout}") final long defaultCommitTimeoutSeconds,
                           @Value("${nakadi.kafka.poll.timeoutMs}") final long kafkaPollTimeoutMs,
+                          @Value("${nakadi.kafka.poll.maxIdleTimeoutMs}") final long kafkaPollMaxIdleTimeoutMs,
                           @Value("${nakadi.kafka.send.timeoutMs}") final long kafkaSendTimeoutMs,
                           @Value("${nakadi.timeline.wait.timeoutMs}") final long timelineWaitTimeoutMs,
                           @Value("${nakadi.event.max.bytes}") final long eventMaxBytes,
@@ -38,6 +40,7 @@ public class NakadiSettings {
         this.defaultTopicRotationMs = defaultTopicRotationMs;
         this.defaultCommitTimeoutSeconds = defaultCommitTimeoutSeconds;
         this.kafkaPollTimeoutMs = kafkaPollTimeoutMs;
+        this.kafkaPollMaxIdleTimeoutMs = kafkaPollMaxIdleTimeoutMs;
         this.kafkaSendTimeoutMs = kafkaSendTimeoutMs;
         this.eventMaxBytes = eventMaxBytes;
         this.timelineWaitTimeoutMs = timelineWaitTimeoutMs;
@@ -72,6 +75,13 @@ public class NakadiSettings {
         return kafkaPollTimeoutMs;
     }
 
+    /**
+     * @return Maximum timeout of kafka polls of streams that are not receiving events.
+     */
+    public long getKafkaPollMaxIdleTimeoutMs() {
+        return kafkaPollMaxIdleTimeoutMs;
+    }
+
     public long getKafkaSendTimeoutMs() {
         return kafkaSendTimeoutMs;
     }
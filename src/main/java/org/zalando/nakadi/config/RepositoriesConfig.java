@@ -1,15 +1,20 @@
 package org.zalando.nakadi.config;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.zalando.nakadi.annotations.DB;
 import org.zalando.nakadi.repository.EventTypeRepository;
+import org.zalando.nakadi.repository.SubscriptionOffsetRepository;
 import org.zalando.nakadi.repository.db.EventTypeCache;
+import org.zalando.nakadi.repository.db.SubscriptionOffsetDbRepository;
 import org.zalando.nakadi.repository.db.TimelineDbRepository;
 import org.zalando.nakadi.repository.kafka.KafkaConfig;
+import org.zalando.nakadi.repository.zookeeper.ZkSubscriptionOffsetRepository;
 import org.zalando.nakadi.repository.zookeeper.ZooKeeperHolder;
 import org.zalando.nakadi.repository.zookeeper.ZookeeperConfig;
 import org.zalando.nakadi.service.timeline.TimelineSync;
@@ -37,6 +42,20 @@ public class RepositoriesConfig {
         }
     }
 
+    @Bean
+    public SubscriptionOffsetRepository subscriptionOffsetRepository(
+            @Value("${nakadi.subscription.offsetStore:zookeeper}") final String offsetStore,
+            @Value("${nakadi.subscription.offsetPollMs:200}") final long offsetPollMs,
+            final ZooKeeperHolder zooKeeperHolder,
+            final JdbcTemplate jdbcTemplate,
+            final ObjectMapper objectMapper) {
+        if ("database".equals(offsetStore)) {
+            return new SubscriptionOffsetDbRepository(jdbcTemplate, objectMapper, zooKeeperHolder, offsetPollMs);
+        } else {
+            return new ZkSubscriptionOffsetRepository(zooKeeperHolder);
+        }
+    }
+
     @Bean
     public EventTypeCache eventTypeCache(final ZooKeeperHolder zooKeeperHolder,
                                          @DB final EventTypeRepository eventTypeRepository,
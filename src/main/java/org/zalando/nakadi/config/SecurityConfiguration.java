@@ -58,6 +58,8 @@ public class SecurityConfiguration extends ResourceServerConfigurerAdapter {
                     .antMatchers(PUT, "/subscriptions/*/cursors/**").access(hasScope(eventStreamReadScope))
                     .antMatchers(GET, "/subscriptions/*/stats/**").access(hasScope(eventStreamReadScope))
                     .antMatchers(POST, "/event-types/*/events/**").access(hasScope(eventStreamWriteScope))
+                    .antMatchers(POST, "/events").access(hasScope(eventStreamWriteScope))
+                    .antMatchers(POST, "/event-types/*/export").access(hasScope(eventStreamReadScope))
                     .antMatchers(DELETE, "/event-types/*/**").access(hasScope(nakadiAdminScope))
                     .antMatchers(POST, "/event-types/**").access(hasScope(eventTypeWriteScope))
                     .antMatchers(PUT, "/event-types/**").access(hasScope(eventTypeWriteScope))
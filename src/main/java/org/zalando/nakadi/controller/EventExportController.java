@@ -0,0 +1,124 @@
+package org.zalando.nakadi.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.zalando.nakadi.domain.EventType;
+import org.zalando.nakadi.exceptions.IllegalScopeException;
+import org.zalando.nakadi.exceptions.InvalidCursorException;
+import org.zalando.nakadi.exceptions.NakadiException;
+import org.zalando.nakadi.exceptions.NoConnectionSlotsException;
+import org.zalando.nakadi.exceptions.NoSuchEventTypeException;
+import org.zalando.nakadi.repository.EventTypeRepository;
+import org.zalando.nakadi.security.Client;
+import org.zalando.nakadi.service.BlacklistService;
+import org.zalando.nakadi.service.ClosedConnectionsCrutch;
+import org.zalando.nakadi.service.EventExporter;
+import org.zalando.nakadi.service.ExportStream;
+import org.zalando.nakadi.view.ExportRequest;
+import org.zalando.problem.Problem;
+import static javax.ws.rs.core.Response.Status.FORBIDDEN;
+import static javax.ws.rs.core.Response.Status.INTERNAL_SERVER_ERROR;
+import static javax.ws.rs.core.Response.Status.NOT_FOUND;
+import static javax.ws.rs.core.Response.Status.PRECONDITION_FAILED;
+
+@RestController
+public class EventExportController {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventExportController.class);
+
+    private final EventTypeRepository eventTypeRepository;
+    private final EventExporter eventExporter;
+    private final BlacklistService blacklistService;
+    private final ClosedConnectionsCrutch closedConnectionsCrutch;
+    private final ObjectMapper jsonMapper;
+
+    @Autowired
+    public EventExportController(final EventTypeRepository eventTypeRepository, final EventExporter eventExporter,
+                                 final BlacklistService blacklistService,
+                                 final ClosedConnectionsCrutch closedConnectionsCrutch,
+                                 final ObjectMapper jsonMapper) {
+        this.eventTypeRepository = eventTypeRepository;
+        this.eventExporter = eventExporter;
+        this.blacklistService = blacklistService;
+        this.closedConnectionsCrutch = closedConnectionsCrutch;
+        this.jsonMapper = jsonMapper;
+    }
+
+    @RequestMapping(value = "/event-types/{name}/export", method = RequestMethod.POST)
+    public StreamingResponseBody exportEvents(
+            @PathVariable("name") final String eventTypeName,
+            @RequestBody final ExportRequest exportRequest,
+            final HttpServletRequest request, final HttpServletResponse response, final Client client) {
+
+        return outputStream -> {
+            if (blacklistService.isConsumptionBlocked(eventTypeName, client.getClientId())) {
+                writeProblemResponse(response, outputStream,
+                        Problem.valueOf(Response.Status.FORBIDDEN, "Application or event type is blocked"));
+                return;
+            }
+
+            final AtomicBoolean connectionReady = closedConnectionsCrutch.listenForConnectionClose(request);
+            ExportStream exportStream = null;
+            try {
+                final EventType eventType = eventTypeRepository.findByName(eventTypeName);
+                client.checkScopes(eventType.getReadScopes());
+
+                exportStream = eventExporter.createExport(client.getClientId(), eventTypeName,
+                        eventType.getTopic(), exportRequest, outputStream);
+
+                response.setStatus(HttpStatus.OK.value());
+                response.setContentType(ExportStream.MEDIA_TYPE);
+                outputStream.flush(); // Flush status code to client
+
+                exportStream.exportEvents(connectionReady);
+            } catch (final NoSuchEventTypeException e) {
+                writeProblemResponse(response, outputStream, Problem.valueOf(NOT_FOUND, "topic not found"));
+            } catch (final NoConnectionSlotsException e) {
+                LOG.debug("Export failed due to exceeding max export count");
+                writeProblemResponse(response, outputStream, e.asProblem());
+            } catch (final NakadiException e) {
+                LOG.error("Error while trying to export events.", e);
+                writeProblemResponse(response, outputStream, e.asProblem());
+            } catch (final InvalidCursorException e) {
+                writeProblemResponse(response, outputStream, Problem.valueOf(PRECONDITION_FAILED, e.getMessage()));
+            } catch (final IllegalScopeException e) {
+                writeProblemResponse(response, outputStream, Problem.valueOf(FORBIDDEN, e.getMessage()));
+            } catch (final Exception e) {
+                LOG.error("Error while trying to export events. Respond with INTERNAL_SERVER_ERROR.", e);
+                writeProblemResponse(response, outputStream, Problem.valueOf(INTERNAL_SERVER_ERROR, e.getMessage()));
+            } finally {
+                connectionReady.set(false);
+                if (exportStream != null) {
+                    exportStream.close();
+                }
+                try {
+                    outputStream.flush();
+                } finally {
+                    outputStream.close();
+                }
+            }
+        };
+    }
+
+    private void writeProblemResponse(final HttpServletResponse response, final OutputStream outputStream,
+                                      final Problem problem) throws IOException {
+        response.setStatus(problem.getStatus().getStatusCode());
+        response.setContentType("application/problem+json");
+        jsonMapper.writer().writeValue(outputStream, problem);
+    }
+}
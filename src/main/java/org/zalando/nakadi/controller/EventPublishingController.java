@@ -1,5 +1,6 @@
 package org.zalando.nakadi.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.json.JSONException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,6 +12,10 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.zalando.nakadi.domain.BatchFactory;
+import org.zalando.nakadi.domain.BatchItem;
+import org.zalando.nakadi.domain.BatchItemResponse;
 import org.zalando.nakadi.domain.EventPublishResult;
 import org.zalando.nakadi.domain.EventPublishingStatus;
 import org.zalando.nakadi.exceptions.NakadiException;
@@ -20,12 +25,17 @@ import org.zalando.nakadi.metrics.EventTypeMetrics;
 import org.zalando.nakadi.security.Client;
 import org.zalando.nakadi.service.BlacklistService;
 import org.zalando.nakadi.service.EventPublisher;
+import org.zalando.nakadi.service.StreamingEventPublisher;
 import org.zalando.problem.Problem;
 import org.zalando.problem.ThrowableProblem;
 import org.zalando.problem.spring.web.advice.Responses;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.core.Response;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import static org.springframework.http.ResponseEntity.status;
@@ -40,14 +50,20 @@ public class EventPublishingController {
     private final EventPublisher publisher;
     private final EventTypeMetricRegistry eventTypeMetricRegistry;
     private final BlacklistService blacklistService;
+    private final StreamingEventPublisher streamingPublisher;
+    private final ObjectMapper jsonMapper;
 
     @Autowired
     public EventPublishingController(final EventPublisher publisher,
                                      final EventTypeMetricRegistry eventTypeMetricRegistry,
-                                     final BlacklistService blacklistService) {
+                                     final BlacklistService blacklistService,
+                                     final StreamingEventPublisher streamingPublisher,
+                                     final ObjectMapper jsonMapper) {
         this.publisher = publisher;
         this.eventTypeMetricRegistry = eventTypeMetricRegistry;
         this.blacklistService = blacklistService;
+        this.streamingPublisher = streamingPublisher;
+        this.jsonMapper = jsonMapper;
     }
 
     @RequestMapping(value = "/event-types/{eventTypeName}/events", method = POST)
@@ -74,6 +90,73 @@ public class EventPublishingController {
         }
     }
 
+    /**
+     * Publishes batches of several event types in one request. Response contains statuses of the items of all event
+     * types, unless all of them were submitted.
+     */
+    @RequestMapping(value = "/events", method = POST)
+    public ResponseEntity postEventsOfEventTypes(@RequestBody final String batchesAsString,
+                                                 final NativeWebRequest request,
+                                                 final Client client) {
+        final long startingNanos = System.nanoTime();
+        final Map<String, List<BatchItem>> batches;
+        try {
+            batches = BatchFactory.byEventType(batchesAsString);
+        } catch (final JSONException e) {
+            LOG.debug("Problem parsing event", e);
+            return processJSONException(e, request);
+        }
+        for (final String eventTypeName : batches.keySet()) {
+            if (blacklistService.isProductionBlocked(eventTypeName, client.getClientId())) {
+                return Responses.create(
+                        Problem.valueOf(Response.Status.FORBIDDEN, "Application or event type is blocked"), request);
+            }
+        }
+
+        final Map<String, EventPublishResult> results = publisher.publishMultiple(batches, client);
+        results.forEach((eventTypeName, result) -> {
+            final EventTypeMetrics eventTypeMetrics = eventTypeMetricRegistry.metricsFor(eventTypeName);
+            final List<BatchItem> batch = batches.get(eventTypeName);
+            reportMetrics(eventTypeMetrics, result, batch);
+            eventTypeMetrics.incrementResponseCount(response(result).getStatusCode().value());
+            eventTypeMetrics.updateTiming(startingNanos, System.nanoTime());
+        });
+        return response(results);
+    }
+
+    /**
+     * Publishes events that are streamed in the request body as newline delimited json, acknowledgements of
+     * micro-batches are streamed back in the response.
+     */
+    @RequestMapping(value = "/event-types/{eventTypeName}/events/stream", method = POST)
+    public StreamingResponseBody postEventStream(@PathVariable final String eventTypeName,
+                                                 final HttpServletRequest request,
+                                                 final HttpServletResponse response,
+                                                 final Client client) {
+        final EventTypeMetrics eventTypeMetrics = eventTypeMetricRegistry.metricsFor(eventTypeName);
+        return outputStream -> {
+            try {
+                if (blacklistService.isProductionBlocked(eventTypeName, client.getClientId())) {
+                    response.setStatus(Response.Status.FORBIDDEN.getStatusCode());
+                    response.setContentType("application/problem+json");
+                    jsonMapper.writer().writeValue(outputStream,
+                            Problem.valueOf(Response.Status.FORBIDDEN, "Application or event type is blocked"));
+                    return;
+                }
+                response.setStatus(HttpStatus.OK.value());
+                response.setContentType(StreamingEventPublisher.MEDIA_TYPE);
+                outputStream.flush();
+                eventTypeMetrics.incrementResponseCount(HttpStatus.OK.value());
+
+                streamingPublisher.publish(eventTypeName, client, request.getInputStream(), outputStream,
+                        (events, result) -> reportMetrics(eventTypeMetrics, result, events,
+                                result.getResponses().size()));
+            } finally {
+                outputStream.close();
+            }
+        };
+    }
+
     private ResponseEntity postEventInternal(final String eventTypeName,
                                              final String eventsAsString,
                                              final NativeWebRequest nativeWebRequest,
@@ -116,6 +199,20 @@ public class EventPublishingController {
         }
     }
 
+    private void reportMetrics(final EventTypeMetrics eventTypeMetrics, final EventPublishResult result,
+                               final List<BatchItem> batch) {
+        final int successfulEvents = (int) result.getResponses().stream()
+                .filter(r -> r.getPublishingStatus() == EventPublishingStatus.SUBMITTED)
+                .count();
+        final int submittedBytes = batch.stream()
+                .filter(item -> item.getResponse().getPublishingStatus() == EventPublishingStatus.SUBMITTED)
+                .mapToInt(BatchItem::getEventSize)
+                .sum();
+        if (successfulEvents > 0) {
+            eventTypeMetrics.reportSizing(successfulEvents, submittedBytes);
+        }
+    }
+
     private ResponseEntity processJSONException(final JSONException e, final NativeWebRequest nativeWebRequest) {
         if (e.getCause() == null) {
             return create(createProblem(e), nativeWebRequest);
@@ -127,6 +224,18 @@ public class EventPublishingController {
         return Problem.valueOf(Response.Status.BAD_REQUEST, e.getMessage());
     }
 
+    private ResponseEntity response(final Map<String, EventPublishResult> results) {
+        final Map<String, List<BatchItemResponse>> responses = results.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().getResponses()));
+        if (results.values().stream().allMatch(result -> result.getStatus() == EventPublishingStatus.SUBMITTED)) {
+            return status(HttpStatus.OK).build();
+        } else if (results.values().stream()
+                .allMatch(result -> result.getStatus() == EventPublishingStatus.ABORTED)) {
+            return status(HttpStatus.UNPROCESSABLE_ENTITY).body(responses);
+        }
+        return status(HttpStatus.MULTI_STATUS).body(responses);
+    }
+
     private ResponseEntity response(final EventPublishResult result) {
         switch (result.getStatus()) {
             case SUBMITTED:
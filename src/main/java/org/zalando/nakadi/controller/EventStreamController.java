@@ -44,11 +44,13 @@ import org.zalando.nakadi.repository.EventConsumer;
 import org.zalando.nakadi.repository.EventTypeRepository;
 import org.zalando.nakadi.repository.TopicRepository;
 import org.zalando.nakadi.security.Client;
+import org.zalando.nakadi.service.BinaryBatchEncoder;
 import org.zalando.nakadi.service.BlacklistService;
 import org.zalando.nakadi.service.ClosedConnectionsCrutch;
 import org.zalando.nakadi.service.ConnectionSlot;
 import org.zalando.nakadi.service.ConsumerLimitingService;
 import org.zalando.nakadi.service.CursorConverter;
+import org.zalando.nakadi.service.EventFetcher;
 import org.zalando.nakadi.service.EventStream;
 import org.zalando.nakadi.service.EventStreamConfig;
 import org.zalando.nakadi.service.EventStreamFactory;
@@ -79,6 +81,7 @@ public class EventStreamController {
     private final ConsumerLimitingService consumerLimitingService;
     private final FeatureToggleService featureToggleService;
     private final CursorConverter cursorConverter;
+    private final EventFetcher eventFetcher;
 
     @Autowired
     public EventStreamController(final EventTypeRepository eventTypeRepository, final TopicRepository topicRepository,
@@ -88,7 +91,8 @@ public class EventStreamController {
                                  final BlacklistService blacklistService,
                                  final ConsumerLimitingService consumerLimitingService,
                                  final FeatureToggleService featureToggleService,
-                                 final CursorConverter cursorConverter) {
+                                 final CursorConverter cursorConverter,
+                                 final EventFetcher eventFetcher) {
         this.eventTypeRepository = eventTypeRepository;
         this.topicRepository = topicRepository;
         this.jsonMapper = jsonMapper;
@@ -99,6 +103,7 @@ public class EventStreamController {
         this.consumerLimitingService = consumerLimitingService;
         this.featureToggleService = featureToggleService;
         this.cursorConverter = cursorConverter;
+        this.eventFetcher = eventFetcher;
     }
 
     @VisibleForTesting
@@ -154,11 +159,15 @@ public class EventStreamController {
     public StreamingResponseBody streamEvents(
             @PathVariable("name") final String eventTypeName,
             @Nullable @RequestParam(value = "batch_limit", required = false) final Integer batchLimit,
+            @Nullable @RequestParam(value = "batch_limit_bytes", required = false) final Long batchLimitBytes,
             @Nullable @RequestParam(value = "stream_limit", required = false) final Integer streamLimit,
             @Nullable @RequestParam(value = "batch_flush_timeout", required = false) final Integer batchTimeout,
+            @Nullable @RequestParam(value = "batch_flush_timeout_ms", required = false) final Integer batchTimeoutMs,
             @Nullable @RequestParam(value = "stream_timeout", required = false) final Integer streamTimeout,
             @Nullable
             @RequestParam(value = "stream_keep_alive_limit", required = false) final Integer streamKeepAliveLimit,
+            @Nullable @RequestParam(value = "filter", required = false) final String filter,
+            @Nullable @RequestParam(value = "fields", required = false) final String fields,
             @Nullable @RequestHeader(name = "X-nakadi-cursors", required = false) final String cursorsStr,
             final HttpServletRequest request, final HttpServletResponse response, final Client client)
             throws IOException {
@@ -191,10 +200,15 @@ public class EventStreamController {
                 }
                 final EventStreamConfig streamConfig = EventStreamConfig.builder()
                         .withBatchLimit(batchLimit)
+                        .withBatchLimitBytes(batchLimitBytes)
                         .withStreamLimit(streamLimit)
                         .withBatchTimeout(batchTimeout)
+                        .withBatchTimeoutMillis(batchTimeoutMs)
                         .withStreamTimeout(streamTimeout)
                         .withStreamKeepAliveLimit(streamKeepAliveLimit)
+                        .withFilter(filter)
+                        .withFields(fields)
+                        .withBinaryFraming(BinaryBatchEncoder.isAccepted(request.getHeader("Accept")))
                         .withEtName(eventTypeName)
                         .withConsumingAppId(client.getClientId())
                         .withCursors(getStreamingStart(topic, cursorsStr))
@@ -215,7 +229,8 @@ public class EventStreamController {
                 final String kafkaQuotaClientId = getKafkaQuotaClientId(eventTypeName, client);
 
                 response.setStatus(HttpStatus.OK.value());
-                response.setContentType("application/x-json-stream");
+                response.setContentType(streamConfig.isBinaryFraming() ?
+                        BinaryBatchEncoder.MEDIA_TYPE : "application/x-json-stream");
                 final EventConsumer eventConsumer = topicRepository.createEventConsumer(
                         kafkaQuotaClientId,
                         streamConfig.getCursors());
@@ -263,6 +278,59 @@ public class EventStreamController {
         };
     }
 
+    /**
+     * Returns one bounded portion of events for consumers that can't keep a stream open. Unlike streaming, fetch
+     * is not taking connection slots and is not checking topic in kafka, as the call is short and the consumer is
+     * taken from the pool, so that serving high rates of calls stays cheap.
+     */
+    @RequestMapping(value = "/event-types/{name}/events/fetch", method = RequestMethod.GET)
+    public StreamingResponseBody fetchEvents(
+            @PathVariable("name") final String eventTypeName,
+            @Nullable @RequestParam(value = "batch_limit", required = false) final Integer batchLimit,
+            @Nullable @RequestParam(value = "batch_limit_bytes", required = false) final Long batchLimitBytes,
+            @Nullable @RequestParam(value = "max_wait_ms", required = false) final Long maxWaitMs,
+            @Nullable @RequestHeader(name = "X-nakadi-cursors", required = false) final String cursorsStr,
+            final HttpServletResponse response, final Client client) {
+
+        return outputStream -> {
+            try {
+                if (blacklistService.isConsumptionBlocked(eventTypeName, client.getClientId())) {
+                    writeProblemResponse(response, outputStream,
+                            Problem.valueOf(Response.Status.FORBIDDEN, "Application or event type is blocked"));
+                    return;
+                }
+                final EventType eventType = eventTypeRepository.findByName(eventTypeName);
+                client.checkScopes(eventType.getReadScopes());
+
+                final byte[] body = eventFetcher.fetchEvents(client.getClientId(), eventTypeName,
+                        getStreamingStart(eventType.getTopic(), cursorsStr), batchLimit, batchLimitBytes, maxWaitMs);
+                response.setStatus(HttpStatus.OK.value());
+                response.setContentType("application/json");
+                outputStream.write(body);
+            } catch (final UnparseableCursorException e) {
+                writeProblemResponse(response, outputStream, BAD_REQUEST, e.getMessage());
+            } catch (final NoSuchEventTypeException e) {
+                writeProblemResponse(response, outputStream, NOT_FOUND, "topic not found");
+            } catch (final NakadiException e) {
+                LOG.error("Error while trying to fetch events.", e);
+                writeProblemResponse(response, outputStream, e.asProblem());
+            } catch (final InvalidCursorException e) {
+                writeProblemResponse(response, outputStream, PRECONDITION_FAILED, e.getMessage());
+            } catch (final IllegalScopeException e) {
+                writeProblemResponse(response, outputStream, FORBIDDEN, e.getMessage());
+            } catch (final Exception e) {
+                LOG.error("Error while trying to fetch events. Respond with INTERNAL_SERVER_ERROR.", e);
+                writeProblemResponse(response, outputStream, INTERNAL_SERVER_ERROR, e.getMessage());
+            } finally {
+                try {
+                    outputStream.flush();
+                } finally {
+                    outputStream.close();
+                }
+            }
+        };
+    }
+
     /**
      * Every consumer identifies itself using a client-id to use its quota. The client id is a combination of
      * application name and event type so that every application can consume up to the quota limit per partition, given
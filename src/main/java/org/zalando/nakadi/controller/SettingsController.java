@@ -3,16 +3,24 @@ package org.zalando.nakadi.controller;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.validation.Errors;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.NativeWebRequest;
 import org.zalando.nakadi.config.SecuritySettings;
+import org.zalando.nakadi.domain.ConsumptionQuota;
 import org.zalando.nakadi.domain.ItemsWrapper;
+import org.zalando.nakadi.problem.ValidationProblem;
 import org.zalando.nakadi.security.Client;
 import org.zalando.nakadi.service.BlacklistService;
+import org.zalando.nakadi.service.ConsumptionQuotaService;
 import org.zalando.nakadi.util.FeatureToggleService;
+import org.zalando.problem.spring.web.advice.Responses;
+
+import javax.validation.Valid;
 
 @RestController
 @RequestMapping(value = "/settings")
@@ -21,14 +29,17 @@ public class SettingsController {
     private final BlacklistService blacklistService;
     private final FeatureToggleService featureToggleService;
     private final SecuritySettings securitySettings;
+    private final ConsumptionQuotaService consumptionQuotaService;
 
     @Autowired
     public SettingsController(final BlacklistService blacklistService,
                               final FeatureToggleService featureToggleService,
-                              final SecuritySettings securitySettings) {
+                              final SecuritySettings securitySettings,
+                              final ConsumptionQuotaService consumptionQuotaService) {
         this.blacklistService = blacklistService;
         this.featureToggleService = featureToggleService;
         this.securitySettings = securitySettings;
+        this.consumptionQuotaService = consumptionQuotaService;
     }
 
     @RequestMapping(path = "/blacklist", method = RequestMethod.GET)
@@ -79,6 +90,57 @@ public class SettingsController {
         return ResponseEntity.noContent().build();
     }
 
+    @RequestMapping(path = "/quotas", method = RequestMethod.GET)
+    public ResponseEntity<?> getQuotas(final Client client) {
+        if (isNotAdmin(client)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(consumptionQuotaService.getQuotas());
+    }
+
+    @RequestMapping(value = "/quotas/{client_id}", method = RequestMethod.PUT)
+    public ResponseEntity<?> setQuota(@PathVariable("client_id") final String clientId,
+                                      @Valid @RequestBody final ConsumptionQuota quota,
+                                      final Errors errors,
+                                      final NativeWebRequest request,
+                                      final Client client) {
+        return setQuota(clientId, null, quota, errors, request, client);
+    }
+
+    @RequestMapping(value = "/quotas/{client_id}/{event_type:.+}", method = RequestMethod.PUT)
+    public ResponseEntity<?> setQuota(@PathVariable("client_id") final String clientId,
+                                      @PathVariable("event_type") final String eventType,
+                                      @Valid @RequestBody final ConsumptionQuota quota,
+                                      final Errors errors,
+                                      final NativeWebRequest request,
+                                      final Client client) {
+        if (isNotAdmin(client)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        if (errors.hasErrors()) {
+            return Responses.create(new ValidationProblem(errors), request);
+        }
+        consumptionQuotaService.setQuota(clientId, eventType, quota);
+        return ResponseEntity.noContent().build();
+    }
+
+    @RequestMapping(value = "/quotas/{client_id}", method = RequestMethod.DELETE)
+    public ResponseEntity<?> removeQuota(@PathVariable("client_id") final String clientId,
+                                         final Client client) {
+        return removeQuota(clientId, null, client);
+    }
+
+    @RequestMapping(value = "/quotas/{client_id}/{event_type:.+}", method = RequestMethod.DELETE)
+    public ResponseEntity<?> removeQuota(@PathVariable("client_id") final String clientId,
+                                         @PathVariable("event_type") final String eventType,
+                                         final Client client) {
+        if (isNotAdmin(client)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        consumptionQuotaService.removeQuota(clientId, eventType);
+        return ResponseEntity.noContent().build();
+    }
+
     private boolean isNotAdmin(final Client client) {
         return !client.getClientId().equals(securitySettings.getAdminClientId());
     }
@@ -4,17 +4,21 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.zalando.nakadi.config.NakadiSettings;
 import org.zalando.nakadi.exceptions.NakadiException;
+import org.zalando.nakadi.exceptions.UnprocessableEntityException;
 import org.zalando.nakadi.security.Client;
+import org.zalando.nakadi.service.BinaryBatchEncoder;
 import org.zalando.nakadi.service.ClosedConnectionsCrutch;
+import org.zalando.nakadi.service.EventFilter;
+import org.zalando.nakadi.service.EventStreamConfig;
 import org.zalando.nakadi.service.BlacklistService;
 import org.zalando.nakadi.service.subscription.StreamParameters;
 import org.zalando.nakadi.service.subscription.SubscriptionOutput;
@@ -24,12 +28,21 @@ import org.zalando.nakadi.util.FeatureToggleService;
 import org.zalando.problem.Problem;
 
 import javax.annotation.Nullable;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.core.Response;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 
 import static org.zalando.nakadi.util.FeatureToggleService.Feature.HIGH_LEVEL_API;
 
@@ -37,6 +50,9 @@ import static org.zalando.nakadi.util.FeatureToggleService.Feature.HIGH_LEVEL_AP
 public class SubscriptionStreamController {
     private static final Logger LOG = LoggerFactory.getLogger(SubscriptionStreamController.class);
 
+    @Value("${nakadi.stream.timeoutMs}")
+    private long streamTimeoutMs;
+
     private final SubscriptionStreamerFactory subscriptionStreamerFactory;
     private final FeatureToggleService featureToggleService;
     private final ObjectMapper jsonMapper;
@@ -59,111 +75,302 @@ public class SubscriptionStreamController {
         this.blacklistService = blacklistService;
     }
 
-    private class SubscriptionOutputImpl implements SubscriptionOutput {
-        private boolean headersSent;
+    /**
+     * Output that is never blocking the stream. Data is queued and written to the client whenever the connection is
+     * ready to accept it, either right away or later by the container, so a slow client is only growing its own
+     * queue, that is limited by uncommitted events of the stream. Request is completed when the stream is finished
+     * and the queue is written out.
+     */
+    private class SubscriptionOutputImpl implements SubscriptionOutput, WriteListener, AsyncListener {
+        private final AsyncContext asyncContext;
         private final HttpServletResponse response;
-        private final OutputStream out;
+        private final ServletOutputStream out;
+        private final AtomicBoolean connectionReady;
+        private final boolean binaryFraming;
+        private final Queue<byte[]> pending = new ArrayDeque<>();
+        private boolean headersSent;
+        private boolean flushNeeded;
+        private boolean finished;
+        private boolean completed;
+        private Throwable error;
 
-        SubscriptionOutputImpl(final HttpServletResponse response, final OutputStream out) {
+        SubscriptionOutputImpl(final AsyncContext asyncContext, final HttpServletResponse response,
+                               final AtomicBoolean connectionReady, final boolean binaryFraming) throws IOException {
+            this.asyncContext = asyncContext;
             this.response = response;
-            this.out = out;
+            this.out = response.getOutputStream();
+            this.connectionReady = connectionReady;
+            this.binaryFraming = binaryFraming;
             this.headersSent = false;
         }
 
+        void start() {
+            asyncContext.addListener(this);
+            out.setWriteListener(this);
+        }
+
         @Override
-        public void onInitialized(final String sessionId) throws IOException {
+        public synchronized void onInitialized(final String sessionId) throws IOException {
             if (!headersSent) {
                 headersSent = true;
                 response.setStatus(HttpStatus.OK.value());
-                response.setContentType("application/x-json-stream");
+                response.setContentType(binaryFraming ? BinaryBatchEncoder.MEDIA_TYPE : "application/x-json-stream");
                 response.setHeader("X-Nakadi-StreamId", sessionId);
-                out.flush();
+                enqueue(new byte[0]);
             }
         }
 
         @Override
-        public void onException(final Exception ex) {
+        public synchronized void onException(final Exception ex) {
             LOG.warn("Exception occurred while streaming", ex);
             if (!headersSent) {
-                headersSent = true;
-                try {
-                    if (ex instanceof NakadiException) {
-                        writeProblemResponse(response, out, ((NakadiException) ex).asProblem());
-                    } else {
-                        writeProblemResponse(response, out, Problem.valueOf(Response.Status.SERVICE_UNAVAILABLE,
-                                "Failed to continue streaming"));
-                    }
-                } catch (final IOException e) {
-                    LOG.error("Failed to write exception to response", e);
+                if (ex instanceof NakadiException) {
+                    writeProblem(((NakadiException) ex).asProblem());
+                } else {
+                    writeProblem(Problem.valueOf(Response.Status.SERVICE_UNAVAILABLE,
+                            "Failed to continue streaming"));
                 }
             } else {
                 LOG.warn("Exception found while streaming, but no data could be provided to client", ex);
             }
         }
 
+        synchronized void writeProblem(final Problem problem) {
+            headersSent = true;
+            try {
+                response.setStatus(problem.getStatus().getStatusCode());
+                response.setContentType("application/problem+json");
+                enqueue(jsonMapper.writeValueAsBytes(problem));
+            } catch (final IOException e) {
+                LOG.error("Failed to write exception to response", e);
+            }
+        }
+
         @Override
-        public void streamData(final byte[] data) throws IOException {
+        public synchronized void streamData(final byte[] data) throws IOException {
             headersSent = true;
-            out.write(data);
-            out.flush();
+            enqueue(data);
+        }
+
+        private void enqueue(final byte[] data) throws IOException {
+            if (null != error) {
+                throw new IOException("Failed to write to client", error);
+            }
+            if (completed) {
+                throw new IOException("Response is already completed");
+            }
+            pending.add(data);
+            flushNeeded = true;
+            writePending();
+        }
+
+        private void writePending() throws IOException {
+            try {
+                while (!completed && out.isReady()) {
+                    final byte[] data = pending.poll();
+                    if (null != data) {
+                        out.write(data);
+                    } else if (flushNeeded) {
+                        flushNeeded = false;
+                        out.flush();
+                    } else {
+                        if (finished) {
+                            complete();
+                        }
+                        return;
+                    }
+                }
+            } catch (final IOException e) {
+                onError(e);
+                throw e;
+            }
+        }
+
+        /**
+         * Called when the stream is finished, request is completed as soon as queued data is written.
+         */
+        synchronized void finish() {
+            finished = true;
+            if (null != error) {
+                complete();
+                return;
+            }
+            try {
+                writePending();
+            } catch (final IOException e) {
+                LOG.warn("Failed to write the rest of the stream to client", e);
+            }
+        }
+
+        private void complete() {
+            if (!completed) {
+                completed = true;
+                pending.clear();
+                asyncContext.complete();
+            }
+        }
+
+        @Override
+        public synchronized void onWritePossible() throws IOException {
+            writePending();
+        }
+
+        @Override
+        public synchronized void onError(final Throwable t) {
+            error = t;
+            connectionReady.set(false);
+            if (finished) {
+                complete();
+            }
+        }
+
+        @Override
+        public synchronized void onComplete(final AsyncEvent event) {
+            completed = true;
+            connectionReady.set(false);
+        }
+
+        @Override
+        public synchronized void onTimeout(final AsyncEvent event) {
+            LOG.info("Streaming request timed out, stream will be closed");
+            connectionReady.set(false);
+            complete();
+        }
+
+        @Override
+        public void onError(final AsyncEvent event) {
+            onError(event.getThrowable());
+        }
+
+        @Override
+        public void onStartAsync(final AsyncEvent event) {
         }
     }
 
     @RequestMapping(value = "/subscriptions/{subscription_id}/events", method = RequestMethod.GET)
-    public StreamingResponseBody streamEvents(
+    public void streamEvents(
             @PathVariable("subscription_id") final String subscriptionId,
             @RequestParam(value = "max_uncommitted_events", required = false, defaultValue = "10")
             final int maxUncommittedSize,
             @RequestParam(value = "batch_limit", required = false, defaultValue = "1") final int batchLimit,
+            @RequestParam(value = "batch_limit_bytes", required = false, defaultValue = "0")
+            final long batchLimitBytes,
             @Nullable @RequestParam(value = "stream_limit", required = false) final Long streamLimit,
             @RequestParam(value = "batch_flush_timeout", required = false, defaultValue = "30") final int batchTimeout,
+            @Nullable @RequestParam(value = "batch_flush_timeout_ms", required = false) final Integer batchTimeoutMs,
             @Nullable @RequestParam(value = "stream_timeout", required = false) final Long streamTimeout,
             @Nullable
             @RequestParam(value = "stream_keep_alive_limit", required = false) final Integer streamKeepAliveLimit,
+            @Nullable @RequestParam(value = "filter", required = false) final String filter,
+            @Nullable @RequestParam(value = "fields", required = false) final String fields,
             final HttpServletRequest request, final HttpServletResponse response, final Client client)
             throws IOException {
 
-        return outputStream -> {
+        final boolean binaryFraming = BinaryBatchEncoder.isAccepted(request.getHeader("Accept"));
+        stream(Collections.singletonList(subscriptionId), binaryFraming, request, response, client,
+                (output, connectionReady) -> subscriptionStreamerFactory.build(subscriptionId,
+                        streamParameters(maxUncommittedSize, batchLimit, batchLimitBytes, streamLimit, batchTimeout,
+                                batchTimeoutMs, streamTimeout, streamKeepAliveLimit, filter, fields, client,
+                                binaryFraming),
+                        output, connectionReady, blacklistService));
+    }
 
-            if (!featureToggleService.isFeatureEnabled(HIGH_LEVEL_API)) {
-                response.setStatus(HttpServletResponse.SC_NOT_IMPLEMENTED);
-                return;
-            }
+    /**
+     * Streams several subscriptions over one connection. Batches are tagged with the id of their subscription, the
+     * stream id is valid for committing cursors of every subscription of the stream.
+     */
+    @RequestMapping(value = "/subscriptions/events", method = RequestMethod.GET)
+    public void streamMultiplexedEvents(
+            @RequestParam(value = "subscription_id") final List<String> subscriptionIds,
+            @RequestParam(value = "max_uncommitted_events", required = false, defaultValue = "10")
+            final int maxUncommittedSize,
+            @RequestParam(value = "batch_limit", required = false, defaultValue = "1") final int batchLimit,
+            @RequestParam(value = "batch_limit_bytes", required = false, defaultValue = "0")
+            final long batchLimitBytes,
+            @Nullable @RequestParam(value = "stream_limit", required = false) final Long streamLimit,
+            @RequestParam(value = "batch_flush_timeout", required = false, defaultValue = "30") final int batchTimeout,
+            @Nullable @RequestParam(value = "batch_flush_timeout_ms", required = false) final Integer batchTimeoutMs,
+            @Nullable @RequestParam(value = "stream_timeout", required = false) final Long streamTimeout,
+            @Nullable
+            @RequestParam(value = "stream_keep_alive_limit", required = false) final Integer streamKeepAliveLimit,
+            @Nullable @RequestParam(value = "filter", required = false) final String filter,
+            @Nullable @RequestParam(value = "fields", required = false) final String fields,
+            final HttpServletRequest request, final HttpServletResponse response, final Client client)
+            throws IOException {
 
-            final AtomicBoolean connectionReady = closedConnectionsCrutch.listenForConnectionClose(request);
+        final List<String> uniqueIds = subscriptionIds.stream().distinct().collect(Collectors.toList());
+        // Batches of multiplexed stream are always tagged json
+        stream(uniqueIds, false, request, response, client,
+                (output, connectionReady) -> subscriptionStreamerFactory.buildMultiplexed(uniqueIds,
+                        streamParameters(maxUncommittedSize, batchLimit, batchLimitBytes, streamLimit, batchTimeout,
+                                batchTimeoutMs, streamTimeout, streamKeepAliveLimit, filter, fields, client, false),
+                        output, connectionReady, blacklistService));
+    }
 
-            SubscriptionStreamer streamer = null;
-            final SubscriptionOutputImpl output = new SubscriptionOutputImpl(response, outputStream);
-            try {
-                if  (blacklistService.isSubscriptionConsumptionBlocked(subscriptionId, client.getClientId())) {
-                    writeProblemResponse(response, outputStream,
+    private StreamParameters streamParameters(final int maxUncommittedSize, final int batchLimit,
+                                              final long batchLimitBytes, @Nullable final Long streamLimit,
+                                              final int batchTimeout, @Nullable final Integer batchTimeoutMs,
+                                              @Nullable final Long streamTimeout,
+                                              @Nullable final Integer streamKeepAliveLimit,
+                                              @Nullable final String filter, @Nullable final String fields,
+                                              final Client client, final boolean binaryFraming)
+            throws UnprocessableEntityException {
+        if (batchLimitBytes < 0) {
+            throw new UnprocessableEntityException("batch_limit_bytes can't be negative");
+        }
+        return StreamParameters.of(batchLimit, batchLimitBytes, streamLimit,
+                EventStreamConfig.resolveBatchTimeoutMillis(batchTimeout, batchTimeoutMs), streamTimeout,
+                streamKeepAliveLimit, maxUncommittedSize, nakadiSettings.getDefaultCommitTimeoutSeconds(),
+                client.getClientId(), EventFilter.of(filter, fields), binaryFraming);
+    }
+
+    /**
+     * Streams subscriptions with the streamer that is built after the feature and the blacklist are checked, errors
+     * of building and streaming are written to the response if streaming was not started yet. Request is processed
+     * asynchronously, so the container thread is released as soon as streaming is started, and the request is
+     * completed when the streamer is finished.
+     */
+    private void stream(final List<String> subscriptionIds, final boolean binaryFraming,
+                        final HttpServletRequest request, final HttpServletResponse response,
+                        final Client client, final StreamerBuilder streamerBuilder) throws IOException {
+
+        if (!featureToggleService.isFeatureEnabled(HIGH_LEVEL_API)) {
+            response.setStatus(HttpServletResponse.SC_NOT_IMPLEMENTED);
+            return;
+        }
+
+        final AtomicBoolean connectionReady = closedConnectionsCrutch.listenForConnectionClose(request);
+
+        final AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(streamTimeoutMs);
+        final SubscriptionOutputImpl output =
+                new SubscriptionOutputImpl(asyncContext, response, connectionReady, binaryFraming);
+        output.start();
+        try {
+            for (final String subscriptionId : subscriptionIds) {
+                if (blacklistService.isSubscriptionConsumptionBlocked(subscriptionId, client.getClientId())) {
+                    output.writeProblem(
                             Problem.valueOf(Response.Status.FORBIDDEN, "Application or event type is blocked"));
+                    output.finish();
                     return;
                 }
-
-                final StreamParameters streamParameters = StreamParameters.of(batchLimit, streamLimit, batchTimeout,
-                        streamTimeout, streamKeepAliveLimit, maxUncommittedSize,
-                        nakadiSettings.getDefaultCommitTimeoutSeconds(), client.getClientId());
-                streamer = subscriptionStreamerFactory.build(subscriptionId, streamParameters, output,
-                        connectionReady, blacklistService);
-                streamer.stream();
-            } catch (final InterruptedException ex) {
-                LOG.warn("Interrupted while streaming with " + streamer, ex);
-                Thread.currentThread().interrupt();
-            } catch (final Exception e) {
-                output.onException(e);
-            } finally {
-                outputStream.close();
             }
-        };
-    }
 
-    private void writeProblemResponse(final HttpServletResponse response,
-                                      final OutputStream outputStream,
-                                      final Problem problem) throws IOException {
-        response.setStatus(problem.getStatus().getStatusCode());
-        response.setContentType("application/problem+json");
-        jsonMapper.writer().writeValue(outputStream, problem);
+            final SubscriptionStreamer streamer = streamerBuilder.build(output, connectionReady);
+            streamer.stream().whenComplete((ignore, ex) -> {
+                if (null != ex) {
+                    LOG.error("Failed to stream with " + streamer, ex);
+                }
+                output.finish();
+            });
+        } catch (final Exception e) {
+            output.onException(e);
+            output.finish();
+        }
     }
 
+    @FunctionalInterface
+    private interface StreamerBuilder {
+        SubscriptionStreamer build(SubscriptionOutput output, AtomicBoolean connectionReady) throws NakadiException;
+    }
 }
@@ -1,9 +1,13 @@
 package org.zalando.nakadi.domain;
 
+import org.json.JSONArray;
 import org.json.JSONException;
+import org.json.JSONObject;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class BatchFactory {
 
@@ -76,6 +80,23 @@ public class BatchFactory {
         return batch;
     }
 
+    /**
+     * Creates batches from json object, that contains arrays of events by event type names.
+     */
+    public static Map<String, List<BatchItem>> byEventType(final String batches) {
+        final JSONObject json = new JSONObject(batches);
+        final Map<String, List<BatchItem>> result = new TreeMap<>();
+        for (final String eventTypeName : json.keySet()) {
+            final JSONArray events = json.getJSONArray(eventTypeName);
+            final List<BatchItem> batch = new ArrayList<>(events.length());
+            for (int i = 0; i < events.length(); i++) {
+                batch.add(new BatchItem(events.getJSONObject(i).toString()));
+            }
+            result.put(eventTypeName, batch);
+        }
+        return result;
+    }
+
     private static boolean isEmptyCharacter(final char c) {
         return (c == ' ' || c == '\t' || c == '\n' || c == '\r');
     }
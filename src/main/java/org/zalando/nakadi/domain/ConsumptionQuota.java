@@ -0,0 +1,60 @@
+package org.zalando.nakadi.domain;
+
+import java.util.Objects;
+import javax.validation.constraints.Min;
+
+/**
+ * Limits of consumption throughput of application, 0 means that there is no limit.
+ */
+public class ConsumptionQuota {
+    @Min(value = 0, message = "can't be less then zero")
+    private long bytesPerSecond;
+    @Min(value = 0, message = "can't be less then zero")
+    private long eventsPerSecond;
+
+    public ConsumptionQuota() {
+    }
+
+    public ConsumptionQuota(final long bytesPerSecond, final long eventsPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.eventsPerSecond = eventsPerSecond;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public void setBytesPerSecond(final long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public long getEventsPerSecond() {
+        return eventsPerSecond;
+    }
+
+    public void setEventsPerSecond(final long eventsPerSecond) {
+        this.eventsPerSecond = eventsPerSecond;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final ConsumptionQuota that = (ConsumptionQuota) o;
+        return bytesPerSecond == that.bytesPerSecond && eventsPerSecond == that.eventsPerSecond;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(bytesPerSecond, eventsPerSecond);
+    }
+
+    @Override
+    public String toString() {
+        return "ConsumptionQuota{bytesPerSecond=" + bytesPerSecond + ", eventsPerSecond=" + eventsPerSecond + '}';
+    }
+}
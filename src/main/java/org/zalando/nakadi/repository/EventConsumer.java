@@ -9,4 +9,9 @@ public interface EventConsumer extends Closeable {
 
     Optional<ConsumedEvent> readEvent();
 
+    /**
+     * Same as {@link #readEvent()}, but waits for new events not longer than {@code maxWaitMillis}.
+     */
+    Optional<ConsumedEvent> readEvent(long maxWaitMillis);
+
 }
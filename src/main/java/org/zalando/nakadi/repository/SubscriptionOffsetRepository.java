@@ -0,0 +1,85 @@
+package org.zalando.nakadi.repository;
+
+import org.zalando.nakadi.service.subscription.model.Partition;
+import org.zalando.nakadi.service.subscription.zk.ZKSubscription;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Storage of commit offsets of subscriptions. Sessions and assignment of partitions are coordinated in zookeeper,
+ * while offsets are stored by implementation of this interface, so commits are not limited by write throughput of
+ * zookeeper. Methods are throwing {@link org.zalando.nakadi.exceptions.NakadiRuntimeException} if the storage is not
+ * available.
+ */
+public interface SubscriptionOffsetRepository {
+
+    /**
+     * Stores initial offsets of partitions of the subscription, replacing the offsets that were stored before.
+     */
+    void createOffsets(String subscriptionId, Map<Partition.PartitionKey, Long> offsets);
+
+    void deleteOffsets(String subscriptionId);
+
+    /**
+     * @return offsets of the partitions, partitions without stored offsets are not included
+     */
+    Map<Partition.PartitionKey, Offset> getOffsets(String subscriptionId, Collection<Partition.PartitionKey> keys);
+
+    default long getOffset(final String subscriptionId, final Partition.PartitionKey key) {
+        final Offset offset = getOffsets(subscriptionId, Collections.singletonList(key)).get(key);
+        if (null == offset) {
+            throw new IllegalStateException("Offset of partition " + key + " is not found for subscription "
+                    + subscriptionId);
+        }
+        return Long.parseLong(offset.getValue());
+    }
+
+    /**
+     * Updates offsets only if they were not changed since they were read, all of them or none.
+     *
+     * @param expected          offsets that were read with {@link #getOffsets(String, Collection)}
+     * @param offsets           new offsets of the partitions
+     * @param topologyVersion version of zookeeper node of the topology that was used to check that the partitions
+     *                        are owned by the committing stream. Zookeeper storage checks it in the same
+     *                        transaction, other storages check it after the offsets are written and before
+     *                        their transaction is committed.
+     * @return false if offsets or topology were changed concurrently, nothing is updated in this case
+     */
+    boolean updateOffsets(String subscriptionId, Map<Partition.PartitionKey, Offset> expected,
+                          Map<Partition.PartitionKey, String> offsets, int topologyVersion);
+
+    /**
+     * Moves offsets forward. Offsets that are not after the stored ones are ignored, so concurrent commits are never
+     * moving offsets back.
+     *
+     * @return future that is completed when offsets are stored
+     */
+    CompletableFuture<Void> commitOffsets(String subscriptionId, Map<Partition.PartitionKey, Long> offsets);
+
+    /**
+     * Subscribes for changes of offset of the partition. Listener may be called from a thread of the storage and
+     * should not block.
+     */
+    ZKSubscription subscribeForOffsetChanges(String subscriptionId, Partition.PartitionKey key, Runnable listener);
+
+    class Offset {
+        private final String value;
+        private final int version;
+
+        public Offset(final String value, final int version) {
+            this.value = value;
+            this.version = version;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+    }
+}
@@ -27,6 +27,12 @@ public interface TopicRepository {
 
     void syncPostBatch(String topicId, List<BatchItem> batch) throws EventPublishingException;
 
+    /**
+     * Publishes batches of several topics, waiting for all of them at once. Exception is thrown if at least one of
+     * the batches failed, the items of the other batches are updated according to their results.
+     */
+    void syncPostBatches(Map<String, List<BatchItem>> batchesByTopic) throws EventPublishingException;
+
     Optional<PartitionStatistics> loadPartitionStatistics(String topic, String partition)
             throws ServiceUnavailableException;
 
@@ -40,6 +46,19 @@ public interface TopicRepository {
     EventConsumer createEventConsumer(String clientId, List<NakadiCursor> positions) throws NakadiException,
             InvalidCursorException;
 
+    /**
+     * Creates consumer for a single fetch of events, that waits for new events not longer than
+     * {@code maxWaitMillis} per read.
+     */
+    EventConsumer createFetchConsumer(List<NakadiCursor> positions, long maxWaitMillis) throws NakadiException,
+            InvalidCursorException;
+
+    /**
+     * Creates consumer that reads events after {@code starts} up to {@code ends} inclusively, and nothing else.
+     */
+    EventConsumer createRangeConsumer(List<NakadiCursor> starts, List<NakadiCursor> ends) throws NakadiException,
+            InvalidCursorException;
+
     int compareOffsets(NakadiCursor first, NakadiCursor second) throws InvalidCursorException;
 
     void validateCommitCursor(NakadiCursor cursor) throws InvalidCursorException;
@@ -0,0 +1,327 @@
+package org.zalando.nakadi.repository.db;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.zalando.nakadi.exceptions.NakadiRuntimeException;
+import org.zalando.nakadi.repository.SubscriptionOffsetRepository;
+import org.zalando.nakadi.repository.zookeeper.ZooKeeperHolder;
+import org.zalando.nakadi.service.subscription.model.Partition;
+import org.zalando.nakadi.service.subscription.zk.ZKSubscription;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps offsets of subscriptions in table zn_data.subscription_offset. Commits that are only moving offsets forward
+ * are group committed: a single writer takes all the commits of all subscriptions that were waiting while the
+ * previous transaction was running, and writes them with one transaction. Changes of offsets are discovered by
+ * polling offsets of all the subscriptions that have listeners. Ownership of partitions stays in zookeeper, it is
+ * checked by conditional updates against the version of the topology node.
+ */
+public class SubscriptionOffsetDbRepository extends AbstractDbRepository implements SubscriptionOffsetRepository {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SubscriptionOffsetDbRepository.class);
+    private static final int MAX_ROWS_PER_TRANSACTION = 5000;
+    private static final int MAX_SUBSCRIPTIONS_PER_POLL = 500;
+    // Rows are updated in the same order by all the transactions, so concurrent transactions are not deadlocking
+    private static final Comparator<Object[]> ROW_ORDER = Comparator
+            .comparing((Object[] row) -> (String) row[1])
+            .thenComparing(row -> (String) row[2])
+            .thenComparing(row -> (String) row[3]);
+
+    private final ZooKeeperHolder zkHolder;
+    private final TransactionTemplate transactionTemplate;
+    private final BlockingQueue<PendingCommit> pendingCommits = new LinkedBlockingQueue<>();
+    private final Map<String, Set<OffsetListener>> listeners = new ConcurrentHashMap<>();
+    private final Thread writer;
+    private final ScheduledExecutorService poller;
+    private volatile boolean stopped;
+
+    public SubscriptionOffsetDbRepository(final JdbcTemplate jdbcTemplate, final ObjectMapper jsonMapper,
+                                          final ZooKeeperHolder zkHolder, final long pollIntervalMs) {
+        super(jdbcTemplate, jsonMapper);
+        this.zkHolder = zkHolder;
+        this.transactionTemplate = new TransactionTemplate(
+                new DataSourceTransactionManager(jdbcTemplate.getDataSource()));
+        this.writer = new ThreadFactoryBuilder().setNameFormat("subscription-offset-writer").setDaemon(true).build()
+                .newThread(this::writeCommits);
+        this.writer.start();
+        this.poller = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("subscription-offset-poller").setDaemon(true).build());
+        this.poller.scheduleWithFixedDelay(this::pollOffsets, pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void createOffsets(final String subscriptionId, final Map<Partition.PartitionKey, Long> offsets) {
+        final List<Object[]> rows = offsets.entrySet().stream()
+                .map(e -> new Object[]{subscriptionId, e.getKey().getTopic(), e.getKey().getPartition(),
+                        String.valueOf(e.getValue())})
+                .collect(Collectors.toList());
+        try {
+            transactionTemplate.execute(status -> {
+                jdbcTemplate.update("DELETE FROM zn_data.subscription_offset WHERE so_subscription_id = ?",
+                        subscriptionId);
+                return jdbcTemplate.batchUpdate("INSERT INTO zn_data.subscription_offset " +
+                        "(so_subscription_id, so_topic, so_partition, so_offset, so_version) " +
+                        "VALUES (?, ?, ?, ?, 0)", rows);
+            });
+        } catch (final DataAccessException e) {
+            throw new NakadiRuntimeException(e);
+        }
+    }
+
+    @Override
+    public void deleteOffsets(final String subscriptionId) {
+        try {
+            jdbcTemplate.update("DELETE FROM zn_data.subscription_offset WHERE so_subscription_id = ?",
+                    subscriptionId);
+        } catch (final DataAccessException e) {
+            throw new NakadiRuntimeException(e);
+        }
+    }
+
+    @Override
+    public Map<Partition.PartitionKey, Offset> getOffsets(final String subscriptionId,
+                                                          final Collection<Partition.PartitionKey> keys) {
+        final Set<Partition.PartitionKey> requested = new HashSet<>(keys);
+        final Map<Partition.PartitionKey, Offset> result = new HashMap<>();
+        try {
+            jdbcTemplate.query("SELECT so_topic, so_partition, so_offset, so_version " +
+                    "FROM zn_data.subscription_offset WHERE so_subscription_id = ?", new Object[]{subscriptionId},
+                    (RowCallbackHandler) rs -> {
+                        final Partition.PartitionKey key = new Partition.PartitionKey(
+                                rs.getString("so_topic"), rs.getString("so_partition"));
+                        if (requested.contains(key)) {
+                            result.put(key, new Offset(rs.getString("so_offset"), rs.getInt("so_version")));
+                        }
+                    });
+        } catch (final DataAccessException e) {
+            throw new NakadiRuntimeException(e);
+        }
+        return result;
+    }
+
+    /**
+     * Updates offsets with one transaction and checks the version of the topology node after the rows are updated,
+     * while they are still locked. If partitions were reassigned after the check of ownership the transaction is
+     * rolled back, so the caller reads the topology again. Reassignment that happens between this check and the
+     * commit of the transaction is not detected, the window is limited to the commit of a single transaction.
+     */
+    @Override
+    public boolean updateOffsets(final String subscriptionId, final Map<Partition.PartitionKey, Offset> expected,
+                                 final Map<Partition.PartitionKey, String> offsets, final int topologyVersion) {
+        if (offsets.isEmpty()) {
+            return true;
+        }
+        final List<Object[]> rows = offsets.entrySet().stream()
+                .map(e -> new Object[]{e.getValue(), subscriptionId, e.getKey().getTopic(), e.getKey().getPartition(),
+                        expected.get(e.getKey()).getVersion()})
+                .sorted(ROW_ORDER)
+                .collect(Collectors.toList());
+        try {
+            return transactionTemplate.execute(status -> {
+                final int[] updated = jdbcTemplate.batchUpdate("UPDATE zn_data.subscription_offset " +
+                        "SET so_offset = ?, so_version = so_version + 1 " +
+                        "WHERE so_subscription_id = ? AND so_topic = ? AND so_partition = ? AND so_version = ?", rows);
+                for (final int count : updated) {
+                    if (count == 0) {
+                        status.setRollbackOnly();
+                        return false;
+                    }
+                }
+                if (getTopologyVersion(subscriptionId) != topologyVersion) {
+                    status.setRollbackOnly();
+                    return false;
+                }
+                return true;
+            });
+        } catch (final DataAccessException e) {
+            throw new NakadiRuntimeException(e);
+        }
+    }
+
+    private int getTopologyVersion(final String subscriptionId) {
+        try {
+            final Stat stat = zkHolder.get().checkExists()
+                    .forPath("/nakadi/subscriptions/" + subscriptionId + "/topology");
+            // Removed topology does not match any version
+            return null == stat ? -1 : stat.getVersion();
+        } catch (final Exception e) {
+            throw new NakadiRuntimeException(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> commitOffsets(final String subscriptionId,
+                                                 final Map<Partition.PartitionKey, Long> offsets) {
+        final PendingCommit commit = new PendingCommit(subscriptionId, offsets);
+        if (offsets.isEmpty()) {
+            commit.future.complete(null);
+        } else if (stopped) {
+            commit.future.completeExceptionally(new IllegalStateException("Offset repository is stopped"));
+        } else {
+            pendingCommits.offer(commit);
+        }
+        return commit.future;
+    }
+
+    @Override
+    public ZKSubscription subscribeForOffsetChanges(final String subscriptionId, final Partition.PartitionKey key,
+                                                    final Runnable listener) {
+        final Offset current = getOffsets(subscriptionId, Collections.singletonList(key)).get(key);
+        final OffsetListener offsetListener = new OffsetListener(subscriptionId, key, listener,
+                null == current ? null : current.getValue());
+        listeners.computeIfAbsent(subscriptionId, id -> ConcurrentHashMap.newKeySet()).add(offsetListener);
+        return offsetListener;
+    }
+
+    public void close() {
+        stopped = true;
+        writer.interrupt();
+        poller.shutdownNow();
+        final List<PendingCommit> notWritten = new ArrayList<>();
+        pendingCommits.drainTo(notWritten);
+        notWritten.forEach(commit -> commit.future.completeExceptionally(
+                new IllegalStateException("Offset repository is stopped")));
+    }
+
+    private void writeCommits() {
+        final List<PendingCommit> batch = new ArrayList<>();
+        while (!stopped) {
+            try {
+                batch.add(pendingCommits.take());
+            } catch (final InterruptedException e) {
+                continue;
+            }
+            int rows = batch.get(0).offsets.size();
+            while (rows < MAX_ROWS_PER_TRANSACTION) {
+                final PendingCommit next = pendingCommits.poll();
+                if (null == next) {
+                    break;
+                }
+                batch.add(next);
+                rows += next.offsets.size();
+            }
+            try {
+                write(batch);
+                batch.forEach(commit -> commit.future.complete(null));
+            } catch (final RuntimeException e) {
+                LOG.error("Failed to write {} offsets of {} commits", rows, batch.size(), e);
+                batch.forEach(commit -> commit.future.completeExceptionally(new NakadiRuntimeException(e)));
+            }
+            batch.clear();
+        }
+    }
+
+    private void write(final List<PendingCommit> batch) {
+        final List<Object[]> rows = new ArrayList<>();
+        for (final PendingCommit commit : batch) {
+            commit.offsets.forEach((key, offset) -> rows.add(new Object[]{
+                    String.valueOf(offset), commit.subscriptionId, key.getTopic(), key.getPartition(), offset}));
+        }
+        rows.sort(ROW_ORDER);
+        transactionTemplate.execute(status -> jdbcTemplate.batchUpdate("UPDATE zn_data.subscription_offset " +
+                "SET so_offset = ?, so_version = so_version + 1 " +
+                "WHERE so_subscription_id = ? AND so_topic = ? AND so_partition = ? " +
+                "AND CAST(so_offset AS BIGINT) < ?", rows));
+    }
+
+    private void pollOffsets() {
+        try {
+            for (final List<String> subscriptionIds : Lists.partition(new ArrayList<>(listeners.keySet()),
+                    MAX_SUBSCRIPTIONS_PER_POLL)) {
+                final Map<String, Map<Partition.PartitionKey, String>> offsets = new HashMap<>();
+                jdbcTemplate.query("SELECT so_subscription_id, so_topic, so_partition, so_offset " +
+                                "FROM zn_data.subscription_offset WHERE so_subscription_id IN (" +
+                                subscriptionIds.stream().map(id -> "?").collect(Collectors.joining(",")) + ")",
+                        subscriptionIds.toArray(),
+                        (RowCallbackHandler) rs -> offsets
+                                .computeIfAbsent(rs.getString("so_subscription_id"), id -> new HashMap<>())
+                                .put(new Partition.PartitionKey(rs.getString("so_topic"),
+                                        rs.getString("so_partition")), rs.getString("so_offset")));
+                for (final String subscriptionId : subscriptionIds) {
+                    final Map<Partition.PartitionKey, String> subscriptionOffsets =
+                            offsets.getOrDefault(subscriptionId, Collections.emptyMap());
+                    listeners.getOrDefault(subscriptionId, Collections.emptySet())
+                            .forEach(listener -> listener.onOffset(subscriptionOffsets.get(listener.key)));
+                }
+            }
+        } catch (final RuntimeException e) {
+            LOG.error("Failed to poll offsets of subscriptions", e);
+        }
+    }
+
+    private static class PendingCommit {
+        private final String subscriptionId;
+        private final Map<Partition.PartitionKey, Long> offsets;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private PendingCommit(final String subscriptionId, final Map<Partition.PartitionKey, Long> offsets) {
+            this.subscriptionId = subscriptionId;
+            this.offsets = offsets;
+        }
+    }
+
+    private class OffsetListener implements ZKSubscription {
+        private final String subscriptionId;
+        private final Partition.PartitionKey key;
+        private final Runnable listener;
+        private volatile String lastOffset;
+        private volatile boolean cancelled;
+
+        private OffsetListener(final String subscriptionId, final Partition.PartitionKey key,
+                               final Runnable listener, final String lastOffset) {
+            this.subscriptionId = subscriptionId;
+            this.key = key;
+            this.listener = listener;
+            this.lastOffset = lastOffset;
+        }
+
+        private void onOffset(final String offset) {
+            if (null != offset && !offset.equals(lastOffset)) {
+                lastOffset = offset;
+                if (!cancelled) {
+                    listener.run();
+                }
+            }
+        }
+
+        @Override
+        public void refresh() {
+            // Offsets are polled, there is nothing to register again
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            listeners.computeIfPresent(subscriptionId, (id, subscriptionListeners) -> {
+                subscriptionListeners.remove(this);
+                return subscriptionListeners.isEmpty() ? null : subscriptionListeners;
+            });
+        }
+    }
+}
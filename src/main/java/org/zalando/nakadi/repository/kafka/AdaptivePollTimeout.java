@@ -0,0 +1,51 @@
+package org.zalando.nakadi.repository.kafka;
+
+/**
+ * Picks timeouts of kafka polls for streaming loops. While events are coming, polls are using the base timeout.
+ * Each poll that returns nothing doubles the timeout up to the maximum, so idle streams are waking up rarely to
+ * check their state. Timeout never exceeds the time left until the next deadline of the stream, e.g. batch flush or
+ * stream timeout.
+ * <p>
+ * Timeout is not delaying new events only if something is waiting for them meanwhile: low-level streams are
+ * blocked in poll, that returns as soon as events arrive, while subscription streams are not polling by themselves
+ * between the timeouts, and are woken up by the fetcher of the node when events arrive.
+ */
+public class AdaptivePollTimeout {
+
+    private final long baseMillis;
+    private final long maxIdleMillis;
+    private long currentMillis;
+
+    /**
+     * @param baseMillis    timeout of polls while stream is receiving events
+     * @param maxIdleMillis maximum timeout of polls while stream is idle, not less than base timeout
+     */
+    public AdaptivePollTimeout(final long baseMillis, final long maxIdleMillis) {
+        this.baseMillis = baseMillis;
+        this.maxIdleMillis = Math.max(baseMillis, maxIdleMillis);
+        this.currentMillis = baseMillis;
+    }
+
+    public long getBaseMillis() {
+        return baseMillis;
+    }
+
+    /**
+     * @param untilDeadlineMillis time left until the closest deadline of the stream
+     * @return timeout of the next poll
+     */
+    public long next(final long untilDeadlineMillis) {
+        return Math.max(0, Math.min(currentMillis, untilDeadlineMillis));
+    }
+
+    /**
+     * Adapts timeout to the result of the last poll.
+     */
+    public void onPoll(final int records) {
+        if (records > 0) {
+            currentMillis = baseMillis;
+        } else {
+            currentMillis = Math.min(maxIdleMillis, Math.max(1, currentMillis * 2));
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.zalando.nakadi.repository.kafka;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * Kafka consumer, that serves data from node-local caches when it is possible and feeds caches with everything
+ * that was read from kafka. Caches are checked in the order they were provided. All the methods except
+ * {@link #poll(long)} are delegated as is.
+ */
+class CachingConsumer extends ForwardingConsumer {
+
+    private final Consumer<String, String> delegate;
+    private final List<PartitionCache> caches;
+
+    CachingConsumer(final Consumer<String, String> delegate, final List<PartitionCache> caches) {
+        this.delegate = delegate;
+        this.caches = caches;
+    }
+
+    @Override
+    public ConsumerRecords<String, String> poll(final long timeout) {
+        final Map<TopicPartition, List<ConsumerRecord<String, String>>> result = new HashMap<>();
+        for (final TopicPartition tp : delegate.assignment()) {
+            final long position = delegate.position(tp);
+            for (final PartitionCache cache : caches) {
+                final List<ConsumerRecord<String, String>> cached = cache.read(tp, position);
+                if (!cached.isEmpty()) {
+                    result.put(tp, new ArrayList<>(cached));
+                    delegate.seek(tp, cached.get(cached.size() - 1).offset() + 1);
+                    break;
+                }
+            }
+        }
+        // In case if something was found in cache there is no reason to wait for kafka, but other partitions still
+        // should get a chance to be read.
+        final ConsumerRecords<String, String> fetched = delegate.poll(result.isEmpty() ? timeout : 0);
+        for (final TopicPartition tp : fetched.partitions()) {
+            caches.forEach(cache -> cache.append(tp, fetched.records(tp)));
+        }
+        if (result.isEmpty()) {
+            return fetched;
+        }
+        for (final TopicPartition tp : fetched.partitions()) {
+            final List<ConsumerRecord<String, String>> target = result.computeIfAbsent(tp, k -> new ArrayList<>());
+            final long nextOffset = target.isEmpty() ? -1 : target.get(target.size() - 1).offset() + 1;
+            fetched.records(tp).stream()
+                    .filter(record -> record.offset() >= nextOffset)
+                    .forEach(target::add);
+        }
+        return new ConsumerRecords<>(result);
+    }
+
+    @Override
+    protected Consumer<String, String> delegate() {
+        return delegate;
+    }
+}
@@ -0,0 +1,149 @@
+package org.zalando.nakadi.repository.kafka;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetCommitCallback;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * Kafka consumer that forwards all the calls to another consumer, provided by {@link #delegate()}.
+ */
+abstract class ForwardingConsumer implements Consumer<String, String> {
+
+    protected abstract Consumer<String, String> delegate();
+
+    @Override
+    public ConsumerRecords<String, String> poll(final long timeout) {
+        return delegate().poll(timeout);
+    }
+
+    @Override
+    public Set<TopicPartition> assignment() {
+        return delegate().assignment();
+    }
+
+    @Override
+    public Set<String> subscription() {
+        return delegate().subscription();
+    }
+
+    @Override
+    public void subscribe(final List<String> topics) {
+        delegate().subscribe(topics);
+    }
+
+    @Override
+    public void subscribe(final List<String> topics, final ConsumerRebalanceListener callback) {
+        delegate().subscribe(topics, callback);
+    }
+
+    @Override
+    public void assign(final List<TopicPartition> partitions) {
+        delegate().assign(partitions);
+    }
+
+    @Override
+    public void subscribe(final Pattern pattern, final ConsumerRebalanceListener callback) {
+        delegate().subscribe(pattern, callback);
+    }
+
+    @Override
+    public void unsubscribe() {
+        delegate().unsubscribe();
+    }
+
+    @Override
+    public void commitSync() {
+        delegate().commitSync();
+    }
+
+    @Override
+    public void commitSync(final Map<TopicPartition, OffsetAndMetadata> offsets) {
+        delegate().commitSync(offsets);
+    }
+
+    @Override
+    public void commitAsync() {
+        delegate().commitAsync();
+    }
+
+    @Override
+    public void commitAsync(final OffsetCommitCallback callback) {
+        delegate().commitAsync(callback);
+    }
+
+    @Override
+    public void commitAsync(final Map<TopicPartition, OffsetAndMetadata> offsets,
+                            final OffsetCommitCallback callback) {
+        delegate().commitAsync(offsets, callback);
+    }
+
+    @Override
+    public void seek(final TopicPartition partition, final long offset) {
+        delegate().seek(partition, offset);
+    }
+
+    @Override
+    public void seekToBeginning(final TopicPartition... partitions) {
+        delegate().seekToBeginning(partitions);
+    }
+
+    @Override
+    public void seekToEnd(final TopicPartition... partitions) {
+        delegate().seekToEnd(partitions);
+    }
+
+    @Override
+    public long position(final TopicPartition partition) {
+        return delegate().position(partition);
+    }
+
+    @Override
+    public OffsetAndMetadata committed(final TopicPartition partition) {
+        return delegate().committed(partition);
+    }
+
+    @Override
+    public Map<MetricName, ? extends Metric> metrics() {
+        return delegate().metrics();
+    }
+
+    @Override
+    public List<PartitionInfo> partitionsFor(final String topic) {
+        return delegate().partitionsFor(topic);
+    }
+
+    @Override
+    public Map<String, List<PartitionInfo>> listTopics() {
+        return delegate().listTopics();
+    }
+
+    @Override
+    public void pause(final TopicPartition... partitions) {
+        delegate().pause(partitions);
+    }
+
+    @Override
+    public void resume(final TopicPartition... partitions) {
+        delegate().resume(partitions);
+    }
+
+    @Override
+    public void close() {
+        delegate().close();
+    }
+
+    @Override
+    public void wakeup() {
+        delegate().wakeup();
+    }
+}
@@ -0,0 +1,320 @@
+package org.zalando.nakadi.repository.kafka;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Node-wide cache of the most recent events of partitions that are consumed on this node.
+ * <p>
+ * Event bytes are stored off-heap in fixed size chunks. Each partition owns a chain of chunks that holds a
+ * contiguous range of offsets, the chain is extended by every consumer that reads the partition from kafka.
+ * Chunks are taken from a pool that is limited by node-wide budget. In case if budget is exhausted the oldest chunk
+ * of the least recently used partition is recycled.
+ * <p>
+ * Lock ordering: partition lock may be taken without the pool lock being held, but pool lock holder is allowed only
+ * to try to lock partitions. So there is no way to get to deadlock.
+ */
+@Component
+public class HotTailCache implements PartitionCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HotTailCache.class);
+
+    private static final int MAX_CHUNK_SIZE = 1024 * 1024;
+    // Partition budget is split at least into this number of chunks, so eviction is not too coarse.
+    private static final int MIN_CHUNKS_PER_PARTITION = 4;
+    private static final int MAX_EVENTS_PER_READ = 1000;
+
+    private final long maxBytes;
+    private final int chunkSize;
+    private final int maxChunksPerPartition;
+    private final Map<TopicPartition, PartitionTail> partitions = new ConcurrentHashMap<>();
+
+    private final Object poolLock = new Object();
+    private final ArrayDeque<Chunk> freeChunks = new ArrayDeque<>();
+    private long allocatedBytes;
+
+    private final Meter hits;
+    private final Meter misses;
+    private final Meter evictions;
+
+    @Autowired
+    public HotTailCache(@Value("${nakadi.cache.hotTail.maxBytes:0}") final long maxBytes,
+                        @Value("${nakadi.cache.hotTail.partitionBytes:16777216}") final long partitionBytes,
+                        final MetricRegistry metricRegistry) {
+        this.maxBytes = maxBytes;
+        this.chunkSize = (int) Math.max(1, Math.min(MAX_CHUNK_SIZE, partitionBytes / MIN_CHUNKS_PER_PARTITION));
+        this.maxChunksPerPartition = (int) Math.max(1, partitionBytes / chunkSize);
+
+        this.hits = metricRegistry.meter("nakadi.hot_tail_cache.hits");
+        this.misses = metricRegistry.meter("nakadi.hot_tail_cache.misses");
+        this.evictions = metricRegistry.meter("nakadi.hot_tail_cache.evictions");
+        metricRegistry.register("nakadi.hot_tail_cache.bytes_allocated", (Gauge<Long>) this::getAllocatedBytes);
+        metricRegistry.register("nakadi.hot_tail_cache.bytes_free", (Gauge<Long>) this::getFreeBytes);
+        metricRegistry.register("nakadi.hot_tail_cache.partitions", (Gauge<Integer>) partitions::size);
+        if (isEnabled()) {
+            LOG.info("Hot tail cache enabled with budget of {} bytes, chunk size {} bytes, {} chunks per partition",
+                    maxBytes, chunkSize, maxChunksPerPartition);
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return maxBytes >= chunkSize;
+    }
+
+    @Override
+    public List<ConsumerRecord<String, String>> read(final TopicPartition tp, final long offset) {
+        final PartitionTail tail = partitions.get(tp);
+        if (null == tail) {
+            misses.mark();
+            return Collections.emptyList();
+        }
+        final List<ConsumerRecord<String, String>> result;
+        tail.lock.lock();
+        try {
+            tail.lastAccess = System.currentTimeMillis();
+            result = tail.read(offset, MAX_EVENTS_PER_READ);
+        } finally {
+            tail.lock.unlock();
+        }
+        if (result.isEmpty()) {
+            misses.mark();
+        } else {
+            hits.mark();
+        }
+        return result;
+    }
+
+    @Override
+    public void append(final TopicPartition tp, final List<ConsumerRecord<String, String>> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        final PartitionTail tail = partitions.computeIfAbsent(tp, PartitionTail::new);
+        final List<Chunk> toRelease = new ArrayList<>();
+        for (final ConsumerRecord<String, String> record : records) {
+            final byte[] data = null == record.value() ? null : record.value().getBytes(StandardCharsets.UTF_8);
+            if (!appendToExistingChunk(tail, record.offset(), data, toRelease)) {
+                final Chunk chunk = acquireChunk();
+                tail.lock.lock();
+                try {
+                    if (null == chunk) {
+                        // Contiguity of offsets is broken, starting from scratch.
+                        tail.clear(toRelease);
+                    } else if (!tail.appendToNewChunk(record.offset(), data, chunk, toRelease)) {
+                        toRelease.add(chunk);
+                    }
+                    while (tail.chunks.size() > maxChunksPerPartition) {
+                        toRelease.add(tail.chunks.pollFirst());
+                    }
+                    tail.chunkCount = tail.chunks.size();
+                } finally {
+                    tail.lock.unlock();
+                }
+                // Returning chunks to pool right away, so they can be reused while processing next records.
+                releaseChunks(toRelease);
+                toRelease.clear();
+            }
+        }
+        releaseChunks(toRelease);
+    }
+
+    private boolean appendToExistingChunk(final PartitionTail tail, final long offset, final byte[] data,
+                                          final List<Chunk> toRelease) {
+        tail.lock.lock();
+        try {
+            tail.lastAccess = System.currentTimeMillis();
+            if (tail.nextOffset >= 0 && offset < tail.nextOffset) {
+                // Already in cache (or was there some time ago)
+                return true;
+            }
+            if (tail.nextOffset >= 0 && offset > tail.nextOffset) {
+                tail.clear(toRelease);
+            }
+            if (null == data || data.length > chunkSize) {
+                tail.clear(toRelease);
+                return true;
+            }
+            final Chunk last = tail.chunks.peekLast();
+            if (null != last && last.tryAppend(data)) {
+                tail.nextOffset = offset + 1;
+                return true;
+            }
+            return false;
+        } finally {
+            tail.lock.unlock();
+        }
+    }
+
+    private Chunk acquireChunk() {
+        synchronized (poolLock) {
+            final Chunk free = freeChunks.pollFirst();
+            if (null != free) {
+                return free;
+            }
+            if (allocatedBytes + chunkSize <= maxBytes) {
+                allocatedBytes += chunkSize;
+                return new Chunk(ByteBuffer.allocateDirect(chunkSize));
+            }
+        }
+        // Budget is exhausted, taking the oldest chunk of the least recently used partition.
+        final List<PartitionTail> candidates = partitions.values().stream()
+                .filter(tail -> tail.chunkCount > 0)
+                .sorted(Comparator.comparingLong(tail -> tail.lastAccess))
+                .collect(Collectors.toList());
+        for (final PartitionTail victim : candidates) {
+            if (victim.lock.tryLock()) {
+                try {
+                    final Chunk chunk = victim.chunks.pollFirst();
+                    if (null != chunk) {
+                        victim.chunkCount = victim.chunks.size();
+                        evictions.mark();
+                        return chunk;
+                    }
+                } finally {
+                    victim.lock.unlock();
+                }
+            }
+        }
+        return null;
+    }
+
+    private void releaseChunks(final List<Chunk> chunks) {
+        if (chunks.isEmpty()) {
+            return;
+        }
+        synchronized (poolLock) {
+            freeChunks.addAll(chunks);
+        }
+    }
+
+    @VisibleForTesting
+    long getAllocatedBytes() {
+        synchronized (poolLock) {
+            return allocatedBytes;
+        }
+    }
+
+    @VisibleForTesting
+    long getFreeBytes() {
+        synchronized (poolLock) {
+            return (long) freeChunks.size() * chunkSize;
+        }
+    }
+
+    private static class PartitionTail {
+        private final TopicPartition tp;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ArrayDeque<Chunk> chunks = new ArrayDeque<>();
+        // Offset that is expected to be appended next, -1 if nothing is known about partition yet.
+        private long nextOffset = -1;
+        private volatile int chunkCount;
+        private volatile long lastAccess;
+
+        private PartitionTail(final TopicPartition tp) {
+            this.tp = tp;
+        }
+
+        private boolean appendToNewChunk(final long offset, final byte[] data, final Chunk chunk,
+                                         final List<Chunk> toRelease) {
+            if (nextOffset >= 0 && offset < nextOffset) {
+                // Someone was faster
+                return false;
+            }
+            if (nextOffset >= 0 && offset > nextOffset) {
+                clear(toRelease);
+            }
+            chunk.reset(offset);
+            chunk.tryAppend(data);
+            chunks.addLast(chunk);
+            chunkCount = chunks.size();
+            nextOffset = offset + 1;
+            return true;
+        }
+
+        private void clear(final List<Chunk> toRelease) {
+            toRelease.addAll(chunks);
+            chunks.clear();
+            chunkCount = 0;
+            nextOffset = -1;
+        }
+
+        private List<ConsumerRecord<String, String>> read(final long offset, final int maxEvents) {
+            if (chunks.isEmpty() || offset < chunks.peekFirst().baseOffset || offset >= nextOffset) {
+                return Collections.emptyList();
+            }
+            final List<ConsumerRecord<String, String>> result = new ArrayList<>();
+            long current = offset;
+            for (final Chunk chunk : chunks) {
+                while (current < chunk.baseOffset + chunk.count && result.size() < maxEvents) {
+                    if (current >= chunk.baseOffset) {
+                        result.add(new ConsumerRecord<>(tp.topic(), tp.partition(), current, null,
+                                chunk.get((int) (current - chunk.baseOffset))));
+                    }
+                    ++current;
+                }
+            }
+            return result;
+        }
+    }
+
+    private static class Chunk {
+        private final ByteBuffer data;
+        private final ByteBuffer readView;
+        private long baseOffset;
+        private int count;
+        private int[] ends = new int[256];
+
+        private Chunk(final ByteBuffer data) {
+            this.data = data;
+            this.readView = data.duplicate();
+        }
+
+        private void reset(final long baseOffset) {
+            this.baseOffset = baseOffset;
+            this.count = 0;
+            this.data.clear();
+        }
+
+        private boolean tryAppend(final byte[] bytes) {
+            if (data.remaining() < bytes.length) {
+                return false;
+            }
+            data.put(bytes);
+            if (count == ends.length) {
+                ends = Arrays.copyOf(ends, ends.length * 2);
+            }
+            ends[count++] = data.position();
+            return true;
+        }
+
+        private String get(final int idx) {
+            final int start = idx == 0 ? 0 : ends[idx - 1];
+            final byte[] result = new byte[ends[idx] - start];
+            readView.limit(ends[idx]).position(start);
+            readView.get(result);
+            return new String(result, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package org.zalando.nakadi.repository.kafka;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.annotations.VisibleForTesting;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of kafka consumers that are not bound to any consumer group. Consumers taken from pool must be closed, closing
+ * returns them back to pool with all the assignments removed.
+ * <p>
+ * Pool keeps at most {@code maxIdle} idle consumers. If there are no idle consumers new one is created, so the number
+ * of consumers in use is not limited by pool. Idle consumers are pre-connected to kafka by {@link #maintain()},
+ * that also closes consumers that were idle for too long and consumers that were leaked (garbage collected without
+ * being closed).
+ */
+class KafkaConsumerPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KafkaConsumerPool.class);
+
+    private final Supplier<Consumer<String, String>> consumerFactory;
+    private final int minIdle;
+    private final int maxIdle;
+    private final long maxIdleTimeMs;
+
+    private final ArrayDeque<IdleConsumer> idle = new ArrayDeque<>();
+    private final ReferenceQueue<PooledConsumer> leakQueue = new ReferenceQueue<>();
+    // References must be reachable themselves to get to the queue
+    private final Set<BorrowedReference> borrowed = ConcurrentHashMap.newKeySet();
+
+    private final Timer waitTimer;
+    private final Meter createdMeter;
+    private final Meter leakedMeter;
+
+    KafkaConsumerPool(final Supplier<Consumer<String, String>> consumerFactory, final int minIdle, final int maxIdle,
+                      final long maxIdleTimeMs, final MetricRegistry metricRegistry) {
+        this.consumerFactory = consumerFactory;
+        this.maxIdle = maxIdle;
+        this.minIdle = Math.min(minIdle, maxIdle);
+        this.maxIdleTimeMs = maxIdleTimeMs;
+
+        this.waitTimer = metricRegistry.timer("nakadi.kafka.consumer_pool.wait");
+        this.createdMeter = metricRegistry.meter("nakadi.kafka.consumer_pool.created");
+        this.leakedMeter = metricRegistry.meter("nakadi.kafka.consumer_pool.leaked");
+        metricRegistry.register("nakadi.kafka.consumer_pool.idle", (Gauge<Integer>) this::getIdleCount);
+        metricRegistry.register("nakadi.kafka.consumer_pool.borrowed", (Gauge<Integer>) borrowed::size);
+    }
+
+    /**
+     * Takes consumer from pool, or creates a new one if there are no idle consumers. Returned consumer has no
+     * assignments and must be closed after use.
+     */
+    Consumer<String, String> take() {
+        final Timer.Context timer = waitTimer.time();
+        try {
+            final IdleConsumer idleConsumer;
+            synchronized (idle) {
+                idleConsumer = idle.pollLast();
+            }
+            final Consumer<String, String> consumer = null == idleConsumer ? createConsumer() : idleConsumer.consumer;
+            final PooledConsumer result = new PooledConsumer(consumer);
+            result.reference = new BorrowedReference(result, consumer, leakQueue);
+            borrowed.add(result.reference);
+            return result;
+        } finally {
+            timer.stop();
+        }
+    }
+
+    private Consumer<String, String> createConsumer() {
+        createdMeter.mark();
+        return consumerFactory.get();
+    }
+
+    private void release(final PooledConsumer pooledConsumer, final boolean reusable) {
+        final BorrowedReference reference = pooledConsumer.reference;
+        borrowed.remove(reference);
+        reference.clear();
+        final Consumer<String, String> consumer = reference.consumer;
+        if (reusable) {
+            try {
+                consumer.unsubscribe();
+                synchronized (idle) {
+                    if (idle.size() < maxIdle) {
+                        idle.addLast(new IdleConsumer(consumer, System.currentTimeMillis()));
+                        return;
+                    }
+                }
+            } catch (final RuntimeException e) {
+                LOG.warn("Failed to reset kafka consumer, it won't be reused", e);
+            }
+        }
+        closeQuietly(consumer);
+    }
+
+    /**
+     * Closes leaked and expired consumers and creates new ones, so there are at least {@code minIdle} idle
+     * consumers connected to kafka.
+     */
+    void maintain() {
+        Reference<? extends PooledConsumer> leaked;
+        while (null != (leaked = leakQueue.poll())) {
+            final BorrowedReference reference = (BorrowedReference) leaked;
+            if (borrowed.remove(reference)) {
+                LOG.error("Kafka consumer was not closed before being garbage collected, closing it");
+                leakedMeter.mark();
+                closeQuietly(reference.consumer);
+            }
+        }
+
+        final List<Consumer<String, String>> expired = new ArrayList<>();
+        final long expirationTime = System.currentTimeMillis() - maxIdleTimeMs;
+        synchronized (idle) {
+            final Iterator<IdleConsumer> it = idle.iterator();
+            while (it.hasNext()) {
+                final IdleConsumer idleConsumer = it.next();
+                if (idleConsumer.idleSince < expirationTime) {
+                    expired.add(idleConsumer.consumer);
+                    it.remove();
+                }
+            }
+        }
+        expired.forEach(KafkaConsumerPool::closeQuietly);
+
+        for (int missing = minIdle - getIdleCount(); missing > 0; --missing) {
+            final Consumer<String, String> consumer = createConsumer();
+            try {
+                // Fetching metadata opens connection to kafka
+                consumer.listTopics();
+            } catch (final RuntimeException e) {
+                LOG.warn("Failed to connect kafka consumer to kafka", e);
+                closeQuietly(consumer);
+                break;
+            }
+            synchronized (idle) {
+                idle.addLast(new IdleConsumer(consumer, System.currentTimeMillis()));
+            }
+        }
+    }
+
+    void close() {
+        final List<IdleConsumer> toClose;
+        synchronized (idle) {
+            toClose = new ArrayList<>(idle);
+            idle.clear();
+        }
+        toClose.forEach(idleConsumer -> closeQuietly(idleConsumer.consumer));
+    }
+
+    @VisibleForTesting
+    int getIdleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    private static void closeQuietly(final Consumer<String, String> consumer) {
+        try {
+            consumer.close();
+        } catch (final RuntimeException e) {
+            LOG.warn("Failed to close kafka consumer", e);
+        }
+    }
+
+    private static class IdleConsumer {
+        private final Consumer<String, String> consumer;
+        private final long idleSince;
+
+        private IdleConsumer(final Consumer<String, String> consumer, final long idleSince) {
+            this.consumer = consumer;
+            this.idleSince = idleSince;
+        }
+    }
+
+    private static class BorrowedReference extends PhantomReference<PooledConsumer> {
+        private final Consumer<String, String> consumer;
+
+        private BorrowedReference(final PooledConsumer referent, final Consumer<String, String> consumer,
+                                  final ReferenceQueue<PooledConsumer> queue) {
+            super(referent, queue);
+            this.consumer = consumer;
+        }
+    }
+
+    private class PooledConsumer extends ForwardingConsumer {
+        private final Consumer<String, String> consumer;
+        private BorrowedReference reference;
+        private boolean closed;
+        private volatile boolean wokenUp;
+
+        private PooledConsumer(final Consumer<String, String> consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        protected Consumer<String, String> delegate() {
+            if (closed) {
+                throw new IllegalStateException("Consumer was returned to pool");
+            }
+            return consumer;
+        }
+
+        @Override
+        public void wakeup() {
+            // Pending wakeup would break the next user of consumer
+            wokenUp = true;
+            super.wakeup();
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release(this, !wokenUp);
+            }
+        }
+    }
+}
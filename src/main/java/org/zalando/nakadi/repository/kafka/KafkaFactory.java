@@ -1,7 +1,9 @@
 package org.zalando.nakadi.repository.kafka;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.producer.KafkaProducer;
@@ -9,24 +11,37 @@ import org.apache.kafka.clients.producer.Producer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Component
 @Profile("!test")
 public class KafkaFactory {
 
     private final KafkaLocationManager kafkaLocationManager;
+    private final List<PartitionCache> caches;
+    private final KafkaConsumerPool consumerPool;
+    private final long prefetchMaxBytes;
+    private final int exportMaxPartitionFetchBytes;
+    private final Meter prefetchFullMeter;
+    private final ThreadFactory prefetchThreadFactory = new ThreadFactoryBuilder()
+            .setNameFormat("kafka-prefetch-%d").setDaemon(true).build();
     private final Counter useCountMetric;
     private final Counter producerTerminations;
     @Nullable
@@ -37,8 +52,25 @@ public class KafkaFactory {
     private static final Logger LOG = LoggerFactory.getLogger(KafkaFactory.class);
 
     @Autowired
-    public KafkaFactory(final KafkaLocationManager kafkaLocationManager, final MetricRegistry metricRegistry) {
+    public KafkaFactory(final KafkaLocationManager kafkaLocationManager, final MetricRegistry metricRegistry,
+                        final HotTailCache hotTailCache,
+                        final SegmentCache segmentCache,
+                        @Value("${nakadi.kafka.consumerPool.minIdle:2}") final int consumerPoolMinIdle,
+                        @Value("${nakadi.kafka.consumerPool.maxIdle:16}") final int consumerPoolMaxIdle,
+                        @Value("${nakadi.kafka.consumerPool.maxIdleTimeMs:300000}")
+                        final long consumerPoolMaxIdleTimeMs,
+                        @Value("${nakadi.kafka.prefetch.maxBytes:0}") final long prefetchMaxBytes,
+                        @Value("${nakadi.export.maxPartitionFetchBytes:8388608}")
+                        final int exportMaxPartitionFetchBytes) {
         this.kafkaLocationManager = kafkaLocationManager;
+        this.prefetchMaxBytes = prefetchMaxBytes;
+        this.exportMaxPartitionFetchBytes = exportMaxPartitionFetchBytes;
+        this.prefetchFullMeter = metricRegistry.meter("nakadi.kafka.prefetch.full");
+        this.consumerPool = new KafkaConsumerPool(this::getConsumer, consumerPoolMinIdle, consumerPoolMaxIdle,
+                consumerPoolMaxIdleTimeMs, metricRegistry);
+        // Order matters - recent data is cheaper to get from memory
+        this.caches = Stream.of(hotTailCache, segmentCache).filter(PartitionCache::isEnabled)
+                .collect(Collectors.toList());
         this.useCountMetric = metricRegistry.counter("kafka.producer.use_count");
         this.producerTerminations = metricRegistry.counter("kafka.producer.termination_count");
     }
@@ -153,9 +185,70 @@ public class KafkaFactory {
         return this.getConsumer(properties);
     }
 
+    /**
+     * Takes consumer from the pool of pre-connected consumers. Consumer has no assignments, closing it returns it
+     * back to the pool.
+     *
+     * @return Kafka consumer instance.
+     */
+    public Consumer<String, String> takeConsumer() {
+        return consumerPool.take();
+    }
+
+    @Scheduled(fixedDelay = 10000)
+    public void maintainConsumerPool() {
+        consumerPool.maintain();
+    }
+
+    @PreDestroy
+    public void closeConsumerPool() {
+        consumerPool.close();
+    }
+
+    /**
+     * Creates consumer that is used to stream events to clients. Such consumers are sharing data that was read from
+     * kafka through {@link HotTailCache} and {@link SegmentCache}. If prefetching is enabled, events are fetched
+     * ahead of the stream on a separate thread, see {@link PrefetchingConsumer}.
+     *
+     * @return Kafka consumer instance.
+     */
+    public Consumer<String, String> getStreamingConsumer() {
+        return wrapWithPrefetch(wrapWithCaches(getConsumer()));
+    }
+
     public NakadiKafkaConsumer createNakadiConsumer(final String clientId, final List<KafkaCursor> kafkaCursors,
-                                                    final long pollTimeout) {
-        return new NakadiKafkaConsumer(getConsumer(clientId), kafkaCursors, pollTimeout);
+                                                    final AdaptivePollTimeout pollTimeout) {
+        return new NakadiKafkaConsumer(wrapWithPrefetch(wrapWithCaches(takeConsumer())), kafkaCursors,
+                pollTimeout);
     }
 
+    /**
+     * Creates consumer for export of historical ranges of events. It is not pooled and is not using caches, as it
+     * is reading large amounts of old data, that should not displace recent data used by streams. Fetches are
+     * larger than the ones of streaming consumers.
+     *
+     * @return Kafka consumer instance.
+     */
+    public Consumer<String, String> getExportConsumer() {
+        final Properties properties = kafkaLocationManager.getKafkaConsumerProperties();
+        properties.put("max.partition.fetch.bytes", exportMaxPartitionFetchBytes);
+        return getConsumer(properties);
+    }
+
+    /**
+     * Creates consumer for a single fetch of events. It is taken from the pool and is not prefetching, as it is
+     * closed as soon as the response is ready.
+     */
+    public NakadiKafkaConsumer createFetchConsumer(final List<KafkaCursor> kafkaCursors, final long maxWaitMillis) {
+        return new NakadiKafkaConsumer(wrapWithCaches(takeConsumer()), kafkaCursors, maxWaitMillis);
+    }
+
+    private Consumer<String, String> wrapWithCaches(final Consumer<String, String> consumer) {
+        return caches.isEmpty() ? consumer : new CachingConsumer(consumer, caches);
+    }
+
+    private Consumer<String, String> wrapWithPrefetch(final Consumer<String, String> consumer) {
+        return prefetchMaxBytes <= 0 ? consumer :
+                new PrefetchingConsumer(consumer, prefetchMaxBytes, prefetchThreadFactory, prefetchFullMeter);
+    }
 }
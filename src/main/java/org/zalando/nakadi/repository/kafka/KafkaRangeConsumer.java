@@ -0,0 +1,83 @@
+package org.zalando.nakadi.repository.kafka;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.zalando.nakadi.domain.ConsumedEvent;
+import org.zalando.nakadi.repository.EventConsumer;
+
+/**
+ * Reads bounded ranges of partitions. Events after the end of the range are dropped and the partition is paused,
+ * so kafka is not fetching data that is not needed anymore.
+ */
+public class KafkaRangeConsumer implements EventConsumer {
+
+    private final Consumer<String, String> kafkaConsumer;
+    private final long pollTimeout;
+    // Inclusive end offsets of partitions that are not yet read to the end
+    private final Map<TopicPartition, Long> endOffsets = new HashMap<>();
+    private final Queue<ConsumedEvent> eventQueue = new LinkedList<>();
+
+    /**
+     * @param starts positions of the first events to read
+     * @param ends   positions of the last events to read, partitions with start after end are not read
+     */
+    public KafkaRangeConsumer(final Consumer<String, String> kafkaConsumer, final List<KafkaCursor> starts,
+                              final List<KafkaCursor> ends, final long pollTimeout) {
+        this.kafkaConsumer = kafkaConsumer;
+        this.pollTimeout = pollTimeout;
+        final Map<TopicPartition, Long> startOffsets = new HashMap<>();
+        starts.forEach(start -> startOffsets.put(toTopicPartition(start), start.getOffset()));
+        for (final KafkaCursor end : ends) {
+            final TopicPartition tp = toTopicPartition(end);
+            final Long start = startOffsets.get(tp);
+            if (null != start && start <= end.getOffset()) {
+                endOffsets.put(tp, end.getOffset());
+            }
+        }
+        kafkaConsumer.assign(new LinkedList<>(endOffsets.keySet()));
+        endOffsets.keySet().forEach(tp -> kafkaConsumer.seek(tp, startOffsets.get(tp)));
+    }
+
+    private static TopicPartition toTopicPartition(final KafkaCursor cursor) {
+        return new TopicPartition(cursor.getTopic(), cursor.getPartition());
+    }
+
+    @Override
+    public Optional<ConsumedEvent> readEvent() {
+        return readEvent(pollTimeout);
+    }
+
+    @Override
+    public Optional<ConsumedEvent> readEvent(final long maxWaitMillis) {
+        if (eventQueue.isEmpty() && !endOffsets.isEmpty()) {
+            for (final ConsumerRecord<String, String> record : kafkaConsumer.poll(Math.max(0, maxWaitMillis))) {
+                final TopicPartition tp = new TopicPartition(record.topic(), record.partition());
+                final Long end = endOffsets.get(tp);
+                if (null == end) {
+                    continue;
+                }
+                if (record.offset() <= end) {
+                    eventQueue.add(new ConsumedEvent(record.value(),
+                            new KafkaCursor(record.topic(), record.partition(), record.offset()).toNakadiCursor()));
+                }
+                if (record.offset() >= end) {
+                    endOffsets.remove(tp);
+                    kafkaConsumer.pause(tp);
+                }
+            }
+        }
+        return Optional.ofNullable(eventQueue.poll());
+    }
+
+    @Override
+    public void close() {
+        kafkaConsumer.close();
+    }
+}
@@ -18,7 +18,6 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import javax.annotation.Nullable;
 import kafka.admin.AdminUtils;
@@ -27,8 +26,6 @@ import kafka.utils.ZkUtils;
 import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerRecord;
-import org.apache.kafka.common.PartitionInfo;
-import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.InterruptException;
 import org.apache.kafka.common.errors.NetworkException;
 import org.apache.kafka.common.errors.NotLeaderForPartitionException;
@@ -53,6 +50,7 @@ import org.zalando.nakadi.exceptions.TopicCreationException;
 import org.zalando.nakadi.exceptions.TopicDeletionException;
 import org.zalando.nakadi.repository.EventConsumer;
 import org.zalando.nakadi.repository.TopicRepository;
+import org.zalando.nakadi.repository.zookeeper.ZkChildrenCache;
 import org.zalando.nakadi.repository.zookeeper.ZooKeeperHolder;
 import org.zalando.nakadi.repository.zookeeper.ZookeeperSettings;
 import org.zalando.nakadi.util.UUIDGenerator;
@@ -68,6 +66,8 @@ import static org.zalando.nakadi.domain.CursorError.UNAVAILABLE;
 public class KafkaTopicRepository implements TopicRepository {
 
     private static final Logger LOG = LoggerFactory.getLogger(KafkaTopicRepository.class);
+    private static final String TOPICS_PATH = "/brokers/topics";
+    private static final long TOPICS_CACHE_RETRY_MS = 30000;
 
     private final ZooKeeperHolder zkFactory;
     private final KafkaFactory kafkaFactory;
@@ -76,16 +76,23 @@ public class KafkaTopicRepository implements TopicRepository {
     private final ZookeeperSettings zookeeperSettings;
     private final ConcurrentMap<String, HystrixKafkaCircuitBreaker> circuitBreakers;
     private final UUIDGenerator uuidGenerator;
+    private final KafkaWatermarks watermarks;
+    private final Object topicsCacheLock = new Object();
+    @Nullable
+    private volatile ZkChildrenCache topicsCache;
+    private long topicsCacheRetryAt;
 
     @Autowired
     public KafkaTopicRepository(final ZooKeeperHolder zkFactory,
                                 final KafkaFactory kafkaFactory,
+                                final KafkaWatermarks watermarks,
                                 final NakadiSettings nakadiSettings,
                                 final KafkaSettings kafkaSettings,
                                 final ZookeeperSettings zookeeperSettings,
                                 final UUIDGenerator uuidGenerator) {
         this.zkFactory = zkFactory;
         this.kafkaFactory = kafkaFactory;
+        this.watermarks = watermarks;
         this.nakadiSettings = nakadiSettings;
         this.kafkaSettings = kafkaSettings;
         this.zookeeperSettings = zookeeperSettings;
@@ -97,7 +104,7 @@ public class KafkaTopicRepository implements TopicRepository {
         try {
             return zkFactory.get()
                     .getChildren()
-                    .forPath("/brokers/topics");
+                    .forPath(TOPICS_PATH);
         } catch (final Exception e) {
             throw new ServiceUnavailableException("Failed to list topics", e);
         }
@@ -148,9 +155,35 @@ public class KafkaTopicRepository implements TopicRepository {
 
     @Override
     public boolean topicExists(final String topic) throws ServiceUnavailableException {
-        return listTopics()
-                .stream()
-                .anyMatch(t -> t.equals(topic));
+        final String topicPath = TOPICS_PATH + "/" + topic;
+        final ZkChildrenCache cache = getTopicsCache();
+        if (null != cache && null != cache.getCurrentData(topicPath)) {
+            return true;
+        }
+        // Cache is updated asynchronously, so topic could be just created.
+        try {
+            return null != zkFactory.get().checkExists().forPath(topicPath);
+        } catch (final Exception e) {
+            throw new ServiceUnavailableException("Failed to check if topic " + topic + " exists", e);
+        }
+    }
+
+    @Nullable
+    private ZkChildrenCache getTopicsCache() {
+        if (null != topicsCache) {
+            return topicsCache;
+        }
+        synchronized (topicsCacheLock) {
+            if (null == topicsCache && System.currentTimeMillis() >= topicsCacheRetryAt) {
+                try {
+                    topicsCache = ZkChildrenCache.createCache(zkFactory.get(), TOPICS_PATH);
+                } catch (final RuntimeException e) {
+                    LOG.warn("Failed to create cache of topics, checking topics in zookeeper directly", e);
+                    topicsCacheRetryAt = System.currentTimeMillis() + TOPICS_CACHE_RETRY_MS;
+                }
+            }
+            return topicsCache;
+        }
     }
 
     private static CompletableFuture<Exception> publishItem(
@@ -212,32 +245,16 @@ public class KafkaTopicRepository implements TopicRepository {
 
     @Override
     public void syncPostBatch(final String topicId, final List<BatchItem> batch) throws EventPublishingException {
+        syncPostBatches(Collections.singletonMap(topicId, batch));
+    }
+
+    @Override
+    public void syncPostBatches(final Map<String, List<BatchItem>> batches) throws EventPublishingException {
         final Producer<String, String> producer = kafkaFactory.takeProducer();
         try {
-            final Map<String, String> partitionToBroker = producer.partitionsFor(topicId).stream().collect(
-                    Collectors.toMap(p -> String.valueOf(p.partition()), p -> String.valueOf(p.leader().id())));
-            batch.forEach(item -> {
-                Preconditions.checkNotNull(
-                        item.getPartition(), "BatchItem partition can't be null at the moment of publishing!");
-                item.setBrokerId(partitionToBroker.get(item.getPartition()));
-            });
-
-            int shortCircuited = 0;
             final Map<BatchItem, CompletableFuture<Exception>> sendFutures = new HashMap<>();
-            for (final BatchItem item : batch) {
-                item.setStep(EventPublishingStep.PUBLISHING);
-                final HystrixKafkaCircuitBreaker circuitBreaker = circuitBreakers.computeIfAbsent(
-                        item.getBrokerId(), brokerId -> new HystrixKafkaCircuitBreaker(brokerId));
-                if (circuitBreaker.allowRequest()) {
-                    sendFutures.put(item, publishItem(producer, topicId, item, circuitBreaker));
-                } else {
-                    shortCircuited++;
-                    item.updateStatusAndDetail(EventPublishingStatus.FAILED, "short circuited");
-                }
-            }
-            if (shortCircuited > 0) {
-                LOG.warn("Short circuiting request to Kafka {} time(s) due to timeout for topic {}",
-                        shortCircuited, topicId);
+            for (final Map.Entry<String, List<BatchItem>> topicBatch : batches.entrySet()) {
+                sendFutures.putAll(sendBatch(producer, topicBatch.getKey(), topicBatch.getValue()));
             }
             final CompletableFuture<Void> multiFuture = CompletableFuture.allOf(
                     sendFutures.values().toArray(new CompletableFuture<?>[sendFutures.size()]));
@@ -249,31 +266,67 @@ public class KafkaTopicRepository implements TopicRepository {
                     .map(entry -> entry.getValue().getNow(null))
                     .findAny();
             if (needReset.isPresent()) {
-                LOG.info("Terminating producer while publishing to topic {} because of unrecoverable exception",
-                        topicId, needReset.get());
+                LOG.info("Terminating producer while publishing to topics {} because of unrecoverable exception",
+                        batches.keySet(), needReset.get());
                 kafkaFactory.terminateProducer(producer);
             }
         } catch (final TimeoutException ex) {
-            failUnpublished(batch, "timed out");
+            batches.values().forEach(batch -> failUnpublished(batch, "timed out"));
             throw new EventPublishingException("Error publishing message to kafka", ex);
         } catch (final ExecutionException ex) {
-            failUnpublished(batch, "internal error");
+            batches.values().forEach(batch -> failUnpublished(batch, "internal error"));
             throw new EventPublishingException("Error publishing message to kafka", ex);
         } catch (final InterruptedException ex) {
             Thread.currentThread().interrupt();
-            failUnpublished(batch, "interrupted");
+            batches.values().forEach(batch -> failUnpublished(batch, "interrupted"));
             throw new EventPublishingException("Error publishing message to kafka", ex);
         } finally {
             kafkaFactory.releaseProducer(producer);
         }
-        final boolean atLeastOneFailed = batch.stream()
-                .anyMatch(item -> item.getResponse().getPublishingStatus() == EventPublishingStatus.FAILED);
+        boolean atLeastOneFailed = false;
+        for (final List<BatchItem> batch : batches.values()) {
+            if (batch.stream()
+                    .anyMatch(item -> item.getResponse().getPublishingStatus() == EventPublishingStatus.FAILED)) {
+                failUnpublished(batch, "internal error");
+                atLeastOneFailed = true;
+            }
+        }
         if (atLeastOneFailed) {
-            failUnpublished(batch, "internal error");
             throw new EventPublishingException("Error publishing message to kafka");
         }
     }
 
+    private Map<BatchItem, CompletableFuture<Exception>> sendBatch(final Producer<String, String> producer,
+                                                                   final String topicId, final List<BatchItem> batch)
+            throws EventPublishingException {
+        final Map<String, String> partitionToBroker = producer.partitionsFor(topicId).stream().collect(
+                Collectors.toMap(p -> String.valueOf(p.partition()), p -> String.valueOf(p.leader().id())));
+        batch.forEach(item -> {
+            Preconditions.checkNotNull(
+                    item.getPartition(), "BatchItem partition can't be null at the moment of publishing!");
+            item.setBrokerId(partitionToBroker.get(item.getPartition()));
+        });
+
+        int shortCircuited = 0;
+        final Map<BatchItem, CompletableFuture<Exception>> sendFutures = new HashMap<>();
+        for (final BatchItem item : batch) {
+            item.setStep(EventPublishingStep.PUBLISHING);
+            final HystrixKafkaCircuitBreaker circuitBreaker = circuitBreakers.computeIfAbsent(
+                    item.getBrokerId(), brokerId -> new HystrixKafkaCircuitBreaker(brokerId));
+            if (circuitBreaker.allowRequest()) {
+                sendFutures.put(item, publishItem(producer, topicId, item, circuitBreaker));
+            } else {
+                shortCircuited++;
+                item.updateStatusAndDetail(EventPublishingStatus.FAILED, "short circuited");
+            }
+        }
+        if (shortCircuited > 0) {
+            LOG.warn("Short circuiting request to Kafka {} time(s) due to timeout for topic {}",
+                    shortCircuited, topicId);
+        }
+        return sendFutures;
+    }
+
     private long createSendTimeout() {
         return nakadiSettings.getKafkaSendTimeoutMs() + kafkaSettings.getRequestTimeoutMs();
     }
@@ -288,55 +341,21 @@ public class KafkaTopicRepository implements TopicRepository {
     @Override
     public Optional<PartitionStatistics> loadPartitionStatistics(final String topic, final String partition)
             throws ServiceUnavailableException {
-        try (final Consumer<String, String> consumer = kafkaFactory.getConsumer()) {
-            final Optional<PartitionInfo> tp = consumer.partitionsFor(topic).stream()
-                    .filter(p -> KafkaCursor.toNakadiPartition(p.partition()).equals(partition))
-                    .findAny();
-            if (!tp.isPresent()) {
-                return Optional.empty();
-            }
-            final TopicPartition kafkaTP = tp.map(v -> new TopicPartition(v.topic(), v.partition())).get();
-            consumer.assign(Collections.singletonList(kafkaTP));
-            consumer.seekToBeginning(kafkaTP);
-
-            final long begin = consumer.position(kafkaTP);
-            consumer.seekToEnd(kafkaTP);
-            final long end = consumer.position(kafkaTP);
-
-            return Optional.of(new KafkaPartitionStatistics(kafkaTP.topic(), kafkaTP.partition(), begin, end - 1));
-        } catch (final Exception e) {
-            throw new ServiceUnavailableException("Error occurred when fetching partitions offsets", e);
-        }
+        return watermarks.getStatistics(Collections.singletonList(topic), false).stream()
+                .filter(p -> p.getPartition().equals(partition))
+                .findAny();
     }
 
     @Override
     public List<PartitionStatistics> loadTopicStatistics(final Collection<String> topicIds)
             throws ServiceUnavailableException {
-        try (final Consumer<String, String> consumer = kafkaFactory.getConsumer()) {
-            final TopicPartition[] kafkaTPs =
-                    topicIds.stream().flatMap(
-                            topic -> consumer.partitionsFor(topic).stream().map(
-                                    p -> new TopicPartition(p.topic(), p.partition())))
-                            .toArray(TopicPartition[]::new);
-            consumer.assign(Arrays.asList(kafkaTPs));
-            consumer.seekToBeginning(kafkaTPs);
-            final long[] begins = Stream.of(kafkaTPs).mapToLong(consumer::position).toArray();
-
-            consumer.seekToEnd(kafkaTPs);
-            final long[] ends = Stream.of(kafkaTPs).mapToLong(consumer::position).toArray();
-
-            return IntStream.range(0, kafkaTPs.length)
-                    .mapToObj(i -> new KafkaPartitionStatistics(
-                            kafkaTPs[i].topic(), kafkaTPs[i].partition(), begins[i], ends[i] - 1)).collect(toList());
-        } catch (final Exception e) {
-            throw new ServiceUnavailableException("Error occurred when fetching partitions offsets", e);
-        }
+        return watermarks.getStatistics(topicIds, false);
     }
 
     @Override
     public Map<String, Long> materializePositions(final String topicId, final SubscriptionBase.InitialPosition position)
             throws ServiceUnavailableException {
-        try (final Consumer<String, String> consumer = kafkaFactory.getConsumer()) {
+        try (final Consumer<String, String> consumer = kafkaFactory.takeConsumer()) {
 
             final org.apache.kafka.common.TopicPartition[] kafkaTPs = consumer
                     .partitionsFor(topicId)
@@ -374,20 +393,36 @@ public class KafkaTopicRepository implements TopicRepository {
     }
 
     public Consumer<String, String> createKafkaConsumer() {
-        return kafkaFactory.getConsumer();
+        return kafkaFactory.getStreamingConsumer();
     }
 
     @Override
     public EventConsumer createEventConsumer(final String clientId, final List<NakadiCursor> cursors)
             throws ServiceUnavailableException, InvalidCursorException {
+        return kafkaFactory.createNakadiConsumer(clientId, toConsumingPositions(cursors),
+                new AdaptivePollTimeout(nakadiSettings.getKafkaPollTimeoutMs(),
+                        nakadiSettings.getKafkaPollMaxIdleTimeoutMs()));
+    }
 
-        final List<KafkaCursor> kafkaCursors = this.convertToKafkaCursors(cursors)
+    @Override
+    public EventConsumer createFetchConsumer(final List<NakadiCursor> cursors, final long maxWaitMillis)
+            throws ServiceUnavailableException, InvalidCursorException {
+        return kafkaFactory.createFetchConsumer(toConsumingPositions(cursors), maxWaitMillis);
+    }
+
+    @Override
+    public EventConsumer createRangeConsumer(final List<NakadiCursor> starts, final List<NakadiCursor> ends)
+            throws ServiceUnavailableException, InvalidCursorException {
+        return new KafkaRangeConsumer(kafkaFactory.getExportConsumer(), toConsumingPositions(starts),
+                convertToKafkaCursors(ends), nakadiSettings.getKafkaPollTimeoutMs());
+    }
+
+    private List<KafkaCursor> toConsumingPositions(final List<NakadiCursor> cursors)
+            throws ServiceUnavailableException, InvalidCursorException {
+        return this.convertToKafkaCursors(cursors)
                 .stream()
                 .map(cursor -> cursor.addOffset(1)) // Position on data to consume, not the existing one
                 .collect(toList());
-
-        return kafkaFactory.createNakadiConsumer(clientId, kafkaCursors,
-                nakadiSettings.getKafkaPollTimeoutMs());
     }
 
     public int compareOffsets(final NakadiCursor first, final NakadiCursor second) throws InvalidCursorException {
@@ -397,8 +432,20 @@ public class KafkaTopicRepository implements TopicRepository {
     private List<KafkaCursor> convertToKafkaCursors(final List<NakadiCursor> cursors)
             throws ServiceUnavailableException, InvalidCursorException {
         final List<String> topics = cursors.stream().map(NakadiCursor::getTopic).distinct().collect(toList());
-        final List<PartitionStatistics> statistics = loadTopicStatistics(topics);
+        try {
+            return convertToKafkaCursors(cursors, watermarks.getStatistics(topics, false));
+        } catch (final InvalidCursorException e) {
+            if (e.getError() != UNAVAILABLE && e.getError() != PARTITION_NOT_FOUND) {
+                throw e;
+            }
+            // Cached offsets may be outdated, only fresh ones can tell that cursor is invalid
+            return convertToKafkaCursors(cursors, watermarks.getStatistics(topics, true));
+        }
+    }
 
+    private List<KafkaCursor> convertToKafkaCursors(final List<NakadiCursor> cursors,
+                                                    final List<PartitionStatistics> statistics)
+            throws InvalidCursorException {
         final List<KafkaCursor> result = new ArrayList<>(cursors.size());
         for (final NakadiCursor position : cursors) {
             validateCursorForNulls(position);
@@ -0,0 +1,151 @@
+package org.zalando.nakadi.repository.kafka;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.zalando.nakadi.domain.PartitionStatistics;
+import org.zalando.nakadi.exceptions.ServiceUnavailableException;
+
+/**
+ * Keeps begin and end offsets of kafka partitions. Offsets are loaded with consumers that are taken from the pool of
+ * {@link KafkaFactory} and are reused for {@code ttlMs}, so opening of streams and statistics requests are not
+ * creating consumers on each call. Requests are not waiting for each other while offsets are loaded, so offsets of
+ * the same partitions may be loaded by concurrent requests at the same time.
+ */
+@Component
+@Profile("!test")
+public class KafkaWatermarks {
+
+    private static class Watermark {
+        private final long begin;
+        private final long end;
+        private final long loadedAt;
+
+        private Watermark(final long begin, final long end, final long loadedAt) {
+            this.begin = begin;
+            this.end = end;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private static class TopicPartitions {
+        private final List<TopicPartition> partitions;
+        private final long loadedAt;
+
+        private TopicPartitions(final List<TopicPartition> partitions, final long loadedAt) {
+            this.partitions = partitions;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private final KafkaFactory kafkaFactory;
+    private final long ttlMs;
+    private final Meter hits;
+    private final Meter loads;
+    private final Map<String, TopicPartitions> topics = new ConcurrentHashMap<>();
+    private final Map<TopicPartition, Watermark> watermarks = new ConcurrentHashMap<>();
+
+    @Autowired
+    public KafkaWatermarks(final KafkaFactory kafkaFactory,
+                           @Value("${nakadi.kafka.watermarks.ttlMs:500}") final long ttlMs,
+                           final MetricRegistry metricRegistry) {
+        this.kafkaFactory = kafkaFactory;
+        this.ttlMs = ttlMs;
+        this.hits = metricRegistry.meter("nakadi.kafka.watermarks.hits");
+        this.loads = metricRegistry.meter("nakadi.kafka.watermarks.loads");
+    }
+
+    /**
+     * Returns statistics for all the partitions of topics.
+     *
+     * @param topics       Topics to get statistics for
+     * @param forceRefresh If set, offsets and partitions are reloaded from kafka even if cached values are fresh
+     */
+    public List<PartitionStatistics> getStatistics(final Collection<String> topics, final boolean forceRefresh)
+            throws ServiceUnavailableException {
+        Consumer<String, String> consumer = null;
+        try {
+            final long now = System.currentTimeMillis();
+            final Map<TopicPartition, Watermark> result = new HashMap<>();
+            final List<TopicPartition> partitions = new ArrayList<>();
+            for (final String topic : topics) {
+                final TopicPartitions cached = this.topics.get(topic);
+                if (!forceRefresh && null != cached && now - cached.loadedAt < ttlMs) {
+                    partitions.addAll(cached.partitions);
+                } else {
+                    consumer = null == consumer ? kafkaFactory.takeConsumer() : consumer;
+                    partitions.addAll(loadPartitions(consumer, topic, now));
+                }
+            }
+            final List<TopicPartition> toLoad = new ArrayList<>();
+            for (final TopicPartition tp : partitions) {
+                final Watermark watermark = watermarks.get(tp);
+                if (!forceRefresh && isFresh(watermark, now)) {
+                    result.put(tp, watermark);
+                } else {
+                    toLoad.add(tp);
+                }
+            }
+            if (!toLoad.isEmpty()) {
+                consumer = null == consumer ? kafkaFactory.takeConsumer() : consumer;
+                result.putAll(loadWatermarks(consumer, toLoad, now));
+            }
+            hits.mark(partitions.size() - toLoad.size());
+            return partitions.stream()
+                    .map(tp -> new KafkaPartitionStatistics(
+                            tp.topic(), tp.partition(), result.get(tp).begin, result.get(tp).end - 1))
+                    .collect(Collectors.toList());
+        } catch (final RuntimeException e) {
+            throw new ServiceUnavailableException("Error occurred when fetching partitions offsets", e);
+        } finally {
+            if (null != consumer) {
+                // Returns consumer to the pool
+                consumer.close();
+            }
+        }
+    }
+
+    private boolean isFresh(final Watermark watermark, final long now) {
+        return null != watermark && now - watermark.loadedAt < ttlMs;
+    }
+
+    private List<TopicPartition> loadPartitions(final Consumer<String, String> consumer, final String topic,
+                                                final long now) {
+        final List<TopicPartition> partitions = consumer.partitionsFor(topic).stream()
+                .map(p -> new TopicPartition(p.topic(), p.partition()))
+                .collect(Collectors.toList());
+        topics.put(topic, new TopicPartitions(partitions, now));
+        return partitions;
+    }
+
+    private Map<TopicPartition, Watermark> loadWatermarks(final Consumer<String, String> consumer,
+                                                          final List<TopicPartition> partitions, final long now) {
+        final TopicPartition[] kafkaTPs = partitions.toArray(new TopicPartition[partitions.size()]);
+        consumer.assign(partitions);
+        consumer.seekToBeginning(kafkaTPs);
+        final long[] begins = new long[kafkaTPs.length];
+        for (int i = 0; i < kafkaTPs.length; ++i) {
+            begins[i] = consumer.position(kafkaTPs[i]);
+        }
+        consumer.seekToEnd(kafkaTPs);
+        final Map<TopicPartition, Watermark> loaded = new HashMap<>();
+        for (int i = 0; i < kafkaTPs.length; ++i) {
+            loaded.put(kafkaTPs[i], new Watermark(begins[i], consumer.position(kafkaTPs[i]), now));
+        }
+        watermarks.putAll(loaded);
+        loads.mark(kafkaTPs.length);
+        return loaded;
+    }
+}
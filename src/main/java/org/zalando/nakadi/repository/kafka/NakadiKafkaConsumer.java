@@ -20,11 +20,24 @@ public class NakadiKafkaConsumer implements EventConsumer {
 
     private final long pollTimeout;
 
+    private final AdaptivePollTimeout adaptivePollTimeout;
+
     public NakadiKafkaConsumer(final Consumer<String, String> kafkaConsumer, final List<KafkaCursor> kafkaCursors,
                                final long pollTimeout) {
+        this(kafkaConsumer, kafkaCursors, new AdaptivePollTimeout(pollTimeout, pollTimeout), pollTimeout);
+    }
+
+    public NakadiKafkaConsumer(final Consumer<String, String> kafkaConsumer, final List<KafkaCursor> kafkaCursors,
+                               final AdaptivePollTimeout adaptivePollTimeout) {
+        this(kafkaConsumer, kafkaCursors, adaptivePollTimeout, adaptivePollTimeout.getBaseMillis());
+    }
+
+    private NakadiKafkaConsumer(final Consumer<String, String> kafkaConsumer, final List<KafkaCursor> kafkaCursors,
+                                final AdaptivePollTimeout adaptivePollTimeout, final long pollTimeout) {
         eventQueue = Lists.newLinkedList();
         this.kafkaConsumer = kafkaConsumer;
         this.pollTimeout = pollTimeout;
+        this.adaptivePollTimeout = adaptivePollTimeout;
 
         // define topic/partitions to consume from
         final List<TopicPartition> topicPartitions = kafkaCursors
@@ -49,7 +62,19 @@ public class NakadiKafkaConsumer implements EventConsumer {
     @Override
     public Optional<ConsumedEvent> readEvent() {
         if (eventQueue.isEmpty()) {
-            pollFromKafka();
+            pollFromKafka(pollTimeout);
+        }
+        return Optional.ofNullable(eventQueue.poll());
+    }
+
+    /**
+     * Waits for events with timeout picked by {@link AdaptivePollTimeout}, so idle streams are polling rarely.
+     */
+    @Override
+    public Optional<ConsumedEvent> readEvent(final long maxWaitMillis) {
+        if (eventQueue.isEmpty()) {
+            pollFromKafka(adaptivePollTimeout.next(maxWaitMillis));
+            adaptivePollTimeout.onPoll(eventQueue.size());
         }
         return Optional.ofNullable(eventQueue.poll());
     }
@@ -59,8 +84,8 @@ public class NakadiKafkaConsumer implements EventConsumer {
         kafkaConsumer.close();
     }
 
-    private void pollFromKafka() {
-        final ConsumerRecords<String, String> records = kafkaConsumer.poll(pollTimeout);
+    private void pollFromKafka(final long timeout) {
+        final ConsumerRecords<String, String> records = kafkaConsumer.poll(timeout);
         eventQueue = StreamSupport
                 .stream(records.spliterator(), false)
                 .map(record -> {
@@ -0,0 +1,25 @@
+package org.zalando.nakadi.repository.kafka;
+
+import java.util.List;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * Node-local cache of events that were read from kafka partitions.
+ */
+interface PartitionCache {
+
+    boolean isEnabled();
+
+    /**
+     * Reads events starting from offset {@code offset}.
+     *
+     * @return Events in offset order or empty list if offset is not resident in cache.
+     */
+    List<ConsumerRecord<String, String>> read(TopicPartition tp, long offset);
+
+    /**
+     * Puts events read from kafka to cache. Events must go in offset order without gaps.
+     */
+    void append(TopicPartition tp, List<ConsumerRecord<String, String>> records);
+}
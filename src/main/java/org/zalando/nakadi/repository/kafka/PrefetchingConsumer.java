@@ -0,0 +1,384 @@
+package org.zalando.nakadi.repository.kafka;
+
+import com.codahale.metrics.Meter;
+import com.google.common.base.Utf8;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetCommitCallback;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Kafka consumer that fetches records on a separate thread, so fetching from kafka is not stopped while the owner
+ * of consumer is blocked (for example on writing to a slow client). Fetched records are buffered until the buffer
+ * holds at least {@code maxBytes} of event payloads, then fetching waits for the owner to poll.
+ * <p>
+ * {@link #poll(long)} returns everything that was buffered so far, while the fetcher fills the next buffer. Any call
+ * that changes assignment or positions drops the buffer and rewinds partitions to the first record that was not yet
+ * returned, so the owner sees exactly the same records as it would see without prefetching.
+ * <p>
+ * Failure of fetching stops the fetcher and is thrown once from the next {@link #poll(long)}, as it would be thrown
+ * by the consumer itself. The fetcher is started again by the following poll, so transient errors are not ending
+ * the stream, and a change of positions or assignment discards an error that was not thrown yet.
+ */
+class PrefetchingConsumer implements Consumer<String, String> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PrefetchingConsumer.class);
+    // Bounds the time calls from the owner wait for the fetcher to release the consumer
+    private static final long FETCH_TIMEOUT_MS = 10;
+
+    private final Consumer<String, String> consumer;
+    private final long maxBytes;
+    private final ThreadFactory threadFactory;
+    private final Meter fullMeter;
+
+    // Fair, so the owner is not starved by the fetcher re-acquiring the lock in a loop
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition dataAvailable = lock.newCondition();
+    private final Condition spaceAvailable = lock.newCondition();
+    private final ArrayDeque<ConsumerRecords<String, String>> buffer = new ArrayDeque<>();
+    private long bufferedBytes;
+    // Error of the stopped fetcher that was not thrown to the owner yet
+    private RuntimeException fetchError;
+    private boolean wakeupRequested;
+    private boolean closed;
+    private Thread fetcher;
+
+    PrefetchingConsumer(final Consumer<String, String> consumer, final long maxBytes,
+                        final ThreadFactory threadFactory, final Meter fullMeter) {
+        this.consumer = consumer;
+        this.maxBytes = maxBytes;
+        this.threadFactory = threadFactory;
+        this.fullMeter = fullMeter;
+    }
+
+    @Override
+    public ConsumerRecords<String, String> poll(final long timeout) {
+        lock.lock();
+        try {
+            ensureOpen();
+            if (null == fetcher) {
+                fetcher = threadFactory.newThread(this::fetchLoop);
+                fetcher.start();
+            }
+            long nanosLeft = TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (buffer.isEmpty() && null == fetchError && !wakeupRequested && nanosLeft > 0) {
+                nanosLeft = dataAvailable.awaitNanos(nanosLeft);
+            }
+            if (wakeupRequested) {
+                wakeupRequested = false;
+                throw new WakeupException();
+            }
+            if (null != fetchError) {
+                final RuntimeException error = fetchError;
+                fetchError = null;
+                throw error;
+            }
+            return drainBuffer();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ConsumerRecords.empty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ConsumerRecords<String, String> drainBuffer() {
+        if (buffer.isEmpty()) {
+            return ConsumerRecords.empty();
+        }
+        final ConsumerRecords<String, String> result;
+        if (buffer.size() == 1) {
+            result = buffer.poll();
+        } else {
+            final Map<TopicPartition, List<ConsumerRecord<String, String>>> merged = new HashMap<>();
+            for (final ConsumerRecords<String, String> records : buffer) {
+                for (final TopicPartition tp : records.partitions()) {
+                    merged.computeIfAbsent(tp, k -> new ArrayList<>()).addAll(records.records(tp));
+                }
+            }
+            buffer.clear();
+            result = new ConsumerRecords<>(merged);
+        }
+        bufferedBytes = 0;
+        spaceAvailable.signalAll();
+        return result;
+    }
+
+    private void fetchLoop() {
+        while (true) {
+            lock.lock();
+            try {
+                if (bufferedBytes >= maxBytes && !closed) {
+                    fullMeter.mark();
+                    while (bufferedBytes >= maxBytes && !closed) {
+                        spaceAvailable.await();
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                if (consumer.assignment().isEmpty()) {
+                    // Kafka consumer can not poll without assignment
+                    spaceAvailable.await(FETCH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    continue;
+                }
+                final ConsumerRecords<String, String> records = consumer.poll(FETCH_TIMEOUT_MS);
+                if (!records.isEmpty()) {
+                    buffer.add(records);
+                    for (final ConsumerRecord<String, String> record : records) {
+                        bufferedBytes += null == record.value() ? 0 : Utf8.encodedLength(record.value());
+                    }
+                    dataAvailable.signalAll();
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (final RuntimeException e) {
+                LOG.warn("Failed to prefetch events from kafka", e);
+                fetchError = e;
+                fetcher = null;
+                dataAvailable.signalAll();
+                return;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Drops prefetched records, moving positions of partitions back to the first record that was not returned to
+     * the owner.
+     */
+    private void rewind() {
+        final Set<TopicPartition> rewound = new HashSet<>();
+        for (final ConsumerRecords<String, String> records : buffer) {
+            for (final TopicPartition tp : records.partitions()) {
+                final List<ConsumerRecord<String, String>> tpRecords = records.records(tp);
+                // Buffer is ordered, so the first record of partition is the one to be returned next
+                if (!tpRecords.isEmpty() && rewound.add(tp)) {
+                    consumer.seek(tp, tpRecords.get(0).offset());
+                }
+            }
+        }
+        buffer.clear();
+        bufferedBytes = 0;
+        spaceAvailable.signalAll();
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Consumer is already closed");
+        }
+    }
+
+    private <T> T locked(final Supplier<T> action) {
+        lock.lock();
+        try {
+            ensureOpen();
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void lockedChange(final Runnable action) {
+        lock.lock();
+        try {
+            ensureOpen();
+            rewind();
+            fetchError = null;
+            action.run();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Set<TopicPartition> assignment() {
+        return locked(consumer::assignment);
+    }
+
+    @Override
+    public Set<String> subscription() {
+        return locked(consumer::subscription);
+    }
+
+    @Override
+    public void subscribe(final List<String> topics) {
+        lockedChange(() -> consumer.subscribe(topics));
+    }
+
+    @Override
+    public void subscribe(final List<String> topics, final ConsumerRebalanceListener callback) {
+        lockedChange(() -> consumer.subscribe(topics, callback));
+    }
+
+    @Override
+    public void assign(final List<TopicPartition> partitions) {
+        lockedChange(() -> consumer.assign(partitions));
+    }
+
+    @Override
+    public void subscribe(final Pattern pattern, final ConsumerRebalanceListener callback) {
+        lockedChange(() -> consumer.subscribe(pattern, callback));
+    }
+
+    @Override
+    public void unsubscribe() {
+        lockedChange(consumer::unsubscribe);
+    }
+
+    @Override
+    public void commitSync() {
+        lockedChange(consumer::commitSync);
+    }
+
+    @Override
+    public void commitSync(final Map<TopicPartition, OffsetAndMetadata> offsets) {
+        locked(() -> {
+            consumer.commitSync(offsets);
+            return null;
+        });
+    }
+
+    @Override
+    public void commitAsync() {
+        lockedChange(consumer::commitAsync);
+    }
+
+    @Override
+    public void commitAsync(final OffsetCommitCallback callback) {
+        lockedChange(() -> consumer.commitAsync(callback));
+    }
+
+    @Override
+    public void commitAsync(final Map<TopicPartition, OffsetAndMetadata> offsets,
+                            final OffsetCommitCallback callback) {
+        locked(() -> {
+            consumer.commitAsync(offsets, callback);
+            return null;
+        });
+    }
+
+    @Override
+    public void seek(final TopicPartition partition, final long offset) {
+        lockedChange(() -> consumer.seek(partition, offset));
+    }
+
+    @Override
+    public void seekToBeginning(final TopicPartition... partitions) {
+        lockedChange(() -> consumer.seekToBeginning(partitions));
+    }
+
+    @Override
+    public void seekToEnd(final TopicPartition... partitions) {
+        lockedChange(() -> consumer.seekToEnd(partitions));
+    }
+
+    @Override
+    public long position(final TopicPartition partition) {
+        lock.lock();
+        try {
+            ensureOpen();
+            for (final ConsumerRecords<String, String> records : buffer) {
+                final List<ConsumerRecord<String, String>> tpRecords = records.records(partition);
+                if (!tpRecords.isEmpty()) {
+                    return tpRecords.get(0).offset();
+                }
+            }
+            return consumer.position(partition);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public OffsetAndMetadata committed(final TopicPartition partition) {
+        return locked(() -> consumer.committed(partition));
+    }
+
+    @Override
+    public Map<MetricName, ? extends Metric> metrics() {
+        return locked(consumer::metrics);
+    }
+
+    @Override
+    public List<PartitionInfo> partitionsFor(final String topic) {
+        return locked(() -> consumer.partitionsFor(topic));
+    }
+
+    @Override
+    public Map<String, List<PartitionInfo>> listTopics() {
+        return locked(consumer::listTopics);
+    }
+
+    @Override
+    public void pause(final TopicPartition... partitions) {
+        lockedChange(() -> consumer.pause(partitions));
+    }
+
+    @Override
+    public void resume(final TopicPartition... partitions) {
+        lockedChange(() -> consumer.resume(partitions));
+    }
+
+    @Override
+    public void wakeup() {
+        // Only the owner may be waiting in poll, fetcher is never woken up.
+        lock.lock();
+        try {
+            wakeupRequested = true;
+            dataAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        final Thread fetcherToJoin;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            buffer.clear();
+            spaceAvailable.signalAll();
+            fetcherToJoin = fetcher;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            if (null != fetcherToJoin) {
+                fetcherToJoin.join();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            consumer.close();
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package org.zalando.nakadi.repository.kafka;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Optional node-local cache of partition ranges, that were read from kafka. Data is kept in memory-mapped segment
+ * files on local disk, so that catch-up reads (replays from the beginning, backfills) of the same range by other
+ * streams do not hit kafka brokers again.
+ * <p>
+ * Segment files are preallocated slots of the same size, the number of slots is limited by disk budget. It is not
+ * possible to unmap a file in java, therefore files are never deleted while application is running. Evicted
+ * segments are returned to the pool of free slots and reused for other ranges. Segments are evicted when they are
+ * older than configured age, or when there is no free slot for new data (least recently used segment is evicted
+ * in this case).
+ * <p>
+ * Index of segments is kept in memory only, segment files left from previous runs are removed on start.
+ */
+@Component
+public class SegmentCache implements PartitionCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentCache.class);
+    private static final String SEGMENT_FILE_PREFIX = "segment-";
+    private static final int MAX_EVENTS_PER_READ = 1000;
+
+    private final File directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final long maxAgeMs;
+    private final Map<TopicPartition, PartitionSegments> partitions = new ConcurrentHashMap<>();
+
+    private final Object poolLock = new Object();
+    private final ArrayDeque<Segment> freeSegments = new ArrayDeque<>();
+    private int segmentsCreated;
+    private volatile boolean failed;
+
+    private final Meter hits;
+    private final Meter misses;
+    private final Meter evictions;
+
+    @Autowired
+    public SegmentCache(@Value("${nakadi.cache.segments.dir:}") final String directory,
+                        @Value("${nakadi.cache.segments.maxBytes:0}") final long maxBytes,
+                        @Value("${nakadi.cache.segments.segmentBytes:67108864}") final int segmentBytes,
+                        @Value("${nakadi.cache.segments.maxAgeMs:3600000}") final long maxAgeMs,
+                        final MetricRegistry metricRegistry) {
+        this.directory = directory.isEmpty() ? null : new File(directory);
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = segmentBytes > 0 ? (int) Math.min(Integer.MAX_VALUE, maxBytes / segmentBytes) : 0;
+        this.maxAgeMs = maxAgeMs;
+
+        this.hits = metricRegistry.meter("nakadi.segment_cache.hits");
+        this.misses = metricRegistry.meter("nakadi.segment_cache.misses");
+        this.evictions = metricRegistry.meter("nakadi.segment_cache.evictions");
+        metricRegistry.register("nakadi.segment_cache.bytes_allocated", (Gauge<Long>) this::getAllocatedBytes);
+        metricRegistry.register("nakadi.segment_cache.bytes_free", (Gauge<Long>) this::getFreeBytes);
+
+        if (null != this.directory && maxSegments > 0) {
+            prepareDirectory();
+        }
+    }
+
+    private void prepareDirectory() {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            LOG.error("Failed to create segment cache directory {}, segment cache is disabled", directory);
+            failed = true;
+            return;
+        }
+        final File[] leftovers = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_FILE_PREFIX));
+        if (null != leftovers) {
+            Stream.of(leftovers).filter(f -> !f.delete()).forEach(f -> LOG.warn("Failed to remove {}", f));
+        }
+        LOG.info("Segment cache enabled in {} with {} segments of {} bytes", directory, maxSegments, segmentBytes);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return null != directory && maxSegments > 0 && !failed;
+    }
+
+    @Override
+    public List<ConsumerRecord<String, String>> read(final TopicPartition tp, final long offset) {
+        final PartitionSegments ps = partitions.get(tp);
+        List<ConsumerRecord<String, String>> result = Collections.emptyList();
+        if (null != ps) {
+            ps.lock.lock();
+            try {
+                result = ps.read(offset, MAX_EVENTS_PER_READ);
+            } finally {
+                ps.lock.unlock();
+            }
+        }
+        if (result.isEmpty()) {
+            misses.mark();
+        } else {
+            hits.mark();
+        }
+        return result;
+    }
+
+    @Override
+    public void append(final TopicPartition tp, final List<ConsumerRecord<String, String>> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        final PartitionSegments ps = partitions.computeIfAbsent(tp, PartitionSegments::new);
+        for (final ConsumerRecord<String, String> record : records) {
+            if (null == record.value()) {
+                continue;
+            }
+            final byte[] data = record.value().getBytes(StandardCharsets.UTF_8);
+            if (data.length > segmentBytes || appendToExistingSegment(ps, record.offset(), data)) {
+                continue;
+            }
+            final Segment segment = acquireSegment();
+            if (null == segment) {
+                return;
+            }
+            boolean used = false;
+            ps.lock.lock();
+            try {
+                if (!ps.isCovered(record.offset())) {
+                    segment.reset(record.offset());
+                    segment.tryAppend(data);
+                    ps.segments.put(record.offset(), segment);
+                    used = true;
+                }
+            } finally {
+                ps.lock.unlock();
+            }
+            if (!used) {
+                releaseSegments(Collections.singletonList(segment));
+            }
+        }
+    }
+
+    private boolean appendToExistingSegment(final PartitionSegments ps, final long offset, final byte[] data) {
+        ps.lock.lock();
+        try {
+            if (ps.isCovered(offset)) {
+                return true;
+            }
+            final Map.Entry<Long, Segment> floor = ps.segments.floorEntry(offset);
+            return null != floor && floor.getValue().getNextOffset() == offset && floor.getValue().tryAppend(data);
+        } finally {
+            ps.lock.unlock();
+        }
+    }
+
+    private Segment acquireSegment() {
+        synchronized (poolLock) {
+            final Segment free = freeSegments.pollFirst();
+            if (null != free) {
+                return free;
+            }
+            if (segmentsCreated < maxSegments && !failed) {
+                final File file = new File(directory, SEGMENT_FILE_PREFIX + segmentsCreated);
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength(segmentBytes);
+                    final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                            segmentBytes);
+                    segmentsCreated += 1;
+                    return new Segment(buffer);
+                } catch (final IOException e) {
+                    LOG.error("Failed to create segment file {}, segment cache is disabled", file, e);
+                    failed = true;
+                    return null;
+                }
+            }
+        }
+        return evictLeastRecentlyUsed();
+    }
+
+    private Segment evictLeastRecentlyUsed() {
+        PartitionSegments victim = null;
+        long victimAccess = Long.MAX_VALUE;
+        Long victimKey = null;
+        for (final PartitionSegments ps : partitions.values()) {
+            if (!ps.lock.tryLock()) {
+                continue;
+            }
+            try {
+                for (final Map.Entry<Long, Segment> entry : ps.segments.entrySet()) {
+                    if (entry.getValue().lastAccess < victimAccess) {
+                        victim = ps;
+                        victimKey = entry.getKey();
+                        victimAccess = entry.getValue().lastAccess;
+                    }
+                }
+            } finally {
+                ps.lock.unlock();
+            }
+        }
+        if (null == victim || !victim.lock.tryLock()) {
+            return null;
+        }
+        try {
+            final Segment segment = victim.segments.remove(victimKey);
+            if (null != segment) {
+                evictions.mark();
+            }
+            return segment;
+        } finally {
+            victim.lock.unlock();
+        }
+    }
+
+    private void releaseSegments(final List<Segment> segments) {
+        if (segments.isEmpty()) {
+            return;
+        }
+        synchronized (poolLock) {
+            freeSegments.addAll(segments);
+        }
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void evictExpired() {
+        if (!isEnabled()) {
+            return;
+        }
+        final long createdBefore = System.currentTimeMillis() - maxAgeMs;
+        final List<Segment> expired = new ArrayList<>();
+        for (final PartitionSegments ps : partitions.values()) {
+            ps.lock.lock();
+            try {
+                final Iterator<Segment> it = ps.segments.values().iterator();
+                while (it.hasNext()) {
+                    final Segment segment = it.next();
+                    if (segment.createdAt < createdBefore) {
+                        expired.add(segment);
+                        it.remove();
+                    }
+                }
+            } finally {
+                ps.lock.unlock();
+            }
+        }
+        if (!expired.isEmpty()) {
+            LOG.debug("Evicting {} expired segments", expired.size());
+            evictions.mark(expired.size());
+            releaseSegments(expired);
+        }
+    }
+
+    @VisibleForTesting
+    long getAllocatedBytes() {
+        synchronized (poolLock) {
+            return (long) segmentsCreated * segmentBytes;
+        }
+    }
+
+    @VisibleForTesting
+    long getFreeBytes() {
+        synchronized (poolLock) {
+            return (long) freeSegments.size() * segmentBytes;
+        }
+    }
+
+    private static class PartitionSegments {
+        private final TopicPartition tp;
+        private final ReentrantLock lock = new ReentrantLock();
+        // Segments by base offset. Ranges of segments are not overlapping.
+        private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+        private PartitionSegments(final TopicPartition tp) {
+            this.tp = tp;
+        }
+
+        private boolean isCovered(final long offset) {
+            final Map.Entry<Long, Segment> floor = segments.floorEntry(offset);
+            return null != floor && offset < floor.getValue().getNextOffset();
+        }
+
+        private List<ConsumerRecord<String, String>> read(final long offset, final int maxEvents) {
+            if (!isCovered(offset)) {
+                return Collections.emptyList();
+            }
+            final List<ConsumerRecord<String, String>> result = new ArrayList<>();
+            long current = offset;
+            Segment segment = segments.floorEntry(offset).getValue();
+            while (null != segment && result.size() < maxEvents) {
+                segment.lastAccess = System.currentTimeMillis();
+                while (current < segment.getNextOffset() && result.size() < maxEvents) {
+                    result.add(new ConsumerRecord<>(tp.topic(), tp.partition(), current, null,
+                            segment.get((int) (current - segment.baseOffset))));
+                    ++current;
+                }
+                // Ranges may be adjacent, in this case reading continues from the next segment.
+                segment = segments.get(current);
+            }
+            return result;
+        }
+    }
+
+    private static class Segment {
+        private final MappedByteBuffer data;
+        private final ByteBuffer readView;
+        private long baseOffset;
+        private int count;
+        private int[] ends = new int[1024];
+        private long createdAt;
+        private long lastAccess;
+
+        private Segment(final MappedByteBuffer data) {
+            this.data = data;
+            this.readView = data.duplicate();
+        }
+
+        private void reset(final long baseOffset) {
+            this.baseOffset = baseOffset;
+            this.count = 0;
+            this.createdAt = System.currentTimeMillis();
+            this.lastAccess = this.createdAt;
+            this.data.clear();
+        }
+
+        private long getNextOffset() {
+            return baseOffset + count;
+        }
+
+        private boolean tryAppend(final byte[] bytes) {
+            if (data.remaining() < bytes.length) {
+                return false;
+            }
+            data.put(bytes);
+            if (count == ends.length) {
+                ends = Arrays.copyOf(ends, ends.length * 2);
+            }
+            ends[count++] = data.position();
+            return true;
+        }
+
+        private String get(final int idx) {
+            final int start = idx == 0 ? 0 : ends[idx - 1];
+            final byte[] result = new byte[ends[idx] - start];
+            readView.limit(ends[idx]).position(start);
+            readView.get(result);
+            return new String(result, StandardCharsets.UTF_8);
+        }
+    }
+}
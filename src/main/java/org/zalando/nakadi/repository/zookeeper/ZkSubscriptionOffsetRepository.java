@@ -0,0 +1,155 @@
+package org.zalando.nakadi.repository.zookeeper;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.transaction.CuratorTransaction;
+import org.apache.curator.framework.api.transaction.CuratorTransactionFinal;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.zalando.nakadi.exceptions.NakadiRuntimeException;
+import org.zalando.nakadi.repository.SubscriptionOffsetRepository;
+import org.zalando.nakadi.service.subscription.model.Partition;
+import org.zalando.nakadi.service.subscription.zk.ChangeListener;
+import org.zalando.nakadi.service.subscription.zk.ZKSubscription;
+
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps offsets in zookeeper, as children of nodes of partitions:
+ * /nakadi/subscriptions/{subscription_id}/topics/{topic}/{partition}/offset. Offsets are removed together with
+ * zookeeper data of subscription.
+ */
+public class ZkSubscriptionOffsetRepository implements SubscriptionOffsetRepository {
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final long READ_TIMEOUT_MS = 10000;
+
+    private final ZooKeeperHolder zkHolder;
+
+    public ZkSubscriptionOffsetRepository(final ZooKeeperHolder zkHolder) {
+        this.zkHolder = zkHolder;
+    }
+
+    private static String getOffsetPath(final String subscriptionId, final Partition.PartitionKey key) {
+        return "/nakadi/subscriptions/" + subscriptionId + "/topics/" + key.getTopic() + "/" + key.getPartition()
+                + "/offset";
+    }
+
+    @Override
+    public void createOffsets(final String subscriptionId, final Map<Partition.PartitionKey, Long> offsets) {
+        final CuratorFramework curator = zkHolder.get();
+        try {
+            for (final Map.Entry<Partition.PartitionKey, Long> entry : offsets.entrySet()) {
+                final String offsetPath = getOffsetPath(subscriptionId, entry.getKey());
+                final byte[] data = String.valueOf(entry.getValue()).getBytes(CHARSET);
+                if (null == curator.checkExists().forPath(offsetPath)) {
+                    curator.create().creatingParentsIfNeeded().forPath(offsetPath, data);
+                } else {
+                    curator.setData().forPath(offsetPath, data);
+                }
+            }
+        } catch (final Exception e) {
+            throw new NakadiRuntimeException(e);
+        }
+    }
+
+    @Override
+    public void deleteOffsets(final String subscriptionId) {
+        // Offsets are deleted with the node of subscription
+    }
+
+    @Override
+    public Map<Partition.PartitionKey, Offset> getOffsets(final String subscriptionId,
+                                                          final Collection<Partition.PartitionKey> keys) {
+        final Map<String, Partition.PartitionKey> paths = keys.stream()
+                .collect(Collectors.toMap(key -> getOffsetPath(subscriptionId, key), key -> key));
+        try {
+            final Map<Partition.PartitionKey, Offset> result = new HashMap<>();
+            ZookeeperUtils.readNodes(zkHolder.get(), paths.keySet(), READ_TIMEOUT_MS).forEach((path, node) ->
+                    result.put(paths.get(path), new Offset(new String(node.getData(), CHARSET), node.getVersion())));
+            return result;
+        } catch (final Exception e) {
+            throw new NakadiRuntimeException(e);
+        }
+    }
+
+    @Override
+    public long getOffset(final String subscriptionId, final Partition.PartitionKey key) {
+        try {
+            return Long.parseLong(new String(zkHolder.get().getData().forPath(getOffsetPath(subscriptionId, key)),
+                    CHARSET));
+        } catch (final Exception e) {
+            throw new NakadiRuntimeException(e);
+        }
+    }
+
+    /**
+     * Updates offsets with one transaction, that also checks version of the topology node, so offsets are not
+     * updated if partitions were reassigned after the check of ownership.
+     */
+    @Override
+    public boolean updateOffsets(final String subscriptionId, final Map<Partition.PartitionKey, Offset> expected,
+                                 final Map<Partition.PartitionKey, String> offsets, final int topologyVersion) {
+        if (offsets.isEmpty()) {
+            return true;
+        }
+        try {
+            CuratorTransaction transaction = zkHolder.get().inTransaction().check().withVersion(topologyVersion)
+                    .forPath("/nakadi/subscriptions/" + subscriptionId + "/topology").and();
+            CuratorTransactionFinal last = null;
+            for (final Map.Entry<Partition.PartitionKey, String> entry : offsets.entrySet()) {
+                last = transaction.setData().withVersion(expected.get(entry.getKey()).getVersion())
+                        .forPath(getOffsetPath(subscriptionId, entry.getKey()), entry.getValue().getBytes(CHARSET))
+                        .and();
+                transaction = last;
+            }
+            last.commit();
+            return true;
+        } catch (final KeeperException.BadVersionException e) {
+            return false;
+        } catch (final Exception e) {
+            throw new NakadiRuntimeException(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> commitOffsets(final String subscriptionId,
+                                                 final Map<Partition.PartitionKey, Long> offsets) {
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            final CuratorFramework curator = zkHolder.get();
+            for (final Map.Entry<Partition.PartitionKey, Long> entry : offsets.entrySet()) {
+                final String offsetPath = getOffsetPath(subscriptionId, entry.getKey());
+                while (true) {
+                    final Stat stat = new Stat();
+                    final long current = Long.parseLong(new String(
+                            curator.getData().storingStatIn(stat).forPath(offsetPath), CHARSET));
+                    if (current >= entry.getValue()) {
+                        break;
+                    }
+                    try {
+                        curator.setData().withVersion(stat.getVersion())
+                                .forPath(offsetPath, String.valueOf(entry.getValue()).getBytes(CHARSET));
+                        break;
+                    } catch (final KeeperException.BadVersionException ignore) {
+                        // Offset was committed concurrently, compare with the new one
+                    }
+                }
+            }
+            result.complete(null);
+        } catch (final Exception e) {
+            result.completeExceptionally(new NakadiRuntimeException(e));
+        }
+        return result;
+    }
+
+    @Override
+    public ZKSubscription subscribeForOffsetChanges(final String subscriptionId, final Partition.PartitionKey key,
+                                                    final Runnable listener) {
+        return ChangeListener.forData(zkHolder.get(), getOffsetPath(subscriptionId, key), listener);
+    }
+}
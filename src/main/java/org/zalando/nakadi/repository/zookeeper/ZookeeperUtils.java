@@ -1,10 +1,18 @@
 package org.zalando.nakadi.repository.zookeeper;
 
+import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.recipes.locks.InterProcessLock;
+import org.apache.zookeeper.KeeperException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class ZookeeperUtils {
 
@@ -25,4 +33,52 @@ public class ZookeeperUtils {
             }
         }
     }
+
+    /**
+     * Reads nodes with pipelined requests, so all of them are read in one round trip to zookeeper.
+     *
+     * @return nodes by path, nodes that don't exist are not included
+     */
+    public static Map<String, NodeData> readNodes(final CuratorFramework curator, final Collection<String> paths,
+                                                  final long timeoutMs) throws Exception {
+        final Map<String, NodeData> nodes = new ConcurrentHashMap<>();
+        final Map<String, Integer> failures = new ConcurrentHashMap<>();
+        final CountDownLatch latch = new CountDownLatch(paths.size());
+        for (final String path : paths) {
+            curator.getData().inBackground((client, event) -> {
+                if (event.getResultCode() == KeeperException.Code.OK.intValue()) {
+                    nodes.put(path, new NodeData(event.getData(), event.getStat().getVersion()));
+                } else if (event.getResultCode() != KeeperException.Code.NONODE.intValue()) {
+                    failures.put(path, event.getResultCode());
+                }
+                latch.countDown();
+            }).forPath(path);
+        }
+        if (!latch.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException("Failed to read " + paths.size() + " nodes in " + timeoutMs + " ms");
+        }
+        if (!failures.isEmpty()) {
+            final Map.Entry<String, Integer> failure = failures.entrySet().iterator().next();
+            throw KeeperException.create(KeeperException.Code.get(failure.getValue()), failure.getKey());
+        }
+        return nodes;
+    }
+
+    public static class NodeData {
+        private final byte[] data;
+        private final int version;
+
+        public NodeData(final byte[] data, final int version) {
+            this.data = data;
+            this.version = version;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+    }
 }
@@ -0,0 +1,145 @@
+package org.zalando.nakadi.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+
+import javax.annotation.Nullable;
+
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+/**
+ * Encodes stream batches with length-prefixed binary framing, that can be requested instead of json batches by
+ * sending {@value #MEDIA_TYPE} in {@code Accept} header. Clients are able to split the stream into batches and
+ * events without parsing json, bodies of events are kept as they were published.
+ * <p>
+ * All the numbers are big-endian, strings are UTF-8 encoded.
+ * <pre>
+ * frame  := length:int32 body                    length of body in bytes
+ * body   := version:int8 partition:string offset:int64 event_type:string cursor_token:string info:string
+ *           count:int32 event{count}
+ * string := length:uint16 bytes                  empty if not set
+ * event  := length:int32 bytes
+ * </pre>
+ * Offset is -1 if partition is read from the beginning. Event type and cursor token are only set for subscription
+ * streams, info contains debug information of the batch.
+ */
+public class BinaryBatchEncoder {
+
+    public static final String MEDIA_TYPE = "application/x-nakadi-binary-stream";
+    public static final byte VERSION = 1;
+
+    private static final MediaType BINARY_MEDIA_TYPE = MediaType.parseMediaType(MEDIA_TYPE);
+    private static final int MAX_STRING_LENGTH = 0xFFFF;
+
+    private byte[] buffer;
+    private int size;
+
+    public BinaryBatchEncoder() {
+        this.buffer = new byte[8 * 1024];
+    }
+
+    /**
+     * @return true if client accepts binary framing of batches: the header lists exactly {@value #MEDIA_TYPE} with
+     * non-zero quality. Wildcards are not selecting binary framing, json stays the default.
+     */
+    public static boolean isAccepted(@Nullable final String acceptHeader) {
+        if (null == acceptHeader) {
+            return false;
+        }
+        try {
+            return MediaType.parseMediaTypes(acceptHeader).stream()
+                    .anyMatch(mediaType -> BINARY_MEDIA_TYPE.getType().equals(mediaType.getType())
+                            && BINARY_MEDIA_TYPE.getSubtype().equals(mediaType.getSubtype())
+                            && mediaType.getQualityValue() > 0);
+        } catch (final InvalidMediaTypeException e) {
+            return false;
+        }
+    }
+
+    public void appendBatch(final String partition, final long offset, @Nullable final String eventType,
+                            @Nullable final String cursorToken, final Collection<String> events,
+                            @Nullable final String info) {
+        final int frameStart = size;
+        // Length of frame is known only in the end
+        ensureCapacity(4);
+        size += 4;
+        putByte(VERSION);
+        putString(partition);
+        putLong(offset);
+        putString(eventType);
+        putString(cursorToken);
+        putString(info);
+        putInt(events.size());
+        for (final String event : events) {
+            final byte[] bytes = event.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            putBytes(bytes);
+        }
+        writeInt(frameStart, size - frameStart - 4);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    public void writeTo(final OutputStream outputStream) throws IOException {
+        outputStream.write(buffer, 0, size);
+    }
+
+    public void reset() {
+        size = 0;
+    }
+
+    private void ensureCapacity(final int additional) {
+        if (size + additional > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+        }
+    }
+
+    private void putByte(final byte value) {
+        ensureCapacity(1);
+        buffer[size++] = value;
+    }
+
+    private void putInt(final int value) {
+        ensureCapacity(4);
+        writeInt(size, value);
+        size += 4;
+    }
+
+    private void writeInt(final int position, final int value) {
+        buffer[position] = (byte) (value >>> 24);
+        buffer[position + 1] = (byte) (value >>> 16);
+        buffer[position + 2] = (byte) (value >>> 8);
+        buffer[position + 3] = (byte) value;
+    }
+
+    private void putLong(final long value) {
+        putInt((int) (value >>> 32));
+        putInt((int) value);
+    }
+
+    private void putString(@Nullable final String value) {
+        final byte[] bytes = null == value ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        final int length = Math.min(bytes.length, MAX_STRING_LENGTH);
+        ensureCapacity(2 + length);
+        buffer[size++] = (byte) (length >>> 8);
+        buffer[size++] = (byte) length;
+        System.arraycopy(bytes, 0, buffer, size, length);
+        size += length;
+    }
+
+    private void putBytes(final byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+}
@@ -3,11 +3,6 @@ package org.zalando.nakadi.service;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.ImmutableSet;
-import com.google.common.net.InetAddresses;
-import org.apache.commons.codec.DecoderException;
-import org.apache.commons.codec.binary.Hex;
-import org.apache.commons.lang3.ArrayUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -17,27 +12,31 @@ import org.springframework.stereotype.Component;
 import org.zalando.nakadi.util.FeatureToggleService;
 
 import javax.servlet.http.HttpServletRequest;
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.StringTokenizer;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BooleanSupplier;
-import java.util.stream.Stream;
 
+/**
+ * Detects connections that were closed by clients, but not noticed by servlet container, using /proc/net/tcp[6].
+ * <p>
+ * Listeners are indexed by remote address and port. Every refresh increments generation counter and marks all the
+ * listeners that are still seen in open state with current generation. Listeners that were not marked are notified
+ * about connection close. Only lines that belong to server port are parsed, parsing itself does not allocate.
+ */
 @Component
 public class ClosedConnectionsCrutch {
     /**
@@ -63,24 +62,77 @@ public class ClosedConnectionsCrutch {
             this.stateCode = stateCode;
         }
 
-        public static ConnectionState fromCode(final String value) {
-            final int intCode = Integer.parseInt(value, 16);
+        private static final ConnectionState[] BY_CODE = new ConnectionState[16];
+
+        static {
             for (final ConnectionState val : ConnectionState.values()) {
-                if (val.stateCode == intCode) {
-                    return val;
-                }
+                BY_CODE[val.stateCode] = val;
+            }
+        }
+
+        public static ConnectionState fromCode(final int code) {
+            final ConnectionState result = code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+            if (null == result) {
+                throw new IllegalArgumentException("Failed to find connection state from " + code);
+            }
+            return result;
+        }
+
+        boolean isClosed() {
+            switch (this) {
+                case TCP_TIME_WAIT:
+                case TCP_CLOSE_WAIT:
+                case TCP_LAST_ACK:
+                case TCP_CLOSING:
+                case TCP_CLOSE:
+                    return true;
+                default:
+                    return false;
             }
-            throw new IllegalArgumentException("Failed to find connection state from " + value);
         }
     }
 
+    /**
+     * Remote side of connection. Addresses are kept in IPv6 form, IPv4 addresses are stored as IPv4-mapped ones,
+     * so the same connection is found in both /proc/net/tcp and /proc/net/tcp6.
+     * Fields are mutable only to allow lookups in listeners map without allocation, instances that are used as
+     * keys are never changed.
+     */
     static class ConnectionInfo {
-        private final InetAddress address;
-        private final int port;
+        private static final long IPV4_MAPPED_PREFIX = 0xFFFFL << 32;
+
+        private long addressHigh;
+        private long addressLow;
+        private int port;
+
+        ConnectionInfo() {
+        }
 
         ConnectionInfo(final InetAddress address, final int port) {
-            this.address = address;
+            final byte[] bytes = address.getAddress();
+            if (bytes.length == 4) {
+                set(0, IPV4_MAPPED_PREFIX | (readInt(bytes, 0) & 0xFFFFFFFFL), port);
+            } else {
+                set(((long) readInt(bytes, 0) << 32) | (readInt(bytes, 4) & 0xFFFFFFFFL),
+                        ((long) readInt(bytes, 8) << 32) | (readInt(bytes, 12) & 0xFFFFFFFFL),
+                        port);
+            }
+        }
+
+        private ConnectionInfo(final ConnectionInfo other) {
+            set(other.addressHigh, other.addressLow, other.port);
+        }
+
+        private ConnectionInfo set(final long addressHigh, final long addressLow, final int port) {
+            this.addressHigh = addressHigh;
+            this.addressLow = addressLow;
             this.port = port;
+            return this;
+        }
+
+        private static int readInt(final byte[] bytes, final int offset) {
+            return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+                    | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
         }
 
         @Override
@@ -93,18 +145,26 @@ public class ClosedConnectionsCrutch {
             }
 
             final ConnectionInfo that = (ConnectionInfo) o;
-            return port == that.port && address.equals(that.address);
+            return port == that.port && addressHigh == that.addressHigh && addressLow == that.addressLow;
         }
 
         @Override
         public int hashCode() {
-            int result = address.hashCode();
+            int result = Long.hashCode(addressHigh);
+            result = 31 * result + Long.hashCode(addressLow);
             result = 31 * result + port;
             return result;
         }
 
         @Override
         public String toString() {
+            final String address;
+            if (addressHigh == 0 && (addressLow >>> 32) == 0xFFFFL) {
+                address = ((addressLow >>> 24) & 0xFF) + "." + ((addressLow >>> 16) & 0xFF) + "."
+                        + ((addressLow >>> 8) & 0xFF) + "." + (addressLow & 0xFF);
+            } else {
+                address = String.format("%016x%016x", addressHigh, addressLow);
+            }
             return "ConnectionInfo{" +
                     "address=" + address +
                     ", port=" + port +
@@ -112,19 +172,49 @@ public class ClosedConnectionsCrutch {
         }
     }
 
+    @FunctionalInterface
+    interface ConnectionConsumer {
+        void accept(long remoteAddressHigh, long remoteAddressLow, int remotePort, ConnectionState state);
+    }
+
+    private static class ConnectionListeners {
+        private final List<BooleanSupplier> listeners = new ArrayList<>(1);
+        private long seenGeneration;
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClosedConnectionsCrutch.class);
+    private static final File[] PROC_FILES = new File[]{new File("/proc/net/tcp"), new File("/proc/net/tcp6")};
+
     private final int port;
-    private final Map<ConnectionInfo, List<BooleanSupplier>> listeners = new HashMap<>();
+    private final File[] procFiles;
+    private final Map<ConnectionInfo, ConnectionListeners> listeners = new HashMap<>();
     private final Map<ConnectionInfo, List<BooleanSupplier>> toAdd = new HashMap<>();
     private final Meter meterClosed;
     private final FeatureToggleService featureToggleService;
-    private static final Logger LOG = LoggerFactory.getLogger(ClosedConnectionsCrutch.class);
+
+    // State of refresh, accessed only from refreshing thread.
+    private final ConnectionInfo probe = new ConnectionInfo();
+    private final ProcNetTcpParser parser = new ProcNetTcpParser();
+    private final ConnectionConsumer markOpenConnections = this::markIfOpen;
+    private byte[] readBuffer = new byte[64 * 1024];
+    private long generation;
 
     @Autowired
     public ClosedConnectionsCrutch(
             @Value("${server.port}") final int port,
             final MetricRegistry metricRegistry,
             final FeatureToggleService featureToggleService) {
+        this(port, metricRegistry, featureToggleService, PROC_FILES);
+    }
+
+    @VisibleForTesting
+    ClosedConnectionsCrutch(
+            final int port,
+            final MetricRegistry metricRegistry,
+            final FeatureToggleService featureToggleService,
+            final File[] procFiles) {
         this.port = port;
+        this.procFiles = procFiles;
         this.meterClosed = metricRegistry.meter("nakadi.close_crutch.closed");
         this.featureToggleService = featureToggleService;
     }
@@ -159,101 +249,203 @@ public class ClosedConnectionsCrutch {
             return;
         }
         synchronized (toAdd) {
-            toAdd.forEach((conn, toAddListeners) -> {
-                listeners.computeIfAbsent(conn, c -> new ArrayList<>()).addAll(toAddListeners);
-            });
+            toAdd.forEach((conn, toAddListeners) ->
+                    listeners.computeIfAbsent(conn, c -> new ConnectionListeners()).listeners.addAll(toAddListeners));
             toAdd.clear();
         }
-        final Map<ConnectionInfo, ConnectionState> currentConnections = readAllConnectionStates();
-        final long closedCount =
-                new HashSet<>(listeners.keySet()).stream()
-                        .filter(key -> CLOSED_STATES.contains(currentConnections.getOrDefault(key,
-                                ConnectionState.TCP_CLOSE)))
-                        .mapToLong(key -> {
-                            LOG.info("Notifying about connection close via crutch: " + key);
-                            return listeners.remove(key).stream().filter(BooleanSupplier::getAsBoolean).count();
-                        }).sum();
+        if (listeners.isEmpty()) {
+            return;
+        }
+        final long currentGeneration = ++generation;
+        for (final File f : procFiles) {
+            try (FileInputStream in = new FileInputStream(f)) {
+                final int length = readFully(in);
+                parser.parse(readBuffer, length, port, markOpenConnections);
+            } catch (final FileNotFoundException e) {
+                LOG.warn("Failed to find file " + f.getName() + ", skipping");
+            }
+        }
+        long closedCount = 0;
+        final Iterator<Map.Entry<ConnectionInfo, ConnectionListeners>> it = listeners.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<ConnectionInfo, ConnectionListeners> entry = it.next();
+            if (entry.getValue().seenGeneration != currentGeneration) {
+                LOG.info("Notifying about connection close via crutch: " + entry.getKey());
+                closedCount += entry.getValue().listeners.stream().filter(BooleanSupplier::getAsBoolean).count();
+                it.remove();
+            }
+        }
         if (closedCount > 0) {
             meterClosed.mark(closedCount);
         }
     }
 
-    private Map<ConnectionInfo, ConnectionState> readAllConnectionStates() throws IOException {
-        final Map<ConnectionInfo, ConnectionState> result = new HashMap<>();
-        for (final File f : new File[]{new File("/proc/net/tcp"), new File("/proc/net/tcp6")}) {
-            try (FileInputStream in = new FileInputStream(f)) {
-                result.putAll(getCurrentConnections(in));
-            } catch (final FileNotFoundException e) {
-                LOG.warn("Failed to find file " + f.getName() + ", skipping");
+    private void markIfOpen(final long addressHigh, final long addressLow, final int remotePort,
+                            final ConnectionState state) {
+        if (state.isClosed()) {
+            return;
+        }
+        final ConnectionListeners connectionListeners = listeners.get(probe.set(addressHigh, addressLow, remotePort));
+        if (null != connectionListeners) {
+            connectionListeners.seenGeneration = generation;
+        }
+    }
+
+    private int readFully(final InputStream in) throws IOException {
+        // Files in /proc do not report their size, so reading until the end growing the buffer if needed.
+        int length = 0;
+        int read;
+        while ((read = in.read(readBuffer, length, readBuffer.length - length)) >= 0) {
+            length += read;
+            if (length == readBuffer.length) {
+                readBuffer = Arrays.copyOf(readBuffer, readBuffer.length * 2);
             }
         }
-        return result;
+        return length;
     }
 
     @VisibleForTesting
     Map<ConnectionInfo, ConnectionState> getCurrentConnections(final InputStream in) throws IOException {
-        final Map<ConnectionInfo, ConnectionState> connectionToState = new HashMap<>();
-        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
-            // /proc/net/tcp[6]
-            // idx, local_address, remote_address, status, ...
-
-            reader.readLine(); // Skip heading
-
-            String line;
-            while (null != (line = reader.readLine())) {
-                final StringTokenizer tokenizer = new StringTokenizer(line);
-                // skip id
-                tokenizer.nextToken();
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            data.write(buffer, 0, read);
+        }
+        final Map<ConnectionInfo, ConnectionState> result = new HashMap<>();
+        final ConnectionInfo key = new ConnectionInfo();
+        new ProcNetTcpParser().parse(data.toByteArray(), data.size(), port, (high, low, remotePort, state) ->
+                result.put(new ConnectionInfo(key.set(high, low, remotePort)), state));
+        return result;
+    }
+
+    /**
+     * Parser of /proc/net/tcp[6] content.
+     * Format of each line: idx, local_address, remote_address, status, ..., where addresses are hex encoded
+     * address:port pairs. Address consists of 32-bit words, each of them is printed in host (little endian) order.
+     */
+    @VisibleForTesting
+    static class ProcNetTcpParser {
+        private byte[] data;
+        private int limit;
+        private int pos;
+        private long addressHigh;
+        private long addressLow;
+
+        void parse(final byte[] data, final int length, final int serverPort, final ConnectionConsumer consumer) {
+            this.data = data;
+            this.limit = length;
+            this.pos = 0;
+            skipLine(); // Skip heading
+            while (pos < limit) {
+                final int lineStart = pos;
                 try {
-                    // read local address
-                    final String[] localAddress = tokenizer.nextToken().split(":");
-                    final int localPort = Integer.parseInt(localAddress[1], 16);
-                    if (localPort != port) {
-                        continue;
-                    }
-                    // read remote address
-                    final String[] remoteAddressPair = tokenizer.nextToken().split(":");
-                    final InetAddress[] remoteAddresses = restoreAddresses(remoteAddressPair[0]);
-                    final int remotePort = Integer.parseInt(remoteAddressPair[1], 16);
-
-                    // read connection state
-                    final ConnectionState connectionState = ConnectionState.fromCode(tokenizer.nextToken());
-                    Stream.of(remoteAddresses)
-                            .map(address -> new ConnectionInfo(address, remotePort))
-                            .forEach(info -> connectionToState.put(info, connectionState));
-                } catch (final DecoderException | RuntimeException ex) {
-                    LOG.error("Failed to parse line, skipping: " + line, ex);
+                    parseLine(serverPort, consumer);
+                } catch (final RuntimeException ex) {
+                    LOG.error("Failed to parse line, skipping: "
+                            + new String(data, lineStart, lineEnd(lineStart) - lineStart, StandardCharsets.US_ASCII),
+                            ex);
                 }
+                skipLine();
             }
+            this.data = null;
         }
-        return connectionToState;
-    }
 
-    private static InetAddress[] restoreAddresses(final String address) throws DecoderException, UnknownHostException {
-        final byte[] data = Hex.decodeHex(address.toCharArray());
-        if (data.length == 16) {
-            // /proc/net/tcp6 contains addresses in strange manner - each 4 bytes are rotated,
-            // so we need to rotate it back
-            for (int i = 0; i < 4; ++i) {
-                ArrayUtils.reverse(data, i * 4, i * 4 + 4);
+        private void parseLine(final int serverPort, final ConnectionConsumer consumer) {
+            skipSpaces();
+            // skip id
+            skipToColon();
+            ++pos;
+            skipSpaces();
+            // local address is not needed, only port
+            skipToColon();
+            final int localPort = parseHex(pos + 1, 4);
+            if (localPort != serverPort) {
+                return;
+            }
+            pos += 5;
+            skipSpaces();
+            final int addressLength = parseAddress();
+            final int remotePort = parseHex(pos + addressLength + 1, 4);
+            pos += addressLength + 5;
+            skipSpaces();
+            final ConnectionState state = ConnectionState.fromCode(parseHex(pos, 2));
+            consumer.accept(addressHigh, addressLow, remotePort, state);
+        }
+
+        /**
+         * Parses remote address at current position to {@code addressHigh} and {@code addressLow}
+         *
+         * @return Amount of hex digits in address
+         */
+        private int parseAddress() {
+            if (pos + 8 >= limit) {
+                throw new IllegalArgumentException("Unexpected end of line");
+            }
+            if (data[pos + 8] == ':') {
+                addressHigh = 0;
+                addressLow = ConnectionInfo.IPV4_MAPPED_PREFIX | (readWord(pos) & 0xFFFFFFFFL);
+                return 8;
             }
-            final InetAddress result = InetAddress.getByAddress(data);
-            if (result instanceof Inet6Address) {
-                if (InetAddresses.hasEmbeddedIPv4ClientAddress((Inet6Address) result)) {
-                    return new InetAddress[]{result, InetAddresses.getEmbeddedIPv4ClientAddress((Inet6Address) result)};
+            addressHigh = ((long) readWord(pos) << 32) | (readWord(pos + 8) & 0xFFFFFFFFL);
+            addressLow = ((long) readWord(pos + 16) << 32) | (readWord(pos + 24) & 0xFFFFFFFFL);
+            if (pos + 32 >= limit || data[pos + 32] != ':') {
+                throw new IllegalArgumentException("Unexpected address length");
+            }
+            return 32;
+        }
+
+        private int readWord(final int offset) {
+            return Integer.reverseBytes(parseHex(offset, 8));
+        }
+
+        private int parseHex(final int offset, final int digits) {
+            if (offset + digits > limit) {
+                throw new IllegalArgumentException("Unexpected end of line");
+            }
+            int result = 0;
+            for (int i = offset; i < offset + digits; ++i) {
+                result = (result << 4) | hexDigit(data[i]);
+            }
+            return result;
+        }
+
+        private static int hexDigit(final byte b) {
+            if (b >= '0' && b <= '9') {
+                return b - '0';
+            } else if (b >= 'A' && b <= 'F') {
+                return b - 'A' + 10;
+            } else if (b >= 'a' && b <= 'f') {
+                return b - 'a' + 10;
+            }
+            throw new IllegalArgumentException("Unexpected hex digit " + (char) b);
+        }
+
+        private void skipToColon() {
+            while (pos < limit && data[pos] != ':') {
+                if (data[pos] == '\n') {
+                    throw new IllegalArgumentException("Unexpected end of line");
                 }
+                ++pos;
+            }
+        }
+
+        private void skipSpaces() {
+            while (pos < limit && data[pos] == ' ') {
+                ++pos;
             }
-            return new InetAddress[]{result};
-        } else {
-            ArrayUtils.reverse(data);
-            return new InetAddress[]{InetAddress.getByAddress(data)};
         }
-    }
 
-    private static final Set<ConnectionState> CLOSED_STATES = ImmutableSet.of(
-            ConnectionState.TCP_TIME_WAIT,
-            ConnectionState.TCP_CLOSE_WAIT,
-            ConnectionState.TCP_LAST_ACK,
-            ConnectionState.TCP_CLOSING,
-            ConnectionState.TCP_CLOSE);
+        private int lineEnd(final int from) {
+            int end = from;
+            while (end < limit && data[end] != '\n') {
+                ++end;
+            }
+            return end;
+        }
+
+        private void skipLine() {
+            pos = Math.min(limit, lineEnd(pos) + 1);
+        }
+    }
 }
@@ -0,0 +1,247 @@
+package org.zalando.nakadi.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.TreeCache;
+import org.apache.curator.framework.recipes.cache.TreeCacheEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.zalando.nakadi.domain.ConsumptionQuota;
+import org.zalando.nakadi.repository.zookeeper.ZooKeeperHolder;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Limits consumption throughput of applications. Quotas are stored in zookeeper next to the blacklist, as json
+ * data of {@code /nakadi/quotas/consumers/{client_id}} for all the streams of the application and of
+ * {@code /nakadi/quotas/consumers/{client_id}/{event_type}} for its streams that are reading the event type.
+ * <p>
+ * Quotas are enforced by token buckets in streaming loops of both low level and subscription streams, that are
+ * waiting after writing to output until the bucket has no debt. Buckets are shared by all the streams of the quota
+ * on this instance.
+ */
+@Component
+public class ConsumptionQuotaService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConsumptionQuotaService.class);
+    private static final String PATH_QUOTAS = "/nakadi/quotas/consumers";
+
+    private static class QuotaBuckets {
+        private volatile ConsumptionQuota quota;
+        private volatile TokenBucket bytes;
+        private volatile TokenBucket events;
+
+        private QuotaBuckets(final ConsumptionQuota quota, final long nowNanos) {
+            update(quota, nowNanos);
+        }
+
+        /**
+         * Changes rates of the buckets. Existing buckets keep their tokens and debt, so streams that already
+         * consumed more than the quota still wait for it.
+         */
+        private QuotaBuckets update(final ConsumptionQuota newQuota, final long nowNanos) {
+            this.quota = newQuota;
+            this.bytes = updateBucket(bytes, newQuota.getBytesPerSecond(), nowNanos);
+            this.events = updateBucket(events, newQuota.getEventsPerSecond(), nowNanos);
+            return this;
+        }
+
+        @Nullable
+        private static TokenBucket updateBucket(@Nullable final TokenBucket bucket, final long ratePerSecond,
+                                                final long nowNanos) {
+            if (ratePerSecond <= 0) {
+                return null;
+            } else if (null == bucket) {
+                return new TokenBucket(ratePerSecond, nowNanos);
+            }
+            bucket.setRatePerSecond(ratePerSecond, nowNanos);
+            return bucket;
+        }
+
+        private long take(final long eventCount, final long byteCount, final long nowNanos) {
+            final TokenBucket bytesBucket = bytes;
+            final TokenBucket eventsBucket = events;
+            return Math.max(
+                    null == bytesBucket ? 0 : bytesBucket.take(byteCount, nowNanos),
+                    null == eventsBucket ? 0 : eventsBucket.take(eventCount, nowNanos));
+        }
+    }
+
+    private final ZooKeeperHolder zooKeeperHolder;
+    private final ObjectMapper objectMapper;
+    private final MetricRegistry metricRegistry;
+    private final Timer throttledTimer;
+    // Zookeeper path to buckets of the quota
+    private final ConcurrentMap<String, QuotaBuckets> quotas = new ConcurrentHashMap<>();
+    private TreeCache quotaCache;
+
+    @Autowired
+    public ConsumptionQuotaService(final ZooKeeperHolder zooKeeperHolder, final ObjectMapper objectMapper,
+                                   final MetricRegistry metricRegistry) {
+        this.zooKeeperHolder = zooKeeperHolder;
+        this.objectMapper = objectMapper;
+        this.metricRegistry = metricRegistry;
+        this.throttledTimer = metricRegistry.timer("nakadi.consumption.quota.throttled");
+    }
+
+    @PostConstruct
+    public void initIt() {
+        try {
+            this.quotaCache = TreeCache.newBuilder(zooKeeperHolder.get(), PATH_QUOTAS).build();
+            this.quotaCache.getListenable().addListener((client, event) -> onQuotaEvent(event));
+            this.quotaCache.start();
+        } catch (final Exception e) {
+            LOG.error(e.getMessage(), e);
+        }
+    }
+
+    @PreDestroy
+    public void cleanUp() {
+        this.quotaCache.close();
+    }
+
+    @VisibleForTesting
+    void onQuotaEvent(final TreeCacheEvent event) {
+        final ChildData data = event.getData();
+        if (null == data || PATH_QUOTAS.equals(data.getPath())) {
+            return;
+        }
+        if (event.getType() == TreeCacheEvent.Type.NODE_REMOVED) {
+            quotas.remove(data.getPath());
+        } else if (event.getType() == TreeCacheEvent.Type.NODE_ADDED
+                || event.getType() == TreeCacheEvent.Type.NODE_UPDATED) {
+            final ConsumptionQuota quota = parse(data);
+            if (null == quota || (quota.getBytesPerSecond() <= 0 && quota.getEventsPerSecond() <= 0)) {
+                quotas.remove(data.getPath());
+            } else {
+                LOG.info("Consumption quota {} is set to {}", data.getPath(), quota);
+                final long nowNanos = System.nanoTime();
+                quotas.compute(data.getPath(), (path, buckets) -> null == buckets ?
+                        new QuotaBuckets(quota, nowNanos) : buckets.update(quota, nowNanos));
+            }
+        }
+    }
+
+    @Nullable
+    private ConsumptionQuota parse(final ChildData data) {
+        if (null == data.getData() || data.getData().length == 0) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(data.getData(), ConsumptionQuota.class);
+        } catch (final IOException e) {
+            LOG.error("Invalid consumption quota in " + data.getPath(), e);
+            return null;
+        }
+    }
+
+    private static String createQuotaPath(final String clientId, @Nullable final String eventType) {
+        return PATH_QUOTAS + "/" + clientId + (null == eventType ? "" : "/" + eventType);
+    }
+
+    /**
+     * Creates throttle for a stream of the application.
+     *
+     * @param clientId   application that is consuming
+     * @param eventTypes event types that are streamed
+     */
+    public ConsumptionThrottle getThrottle(final String clientId, final Collection<String> eventTypes) {
+        final List<String> paths = ImmutableList.<String>builder()
+                .add(createQuotaPath(clientId, null))
+                .addAll(eventTypes.stream().map(et -> createQuotaPath(clientId, et)).collect(Collectors.toList()))
+                .build();
+        return (events, bytes) -> acquire(clientId, paths, events, bytes);
+    }
+
+    private long acquire(final String clientId, final List<String> paths, final long events, final long bytes) {
+        if (quotas.isEmpty()) {
+            return 0;
+        }
+        final long nowNanos = System.nanoTime();
+        long waitMillis = 0;
+        for (final String path : paths) {
+            final QuotaBuckets buckets = quotas.get(path);
+            if (null != buckets) {
+                waitMillis = Math.max(waitMillis, buckets.take(events, bytes, nowNanos));
+            }
+        }
+        if (waitMillis > 0) {
+            throttledTimer.update(waitMillis, TimeUnit.MILLISECONDS);
+            metricRegistry.counter(MetricRegistry.name("nakadi.consumption.quota.throttled_ms", clientId))
+                    .inc(waitMillis);
+        }
+        return waitMillis;
+    }
+
+    /**
+     * @return quotas of applications, event type quotas are listed under {@code event_types} of the application.
+     */
+    public Map<String, Map<String, Object>> getQuotas() {
+        final Map<String, Map<String, Object>> result = new HashMap<>();
+        quotas.forEach((path, buckets) -> {
+            final String[] parts = path.substring(PATH_QUOTAS.length() + 1).split("/", 2);
+            final Map<String, Object> appQuotas = result.computeIfAbsent(parts[0], app -> new HashMap<>());
+            if (parts.length == 1) {
+                appQuotas.put("quota", buckets.quota);
+            } else {
+                @SuppressWarnings("unchecked")
+                final Map<String, ConsumptionQuota> etQuotas = (Map<String, ConsumptionQuota>)
+                        appQuotas.computeIfAbsent("event_types", key -> new HashMap<String, ConsumptionQuota>());
+                etQuotas.put(parts[1], buckets.quota);
+            }
+        });
+        return result;
+    }
+
+    public void setQuota(final String clientId, @Nullable final String eventType, final ConsumptionQuota quota)
+            throws RuntimeException {
+        try {
+            final CuratorFramework curator = zooKeeperHolder.get();
+            final String path = createQuotaPath(clientId, eventType);
+            final byte[] data = objectMapper.writeValueAsBytes(quota);
+            if (curator.checkExists().forPath(path) == null) {
+                curator.create().creatingParentsIfNeeded().forPath(path, data);
+            } else {
+                curator.setData().forPath(path, data);
+            }
+        } catch (final Exception e) {
+            throw new RuntimeException("Issue occurred while writing quota to zk", e);
+        }
+    }
+
+    public void removeQuota(final String clientId, @Nullable final String eventType) throws RuntimeException {
+        try {
+            final CuratorFramework curator = zooKeeperHolder.get();
+            final String path = createQuotaPath(clientId, eventType);
+            if (curator.checkExists().forPath(path) == null) {
+                return;
+            }
+            if (curator.getChildren().forPath(path).isEmpty()) {
+                curator.delete().forPath(path);
+            } else {
+                // Quotas of event types of the application are kept
+                curator.setData().forPath(path, new byte[0]);
+            }
+        } catch (final Exception e) {
+            throw new RuntimeException("Issue occurred while deleting quota from zk", e);
+        }
+    }
+}
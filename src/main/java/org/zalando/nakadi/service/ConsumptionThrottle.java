@@ -0,0 +1,42 @@
+package org.zalando.nakadi.service;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Enforces consumption quotas of a stream, see {@link ConsumptionQuotaService}.
+ */
+@FunctionalInterface
+public interface ConsumptionThrottle {
+
+    ConsumptionThrottle NONE = (events, bytes) -> 0;
+
+    long WAIT_SLICE_MILLIS = 100;
+
+    /**
+     * Registers events that were streamed to the client.
+     *
+     * @return time in milliseconds the stream should wait before streaming more events.
+     */
+    long acquire(long events, long bytes);
+
+    /**
+     * Waits for the time returned by {@link #acquire(long, long)}. The time is slept in slices of at most
+     * {@link #WAIT_SLICE_MILLIS}, so waiting is stopped soon after the stream is closed.
+     *
+     * @param throttleMillis time to wait
+     * @param deadlineMillis time at which waiting is stopped anyway, usually the end of the stream
+     * @param active         checked between slices, waiting is stopped once it returns false
+     */
+    static void waitFor(final long throttleMillis, final long deadlineMillis, final BooleanSupplier active) {
+        final long until = Math.min(System.currentTimeMillis() + throttleMillis, deadlineMillis);
+        try {
+            long left = until - System.currentTimeMillis();
+            while (left > 0 && active.getAsBoolean()) {
+                Thread.sleep(Math.min(left, WAIT_SLICE_MILLIS));
+                left = until - System.currentTimeMillis();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
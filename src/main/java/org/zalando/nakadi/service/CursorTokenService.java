@@ -2,12 +2,48 @@ package org.zalando.nakadi.service;
 
 import org.springframework.stereotype.Service;
 
+import java.security.SecureRandom;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Generates tokens of cursors that are sent to clients. Tokens are generated for every batch, so generation is not
+ * using shared secure random. Token is formatted as uuid and consists of:
+ * <ul>
+ *     <li>random id of the node, generated once with secure random, so tokens of different nodes are not
+ *     clashing;</li>
+ *     <li>sequential number of the generating thread on the node;</li>
+ *     <li>counter of the thread, that starts from a random value.</li>
+ * </ul>
+ * So tokens are unique per node without any synchronization between threads.
+ */
 @Service
 public class CursorTokenService {
 
+    private static final int COUNTER_BITS = 40;
+    private static final long COUNTER_MASK = (1L << COUNTER_BITS) - 1;
+
+    private final long nodeId = new SecureRandom().nextLong();
+    private final AtomicLong threadSequence = new AtomicLong();
+    private final ThreadLocal<ThreadTokens> threadTokens = ThreadLocal.withInitial(
+            () -> new ThreadTokens(threadSequence.incrementAndGet(), ThreadLocalRandom.current().nextLong()));
+
     public String generateToken() {
-        return UUID.randomUUID().toString();
+        return new UUID(nodeId, threadTokens.get().next()).toString();
+    }
+
+    private static class ThreadTokens {
+        private final long threadBits;
+        private long counter;
+
+        private ThreadTokens(final long threadNumber, final long initialCounter) {
+            this.threadBits = threadNumber << COUNTER_BITS;
+            this.counter = initialCounter;
+        }
+
+        private long next() {
+            return threadBits | (++counter & COUNTER_MASK);
+        }
     }
 }
@@ -1,11 +1,8 @@
 package org.zalando.nakadi.service;
 
-import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.data.Stat;
-import org.echocat.jomon.runtime.concurrent.RetryForSpecifiedCountStrategy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -24,36 +21,39 @@ import org.zalando.nakadi.exceptions.NakadiRuntimeException;
 import org.zalando.nakadi.exceptions.NoSuchEventTypeException;
 import org.zalando.nakadi.exceptions.ServiceUnavailableException;
 import org.zalando.nakadi.repository.EventTypeRepository;
+import org.zalando.nakadi.repository.SubscriptionOffsetRepository;
 import org.zalando.nakadi.repository.TopicRepository;
 import org.zalando.nakadi.repository.db.SubscriptionDbRepository;
 import org.zalando.nakadi.repository.zookeeper.ZooKeeperHolder;
 import org.zalando.nakadi.service.subscription.model.Partition;
+import org.zalando.nakadi.service.subscription.LocalStream;
+import org.zalando.nakadi.service.subscription.LocalStreamRegistry;
 import org.zalando.nakadi.service.subscription.zk.CuratorZkSubscriptionClient;
+import org.zalando.nakadi.service.subscription.zk.Topology;
 import org.zalando.nakadi.view.Cursor;
 import org.zalando.nakadi.view.SubscriptionCursor;
 
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static java.text.MessageFormat.format;
-import static org.echocat.jomon.runtime.concurrent.Retryer.executeWithRetry;
 
 @Component
 public class CursorsService {
 
     private static final Logger LOG = LoggerFactory.getLogger(CursorsService.class);
 
-    private static final String PATH_ZK_OFFSET = "/nakadi/subscriptions/{0}/topics/{1}/{2}/offset";
-    private static final String PATH_ZK_PARTITION = "/nakadi/subscriptions/{0}/topics/{1}/{2}";
-    private static final String PATH_ZK_PARTITIONS = "/nakadi/subscriptions/{0}/topics/{1}";
     private static final String PATH_ZK_SESSION = "/nakadi/subscriptions/{0}/sessions/{1}";
 
     private static final String ERROR_COMMUNICATING_WITH_ZOOKEEPER = "Error communicating with zookeeper";
+    private static final String ERROR_COMMUNICATING_WITH_OFFSET_STORAGE = "Error communicating with offset storage";
 
     private static final int COMMIT_CONFLICT_RETRY_TIMES = 5;
 
@@ -63,6 +63,8 @@ public class CursorsService {
     private final EventTypeRepository eventTypeRepository;
     private final CursorTokenService cursorTokenService;
     private final CursorConverter cursorConverter;
+    private final LocalStreamRegistry localStreamRegistry;
+    private final SubscriptionOffsetRepository offsetRepository;
 
     @Autowired
     public CursorsService(final ZooKeeperHolder zkHolder,
@@ -70,39 +72,73 @@ public class CursorsService {
                           final SubscriptionDbRepository subscriptionRepository,
                           final EventTypeRepository eventTypeRepository,
                           final CursorTokenService cursorTokenService,
-                          final CursorConverter cursorConverter) {
+                          final CursorConverter cursorConverter,
+                          final LocalStreamRegistry localStreamRegistry,
+                          final SubscriptionOffsetRepository offsetRepository) {
         this.zkHolder = zkHolder;
         this.topicRepository = topicRepository;
         this.subscriptionRepository = subscriptionRepository;
         this.eventTypeRepository = eventTypeRepository;
         this.cursorTokenService = cursorTokenService;
         this.cursorConverter = cursorConverter;
+        this.localStreamRegistry = localStreamRegistry;
+        this.offsetRepository = offsetRepository;
     }
 
+    /**
+     * Commits cursors of all partitions with one update of the offset storage. Topology of the subscription is read
+     * from zookeeper with one request to check that partitions are owned by the stream, and the offsets are updated
+     * only if neither them nor the topology (when the storage is zookeeper) were changed since they were read.
+     * Update is retried from reading in case of a concurrent change.
+     *
+     * <p>If the stream is running on this node and is streaming all the partitions, cursors are committed locally
+     * without remote requests, and the stream writes the offsets to the storage later.
+     */
     public List<CursorCommitResult> commitCursors(final String streamId, final String subscriptionId,
                                                   final List<SubscriptionCursor> cursors)
             throws ServiceUnavailableException, InvalidCursorException, InvalidStreamIdException,
             NoSuchEventTypeException, InternalNakadiException {
 
-        validateStreamId(cursors, streamId, subscriptionId);
+        final LocalStream localStream = localStreamRegistry.find(subscriptionId, streamId);
+        if (null == localStream && !isActiveSession(subscriptionId, streamId)) {
+            throw new InvalidStreamIdException("Session with stream id " + streamId + " not found");
+        }
 
-        LOG.debug("[COMMIT_CURSORS] stream IDs validation finished");
+        final Map<String, EventType> eventTypes = new HashMap<>();
+        for (final SubscriptionCursor cursor : cursors) {
+            if (!eventTypes.containsKey(cursor.getEventType())) {
+                eventTypes.put(cursor.getEventType(), eventTypeRepository.findByName(cursor.getEventType()));
+            }
+        }
+
+        if (null != localStream) {
+            final List<NakadiCursor> nakadiCursors = new ArrayList<>(cursors.size());
+            for (final SubscriptionCursor cursor : cursors) {
+                nakadiCursors.add(toNakadiCursor(eventTypes.get(cursor.getEventType()), cursor));
+            }
+            final List<Boolean> localCommits = localStream.commit(nakadiCursors);
+            if (null != localCommits) {
+                LOG.debug("[COMMIT_CURSORS] committed {} cursor(s) locally", cursors.size());
+                final Iterator<Boolean> committed = localCommits.iterator();
+                return cursors.stream()
+                        .map(cursor -> new CursorCommitResult(cursor, committed.next()))
+                        .collect(Collectors.toList());
+            }
+            // Some partitions are not streamed by the stream anymore, ownership is checked in zookeeper
+        }
 
         final Map<EventTypePartition, List<SubscriptionCursor>> cursorsByPartition = cursors.stream()
                 .collect(Collectors.groupingBy(
-                        cursor -> new EventTypePartition(cursor.getEventType(), cursor.getPartition())));
-
-        final HashMap<EventTypePartition, Iterator<Boolean>> partitionCommits = new HashMap<>();
-        for (final EventTypePartition etPartition : cursorsByPartition.keySet()) {
+                        cursor -> new EventTypePartition(cursor.getEventType(), cursor.getPartition()),
+                        LinkedHashMap::new, Collectors.toList()));
 
-            final Iterator<Boolean> commitResultIterator = processPartitionCursors(subscriptionId,
-                    cursorsByPartition.get(etPartition), etPartition).iterator();
-            partitionCommits.put(etPartition, commitResultIterator);
+        final Map<EventTypePartition, List<Boolean>> commits =
+                commitPartitions(streamId, subscriptionId, eventTypes, cursorsByPartition);
 
-            LOG.debug("[COMMIT_CURSORS] committed {} cursor(s) for partition {}",
-                    cursorsByPartition.get(etPartition).size(), etPartition);
-        }
+        LOG.debug("[COMMIT_CURSORS] committed {} cursor(s) of {} partition(s)", cursors.size(), commits.size());
 
+        final Map<EventTypePartition, Iterator<Boolean>> partitionCommits = new HashMap<>();
+        commits.forEach((etPartition, results) -> partitionCommits.put(etPartition, results.iterator()));
         return cursors.stream()
                 .map(cursor -> {
                     final EventTypePartition etPartition = new EventTypePartition(cursor.getEventType(),
@@ -113,184 +149,174 @@ public class CursorsService {
                 .collect(Collectors.toList());
     }
 
-    private void validateStreamId(final List<SubscriptionCursor> cursors, final String streamId,
-                                  final String subscriptionId)
-            throws ServiceUnavailableException, InvalidCursorException, InvalidStreamIdException,
-            NoSuchEventTypeException, InternalNakadiException {
+    private Map<EventTypePartition, List<Boolean>> commitPartitions(
+            final String streamId, final String subscriptionId, final Map<String, EventType> eventTypes,
+            final Map<EventTypePartition, List<SubscriptionCursor>> cursorsByPartition)
+            throws ServiceUnavailableException, InvalidCursorException, InvalidStreamIdException {
+
+        final Map<EventTypePartition, Partition.PartitionKey> keys = new LinkedHashMap<>();
+        cursorsByPartition.keySet().forEach(etPartition -> keys.put(etPartition, new Partition.PartitionKey(
+                eventTypes.get(etPartition.getEventType()).getTopic(), etPartition.getPartition())));
+
+        Map<EventTypePartition, List<NakadiCursor>> nakadiCursors = null;
+        for (int attempt = 1; attempt <= COMMIT_CONFLICT_RETRY_TIMES; ++attempt) {
+            final Stat topologyStat = new Stat();
+            final Topology topology = readTopology(subscriptionId, topologyStat);
+            final Map<Partition.PartitionKey, SubscriptionOffsetRepository.Offset> offsets =
+                    readOffsets(subscriptionId, keys.values());
+            validateStreamId(streamId, keys, cursorsByPartition, topology, offsets);
+            if (null == nakadiCursors) {
+                nakadiCursors = toNakadiCursors(eventTypes, cursorsByPartition);
+                LOG.debug("[COMMIT_CURSORS] finished validation of {} partition(s)", nakadiCursors.size());
+            }
 
-        if (!isActiveSession(subscriptionId, streamId)) {
-            throw new InvalidStreamIdException("Session with stream id " + streamId + " not found");
+            final Map<EventTypePartition, List<Boolean>> result = new LinkedHashMap<>();
+            final Map<Partition.PartitionKey, String> newOffsets = new HashMap<>();
+            for (final Map.Entry<EventTypePartition, List<NakadiCursor>> entry : nakadiCursors.entrySet()) {
+                final Partition.PartitionKey key = keys.get(entry.getKey());
+                final String currentOffset = offsets.get(key).getValue();
+                NakadiCursor currentMaxCursor = new NakadiCursor(key.getTopic(), key.getPartition(), currentOffset);
+
+                final List<Boolean> commits = new ArrayList<>(entry.getValue().size());
+                for (final NakadiCursor cursor : entry.getValue()) {
+                    if (topicRepository.compareOffsets(cursor, currentMaxCursor) > 0) {
+                        currentMaxCursor = cursor;
+                        commits.add(true);
+                    } else {
+                        commits.add(false);
+                    }
+                }
+                result.put(entry.getKey(), commits);
+
+                if (!currentMaxCursor.getOffset().equals(currentOffset)) {
+                    newOffsets.put(key, currentMaxCursor.getOffset());
+                }
+            }
+            if (newOffsets.isEmpty()) {
+                return result;
+            }
+            try {
+                if (offsetRepository.updateOffsets(subscriptionId, offsets, newOffsets, topologyStat.getVersion())) {
+                    return result;
+                }
+            } catch (final NakadiRuntimeException e) {
+                LOG.error(ERROR_COMMUNICATING_WITH_OFFSET_STORAGE, e);
+                throw new ServiceUnavailableException(ERROR_COMMUNICATING_WITH_OFFSET_STORAGE, e);
+            }
+            LOG.debug("[COMMIT_CURSORS] concurrent modification of subscription {}, attempt {}",
+                    subscriptionId, attempt);
         }
+        throw new ServiceUnavailableException("Failed to commit cursors because of concurrent modifications");
+    }
 
-        final HashMap<EventTypePartition, String> partitionSessions = new HashMap<>();
-        for (final SubscriptionCursor cursor : cursors) {
-            final EventType eventType = eventTypeRepository.findByName(cursor.getEventType());
-
-            final EventTypePartition etPartition = new EventTypePartition(eventType.getName(), cursor.getPartition());
-            String partitionSession = partitionSessions.get(etPartition);
-            if (partitionSession == null) {
-                partitionSession = getPartitionSession(subscriptionId, eventType.getTopic(), cursor);
-                partitionSessions.put(etPartition, partitionSession);
+    private void validateStreamId(final String streamId,
+                                  final Map<EventTypePartition, Partition.PartitionKey> keys,
+                                  final Map<EventTypePartition, List<SubscriptionCursor>> cursorsByPartition,
+                                  final Topology topology,
+                                  final Map<Partition.PartitionKey, SubscriptionOffsetRepository.Offset> offsets)
+            throws InvalidCursorException, InvalidStreamIdException {
+        for (final Map.Entry<EventTypePartition, List<SubscriptionCursor>> entry : cursorsByPartition.entrySet()) {
+            final Partition.PartitionKey partitionKey = keys.get(entry.getKey());
+            final SubscriptionCursor cursor = entry.getValue().get(0);
+            final Partition partition = topology.getPartition(partitionKey);
+            if (null == partition || !offsets.containsKey(partitionKey)) {
+                throw new InvalidCursorException(CursorError.PARTITION_NOT_FOUND, cursor);
             }
-
-            if (!streamId.equals(partitionSession)) {
+            if (!streamId.equals(partition.getSession())) {
                 throw new InvalidStreamIdException("Cursor " + cursor + " cannot be committed with stream id "
                         + streamId);
             }
         }
     }
 
-    private String getPartitionSession(final String subscriptionId, final String topic, final Cursor cursor)
-            throws ServiceUnavailableException, InvalidCursorException {
-        try {
-            final String partitionPath = format(PATH_ZK_PARTITION, subscriptionId, topic, cursor.getPartition());
-            final byte[] partitionData = zkHolder.get().getData().forPath(partitionPath);
-            final Partition.PartitionKey partitionKey = new Partition.PartitionKey(topic, cursor.getPartition());
-            return CuratorZkSubscriptionClient.deserializeNode(partitionKey, partitionData).getSession();
-        } catch (final KeeperException.NoNodeException e) {
-            throw new InvalidCursorException(CursorError.PARTITION_NOT_FOUND, cursor);
-        } catch (final Exception e) {
-            LOG.error(ERROR_COMMUNICATING_WITH_ZOOKEEPER, e);
-            throw new ServiceUnavailableException(ERROR_COMMUNICATING_WITH_ZOOKEEPER);
+    private Map<EventTypePartition, List<NakadiCursor>> toNakadiCursors(
+            final Map<String, EventType> eventTypes,
+            final Map<EventTypePartition, List<SubscriptionCursor>> cursorsByPartition) throws InvalidCursorException {
+        final Map<EventTypePartition, List<NakadiCursor>> result = new LinkedHashMap<>();
+        for (final Map.Entry<EventTypePartition, List<SubscriptionCursor>> entry : cursorsByPartition.entrySet()) {
+            final EventType eventType = eventTypes.get(entry.getKey().getEventType());
+            final List<NakadiCursor> nakadiCursors = new ArrayList<>(entry.getValue().size());
+            for (final SubscriptionCursor cursor : entry.getValue()) {
+                nakadiCursors.add(toNakadiCursor(eventType, cursor));
+            }
+            result.put(entry.getKey(), nakadiCursors);
         }
+        return result;
     }
 
-    private boolean isActiveSession(final String subscriptionId, final String streamId)
-            throws ServiceUnavailableException {
+    private NakadiCursor toNakadiCursor(final EventType eventType, final SubscriptionCursor cursor)
+            throws InvalidCursorException {
+        final String offset = Cursor.BEFORE_OLDEST_OFFSET.equals(cursor.getOffset()) ? "-1" : cursor.getOffset();
+        final NakadiCursor nakadiCursor = new NakadiCursor(eventType.getTopic(), cursor.getPartition(), offset);
+        topicRepository.validateCommitCursor(nakadiCursor);
+        return nakadiCursor;
+    }
+
+    /**
+     * Reads assignment of all partitions of the subscription, with one request if the topology is stored in one node.
+     *
+     * @return topology, it is empty if the subscription is not initialized in zookeeper
+     */
+    private Topology readTopology(final String subscriptionId, final Stat stat) throws ServiceUnavailableException {
         try {
-            final String sessionsPath = format(PATH_ZK_SESSION, subscriptionId, streamId);
-            return zkHolder.get().checkExists().forPath(sessionsPath) != null;
+            return CuratorZkSubscriptionClient.readTopology(zkHolder.get(), subscriptionId, stat);
+        } catch (final KeeperException.NoNodeException e) {
+            LOG.debug(e.getMessage(), e);
+            return new Topology(new Partition[0], stat.getVersion());
         } catch (final Exception e) {
             LOG.error(ERROR_COMMUNICATING_WITH_ZOOKEEPER, e);
-            throw new ServiceUnavailableException(ERROR_COMMUNICATING_WITH_ZOOKEEPER);
+            throw new ServiceUnavailableException(ERROR_COMMUNICATING_WITH_ZOOKEEPER, e);
         }
     }
 
-    private List<Boolean> processPartitionCursors(final String subscriptionId, final List<SubscriptionCursor> cursors,
-                                                  final EventTypePartition eventTypePartition)
-            throws InternalNakadiException, NoSuchEventTypeException, ServiceUnavailableException,
-            InvalidCursorException {
-
-        final EventType eventType = eventTypeRepository.findByName(eventTypePartition.getEventType());
-
+    private Map<Partition.PartitionKey, SubscriptionOffsetRepository.Offset> readOffsets(
+            final String subscriptionId, final Collection<Partition.PartitionKey> keys)
+            throws ServiceUnavailableException {
         try {
-            final List<NakadiCursor> nakadiCursors = cursors.stream()
-                    .map(cursor -> {
-                        SubscriptionCursor cursorToProcess = cursor;
-                        if (Cursor.BEFORE_OLDEST_OFFSET.equals(cursor.getOffset())) {
-                            cursorToProcess = new SubscriptionCursor(cursor.getPartition(), "-1", cursor.getEventType(),
-                                    cursor.getCursorToken());
-                        }
-                        final NakadiCursor nakadiCursor = new NakadiCursor(
-                                eventType.getTopic(),
-                                cursorToProcess.getPartition(),
-                                cursorToProcess.getOffset());
-                        try {
-                            topicRepository.validateCommitCursor(nakadiCursor);
-                            return nakadiCursor;
-                        } catch (final InvalidCursorException e) {
-                            throw new NakadiRuntimeException(e);
-                        }
-                    })
-                    .collect(Collectors.toList());
-
-            LOG.debug("[COMMIT_CURSORS] finished validation of {} cursor(s) for partition {}", cursors.size(),
-                    eventTypePartition);
-
-            return commitPartitionCursors(subscriptionId, eventType.getTopic(), nakadiCursors, eventTypePartition);
-
+            return offsetRepository.getOffsets(subscriptionId, keys);
         } catch (final NakadiRuntimeException e) {
-            throw (InvalidCursorException) e.getException();
+            LOG.error(ERROR_COMMUNICATING_WITH_OFFSET_STORAGE, e);
+            throw new ServiceUnavailableException(ERROR_COMMUNICATING_WITH_OFFSET_STORAGE, e);
         }
     }
 
-    private List<Boolean> commitPartitionCursors(final String subscriptionId,
-                                                 final String topic,
-                                                 final List<NakadiCursor> cursors,
-                                                 final EventTypePartition etPartition)
+    private boolean isActiveSession(final String subscriptionId, final String streamId)
             throws ServiceUnavailableException {
-
-        final String offsetPath = format(PATH_ZK_OFFSET, subscriptionId, topic, etPartition.getPartition());
         try {
-            @SuppressWarnings("unchecked")
-            final List<Boolean> committed = executeWithRetry(() -> {
-                        final Stat stat = new Stat();
-                        final byte[] currentOffsetData = zkHolder.get()
-                                .getData()
-                                .storingStatIn(stat)
-                                .forPath(offsetPath);
-                        final String currentOffset = new String(currentOffsetData, Charsets.UTF_8);
-                        NakadiCursor currentMaxCursor = new NakadiCursor(topic, etPartition.getPartition(),
-                                currentOffset);
-
-                        final List<Boolean> commits = Lists.newArrayList();
-                        for (final NakadiCursor cursor : cursors) {
-                            if (topicRepository.compareOffsets(cursor, currentMaxCursor) > 0) {
-                                currentMaxCursor = cursor;
-                                commits.add(true);
-                            } else {
-                                commits.add(false);
-                            }
-                        }
-
-                        if (!currentMaxCursor.getOffset().equals(currentOffset)) {
-                            zkHolder.get()
-                                    .setData()
-                                    .withVersion(stat.getVersion())
-                                    .forPath(offsetPath, currentMaxCursor.getOffset().getBytes(Charsets.UTF_8));
-                        }
-                        return commits;
-                    },
-                    new RetryForSpecifiedCountStrategy<List<Boolean>>(COMMIT_CONFLICT_RETRY_TIMES)
-                            .withExceptionsThatForceRetry(KeeperException.BadVersionException.class));
-
-            return Optional.ofNullable(committed)
-                    .orElse(Collections.nCopies(cursors.size(), false));
+            final String sessionsPath = format(PATH_ZK_SESSION, subscriptionId, streamId);
+            return zkHolder.get().checkExists().forPath(sessionsPath) != null;
         } catch (final Exception e) {
-            throw new ServiceUnavailableException(ERROR_COMMUNICATING_WITH_ZOOKEEPER, e);
+            LOG.error(ERROR_COMMUNICATING_WITH_ZOOKEEPER, e);
+            throw new ServiceUnavailableException(ERROR_COMMUNICATING_WITH_ZOOKEEPER);
         }
     }
 
     public List<SubscriptionCursor> getSubscriptionCursors(final String subscriptionId) throws NakadiException {
         final Subscription subscription = subscriptionRepository.getSubscription(subscriptionId);
-        final ImmutableList.Builder<SubscriptionCursor> cursorsListBuilder = ImmutableList.builder();
-
+        final Map<String, String> eventTypesForTopics = new HashMap<>();
         for (final String eventType : subscription.getEventTypes()) {
-
-            final String topic = eventTypeRepository.findByName(eventType).getTopic();
-            final String partitionsPath = format(PATH_ZK_PARTITIONS, subscriptionId, topic);
-            try {
-                final List<String> partitions = zkHolder.get().getChildren().forPath(partitionsPath);
-
-                final List<SubscriptionCursor> eventTypeCursors = partitions.stream()
-                        .map(partition -> readCursor(subscriptionId, topic, partition, eventType))
-                        .collect(Collectors.toList());
-
-                cursorsListBuilder.addAll(eventTypeCursors);
-            } catch (final KeeperException.NoNodeException nne) {
-                LOG.debug(nne.getMessage(), nne);
-                return Collections.emptyList();
-            } catch (final Exception e) {
-                LOG.error(e.getMessage(), e);
-                throw new ServiceUnavailableException(ERROR_COMMUNICATING_WITH_ZOOKEEPER, e);
-            }
+            eventTypesForTopics.put(eventTypeRepository.findByName(eventType).getTopic(), eventType);
         }
-        return cursorsListBuilder.build();
-    }
 
-    private SubscriptionCursor readCursor(final String subscriptionId, final String topic, final String partition,
-                                          final String eventType)
-            throws RuntimeException {
-        try {
-            final String offsetPath = format(PATH_ZK_OFFSET, subscriptionId, topic, partition);
+        final List<Partition.PartitionKey> partitions = Stream.of(readTopology(subscriptionId, new Stat())
+                .getPartitions())
+                .map(Partition::getKey)
+                .filter(key -> eventTypesForTopics.containsKey(key.getTopic()))
+                .collect(Collectors.toList());
+        final Map<Partition.PartitionKey, SubscriptionOffsetRepository.Offset> offsets =
+                readOffsets(subscriptionId, partitions);
+        final ImmutableList.Builder<SubscriptionCursor> cursorsListBuilder = ImmutableList.builder();
+        for (final Partition.PartitionKey partition : partitions) {
+            final SubscriptionOffsetRepository.Offset offset = offsets.get(partition);
+            if (null == offset) {
+                throw new ServiceUnavailableException("Offset of partition " + partition
+                        + " is not found for subscription " + subscriptionId);
+            }
             final NakadiCursor nakadiCursor = new NakadiCursor(
-                    topic,
-                    partition,
-                    new String(zkHolder.get().getData().forPath(offsetPath), Charsets.UTF_8));
-            return cursorConverter.convert(nakadiCursor, eventType, cursorTokenService.generateToken());
-        } catch (final Exception e) {
-            throw new RuntimeException(e);
+                    partition.getTopic(), partition.getPartition(), offset.getValue());
+            cursorsListBuilder.add(cursorConverter.convert(
+                    nakadiCursor, eventTypesForTopics.get(partition.getTopic()), cursorTokenService.generateToken()));
         }
+        return cursorsListBuilder.build();
     }
-
 }
@@ -0,0 +1,141 @@
+package org.zalando.nakadi.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.zalando.nakadi.domain.CursorError;
+import org.zalando.nakadi.domain.NakadiCursor;
+import org.zalando.nakadi.domain.PartitionStatistics;
+import org.zalando.nakadi.exceptions.InvalidCursorException;
+import org.zalando.nakadi.exceptions.NakadiException;
+import org.zalando.nakadi.exceptions.NoConnectionSlotsException;
+import org.zalando.nakadi.exceptions.UnprocessableEntityException;
+import org.zalando.nakadi.repository.EventConsumer;
+import org.zalando.nakadi.repository.TopicRepository;
+import org.zalando.nakadi.view.Cursor;
+import org.zalando.nakadi.view.ExportRange;
+import org.zalando.nakadi.view.ExportRequest;
+
+/**
+ * Creates exports of historical ranges of events. Exports are not taking connection slots of streaming consumers,
+ * instead the number of simultaneous exports on the instance is limited separately. Exports are throttled by
+ * consumption quotas of applications.
+ */
+@Service
+public class EventExporter {
+
+    private final TopicRepository topicRepository;
+    private final CursorConverter cursorConverter;
+    private final ObjectMapper objectMapper;
+    private final ConsumptionQuotaService consumptionQuotaService;
+    private final int maxExports;
+    private final Semaphore exportSlots;
+
+    @Autowired
+    public EventExporter(final TopicRepository topicRepository, final CursorConverter cursorConverter,
+                         final ObjectMapper objectMapper, final ConsumptionQuotaService consumptionQuotaService,
+                         @Value("${nakadi.export.maxConcurrent:4}") final int maxExports) {
+        this.topicRepository = topicRepository;
+        this.cursorConverter = cursorConverter;
+        this.objectMapper = objectMapper;
+        this.consumptionQuotaService = consumptionQuotaService;
+        this.maxExports = maxExports;
+        this.exportSlots = new Semaphore(maxExports);
+    }
+
+    /**
+     * Validates requested ranges and creates export. Export must be closed to release its slot.
+     */
+    public ExportStream createExport(final String clientId, final String eventTypeName, final String topic,
+                                     final ExportRequest request, final OutputStream outputStream)
+            throws NakadiException, InvalidCursorException {
+        final List<ExportRange> ranges = getRanges(request);
+        final List<NakadiCursor> ends = ranges.stream()
+                .map(range -> new NakadiCursor(topic, range.getPartition(), range.getEnd()))
+                .collect(Collectors.toList());
+        final List<NakadiCursor> starts = resolveStarts(topic, ranges);
+        for (int i = 0; i < starts.size(); ++i) {
+            if (topicRepository.compareOffsets(starts.get(i), ends.get(i)) > 0) {
+                throw new UnprocessableEntityException("start of partition " + starts.get(i).getPartition() +
+                        " is after its end");
+            }
+        }
+
+        if (!exportSlots.tryAcquire()) {
+            throw new NoConnectionSlotsException("No free slots for exports, maximum is " + maxExports);
+        }
+        try {
+            final EventConsumer consumer = topicRepository.createRangeConsumer(starts, ends);
+            return new ExportStream(consumer, outputStream, starts, ends, cursorConverter, objectMapper,
+                    consumptionQuotaService.getThrottle(clientId, Collections.singletonList(eventTypeName)),
+                    exportSlots::release);
+        } catch (final NakadiException | InvalidCursorException | RuntimeException e) {
+            exportSlots.release();
+            throw e;
+        }
+    }
+
+    private List<ExportRange> getRanges(final ExportRequest request) throws UnprocessableEntityException {
+        final List<ExportRange> ranges;
+        if (null != request.getContinuationToken()) {
+            try {
+                ranges = objectMapper.readValue(Base64.getUrlDecoder().decode(request.getContinuationToken()),
+                        new TypeReference<List<ExportRange>>() {
+                        });
+            } catch (final IOException | IllegalArgumentException e) {
+                throw new UnprocessableEntityException("continuation_token is invalid");
+            }
+        } else if (null != request.getRanges() && !request.getRanges().isEmpty()) {
+            ranges = request.getRanges();
+        } else {
+            throw new UnprocessableEntityException("either ranges or continuation_token should be provided");
+        }
+        for (final ExportRange range : ranges) {
+            if (null == range.getPartition() || null == range.getStart() || null == range.getEnd()) {
+                throw new UnprocessableEntityException("partition, start and end of ranges are required");
+            }
+        }
+        if (new HashSet<>(ranges.stream().map(ExportRange::getPartition).collect(Collectors.toList())).size()
+                != ranges.size()) {
+            throw new UnprocessableEntityException("each partition can be exported only once");
+        }
+        return ranges;
+    }
+
+    private List<NakadiCursor> resolveStarts(final String topic, final List<ExportRange> ranges)
+            throws NakadiException, InvalidCursorException {
+        Map<String, NakadiCursor> begin = null;
+        final List<NakadiCursor> result = new ArrayList<>(ranges.size());
+        for (final ExportRange range : ranges) {
+            if (Cursor.BEFORE_OLDEST_OFFSET.equalsIgnoreCase(range.getStart())) {
+                if (null == begin) {
+                    begin = topicRepository.loadTopicStatistics(Collections.singletonList(topic)).stream()
+                            .collect(Collectors.toMap(
+                                    PartitionStatistics::getPartition,
+                                    PartitionStatistics::getBeforeFirst));
+                }
+                final NakadiCursor start = begin.get(range.getPartition());
+                if (null == start) {
+                    throw new InvalidCursorException(CursorError.PARTITION_NOT_FOUND,
+                            new Cursor(range.getPartition(), range.getStart()));
+                }
+                result.add(start);
+            } else {
+                result.add(new NakadiCursor(topic, range.getPartition(), range.getStart()));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,160 @@
+package org.zalando.nakadi.service;
+
+import com.google.common.base.Utf8;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import javax.annotation.Nullable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.zalando.nakadi.config.NakadiSettings;
+import org.zalando.nakadi.domain.ConsumedEvent;
+import org.zalando.nakadi.domain.NakadiCursor;
+import org.zalando.nakadi.exceptions.InvalidCursorException;
+import org.zalando.nakadi.exceptions.NakadiException;
+import org.zalando.nakadi.exceptions.UnprocessableEntityException;
+import org.zalando.nakadi.repository.EventConsumer;
+import org.zalando.nakadi.repository.TopicRepository;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Reads one bounded portion of events for consumers that can't keep a stream open. Fetch is waiting for events
+ * not longer than requested, and returns as soon as there are events to deliver and nothing more is available
+ * right away. Consumers for fetches are taken from the pool and closed right after reading, so no state is kept
+ * between the calls - clients are continuing with the cursors of the response.
+ */
+@Service
+public class EventFetcher {
+
+    public static final int DEFAULT_LIMIT = 1000;
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 1000;
+    public static final long MAX_WAIT_MILLIS = 30000;
+    public static final int MAX_LIMIT = 10000;
+    // Responses are built in memory, so their size is limited by the size of this number of the biggest events
+    public static final int MAX_LIMIT_BYTES_IN_EVENTS = 10;
+
+    private final TopicRepository topicRepository;
+    private final CursorConverter cursorConverter;
+    private final ConsumptionQuotaService consumptionQuotaService;
+    private final long maxLimitBytes;
+
+    @Autowired
+    public EventFetcher(final TopicRepository topicRepository, final CursorConverter cursorConverter,
+                        final ConsumptionQuotaService consumptionQuotaService, final NakadiSettings nakadiSettings) {
+        this.topicRepository = topicRepository;
+        this.cursorConverter = cursorConverter;
+        this.consumptionQuotaService = consumptionQuotaService;
+        this.maxLimitBytes = nakadiSettings.getEventMaxBytes() * MAX_LIMIT_BYTES_IN_EVENTS;
+    }
+
+    /**
+     * @param cursors       positions to read after, one per partition
+     * @param limit         maximum amount of events in the response, not more than {@link #MAX_LIMIT}
+     * @param limitBytes    maximum size of events in the response, at least one event is returned anyway. Not
+     *                      more than {@link #MAX_LIMIT_BYTES_IN_EVENTS} biggest events, which is also used if the
+     *                      size is not set
+     * @param maxWaitMillis maximum time to wait for events if there are none
+     * @return json response with one batch per partition, batches of partitions without new events contain only
+     * the cursor that was requested.
+     */
+    public byte[] fetchEvents(final String clientId, final String eventTypeName, final List<NakadiCursor> cursors,
+                              @Nullable final Integer limit, @Nullable final Long limitBytes,
+                              @Nullable final Long maxWaitMillis)
+            throws NakadiException, InvalidCursorException, IOException {
+        if (null != limit && (limit <= 0 || limit > MAX_LIMIT)) {
+            throw new UnprocessableEntityException("batch_limit should be between 1 and " + MAX_LIMIT);
+        }
+        if (null != limitBytes && (limitBytes < 0 || limitBytes > maxLimitBytes)) {
+            throw new UnprocessableEntityException("batch_limit_bytes should be between 0 and " + maxLimitBytes);
+        }
+        if (null != maxWaitMillis && (maxWaitMillis < 0 || maxWaitMillis > MAX_WAIT_MILLIS)) {
+            throw new UnprocessableEntityException("max_wait_ms should be between 0 and " + MAX_WAIT_MILLIS);
+        }
+        final long waitMillis = null == maxWaitMillis ? DEFAULT_MAX_WAIT_MILLIS : maxWaitMillis;
+
+        final Map<String, Batch> batches;
+        try (EventConsumer consumer = topicRepository.createFetchConsumer(cursors, waitMillis)) {
+            batches = fetch(consumer, cursors, null == limit ? DEFAULT_LIMIT : limit,
+                    null == limitBytes || 0 == limitBytes ? maxLimitBytes : limitBytes, waitMillis);
+        }
+
+        final StringBuilder output = new StringBuilder("{\"items\":[");
+        long events = 0;
+        long bytes = 0;
+        for (final Batch batch : batches.values()) {
+            if (output.charAt(output.length() - 1) != '[') {
+                output.append(',');
+            }
+            EventStream.appendBatchJson(output, cursorConverter.convert(batch.cursor), batch.events);
+            events += batch.events.size();
+            bytes += batch.bytes;
+        }
+        output.append("]}");
+
+        if (events > 0) {
+            final long throttleMillis = consumptionQuotaService
+                    .getThrottle(clientId, Collections.singletonList(eventTypeName)).acquire(events, bytes);
+            if (throttleMillis > 0) {
+                // Response is not delayed for longer than the longest wait for events a client can ask for
+                ConsumptionThrottle.waitFor(throttleMillis, currentTimeMillis() + MAX_WAIT_MILLIS, () -> true);
+            }
+        }
+        return output.toString().getBytes(EventStream.UTF8);
+    }
+
+    private static Map<String, Batch> fetch(final EventConsumer consumer, final List<NakadiCursor> cursors,
+                                            final int limit, final long limitBytes, final long maxWaitMillis) {
+        final Map<String, Batch> batches = new LinkedHashMap<>();
+        cursors.forEach(cursor -> batches.put(cursor.getPartition(), new Batch(cursor)));
+
+        final long deadline = currentTimeMillis() + maxWaitMillis;
+        int count = 0;
+        long bytes = 0;
+        while (count < limit) {
+            // Once there is something to return, only events that are already available are added
+            final long waitMillis = count > 0 ? 0 : Math.max(0, deadline - currentTimeMillis());
+            final Optional<ConsumedEvent> eventOrEmpty = consumer.readEvent(waitMillis);
+            if (!eventOrEmpty.isPresent()) {
+                if (count > 0 || waitMillis == 0) {
+                    break;
+                }
+                continue;
+            }
+            final ConsumedEvent event = eventOrEmpty.get();
+            final Batch batch = batches.get(event.getPosition().getPartition());
+            if (null == batch) {
+                continue;
+            }
+            final int eventBytes = Utf8.encodedLength(event.getEvent());
+            if (limitBytes > 0 && count > 0 && bytes + eventBytes > limitBytes) {
+                // Event is not lost, it will be the first one in the next fetch
+                break;
+            }
+            batch.add(event, eventBytes);
+            count++;
+            bytes += eventBytes;
+        }
+        return batches;
+    }
+
+    private static class Batch {
+        private NakadiCursor cursor;
+        private final List<String> events = new ArrayList<>();
+        private long bytes;
+
+        private Batch(final NakadiCursor cursor) {
+            this.cursor = cursor;
+        }
+
+        private void add(final ConsumedEvent event, final int eventBytes) {
+            cursor = event.getPosition();
+            events.add(event.getEvent());
+            bytes += eventBytes;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package org.zalando.nakadi.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.zalando.nakadi.exceptions.UnprocessableEntityException;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Server side filtering and projection of streamed events.
+ * <p>
+ * Filter is a json object that maps dot-separated paths of event fields to an expected scalar value or to an array
+ * of expected values, e.g. {@code {"metadata.event_type":"order.created","data.key":["a","b"]}}. Event is streamed
+ * only if all the fields are present and have one of the expected values.
+ * <p>
+ * Fields is a comma-separated list of dot-separated paths. Only these fields are kept in streamed events.
+ * <p>
+ * Paths are compiled to a tree once per stream, so each event is checked and projected with a single pass of
+ * streaming parser, that skips parts of event that are not referenced by any path.
+ */
+@Immutable
+public class EventFilter {
+
+    public static final EventFilter NONE = new EventFilter(null, null, null, null, 0);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static class PathNode {
+        private final Map<String, PathNode> children = new HashMap<>();
+        // Set for leaves of filter, contains expected values
+        private Set<String> expected;
+        // Set for leaves of projection, whole value is kept
+        private boolean projected;
+
+        private PathNode child(final String name) {
+            return children.computeIfAbsent(name, n -> new PathNode());
+        }
+    }
+
+    private static class MatchState {
+        private int matched;
+        private boolean failed;
+    }
+
+    private final String filter;
+    private final String fields;
+    private final PathNode filterRoot;
+    private final PathNode fieldsRoot;
+    private final int filterLeaves;
+
+    private EventFilter(@Nullable final String filter, @Nullable final String fields,
+                        @Nullable final PathNode filterRoot, @Nullable final PathNode fieldsRoot,
+                        final int filterLeaves) {
+        this.filter = filter;
+        this.fields = fields;
+        this.filterRoot = filterRoot;
+        this.fieldsRoot = fieldsRoot;
+        this.filterLeaves = filterLeaves;
+    }
+
+    /**
+     * Compiles filter and projection.
+     *
+     * @param filter json object with expected values of event fields, not used if null or empty
+     * @param fields comma-separated paths of fields to keep in events, not used if null or empty
+     */
+    public static EventFilter of(@Nullable final String filter, @Nullable final String fields)
+            throws UnprocessableEntityException {
+        final boolean hasFilter = null != filter && !filter.trim().isEmpty();
+        final boolean hasFields = null != fields && !fields.trim().isEmpty();
+        if (!hasFilter && !hasFields) {
+            return NONE;
+        }
+        PathNode filterRoot = null;
+        int filterLeaves = 0;
+        if (hasFilter) {
+            filterRoot = new PathNode();
+            final JsonNode filterJson;
+            try {
+                filterJson = MAPPER.readTree(filter);
+            } catch (final IOException e) {
+                throw new UnprocessableEntityException("filter is not a valid json", e);
+            }
+            if (null == filterJson || !filterJson.isObject() || filterJson.size() == 0) {
+                throw new UnprocessableEntityException("filter must be a non-empty json object");
+            }
+            final Iterator<Map.Entry<String, JsonNode>> it = filterJson.fields();
+            while (it.hasNext()) {
+                final Map.Entry<String, JsonNode> entry = it.next();
+                final PathNode leaf = compilePath(filterRoot, entry.getKey(), "filter");
+                leaf.expected = compileExpected(entry.getKey(), entry.getValue());
+                filterLeaves++;
+            }
+        }
+        PathNode fieldsRoot = null;
+        if (hasFields) {
+            fieldsRoot = new PathNode();
+            for (final String path : fields.split(",")) {
+                compilePath(fieldsRoot, path.trim(), "fields").projected = true;
+            }
+        }
+        return new EventFilter(hasFilter ? filter : null, hasFields ? fields : null, filterRoot, fieldsRoot,
+                filterLeaves);
+    }
+
+    private static PathNode compilePath(final PathNode root, final String path, final String parameter)
+            throws UnprocessableEntityException {
+        PathNode node = root;
+        for (final String name : path.split("\\.", -1)) {
+            if (name.isEmpty()) {
+                throw new UnprocessableEntityException(parameter + " contains invalid path \"" + path + "\"");
+            }
+            node = node.child(name);
+        }
+        return node;
+    }
+
+    private static Set<String> compileExpected(final String path, final JsonNode value)
+            throws UnprocessableEntityException {
+        final Set<String> result = new HashSet<>();
+        if (value.isArray()) {
+            for (final JsonNode item : value) {
+                result.add(expectedKey(path, item));
+            }
+        } else {
+            result.add(expectedKey(path, value));
+        }
+        return result;
+    }
+
+    private static String expectedKey(final String path, final JsonNode value) throws UnprocessableEntityException {
+        if (value.isTextual()) {
+            return "s" + value.textValue();
+        } else if (value.isNumber()) {
+            return numberKey(value.decimalValue().stripTrailingZeros().toPlainString());
+        } else if (value.isBoolean() || value.isNull()) {
+            return value.asText();
+        }
+        throw new UnprocessableEntityException("filter value for \"" + path + "\" must be a scalar or an array " +
+                "of scalars");
+    }
+
+    private static String numberKey(final String plain) {
+        return "n" + plain;
+    }
+
+    private static String valueKey(final JsonParser parser, final JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_STRING:
+                return "s" + parser.getText();
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return numberKey(parser.getDecimalValue().stripTrailingZeros().toPlainString());
+            default:
+                return parser.getText();
+        }
+    }
+
+    public boolean isEmpty() {
+        return null == filterRoot && null == fieldsRoot;
+    }
+
+    /**
+     * Applies filter and projection to event.
+     *
+     * @return event to stream, or null if event is filtered out. Events that can not be parsed are streamed as is.
+     */
+    @Nullable
+    public String apply(final String event) {
+        if (isEmpty()) {
+            return event;
+        }
+        try {
+            if (null != filterRoot && !matches(event)) {
+                return null;
+            }
+            return null == fieldsRoot ? event : project(event);
+        } catch (final IOException e) {
+            return event;
+        }
+    }
+
+    private boolean matches(final String event) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(event)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return false;
+            }
+            final MatchState state = new MatchState();
+            match(parser, filterRoot, state);
+            return !state.failed && state.matched == filterLeaves;
+        }
+    }
+
+    private void match(final JsonParser parser, final PathNode node, final MatchState state) throws IOException {
+        while (!state.failed && state.matched < filterLeaves && parser.nextToken() == JsonToken.FIELD_NAME) {
+            final PathNode child = node.children.get(parser.getCurrentName());
+            final JsonToken value = parser.nextToken();
+            if (null == child) {
+                parser.skipChildren();
+            } else if (null != child.expected) {
+                if (value.isScalarValue() && child.expected.contains(valueKey(parser, value))) {
+                    state.matched++;
+                } else {
+                    state.failed = true;
+                }
+            } else if (value == JsonToken.START_OBJECT) {
+                match(parser, child, state);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private String project(final String event) throws IOException {
+        final StringWriter writer = new StringWriter(Math.min(event.length(), 1024));
+        try (JsonParser parser = JSON_FACTORY.createParser(event);
+             JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return event;
+            }
+            project(parser, generator, fieldsRoot);
+        }
+        return writer.toString();
+    }
+
+    private static void project(final JsonParser parser, final JsonGenerator generator, final PathNode node)
+            throws IOException {
+        generator.writeStartObject();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            final PathNode child = node.children.get(name);
+            final JsonToken value = parser.nextToken();
+            if (null == child) {
+                parser.skipChildren();
+            } else if (child.projected) {
+                generator.writeFieldName(name);
+                generator.copyCurrentStructure(parser);
+            } else if (value == JsonToken.START_OBJECT) {
+                generator.writeFieldName(name);
+                project(parser, generator, child);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        generator.writeEndObject();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final EventFilter that = (EventFilter) o;
+        return Objects.equals(filter, that.filter) && Objects.equals(fields, that.fields);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(filter, fields);
+    }
+
+    @Override
+    public String toString() {
+        return "EventFilter{filter=" + filter + ", fields=" + fields + '}';
+    }
+}
@@ -18,6 +18,7 @@ import org.zalando.nakadi.exceptions.EnrichmentException;
 import org.zalando.nakadi.exceptions.EventPublishingException;
 import org.zalando.nakadi.exceptions.EventTypeTimeoutException;
 import org.zalando.nakadi.exceptions.EventValidationException;
+import org.zalando.nakadi.exceptions.IllegalScopeException;
 import org.zalando.nakadi.exceptions.InternalNakadiException;
 import org.zalando.nakadi.exceptions.NoSuchEventTypeException;
 import org.zalando.nakadi.exceptions.PartitioningException;
@@ -31,7 +32,10 @@ import org.zalando.nakadi.validation.ValidationError;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
@@ -75,21 +79,13 @@ public class EventPublisher {
             final EventType eventType = eventTypeCache.getEventType(eventTypeName);
             client.checkScopes(eventType.getWriteScopes());
 
-            validate(batch, eventType);
-            partition(batch, eventType);
-            enrich(batch, eventType);
+            final Optional<EventPublishResult> aborted = prepare(batch, eventType);
+            if (aborted.isPresent()) {
+                return aborted.get();
+            }
             submit(batch, eventType);
 
             return ok(batch);
-        } catch (final EventValidationException e) {
-            LOG.debug("Event validation error: {}", e.getMessage());
-            return aborted(EventPublishingStep.VALIDATING, batch);
-        } catch (final PartitioningException e) {
-            LOG.debug("Event partition error: {}", e.getMessage());
-            return aborted(EventPublishingStep.PARTITIONING, batch);
-        } catch (final EnrichmentException e) {
-            LOG.debug("Event enrichment error: {}", e.getMessage());
-            return aborted(EventPublishingStep.ENRICHING, batch);
         } catch (final EventPublishingException e) {
             LOG.error("error publishing event", e);
             return failed(batch);
@@ -111,6 +107,107 @@ public class EventPublisher {
         }
     }
 
+    /**
+     * Publishes batches of several event types at once. Every batch is validated, partitioned and enriched
+     * separately, then all batches that passed these steps are submitted to kafka together. The result of each
+     * event type is the same as it would be for a separate publishing of its batch, and the batch of an event type
+     * that can not be published, because it is not found, not allowed to write or in maintenance, is not stopping
+     * publishing of the other ones.
+     */
+    public Map<String, EventPublishResult> publishMultiple(final Map<String, List<BatchItem>> batches,
+                                                           final Client client) {
+
+        final List<Closeable> publishingClosers = new ArrayList<>(batches.size());
+        try {
+            final Map<String, EventPublishResult> results = new HashMap<>();
+            final Map<String, List<BatchItem>> batchesByTopic = new HashMap<>();
+            for (final Map.Entry<String, List<BatchItem>> entry : batches.entrySet()) {
+                final String eventTypeName = entry.getKey();
+                try {
+                    publishingClosers.add(timelineSync.workWithEventType(eventTypeName,
+                            nakadiSettings.getTimelineWaitTimeoutMs()));
+
+                    final EventType eventType = eventTypeCache.getEventType(eventTypeName);
+                    client.checkScopes(eventType.getWriteScopes());
+
+                    final Optional<EventPublishResult> aborted = prepare(entry.getValue(), eventType);
+                    if (aborted.isPresent()) {
+                        results.put(eventTypeName, aborted.get());
+                    } else {
+                        batchesByTopic.put(eventType.getTopic(), entry.getValue());
+                    }
+                } catch (final NoSuchEventTypeException | IllegalScopeException e) {
+                    LOG.debug("Batch of event type {} is rejected: {}", eventTypeName, e.getMessage());
+                    results.put(eventTypeName, rejected(EventPublishingStatus.ABORTED, entry.getValue(),
+                            e.getMessage()));
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    LOG.error("Failed to wait for timeline switch", e);
+                    results.put(eventTypeName, rejected(EventPublishingStatus.FAILED, entry.getValue(),
+                            "Event type is currently in maintenance, please repeat request"));
+                } catch (final TimeoutException e) {
+                    LOG.error("Failed to wait for timeline switch", e);
+                    results.put(eventTypeName, rejected(EventPublishingStatus.FAILED, entry.getValue(),
+                            "Event type is currently in maintenance, please repeat request"));
+                } catch (final InternalNakadiException e) {
+                    LOG.error("Failed to publish batch of event type " + eventTypeName, e);
+                    results.put(eventTypeName, rejected(EventPublishingStatus.FAILED, entry.getValue(),
+                            e.getMessage()));
+                }
+            }
+
+            if (!batchesByTopic.isEmpty()) {
+                try {
+                    topicRepository.syncPostBatches(batchesByTopic);
+                } catch (final EventPublishingException e) {
+                    LOG.error("error publishing event", e);
+                }
+            }
+            batches.forEach((eventTypeName, batch) -> {
+                if (!results.containsKey(eventTypeName)) {
+                    final boolean submitted = batch.stream().allMatch(
+                            item -> item.getResponse().getPublishingStatus() == EventPublishingStatus.SUBMITTED);
+                    results.put(eventTypeName, submitted ? ok(batch) : failed(batch));
+                }
+            });
+            return results;
+        } finally {
+            for (final Closeable publishingCloser : publishingClosers) {
+                try {
+                    if (publishingCloser != null) {
+                        publishingCloser.close();
+                    }
+                } catch (final IOException e) {
+                    LOG.error("Exception occurred when releasing usage of event-type", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Validates, partitions and enriches the batch.
+     *
+     * @return result of the batch if it was aborted on one of the steps
+     */
+    private Optional<EventPublishResult> prepare(final List<BatchItem> batch, final EventType eventType)
+            throws InternalNakadiException, NoSuchEventTypeException {
+        try {
+            validate(batch, eventType);
+            partition(batch, eventType);
+            enrich(batch, eventType);
+            return Optional.empty();
+        } catch (final EventValidationException e) {
+            LOG.debug("Event validation error: {}", e.getMessage());
+            return Optional.of(aborted(EventPublishingStep.VALIDATING, batch));
+        } catch (final PartitioningException e) {
+            LOG.debug("Event partition error: {}", e.getMessage());
+            return Optional.of(aborted(EventPublishingStep.PARTITIONING, batch));
+        } catch (final EnrichmentException e) {
+            LOG.debug("Event enrichment error: {}", e.getMessage());
+            return Optional.of(aborted(EventPublishingStep.ENRICHING, batch));
+        }
+    }
+
     private void enrich(final List<BatchItem> batch, final EventType eventType) throws EnrichmentException {
         for (final BatchItem batchItem : batch) {
             try {
@@ -186,6 +283,15 @@ public class EventPublisher {
         return new EventPublishResult(EventPublishingStatus.ABORTED, step, responses(batch));
     }
 
+    /**
+     * Result of a batch that was not published, because its event type can not be used, with the reason in each item.
+     */
+    private EventPublishResult rejected(final EventPublishingStatus status, final List<BatchItem> batch,
+                                        final String detail) {
+        batch.forEach(item -> item.updateStatusAndDetail(status, detail));
+        return new EventPublishResult(status, EventPublishingStep.NONE, responses(batch));
+    }
+
     private EventPublishResult ok(final List<BatchItem> batch) {
         return new EventPublishResult(EventPublishingStatus.SUBMITTED, EventPublishingStep.NONE, responses(batch));
     }
@@ -1,5 +1,6 @@
 package org.zalando.nakadi.service;
 
+import com.google.common.base.Utf8;
 import com.google.common.collect.Lists;
 import org.apache.kafka.common.KafkaException;
 import org.slf4j.Logger;
@@ -7,13 +8,16 @@ import org.slf4j.LoggerFactory;
 import org.zalando.nakadi.domain.ConsumedEvent;
 import org.zalando.nakadi.domain.NakadiCursor;
 import org.zalando.nakadi.repository.EventConsumer;
+import org.zalando.nakadi.repository.kafka.KafkaCursor;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -27,23 +31,38 @@ public class EventStream {
     private static final Logger LOG = LoggerFactory.getLogger(EventStream.class);
     public static final String BATCH_SEPARATOR = "\n";
     public static final Charset UTF8 = Charset.forName("UTF-8");
+    // Batches that became ready at the same time are written together, but not more than this amount of chars.
+    public static final int MAX_COALESCED_OUTPUT = 1024 * 1024;
 
     private final OutputStream outputStream;
     private final EventConsumer eventConsumer;
     private final EventStreamConfig config;
     private final BlacklistService blacklistService;
     private final CursorConverter cursorConverter;
+    private final ConsumptionThrottle throttle;
+    // Events in batches that are not yet written to output
+    private long eventsInOutput;
 
     public EventStream(final EventConsumer eventConsumer,
                        final OutputStream outputStream,
                        final EventStreamConfig config,
                        final BlacklistService blacklistService,
                        final CursorConverter cursorConverter) {
+        this(eventConsumer, outputStream, config, blacklistService, cursorConverter, ConsumptionThrottle.NONE);
+    }
+
+    public EventStream(final EventConsumer eventConsumer,
+                       final OutputStream outputStream,
+                       final EventStreamConfig config,
+                       final BlacklistService blacklistService,
+                       final CursorConverter cursorConverter,
+                       final ConsumptionThrottle throttle) {
         this.eventConsumer = eventConsumer;
         this.outputStream = outputStream;
         this.config = config;
         this.blacklistService = blacklistService;
         this.cursorConverter = cursorConverter;
+        this.throttle = throttle;
     }
 
     public void streamEvents(final AtomicBoolean connectionReady) {
@@ -53,16 +72,25 @@ public class EventStream {
 
             final Map<String, List<String>> currentBatches =
                     createMapWithPartitionKeys(partition -> Lists.newArrayList());
+            final Map<String, Long> currentBatchesBytes = createMapWithPartitionKeys(partition -> 0L);
+            final StringBuilder output = new StringBuilder();
+            final BinaryBatchEncoder binaryOutput = config.isBinaryFraming() ? new BinaryBatchEncoder() : null;
             // Partition to NakadiCursor.
             final Map<String, NakadiCursor> latestOffsets = config.getCursors().stream().collect(
                     Collectors.toMap(NakadiCursor::getPartition, c -> c));
 
             final long start = currentTimeMillis();
             final Map<String, Long> batchStartTimes = createMapWithPartitionKeys(partition -> start);
+            // waiting for events is limited by the closest batch flush (or keep alive) and stream timeout, so
+            // that they happen in time, while idle streams are not waking up in between
+            long nextFlushMillis = start + config.getBatchTimeoutMillis();
+            final long streamDeadlineMillis = config.getStreamTimeout() != 0 ?
+                    start + TimeUnit.SECONDS.toMillis(config.getStreamTimeout()) : Long.MAX_VALUE;
 
             while (connectionReady.get() &&
                     !blacklistService.isConsumptionBlocked(config.getEtName(), config.getConsumingAppId())) {
-                final Optional<ConsumedEvent> eventOrEmpty = eventConsumer.readEvent();
+                final Optional<ConsumedEvent> eventOrEmpty =
+                        eventConsumer.readEvent(Math.min(nextFlushMillis, streamDeadlineMillis) - currentTimeMillis());
 
                 if (eventOrEmpty.isPresent()) {
                     final ConsumedEvent event = eventOrEmpty.get();
@@ -70,21 +98,34 @@ public class EventStream {
                     // update offset for the partition of event that was read
                     latestOffsets.put(event.getPosition().getPartition(), event.getPosition());
 
-                    // put message to batch
-                    currentBatches.get(event.getPosition().getPartition()).add(event.getEvent());
-                    messagesRead++;
+                    // filtered out events are only moving cursor of the next batch (or keep alive) forward
+                    final String eventToSend = config.getEventFilter().apply(event.getEvent());
+                    if (null != eventToSend) {
+                        // put message to batch
+                        currentBatches.get(event.getPosition().getPartition()).add(eventToSend);
+                        if (config.getBatchLimitBytes() > 0) {
+                            currentBatchesBytes.compute(event.getPosition().getPartition(),
+                                    (partition, bytes) -> bytes + Utf8.encodedLength(eventToSend));
+                        }
+                        messagesRead++;
 
-                    // if we read the message - reset keep alive counter for this partition
-                    keepAliveInARow.put(event.getPosition().getPartition(), 0);
+                        // if we read the message - reset keep alive counter for this partition
+                        keepAliveInARow.put(event.getPosition().getPartition(), 0);
+                    }
                 }
 
                 // for each partition check if it's time to send the batch
+                nextFlushMillis = Long.MAX_VALUE;
                 for (final String partition : latestOffsets.keySet()) {
                     final long timeSinceBatchStart = currentTimeMillis() - batchStartTimes.get(partition);
-                    if (config.getBatchTimeout() * 1000 <= timeSinceBatchStart
-                            || currentBatches.get(partition).size() >= config.getBatchLimit()) {
+                    if (config.getBatchTimeoutMillis() <= timeSinceBatchStart
+                            || currentBatches.get(partition).size() >= config.getBatchLimit()
+                            || isBatchBytesLimitReached(currentBatchesBytes.get(partition))) {
 
-                        sendBatch(latestOffsets.get(partition), currentBatches.get(partition));
+                        appendBatch(output, binaryOutput, latestOffsets.get(partition), currentBatches.get(partition));
+                        if (outputSize(output, binaryOutput) >= MAX_COALESCED_OUTPUT) {
+                            writeOutput(output, binaryOutput, connectionReady, streamDeadlineMillis);
+                        }
 
                         // if we hit keep alive count limit - close the stream
                         if (currentBatches.get(partition).size() == 0) {
@@ -93,9 +134,14 @@ public class EventStream {
 
                         // init new batch for partition
                         currentBatches.get(partition).clear();
+                        currentBatchesBytes.put(partition, 0L);
                         batchStartTimes.put(partition, currentTimeMillis());
                     }
+                    nextFlushMillis = Math.min(nextFlushMillis,
+                            batchStartTimes.get(partition) + config.getBatchTimeoutMillis());
                 }
+                // all the batches that are ready are sent with one write
+                writeOutput(output, binaryOutput, connectionReady, streamDeadlineMillis);
 
                 // check if we reached keepAliveInARow for all the partitions; if yes - then close stream
                 if (config.getStreamKeepAliveLimit() != 0) {
@@ -116,9 +162,11 @@ public class EventStream {
 
                     for (final String partition : latestOffsets.keySet()) {
                         if (currentBatches.get(partition).size() > 0) {
-                            sendBatch(latestOffsets.get(partition), currentBatches.get(partition));
+                            appendBatch(output, binaryOutput, latestOffsets.get(partition),
+                                    currentBatches.get(partition));
                         }
                     }
+                    writeOutput(output, binaryOutput, connectionReady, streamDeadlineMillis);
 
                     break;
                 }
@@ -140,27 +188,73 @@ public class EventStream {
     }
 
     public static String createStreamEvent(final Cursor cursor, final List<String> events) {
-        final StringBuilder builder = new StringBuilder()
-                .append("{\"cursor\":{\"partition\":\"").append(cursor.getPartition())
+        return appendBatchJson(new StringBuilder(), cursor, events).append(BATCH_SEPARATOR).toString();
+    }
+
+    /**
+     * Appends batch in the json format of the stream, without separator.
+     */
+    public static StringBuilder appendBatchJson(final StringBuilder builder, final Cursor cursor,
+                                                final List<String> events) {
+        builder.append("{\"cursor\":{\"partition\":\"").append(cursor.getPartition())
                 .append("\",\"offset\":\"").append(cursor.getOffset()).append("\"}");
         if (!events.isEmpty()) {
             builder.append(",\"events\":[");
             events.forEach(event -> builder.append(event).append(","));
             builder.deleteCharAt(builder.length() - 1).append("]");
         }
+        return builder.append("}");
+    }
+
+    private boolean isBatchBytesLimitReached(final long batchBytes) {
+        return config.getBatchLimitBytes() > 0 && batchBytes >= config.getBatchLimitBytes();
+    }
 
-        builder.append("}").append(BATCH_SEPARATOR);
+    private void appendBatch(final StringBuilder output, @Nullable final BinaryBatchEncoder binaryOutput,
+                             final NakadiCursor topicPosition, final List<String> currentBatch) {
+        // create stream event batch for current partition; if there were
+        // no events, it will be just a keep-alive
+        eventsInOutput += currentBatch.size();
+        if (null != binaryOutput) {
+            binaryOutput.appendBatch(topicPosition.getPartition(), KafkaCursor.toKafkaOffset(topicPosition.getOffset()),
+                    null, null, currentBatch, null);
+        } else {
+            appendBatchJson(output, cursorConverter.convert(topicPosition), currentBatch).append(BATCH_SEPARATOR);
+        }
+    }
 
-        return builder.toString();
+    private static int outputSize(final StringBuilder output, @Nullable final BinaryBatchEncoder binaryOutput) {
+        return null != binaryOutput ? binaryOutput.size() : output.length();
     }
 
-    private void sendBatch(final NakadiCursor topicPosition, final List<String> currentBatch)
+    private void writeOutput(final StringBuilder output, @Nullable final BinaryBatchEncoder binaryOutput,
+                             final AtomicBoolean connectionReady, final long streamDeadlineMillis)
             throws IOException {
-        // create stream event batch for current partition and send it; if there were
-        // no events, it will be just a keep-alive
-        final String streamEvent = createStreamEvent(cursorConverter.convert(topicPosition), currentBatch);
-        outputStream.write(streamEvent.getBytes(UTF8));
-        outputStream.flush();
+        final long bytes;
+        if (null != binaryOutput) {
+            bytes = binaryOutput.size();
+            if (bytes > 0) {
+                binaryOutput.writeTo(outputStream);
+                outputStream.flush();
+                binaryOutput.reset();
+            }
+        } else if (output.length() > 0) {
+            final byte[] data = output.toString().getBytes(UTF8);
+            bytes = data.length;
+            outputStream.write(data);
+            outputStream.flush();
+            output.setLength(0);
+        } else {
+            bytes = 0;
+        }
+        if (bytes > 0) {
+            final long events = eventsInOutput;
+            eventsInOutput = 0;
+            final long throttleMillis = throttle.acquire(events, bytes);
+            if (throttleMillis > 0) {
+                ConsumptionThrottle.waitFor(throttleMillis, streamDeadlineMillis, connectionReady::get);
+            }
+        }
     }
 
     public void close() throws IOException {
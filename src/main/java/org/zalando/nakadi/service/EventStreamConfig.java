@@ -1,6 +1,7 @@
 package org.zalando.nakadi.service;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import org.zalando.nakadi.domain.NakadiCursor;
 import org.zalando.nakadi.exceptions.UnprocessableEntityException;
 
@@ -11,31 +12,43 @@ import javax.annotation.concurrent.Immutable;
 public class EventStreamConfig {
 
     private static final int BATCH_LIMIT_DEFAULT = 1;
+    private static final long BATCH_LIMIT_BYTES_DEFAULT = 0;
     private static final int STREAM_LIMIT_DEFAULT = 0;
     private static final int BATCH_FLUSH_TIMEOUT_DEFAULT = 30;
+    /**
+     * Flush timeouts below this value would make streams spin on polling and flushing of keep alives.
+     */
+    public static final long BATCH_FLUSH_TIMEOUT_MS_MIN = 10;
     private static final int STREAM_TIMEOUT_DEFAULT = 0;
     private static final int STREAM_KEEP_ALIVE_LIMIT_DEFAULT = 0;
 
     private final List<NakadiCursor> cursors;
     private final int batchLimit;
+    private final long batchLimitBytes;
     private final int streamLimit;
-    private final int batchTimeout;
+    private final long batchTimeoutMillis;
     private final int streamTimeout;
     private final int streamKeepAliveLimit;
     private final String etName;
     private final String consumingAppId;
+    private final EventFilter eventFilter;
+    private final boolean binaryFraming;
 
-    private EventStreamConfig(final List<NakadiCursor> cursors, final int batchLimit,
-                              final int streamLimit, final int batchTimeout, final int streamTimeout,
-                              final int streamKeepAliveLimit, final String etName, final String consumingAppId) {
+    private EventStreamConfig(final List<NakadiCursor> cursors, final int batchLimit, final long batchLimitBytes,
+                              final int streamLimit, final long batchTimeoutMillis, final int streamTimeout,
+                              final int streamKeepAliveLimit, final String etName, final String consumingAppId,
+                              final EventFilter eventFilter, final boolean binaryFraming) {
         this.cursors = cursors;
         this.batchLimit = batchLimit;
+        this.batchLimitBytes = batchLimitBytes;
         this.streamLimit = streamLimit;
-        this.batchTimeout = batchTimeout;
+        this.batchTimeoutMillis = batchTimeoutMillis;
         this.streamTimeout = streamTimeout;
         this.streamKeepAliveLimit = streamKeepAliveLimit;
         this.etName = etName;
         this.consumingAppId = consumingAppId;
+        this.eventFilter = eventFilter;
+        this.binaryFraming = binaryFraming;
     }
 
     public List<NakadiCursor> getCursors() {
@@ -46,12 +59,19 @@ public class EventStreamConfig {
         return batchLimit;
     }
 
+    /**
+     * @return Size of events in batch (in bytes), that triggers sending of the batch. 0 means that there is no limit.
+     */
+    public long getBatchLimitBytes() {
+        return batchLimitBytes;
+    }
+
     public int getStreamLimit() {
         return streamLimit;
     }
 
-    public int getBatchTimeout() {
-        return batchTimeout;
+    public long getBatchTimeoutMillis() {
+        return batchTimeoutMillis;
     }
 
     public int getStreamTimeout() {
@@ -70,11 +90,27 @@ public class EventStreamConfig {
         return consumingAppId;
     }
 
+    /**
+     * @return Filter and projection applied to events before they are streamed.
+     */
+    public EventFilter getEventFilter() {
+        return eventFilter;
+    }
+
+    /**
+     * @return true if batches are written with {@link BinaryBatchEncoder} instead of json.
+     */
+    public boolean isBinaryFraming() {
+        return binaryFraming;
+    }
+
     @Override
     public String toString() {
         return "EventStreamConfig{cursors=" + cursors + ", batchLimit=" + batchLimit
-                + ", streamLimit=" + streamLimit + ", batchTimeout=" + batchTimeout + ", streamTimeout=" + streamTimeout
-                + ", streamKeepAliveLimit=" + streamKeepAliveLimit + '}';
+                + ", batchLimitBytes=" + batchLimitBytes + ", streamLimit=" + streamLimit
+                + ", batchTimeoutMillis=" + batchTimeoutMillis + ", streamTimeout=" + streamTimeout
+                + ", streamKeepAliveLimit=" + streamKeepAliveLimit + ", eventFilter=" + eventFilter
+                + ", binaryFraming=" + binaryFraming + '}';
     }
 
     @Override
@@ -88,22 +124,51 @@ public class EventStreamConfig {
 
         final EventStreamConfig that = (EventStreamConfig) o;
 
-        return batchLimit == that.batchLimit && streamLimit == that.streamLimit && batchTimeout == that.batchTimeout
+        return batchLimit == that.batchLimit && batchLimitBytes == that.batchLimitBytes
+                && streamLimit == that.streamLimit && batchTimeoutMillis == that.batchTimeoutMillis
                 && streamTimeout == that.streamTimeout && streamKeepAliveLimit == that.streamKeepAliveLimit
-                && cursors.equals(that.cursors);
+                && cursors.equals(that.cursors) && eventFilter.equals(that.eventFilter)
+                && binaryFraming == that.binaryFraming;
     }
 
     @Override
     public int hashCode() {
         int result = cursors.hashCode();
         result = 31 * result + batchLimit;
+        result = 31 * result + (int) (batchLimitBytes ^ (batchLimitBytes >>> 32));
         result = 31 * result + streamLimit;
-        result = 31 * result + batchTimeout;
+        result = 31 * result + (int) (batchTimeoutMillis ^ (batchTimeoutMillis >>> 32));
         result = 31 * result + streamTimeout;
         result = 31 * result + streamKeepAliveLimit;
+        result = 31 * result + eventFilter.hashCode();
+        result = 31 * result + (binaryFraming ? 1 : 0);
         return result;
     }
 
+    /**
+     * Resolves flush timeout from {@code batch_flush_timeout} and {@code batch_flush_timeout_ms} parameters, the
+     * latter one takes precedence if set.
+     *
+     * @param batchTimeoutSeconds timeout in seconds, default is used if null or 0
+     * @param batchTimeoutMillis  timeout in milliseconds, not used if null or 0
+     * @return timeout in milliseconds
+     */
+    public static long resolveBatchTimeoutMillis(@Nullable final Integer batchTimeoutSeconds,
+                                                 @Nullable final Integer batchTimeoutMillis)
+            throws UnprocessableEntityException {
+        if (batchTimeoutMillis != null && batchTimeoutMillis != 0) {
+            if (batchTimeoutMillis < BATCH_FLUSH_TIMEOUT_MS_MIN) {
+                throw new UnprocessableEntityException("batch_flush_timeout_ms can't be lower than "
+                        + BATCH_FLUSH_TIMEOUT_MS_MIN);
+            }
+            return batchTimeoutMillis;
+        } else if (batchTimeoutSeconds != null && batchTimeoutSeconds < 0) {
+            throw new UnprocessableEntityException("batch_flush_timeout can't be negative");
+        }
+        return TimeUnit.SECONDS.toMillis(batchTimeoutSeconds == null || batchTimeoutSeconds == 0 ?
+                BATCH_FLUSH_TIMEOUT_DEFAULT : batchTimeoutSeconds);
+    }
+
     public static Builder builder() {
         return new Builder();
     }
@@ -112,12 +177,17 @@ public class EventStreamConfig {
 
         private List<NakadiCursor> cursors = null;
         private int batchLimit = BATCH_LIMIT_DEFAULT;
+        private long batchLimitBytes = BATCH_LIMIT_BYTES_DEFAULT;
         private int streamLimit = STREAM_LIMIT_DEFAULT;
-        private int batchTimeout = BATCH_FLUSH_TIMEOUT_DEFAULT;
+        private Integer batchTimeout;
+        private Integer batchTimeoutMillis;
         private int streamTimeout = STREAM_TIMEOUT_DEFAULT;
         private int streamKeepAliveLimit = STREAM_KEEP_ALIVE_LIMIT_DEFAULT;
         private String etName;
         private String consumingAppId;
+        private String filter;
+        private String fields;
+        private boolean binaryFraming;
 
         public Builder withCursors(final List<NakadiCursor> cursors) {
             this.cursors = cursors;
@@ -131,6 +201,13 @@ public class EventStreamConfig {
             return this;
         }
 
+        public Builder withBatchLimitBytes(@Nullable final Long batchLimitBytes) {
+            if (batchLimitBytes != null) {
+                this.batchLimitBytes = batchLimitBytes;
+            }
+            return this;
+        }
+
         public Builder withStreamLimit(@Nullable final Integer streamLimit) {
             if (streamLimit != null) {
                 this.streamLimit = streamLimit;
@@ -139,13 +216,12 @@ public class EventStreamConfig {
         }
 
         public Builder withBatchTimeout(@Nullable final Integer batchTimeout) {
-            if (batchTimeout != null) {
-                if (batchTimeout == 0) {
-                    this.batchTimeout = BATCH_FLUSH_TIMEOUT_DEFAULT;
-                } else {
-                    this.batchTimeout = batchTimeout;
-                }
-            }
+            this.batchTimeout = batchTimeout;
+            return this;
+        }
+
+        public Builder withBatchTimeoutMillis(@Nullable final Integer batchTimeoutMillis) {
+            this.batchTimeoutMillis = batchTimeoutMillis;
             return this;
         }
 
@@ -173,15 +249,34 @@ public class EventStreamConfig {
             return this;
         }
 
+        public Builder withFilter(@Nullable final String filter) {
+            this.filter = filter;
+            return this;
+        }
+
+        public Builder withFields(@Nullable final String fields) {
+            this.fields = fields;
+            return this;
+        }
+
+        public Builder withBinaryFraming(final boolean binaryFraming) {
+            this.binaryFraming = binaryFraming;
+            return this;
+        }
+
 
         public EventStreamConfig build() throws UnprocessableEntityException {
-            if (streamLimit != 0 && streamLimit < batchLimit) {
+            final long resolvedBatchTimeoutMillis = resolveBatchTimeoutMillis(batchTimeout, batchTimeoutMillis);
+            if (batchLimitBytes < 0) {
+                throw new UnprocessableEntityException("batch_limit_bytes can't be negative");
+            } else if (streamLimit != 0 && streamLimit < batchLimit) {
                 throw new UnprocessableEntityException("stream_limit can't be lower than batch_limit");
-            } else if (streamTimeout != 0 && streamTimeout < batchTimeout) {
+            } else if (streamTimeout != 0 && TimeUnit.SECONDS.toMillis(streamTimeout) < resolvedBatchTimeoutMillis) {
                 throw new UnprocessableEntityException("stream_timeout can't be lower than batch_flush_timeout");
             }
-            return new EventStreamConfig(cursors, batchLimit, streamLimit, batchTimeout, streamTimeout,
-                    streamKeepAliveLimit, etName, consumingAppId);
+            return new EventStreamConfig(cursors, batchLimit, batchLimitBytes, streamLimit, resolvedBatchTimeoutMillis,
+                    streamTimeout, streamKeepAliveLimit, etName, consumingAppId, EventFilter.of(filter, fields),
+                    binaryFraming);
         }
     }
 
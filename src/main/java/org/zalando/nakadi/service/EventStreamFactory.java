@@ -1,14 +1,24 @@
 package org.zalando.nakadi.service;
 
 import java.io.OutputStream;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.zalando.nakadi.exceptions.InvalidCursorException;
 import org.zalando.nakadi.exceptions.NakadiException;
 import org.zalando.nakadi.repository.EventConsumer;
 
+import java.util.Collections;
+
 @Component
 public class EventStreamFactory {
 
+    private final ConsumptionQuotaService consumptionQuotaService;
+
+    @Autowired
+    public EventStreamFactory(final ConsumptionQuotaService consumptionQuotaService) {
+        this.consumptionQuotaService = consumptionQuotaService;
+    }
+
     public EventStream createEventStream(final OutputStream outputStream, final EventConsumer eventConsumer,
                                          final EventStreamConfig config, final BlacklistService blacklistService,
                                          final CursorConverter cursorConverter)
@@ -18,6 +28,8 @@ public class EventStreamFactory {
                 outputStream,
                 config,
                 blacklistService,
-                cursorConverter);
+                cursorConverter,
+                consumptionQuotaService.getThrottle(config.getConsumingAppId(),
+                        Collections.singletonList(config.getEtName())));
     }
 }
@@ -0,0 +1,168 @@
+package org.zalando.nakadi.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import org.zalando.nakadi.domain.ConsumedEvent;
+import org.zalando.nakadi.domain.NakadiCursor;
+import org.zalando.nakadi.repository.EventConsumer;
+import org.zalando.nakadi.repository.kafka.KafkaCursor;
+import org.zalando.nakadi.view.ExportRange;
+
+/**
+ * Writes events of partition ranges as newline delimited json. Each line is a batch of one partition with a
+ * continuation token, that allows to resume export right after the batch in case of failure.
+ */
+public class ExportStream implements Closeable {
+
+    public static final String MEDIA_TYPE = "application/x-ndjson";
+    public static final int BATCH_LIMIT = 1000;
+    private static final long POLL_TIMEOUT_MILLIS = 1000;
+
+    private static class PartitionExport {
+        private final NakadiCursor end;
+        private final long endOffset;
+        // Last event that was written to output
+        private NakadiCursor written;
+        // Last event that was read from kafka
+        private NakadiCursor read;
+        private final List<String> batch = new ArrayList<>();
+
+        private PartitionExport(final NakadiCursor start, final NakadiCursor end) {
+            this.end = end;
+            this.endOffset = KafkaCursor.toKafkaOffset(end.getOffset());
+            this.written = start;
+            this.read = start;
+        }
+
+        private boolean isReadToEnd() {
+            return KafkaCursor.toKafkaOffset(read.getOffset()) >= endOffset;
+        }
+
+        private boolean isWrittenToEnd() {
+            return KafkaCursor.toKafkaOffset(written.getOffset()) >= endOffset;
+        }
+    }
+
+    private final EventConsumer eventConsumer;
+    private final OutputStream outputStream;
+    private final CursorConverter cursorConverter;
+    private final ObjectMapper objectMapper;
+    private final ConsumptionThrottle throttle;
+    private final Runnable onClose;
+    private final Map<String, PartitionExport> partitions = new LinkedHashMap<>();
+    private final StringBuilder output = new StringBuilder();
+    private long eventsInOutput;
+
+    /**
+     * @param starts  positions to export after, already resolved to offsets
+     * @param ends    inclusive positions to export to
+     * @param onClose called when export is closed, after the consumer
+     */
+    public ExportStream(final EventConsumer eventConsumer, final OutputStream outputStream,
+                        final List<NakadiCursor> starts, final List<NakadiCursor> ends,
+                        final CursorConverter cursorConverter, final ObjectMapper objectMapper,
+                        final ConsumptionThrottle throttle, final Runnable onClose) {
+        this.eventConsumer = eventConsumer;
+        this.outputStream = outputStream;
+        this.cursorConverter = cursorConverter;
+        this.objectMapper = objectMapper;
+        this.throttle = throttle;
+        this.onClose = onClose;
+        final Map<String, NakadiCursor> endsByPartition = ends.stream()
+                .collect(Collectors.toMap(NakadiCursor::getPartition, c -> c));
+        starts.forEach(start -> partitions.put(start.getPartition(),
+                new PartitionExport(start, endsByPartition.get(start.getPartition()))));
+    }
+
+    public void exportEvents(final AtomicBoolean connectionReady) throws IOException {
+        long unfinished = partitions.values().stream().filter(p -> !p.isWrittenToEnd()).count();
+        while (unfinished > 0 && connectionReady.get()) {
+            final Optional<ConsumedEvent> eventOrEmpty = eventConsumer.readEvent(POLL_TIMEOUT_MILLIS);
+            if (eventOrEmpty.isPresent()) {
+                final ConsumedEvent event = eventOrEmpty.get();
+                final PartitionExport partition = partitions.get(event.getPosition().getPartition());
+                if (null == partition || partition.isReadToEnd()) {
+                    continue;
+                }
+                partition.read = event.getPosition();
+                partition.batch.add(event.getEvent());
+                if (partition.batch.size() >= BATCH_LIMIT || partition.isReadToEnd()) {
+                    appendBatch(partition);
+                    if (partition.isWrittenToEnd()) {
+                        unfinished--;
+                    }
+                }
+                if (output.length() >= EventStream.MAX_COALESCED_OUTPUT) {
+                    writeOutput(connectionReady);
+                }
+            } else {
+                // Nothing more is available right now, so everything that was read is sent
+                for (final PartitionExport partition : partitions.values()) {
+                    if (!partition.batch.isEmpty()) {
+                        appendBatch(partition);
+                    }
+                }
+                writeOutput(connectionReady);
+            }
+        }
+        writeOutput(connectionReady);
+    }
+
+    private void appendBatch(final PartitionExport partition) throws JsonProcessingException {
+        partition.written = partition.read;
+        EventStream.appendBatchJson(output, cursorConverter.convert(partition.written), partition.batch);
+        output.setLength(output.length() - 1);
+        output.append(",\"continuation_token\":\"").append(createContinuationToken()).append("\"}")
+                .append(EventStream.BATCH_SEPARATOR);
+        eventsInOutput += partition.batch.size();
+        partition.batch.clear();
+    }
+
+    private String createContinuationToken() throws JsonProcessingException {
+        final List<ExportRange> ranges = partitions.values().stream()
+                .filter(p -> !p.isWrittenToEnd())
+                .map(p -> new ExportRange(p.written.getPartition(), cursorConverter.convert(p.written).getOffset(),
+                        cursorConverter.convert(p.end).getOffset()))
+                .collect(Collectors.toList());
+        return encodeContinuationToken(objectMapper, ranges);
+    }
+
+    private void writeOutput(final AtomicBoolean connectionReady) throws IOException {
+        if (output.length() > 0) {
+            final byte[] data = output.toString().getBytes(EventStream.UTF8);
+            outputStream.write(data);
+            outputStream.flush();
+            output.setLength(0);
+            final long throttleMillis = throttle.acquire(eventsInOutput, data.length);
+            eventsInOutput = 0;
+            if (throttleMillis > 0) {
+                ConsumptionThrottle.waitFor(throttleMillis, Long.MAX_VALUE, connectionReady::get);
+            }
+        }
+    }
+
+    public static String encodeContinuationToken(final ObjectMapper objectMapper, final List<ExportRange> ranges)
+            throws JsonProcessingException {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(objectMapper.writeValueAsBytes(ranges));
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            eventConsumer.close();
+        } finally {
+            onClose.run();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package org.zalando.nakadi.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Utf8;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.function.BiConsumer;
+import org.json.JSONException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.zalando.nakadi.config.NakadiSettings;
+import org.zalando.nakadi.domain.BatchItemResponse;
+import org.zalando.nakadi.domain.EventPublishResult;
+import org.zalando.nakadi.domain.EventPublishingStatus;
+import org.zalando.nakadi.domain.EventPublishingStep;
+import org.zalando.nakadi.exceptions.IllegalScopeException;
+import org.zalando.nakadi.exceptions.NakadiException;
+import org.zalando.nakadi.security.Client;
+import org.zalando.nakadi.view.PublishingAck;
+
+/**
+ * Publishes events that are streamed by the client over one long living request. Events are sent as newline
+ * delimited json objects and are published in micro-batches, every micro-batch is acknowledged on the response as
+ * soon as it is published. Micro-batch is closed when it reaches the limits or when no more data is immediately
+ * available from the client, so events of slow publishers are not waiting for the batch to be filled. Lines longer
+ * than the maximum event size are not buffered, they are acknowledged as a rejected micro-batch of one event.
+ */
+@Service
+public class StreamingEventPublisher {
+
+    public static final String MEDIA_TYPE = "application/x-json-stream";
+    private static final Logger LOG = LoggerFactory.getLogger(StreamingEventPublisher.class);
+
+    private final EventPublisher publisher;
+    private final ObjectMapper objectMapper;
+    private final int maxBatchEvents;
+    private final long maxBatchBytes;
+    private final long eventMaxBytes;
+
+    @Autowired
+    public StreamingEventPublisher(final EventPublisher publisher, final ObjectMapper objectMapper,
+                                   final NakadiSettings nakadiSettings,
+                                   @Value("${nakadi.publishing.stream.maxBatchEvents:1000}") final int maxBatchEvents,
+                                   @Value("${nakadi.publishing.stream.maxBatchBytes:1048576}")
+                                   final long maxBatchBytes) {
+        this.publisher = publisher;
+        this.objectMapper = objectMapper;
+        this.maxBatchEvents = maxBatchEvents;
+        this.maxBatchBytes = maxBatchBytes;
+        this.eventMaxBytes = nakadiSettings.getEventMaxBytes();
+    }
+
+    /**
+     * Publishes events until the client closes the request.
+     *
+     * @param onPublished called with the events and the result of every published micro-batch
+     */
+    public void publish(final String eventTypeName, final Client client, final InputStream inputStream,
+                        final OutputStream outputStream, final BiConsumer<String, EventPublishResult> onPublished)
+            throws IOException {
+        // UTF-8 takes at least one byte per char, so a line of more chars can not fit into the event size limit
+        final LineReader reader = new LineReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8),
+                (int) Math.min(eventMaxBytes, Integer.MAX_VALUE));
+        final StringBuilder events = new StringBuilder();
+        long batchNumber = 0;
+        int count = 0;
+        long bytes = 0;
+        String line;
+        while (null != (line = reader.readLine())) {
+            if (reader.isTooLong()) {
+                if (count > 0) {
+                    writeAck(outputStream, publishBatch(batchNumber++, count, events.append(']').toString(),
+                            eventTypeName, client, onPublished));
+                    events.setLength(0);
+                    count = 0;
+                    bytes = 0;
+                }
+                writeAck(outputStream, tooLargeEvent(batchNumber++));
+                continue;
+            }
+            final String event = line.trim();
+            if (!event.isEmpty()) {
+                events.append(count == 0 ? '[' : ',').append(event);
+                count++;
+                bytes += Utf8.encodedLength(event);
+            }
+            if (count > 0 && (count >= maxBatchEvents || bytes >= maxBatchBytes || !reader.ready())) {
+                final PublishingAck ack = publishBatch(batchNumber++, count, events.append(']').toString(),
+                        eventTypeName, client, onPublished);
+                writeAck(outputStream, ack);
+                events.setLength(0);
+                count = 0;
+                bytes = 0;
+            }
+        }
+    }
+
+    private PublishingAck publishBatch(final long batchNumber, final int count, final String events,
+                                       final String eventTypeName, final Client client,
+                                       final BiConsumer<String, EventPublishResult> onPublished) {
+        try {
+            final EventPublishResult result = publisher.publish(events, eventTypeName, client);
+            onPublished.accept(events, result);
+            if (result.getStatus() == EventPublishingStatus.SUBMITTED) {
+                return new PublishingAck(batchNumber, count, result.getStatus(), null, null, null);
+            }
+            return new PublishingAck(batchNumber, count, result.getStatus(), result.getStep(), null,
+                    result.getResponses());
+        } catch (final JSONException e) {
+            LOG.debug("Problem parsing event", e);
+            return new PublishingAck(batchNumber, count, EventPublishingStatus.ABORTED,
+                    EventPublishingStep.VALIDATING, e.getMessage(), null);
+        } catch (final NakadiException e) {
+            LOG.debug("Failed to publish batch", e);
+            return new PublishingAck(batchNumber, count, EventPublishingStatus.ABORTED, EventPublishingStep.NONE,
+                    e.getProblemMessage(), null);
+        } catch (final IllegalScopeException e) {
+            return new PublishingAck(batchNumber, count, EventPublishingStatus.ABORTED, EventPublishingStep.NONE,
+                    e.getMessage(), null);
+        }
+    }
+
+    private PublishingAck tooLargeEvent(final long batchNumber) {
+        final BatchItemResponse item = new BatchItemResponse();
+        item.setPublishingStatus(EventPublishingStatus.ABORTED);
+        item.setStep(EventPublishingStep.VALIDATING);
+        item.setDetail("Event too large, max size is " + eventMaxBytes + " bytes");
+        return new PublishingAck(batchNumber, 1, EventPublishingStatus.ABORTED, EventPublishingStep.VALIDATING,
+                null, Collections.singletonList(item));
+    }
+
+    private void writeAck(final OutputStream outputStream, final PublishingAck ack) throws IOException {
+        outputStream.write(objectMapper.writeValueAsBytes(ack));
+        outputStream.write('\n');
+        outputStream.flush();
+    }
+
+    /**
+     * Reads newline delimited lines without keeping more than {@code maxLength} chars of a line in memory. Content
+     * of longer lines is skipped up to the next newline.
+     */
+    private static class LineReader {
+
+        private final Reader reader;
+        private final int maxLength;
+        private final char[] buffer = new char[8192];
+        private int position;
+        private int limit;
+        private boolean tooLong;
+
+        LineReader(final Reader reader, final int maxLength) {
+            this.reader = reader;
+            this.maxLength = maxLength;
+        }
+
+        /**
+         * @return next line, empty if the line was longer than the limit, or null at the end of the stream
+         */
+        String readLine() throws IOException {
+            final StringBuilder line = new StringBuilder();
+            tooLong = false;
+            boolean started = false;
+            while (true) {
+                if (position == limit) {
+                    final int read = reader.read(buffer, 0, buffer.length);
+                    if (read < 0) {
+                        return started ? line.toString() : null;
+                    }
+                    position = 0;
+                    limit = read;
+                }
+                started = true;
+                int end = position;
+                while (end < limit && buffer[end] != '\n') {
+                    end++;
+                }
+                if (!tooLong) {
+                    if (line.length() + end - position > maxLength) {
+                        tooLong = true;
+                        line.setLength(0);
+                    } else {
+                        line.append(buffer, position, end - position);
+                    }
+                }
+                if (end < limit) {
+                    position = end + 1;
+                    return line.toString();
+                }
+                position = limit;
+            }
+        }
+
+        boolean isTooLong() {
+            return tooLong;
+        }
+
+        boolean ready() throws IOException {
+            return position < limit || reader.ready();
+        }
+    }
+}
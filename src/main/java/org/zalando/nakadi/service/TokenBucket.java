@@ -0,0 +1,57 @@
+package org.zalando.nakadi.service;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket that is refilled with {@code ratePerSecond} tokens per second up to the amount of tokens for one
+ * second. Tokens are taken even if there are not enough of them, in this case bucket goes into debt and caller is
+ * expected to wait until the debt is paid off. This way batches that are bigger than the rate are still delivered,
+ * but the average rate is kept.
+ */
+@ThreadSafe
+public class TokenBucket {
+
+    private double ratePerSecond;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public TokenBucket(final long ratePerSecond, final long nowNanos) {
+        this.ratePerSecond = ratePerSecond;
+        this.tokens = ratePerSecond;
+        this.lastRefillNanos = nowNanos;
+    }
+
+    public synchronized long getRatePerSecond() {
+        return (long) ratePerSecond;
+    }
+
+    /**
+     * Changes rate of the bucket. Tokens that are left in the bucket, or its debt, are kept, so tokens are not
+     * granted again when the rate is changed.
+     */
+    public synchronized void setRatePerSecond(final long ratePerSecond, final long nowNanos) {
+        refill(nowNanos);
+        this.ratePerSecond = ratePerSecond;
+        tokens = Math.min(ratePerSecond, tokens);
+    }
+
+    /**
+     * Takes tokens from the bucket.
+     *
+     * @return time in milliseconds to wait until bucket has no debt.
+     */
+    public synchronized long take(final long amount, final long nowNanos) {
+        refill(nowNanos);
+        tokens -= amount;
+        return tokens >= 0 ? 0 : (long) Math.ceil(-tokens * 1000 / ratePerSecond);
+    }
+
+    private void refill(final long nowNanos) {
+        final long elapsedNanos = nowNanos - lastRefillNanos;
+        if (elapsedNanos > 0) {
+            tokens = Math.min(ratePerSecond, tokens + ratePerSecond * elapsedNanos / TimeUnit.SECONDS.toNanos(1));
+            lastRefillNanos = nowNanos;
+        }
+    }
+}
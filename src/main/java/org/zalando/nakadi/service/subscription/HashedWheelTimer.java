@@ -0,0 +1,260 @@
+package org.zalando.nakadi.service.subscription;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Timer for large amounts of short lived timeouts, like batch flushes and commit timeouts of subscription streams.
+ * Timeouts are kept in a wheel of buckets, each bucket covers one tick. Scheduling and cancelling are O(1): new and
+ * cancelled timeouts are only queued, and the thread of the timer moves them to or out of their buckets on the next
+ * tick, so cancelled timeouts are not kept until their deadline. Timeouts are expiring with the precision of a tick.
+ *
+ * <p>Expired timeouts are not executed by the timer thread. They are grouped by their target and each target
+ * receives all its expired tasks of the tick with one call, so e.g. a streaming context queues them to its mailbox
+ * at once.
+ */
+public class HashedWheelTimer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HashedWheelTimer.class);
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    private static final int STATE_WAITING = 0;
+    private static final int STATE_CANCELLED = 1;
+    private static final int STATE_EXPIRED = 2;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startNanos;
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Thread worker;
+    private volatile boolean stopped;
+    private long tick;
+
+    /**
+     * @param tickDuration duration of one tick, the precision of the timer
+     * @param ticksPerWheel number of buckets in the wheel, rounded up to a power of two. Timeouts that are further
+     *                      than one turn of the wheel are waiting for their round in the bucket.
+     */
+    public HashedWheelTimer(final long tickDuration, final TimeUnit unit, final int ticksPerWheel,
+                            final ThreadFactory threadFactory) {
+        if (tickDuration <= 0 || ticksPerWheel <= 0) {
+            throw new IllegalArgumentException("Tick duration and ticks per wheel must be positive");
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; ++i) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.startNanos = System.nanoTime();
+        this.worker = threadFactory.newThread(this::run);
+        this.worker.start();
+    }
+
+    /**
+     * Schedules the task. Tasks that are expiring on the same tick with the same target are passed to the target
+     * together, in order of scheduling.
+     *
+     * @param target receives expired tasks, it is called on the thread of the timer and must not block
+     */
+    public Timeout schedule(final Consumer<List<Runnable>> target, final Runnable task, final long delay,
+                            final TimeUnit unit) {
+        if (stopped) {
+            throw new IllegalStateException("Timer is stopped");
+        }
+        final long deadline = System.nanoTime() - startNanos + Math.max(0, unit.toNanos(delay));
+        final Timeout timeout = new Timeout(this, target, task, deadline);
+        pending.incrementAndGet();
+        scheduled.offer(timeout);
+        return timeout;
+    }
+
+    /**
+     * @return number of timeouts that are scheduled and are not expired or cancelled yet
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    public void stop() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (!stopped) {
+            final long deadline = tickNanos * (tick + 1);
+            final long sleepNanos = deadline - (System.nanoTime() - startNanos);
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (final InterruptedException e) {
+                    if (stopped) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            try {
+                removeCancelled();
+                transferScheduled();
+                expire(wheel[(int) (tick & mask)], deadline);
+            } catch (final RuntimeException e) {
+                LOG.error("Failed to process timeouts of tick {}", tick, e);
+            }
+            tick++;
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while (null != (timeout = cancelled.poll())) {
+            if (null != timeout.bucket) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    private void transferScheduled() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; ++i) {
+            final Timeout timeout = scheduled.poll();
+            if (null == timeout) {
+                return;
+            }
+            if (timeout.state.get() == STATE_CANCELLED) {
+                continue;
+            }
+            final long expirationTick = Math.max(tick, timeout.deadline / tickNanos);
+            timeout.remainingRounds = (expirationTick - tick) / wheel.length;
+            wheel[(int) (expirationTick & mask)].add(timeout);
+        }
+    }
+
+    private void expire(final Bucket bucket, final long tickDeadline) {
+        Map<Consumer<List<Runnable>>, List<Runnable>> expired = null;
+        Timeout timeout = bucket.head;
+        while (null != timeout) {
+            final Timeout next = timeout.next;
+            if (timeout.remainingRounds <= 0 && timeout.deadline <= tickDeadline) {
+                bucket.remove(timeout);
+                if (timeout.state.compareAndSet(STATE_WAITING, STATE_EXPIRED)) {
+                    pending.decrementAndGet();
+                    if (null == expired) {
+                        expired = new IdentityHashMap<>();
+                    }
+                    expired.computeIfAbsent(timeout.target, t -> new ArrayList<>()).add(timeout.task);
+                }
+            } else {
+                timeout.remainingRounds--;
+            }
+            timeout = next;
+        }
+        if (null != expired) {
+            expired.forEach((target, tasks) -> {
+                try {
+                    target.accept(tasks);
+                } catch (final RuntimeException e) {
+                    LOG.error("Failed to pass expired tasks to {}", target, e);
+                }
+            });
+        }
+    }
+
+    public static final class Timeout {
+        private final HashedWheelTimer timer;
+        private final Consumer<List<Runnable>> target;
+        private final Runnable task;
+        // Nanoseconds since the start of the timer
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(STATE_WAITING);
+        // Fields below are used only by the thread of the timer
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(final HashedWheelTimer timer, final Consumer<List<Runnable>> target, final Runnable task,
+                        final long deadline) {
+            this.timer = timer;
+            this.target = target;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return true if the task will not be executed because of this call
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(STATE_WAITING, STATE_CANCELLED)) {
+                return false;
+            }
+            timer.pending.decrementAndGet();
+            timer.cancelled.offer(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == STATE_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state.get() == STATE_EXPIRED;
+        }
+    }
+
+    /**
+     * Doubly linked list of timeouts, so timeouts are removed in O(1).
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        private void add(final Timeout timeout) {
+            timeout.bucket = this;
+            if (null == head) {
+                head = timeout;
+                tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        private void remove(final Timeout timeout) {
+            if (null != timeout.prev) {
+                timeout.prev.next = timeout.next;
+            }
+            if (null != timeout.next) {
+                timeout.next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                head = timeout.next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.zalando.nakadi.service.subscription;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zalando.nakadi.domain.NakadiCursor;
+import org.zalando.nakadi.repository.SubscriptionOffsetRepository;
+import org.zalando.nakadi.repository.kafka.KafkaCursor;
+import org.zalando.nakadi.service.subscription.model.Partition;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Stream of a subscription that is running on this node, together with commit offsets of the partitions that it is
+ * streaming. Commits of such partitions are applied here without reading the offset storage, the stream is notified
+ * about them right away and the offsets are written to the storage later by {@link LocalStreamRegistry}. Before a
+ * partition is removed from the stream its offset is written, so the next owner of the partition starts from it.
+ */
+public class LocalStream {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LocalStream.class);
+
+    private final String subscriptionId;
+    private final String streamId;
+    private final SubscriptionOffsetRepository offsetRepository;
+    private final Consumer<Partition.PartitionKey> commitListener;
+    private final Map<Partition.PartitionKey, Long> offsets = new HashMap<>();
+    // Offsets that are committed, but are not written to the storage yet
+    private final Map<Partition.PartitionKey, Long> unflushed = new HashMap<>();
+    // Held while flush is started, so a partition is not removed before its offset is written by the running flush
+    private final Object flushLock = new Object();
+    private CompletableFuture<Void> inFlight = CompletableFuture.completedFuture(null);
+
+    LocalStream(final String subscriptionId, final String streamId,
+                final SubscriptionOffsetRepository offsetRepository,
+                final Consumer<Partition.PartitionKey> commitListener) {
+        this.subscriptionId = subscriptionId;
+        this.streamId = streamId;
+        this.offsetRepository = offsetRepository;
+        this.commitListener = commitListener;
+    }
+
+    public String getSubscriptionId() {
+        return subscriptionId;
+    }
+
+    public String getStreamId() {
+        return streamId;
+    }
+
+    /**
+     * @return commit offset of the partition, null if the partition is not streamed by this stream
+     */
+    @Nullable
+    public synchronized Long getOffset(final Partition.PartitionKey key) {
+        return offsets.get(key);
+    }
+
+    public synchronized void addPartition(final Partition.PartitionKey key, final long offset) {
+        offsets.put(key, offset);
+    }
+
+    /**
+     * Stops accepting commits of the partition and writes its offset to the storage if it was not written yet.
+     */
+    public void removePartition(final Partition.PartitionKey key) {
+        synchronized (flushLock) {
+            inFlight.handle((ignore, e) -> null).join();
+            final Long offset;
+            synchronized (this) {
+                offsets.remove(key);
+                offset = unflushed.remove(key);
+            }
+            if (null != offset) {
+                final Map<Partition.PartitionKey, Long> toFlush = new HashMap<>();
+                toFlush.put(key, offset);
+                offsetRepository.commitOffsets(subscriptionId, toFlush).join();
+            }
+        }
+    }
+
+    /**
+     * Updates offset of the partition with the one that was committed through the storage.
+     *
+     * @return current commit offset of the partition, it is never moving back because of offsets that were
+     * committed here and are not written to the storage yet
+     */
+    public synchronized long onOffsetChanged(final Partition.PartitionKey key, final long offset) {
+        final Long current = offsets.get(key);
+        if (null == current || offset > current) {
+            if (null != current) {
+                offsets.put(key, offset);
+            }
+            return offset;
+        }
+        return current;
+    }
+
+    /**
+     * Commits cursors if all of them belong to partitions of this stream.
+     *
+     * @param cursors cursors to commit, in order of commit
+     * @return result of commit for each cursor or null if some partitions are not streamed by this stream
+     */
+    @Nullable
+    public List<Boolean> commit(final List<NakadiCursor> cursors) {
+        final List<Boolean> result = new ArrayList<>(cursors.size());
+        final Map<Partition.PartitionKey, Long> committed = new HashMap<>();
+        synchronized (this) {
+            for (final NakadiCursor cursor : cursors) {
+                if (!offsets.containsKey(new Partition.PartitionKey(cursor.getTopic(), cursor.getPartition()))) {
+                    return null;
+                }
+            }
+            for (final NakadiCursor cursor : cursors) {
+                final Partition.PartitionKey key = new Partition.PartitionKey(cursor.getTopic(),
+                        cursor.getPartition());
+                final long offset = KafkaCursor.toKafkaOffset(cursor.getOffset());
+                if (offset > offsets.get(key)) {
+                    offsets.put(key, offset);
+                    committed.put(key, offset);
+                    result.add(true);
+                } else {
+                    result.add(false);
+                }
+            }
+            unflushed.putAll(committed);
+        }
+        committed.keySet().forEach(commitListener);
+        return result;
+    }
+
+    /**
+     * Starts writing of committed offsets to the storage.
+     *
+     * @return future that is completed when the offsets are written or failed to be written
+     */
+    CompletableFuture<Void> flush() {
+        synchronized (flushLock) {
+            final Map<Partition.PartitionKey, Long> toFlush;
+            synchronized (this) {
+                if (unflushed.isEmpty()) {
+                    return inFlight;
+                }
+                toFlush = new HashMap<>(unflushed);
+                unflushed.clear();
+            }
+            CompletableFuture<Void> written;
+            try {
+                written = offsetRepository.commitOffsets(subscriptionId, toFlush);
+            } catch (final RuntimeException e) {
+                written = new CompletableFuture<>();
+                written.completeExceptionally(e);
+            }
+            inFlight = written.handle((ignore, e) -> {
+                if (null != e) {
+                    LOG.error("Failed to write offsets of subscription {}: {}", subscriptionId, toFlush, e);
+                    synchronized (this) {
+                        // Offsets are written with the next flush or when their partitions are removed
+                        toFlush.forEach((key, offset) -> unflushed.merge(key, offset, Math::max));
+                    }
+                }
+                return null;
+            });
+            return inFlight;
+        }
+    }
+}
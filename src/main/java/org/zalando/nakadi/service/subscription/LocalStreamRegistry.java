@@ -0,0 +1,81 @@
+package org.zalando.nakadi.service.subscription;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.zalando.nakadi.repository.SubscriptionOffsetRepository;
+import org.zalando.nakadi.service.subscription.model.Partition;
+
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Registry of subscription streams that are running on this node. Commits of partitions that are streamed by a
+ * local stream are applied in memory by {@link LocalStream}, and committed offsets are written to the offset storage
+ * in background, so they are lagging behind for not more than the flush interval. Offsets of all the streams are
+ * written at once, so a storage that is grouping commits writes them with a few transactions.
+ */
+@Component
+public class LocalStreamRegistry {
+
+    private final ConcurrentMap<String, LocalStream> streams = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+    private final SubscriptionOffsetRepository offsetRepository;
+
+    @Autowired
+    public LocalStreamRegistry(final SubscriptionOffsetRepository offsetRepository,
+                               @Value("${nakadi.subscription.localCommitFlushMs:100}") final long flushIntervalMs) {
+        this.offsetRepository = offsetRepository;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("subscription-commit-flusher").setDaemon(true).build());
+        this.flusher.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public LocalStream register(final String subscriptionId, final String streamId,
+                                final Consumer<Partition.PartitionKey> commitListener) {
+        final LocalStream stream = new LocalStream(subscriptionId, streamId, offsetRepository, commitListener);
+        streams.put(getKey(subscriptionId, streamId), stream);
+        return stream;
+    }
+
+    /**
+     * Removes stream from registry. Partitions of the stream should be removed before, so their offsets are written.
+     */
+    public void unregister(final LocalStream stream) {
+        streams.remove(getKey(stream.getSubscriptionId(), stream.getStreamId()), stream);
+        stream.flush().join();
+    }
+
+    /**
+     * @return stream with this id if it is running on this node, null otherwise
+     */
+    @Nullable
+    public LocalStream find(final String subscriptionId, final String streamId) {
+        return streams.get(getKey(subscriptionId, streamId));
+    }
+
+    @PreDestroy
+    public void stop() {
+        flusher.shutdown();
+        flush();
+    }
+
+    void flush() {
+        CompletableFuture.allOf(streams.values().stream()
+                .map(LocalStream::flush)
+                .toArray(CompletableFuture[]::new))
+                .join();
+    }
+
+    private static String getKey(final String subscriptionId, final String streamId) {
+        return subscriptionId + ":" + streamId;
+    }
+}
@@ -0,0 +1,49 @@
+package org.zalando.nakadi.service.subscription;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Output shared by all subscriptions of multiplexed stream. Stream is reported as initialized only when sessions
+ * of all subscriptions are registered, so the data of subscriptions that started earlier is kept until then.
+ * Not thread safe, all subscriptions of the stream are served by the same mailbox, one task at a time.
+ */
+class MultiplexedSubscriptionOutput implements SubscriptionOutput {
+
+    private final SubscriptionOutput out;
+    private final int subscriptionCount;
+    private final List<byte[]> pendingData = new ArrayList<>();
+    private int initializedCount;
+
+    MultiplexedSubscriptionOutput(final SubscriptionOutput out, final int subscriptionCount) {
+        this.out = out;
+        this.subscriptionCount = subscriptionCount;
+    }
+
+    @Override
+    public void onInitialized(final String sessionId) throws IOException {
+        initializedCount++;
+        if (initializedCount == subscriptionCount) {
+            out.onInitialized(sessionId);
+            for (final byte[] data : pendingData) {
+                out.streamData(data);
+            }
+            pendingData.clear();
+        }
+    }
+
+    @Override
+    public void onException(final Exception ex) {
+        out.onException(ex);
+    }
+
+    @Override
+    public void streamData(final byte[] data) throws IOException {
+        if (initializedCount < subscriptionCount) {
+            pendingData.add(data);
+        } else {
+            out.streamData(data);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package org.zalando.nakadi.service.subscription;
+
+import org.zalando.nakadi.service.subscription.state.CleanupState;
+import org.zalando.nakadi.service.subscription.state.StartingState;
+import org.zalando.nakadi.service.subscription.state.State;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Streams several subscriptions over one connection. Streaming contexts of the subscriptions are sharing the
+ * mailbox, so their tasks are never executed concurrently and are interleaved in order of arrival. Each subscription
+ * keeps its own session registration, rebalancing and commits. Once one of the subscriptions stops streaming, the
+ * others are stopped as well, so the client reconnects with all of them.
+ */
+public class MultiplexedSubscriptionStreamer implements SubscriptionStreamer {
+
+    private final List<StreamingContext> contexts;
+
+    public MultiplexedSubscriptionStreamer(final List<StreamingContext> contexts) {
+        this.contexts = contexts;
+    }
+
+    @Override
+    public CompletableFuture<Void> stream() {
+        final Thread shutdownHook = new Thread(() -> contexts.forEach(StreamingContext::onNodeShutdown));
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        return start(StartingState::new)
+                .whenComplete((ignore, ex) -> StreamingContext.removeShutdownHook(shutdownHook));
+    }
+
+    CompletableFuture<Void> start(final Supplier<State> firstState) {
+        // Completion callback is running in the task that killed the context, so stopping of the others is
+        // queued to the shared mailbox after it
+        CompletableFuture.anyOf(contexts.stream().map(StreamingContext::getFinished).toArray(CompletableFuture[]::new))
+                .thenRun(() -> contexts.forEach(context -> context.switchState(new CleanupState(null))));
+        contexts.forEach(context -> context.switchState(firstState.get()));
+
+        return CompletableFuture.allOf(contexts.stream().map(StreamingContext::getFinished)
+                .toArray(CompletableFuture[]::new));
+    }
+
+    @Override
+    public String toString() {
+        return "MultiplexedSubscriptionStreamer{" + contexts.size() + " subscriptions}";
+    }
+}
@@ -1,5 +1,7 @@
 package org.zalando.nakadi.service.subscription;
 
+import org.zalando.nakadi.service.EventFilter;
+
 import javax.annotation.Nullable;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
@@ -10,6 +12,10 @@ public class StreamParameters {
      * Maximum amount of events in batch. If it's reached, batch is sent immediately and stream is flushed.
      */
     public final int batchLimitEvents;
+    /**
+     * Soft limit for the size of batch in bytes. If buffered events reach it, batch is sent immediately. 0 if not set.
+     */
+    public final long batchLimitBytes;
     /**
      * Maximum number of events that could be sent in session
      */
@@ -37,11 +43,24 @@ public class StreamParameters {
 
     private final String consumingAppId;
 
+    /**
+     * Filter and projection applied to events before they are added to batches
+     */
+    public final EventFilter eventFilter;
+
+    /**
+     * If set, batches are written with {@link org.zalando.nakadi.service.BinaryBatchEncoder} instead of json
+     */
+    public final boolean binaryFraming;
+
     private StreamParameters(
-            final int batchLimitEvents, @Nullable final Long streamLimitEvents, final long batchTimeoutMillis,
-            @Nullable final Long streamTimeoutSeconds, @Nullable final Integer batchKeepAliveIterations,
-            final int maxUncommittedMessages, final long commitTimeoutMillis, final String consumingAppId) {
+            final int batchLimitEvents, final long batchLimitBytes, @Nullable final Long streamLimitEvents,
+            final long batchTimeoutMillis, @Nullable final Long streamTimeoutSeconds,
+            @Nullable final Integer batchKeepAliveIterations,
+            final int maxUncommittedMessages, final long commitTimeoutMillis, final String consumingAppId,
+            final EventFilter eventFilter, final boolean binaryFraming) {
         this.batchLimitEvents = batchLimitEvents;
+        this.batchLimitBytes = batchLimitBytes;
         this.streamLimitEvents = Optional.ofNullable(streamLimitEvents).filter(v -> v != 0);
         this.batchTimeoutMillis = batchTimeoutMillis;
         this.streamTimeoutMillis = Optional.ofNullable(streamTimeoutSeconds)
@@ -50,6 +69,8 @@ public class StreamParameters {
         this.maxUncommittedMessages = maxUncommittedMessages;
         this.commitTimeoutMillis = commitTimeoutMillis;
         this.consumingAppId = consumingAppId;
+        this.eventFilter = eventFilter;
+        this.binaryFraming = binaryFraming;
     }
 
     public long getMessagesAllowedToSend(final long limit, final long sentSoFar) {
@@ -70,21 +91,27 @@ public class StreamParameters {
 
     public static StreamParameters of(
             final int batchLimitEvents,
+            final long batchLimitBytes,
             @Nullable final Long streamLimitEvents,
-            final long batchTimeoutSeconds,
+            final long batchTimeoutMillis,
             @Nullable final Long streamTimeoutSeconds,
             @Nullable final Integer batchKeepAliveIterations,
             final int maxUncommittedMessages,
             final long commitTimeoutSeconds,
-            final String consumingAppId) {
+            final String consumingAppId,
+            final EventFilter eventFilter,
+            final boolean binaryFraming) {
         return new StreamParameters(
                 batchLimitEvents,
+                batchLimitBytes,
                 streamLimitEvents,
-                TimeUnit.SECONDS.toMillis(batchTimeoutSeconds),
+                batchTimeoutMillis,
                 streamTimeoutSeconds,
                 batchKeepAliveIterations,
                 maxUncommittedMessages,
                 TimeUnit.SECONDS.toMillis(commitTimeoutSeconds),
-                consumingAppId);
+                consumingAppId,
+                eventFilter,
+                binaryFraming);
     }
 }
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.zalando.nakadi.exceptions.NakadiRuntimeException;
+import org.zalando.nakadi.service.ConsumptionThrottle;
 import org.zalando.nakadi.service.CursorConverter;
 import org.zalando.nakadi.service.CursorTokenService;
 import org.zalando.nakadi.service.BlacklistService;
@@ -16,15 +17,21 @@ import org.zalando.nakadi.service.subscription.state.State;
 import org.zalando.nakadi.service.subscription.zk.ZKSubscription;
 import org.zalando.nakadi.service.subscription.zk.ZkSubscriptionClient;
 
+import javax.annotation.Nullable;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiFunction;
-import java.util.stream.Stream;
-
+import java.util.function.Consumer;
+
+/**
+ * Keeps the state of one subscription stream. Context is not owning a thread, its tasks are executed through
+ * {@link StreamingMailbox} by workers of {@link StreamingScheduler}, one task at a time. State transitions and tasks
+ * that are reacting on changes in zookeeper or on commits are added with {@link #addBlockingTask(Runnable)}, as they
+ * are calling zookeeper and offset storage, all the others must not block.
+ */
 public class StreamingContext implements SubscriptionStreamer {
 
     public static final State DEAD_STATE = new DummyState();
@@ -35,13 +42,22 @@ public class StreamingContext implements SubscriptionStreamer {
     private final KafkaClient kafkaClient;
     private final SubscriptionOutput out;
     private final long kafkaPollTimeout;
+    private final long kafkaPollMaxIdleTimeout;
+    private final ConsumptionThrottle consumptionThrottle;
     private final AtomicBoolean connectionReady;
     private final Map<String, String> eventTypesForTopics;
     private final CursorTokenService cursorTokenService;
     private final ObjectMapper objectMapper;
     private final BlacklistService blacklistService;
-    private final ScheduledExecutorService timer;
-    private final BlockingQueue<Runnable> taskQueue = new LinkedBlockingQueue<>();
+    private final HashedWheelTimer timer;
+    private final StreamingFetcher fetcher;
+    // Single instance, so timer groups expired tasks of this context together
+    private final Consumer<List<Runnable>> expiredTasksTarget = this::addTasks;
+    private final StreamingMailbox mailbox;
+    private final CompletableFuture<Void> finished = new CompletableFuture<>();
+    private final String multiplexedSubscriptionId;
+    private final String subscriptionId;
+    private final LocalStreamRegistry localStreamRegistry;
     private final BiFunction<Session[], Partition[], Partition[]> rebalancer;
     private final String loggingPath;
     private final CursorConverter cursorConverter;
@@ -56,9 +72,12 @@ public class StreamingContext implements SubscriptionStreamer {
         this.session = builder.session;
         this.rebalancer = builder.rebalancer;
         this.timer = builder.timer;
+        this.fetcher = builder.fetcher;
         this.zkClient = builder.zkClient;
         this.kafkaClient = builder.kafkaClient;
         this.kafkaPollTimeout = builder.kafkaPollTimeout;
+        this.kafkaPollMaxIdleTimeout = builder.kafkaPollMaxIdleTimeout;
+        this.consumptionThrottle = builder.consumptionThrottle;
         this.loggingPath = builder.loggingPath + ".stream";
         this.log = LoggerFactory.getLogger(builder.loggingPath);
         this.connectionReady = builder.connectionReady;
@@ -67,6 +86,10 @@ public class StreamingContext implements SubscriptionStreamer {
         this.objectMapper = builder.objectMapper;
         this.blacklistService = builder.blacklistService;
         this.cursorConverter = builder.cursorConverter;
+        this.mailbox = builder.mailbox;
+        this.multiplexedSubscriptionId = builder.multiplexedSubscriptionId;
+        this.subscriptionId = builder.subscriptionId;
+        this.localStreamRegistry = builder.localStreamRegistry;
     }
 
     public StreamParameters getParameters() {
@@ -93,15 +116,63 @@ public class StreamingContext implements SubscriptionStreamer {
         return kafkaPollTimeout;
     }
 
+    public long getKafkaPollMaxIdleTimeout() {
+        return kafkaPollMaxIdleTimeout;
+    }
+
+    public ConsumptionThrottle getConsumptionThrottle() {
+        return consumptionThrottle;
+    }
+
     public CursorConverter getCursorConverter() {
         return cursorConverter;
     }
 
+    public StreamingFetcher getFetcher() {
+        return fetcher;
+    }
+
+    /**
+     * @return id of subscription to tag batches with, in case if the stream is shared with other subscriptions
+     */
+    @Nullable
+    public String getMultiplexedSubscriptionId() {
+        return multiplexedSubscriptionId;
+    }
+
+    /**
+     * Registers the stream in registry of streams of this node, so commits of its partitions are not going through
+     * zookeeper.
+     *
+     * @param commitListener called with partition when its offset is committed locally, from the committing thread
+     * @return registered stream or null if local commits are not used
+     */
+    @Nullable
+    public LocalStream registerLocalStream(final Consumer<Partition.PartitionKey> commitListener) {
+        if (null == localStreamRegistry) {
+            return null;
+        }
+        return localStreamRegistry.register(subscriptionId, session.getId(), commitListener);
+    }
+
+    public void unregisterLocalStream(final LocalStream localStream) {
+        localStreamRegistry.unregister(localStream);
+    }
+
     @Override
-    public void stream() throws InterruptedException {
+    public CompletableFuture<Void> stream() {
         // bugfix ARUHA-485
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> onNodeShutdown()));
-        streamInternal(new StartingState());
+        final Thread shutdownHook = new Thread(() -> onNodeShutdown());
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        return start(new StartingState()).whenComplete((ignore, ex) -> removeShutdownHook(shutdownHook));
+    }
+
+    static void removeShutdownHook(final Thread shutdownHook) {
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (final IllegalStateException ignore) {
+            // Node is already shutting down
+        }
     }
 
     void onNodeShutdown() {
@@ -109,29 +180,38 @@ public class StreamingContext implements SubscriptionStreamer {
         switchState(new CleanupState(null));
     }
 
-    void streamInternal(final State firstState) throws InterruptedException {
-        // Add first task - switch to starting state.
+    CompletableFuture<Void> start(final State firstState) {
+        // Add first task - switch to starting state. Calling thread is not waiting, all the work is done by workers
+        // of the mailbox
         switchState(firstState);
+        return finished;
+    }
 
-        while (currentState != DEAD_STATE) {
-            // Wait forever
-            final Runnable task = taskQueue.poll(1, TimeUnit.HOURS);
-            try {
-                if (task != null) {
-                    task.run();
-                }
-            } catch (final NakadiRuntimeException ex) {
-                log.error("Failed to process task " + task + ", will rethrow original error", ex);
-                switchState(new CleanupState(ex.getException()));
-            } catch (final RuntimeException ex) {
-                log.error("Failed to process task " + task + ", code carefully!", ex);
-                switchState(new CleanupState(ex));
-            }
+    /**
+     * @return future that is completed when context reaches {@link #DEAD_STATE}
+     */
+    CompletableFuture<Void> getFinished() {
+        return finished;
+    }
+
+    private void runTask(final Runnable task) {
+        if (currentState == DEAD_STATE) {
+            // Timers and listeners may still add tasks after the stream is finished
+            return;
+        }
+        try {
+            task.run();
+        } catch (final NakadiRuntimeException ex) {
+            log.error("Failed to process task " + task + ", will rethrow original error", ex);
+            switchState(new CleanupState(ex.getException()));
+        } catch (final RuntimeException ex) {
+            log.error("Failed to process task " + task + ", code carefully!", ex);
+            switchState(new CleanupState(ex));
         }
     }
 
     public void switchState(final State newState) {
-        this.addTask(() -> {
+        this.addBlockingTask(() -> {
             log.info("Switching state from " + currentState.getClass().getSimpleName());
             currentState.onExit();
 
@@ -140,13 +220,16 @@ public class StreamingContext implements SubscriptionStreamer {
             log.info("Switching state to " + currentState.getClass().getSimpleName());
             currentState.setContext(this, loggingPath);
             currentState.onEnter();
+            if (currentState == DEAD_STATE) {
+                finished.complete(null);
+            }
         });
     }
 
     public void registerSession() {
         log.info("Registering session {}", session);
         // Install rebalance hook on client list change.
-        clientListChanges = zkClient.subscribeForSessionListChanges(() -> addTask(this::rebalance));
+        clientListChanges = zkClient.subscribeForSessionListChanges(() -> addBlockingTask(this::rebalance));
         zkClient.registerSession(session);
     }
 
@@ -167,11 +250,20 @@ public class StreamingContext implements SubscriptionStreamer {
     }
 
     public void addTask(final Runnable task) {
-        taskQueue.offer(task);
+        // Mailbox may be shared with contexts of other subscriptions, so the task is bound to this context
+        mailbox.offer(() -> runTask(task));
+    }
+
+    public void addBlockingTask(final Runnable task) {
+        mailbox.offerBlocking(() -> runTask(task));
+    }
+
+    private void addTasks(final List<Runnable> tasks) {
+        mailbox.offer(() -> tasks.forEach(this::runTask));
     }
 
     public void scheduleTask(final Runnable task, final long timeout, final TimeUnit unit) {
-        timer.schedule(() -> this.addTask(task), timeout, unit);
+        timer.schedule(expiredTasksTarget, task, timeout, unit);
     }
 
     public boolean isConnectionReady() {
@@ -201,8 +293,7 @@ public class StreamingContext implements SubscriptionStreamer {
             zkClient.runLocked(() -> {
                 final Partition[] changeset = rebalancer.apply(zkClient.listSessions(), zkClient.listPartitions());
                 if (changeset.length > 0) {
-                    Stream.of(changeset).forEach(zkClient::updatePartitionConfiguration);
-                    zkClient.incrementTopology();
+                    zkClient.updatePartitionsConfiguration(changeset);
                 }
             });
         }
@@ -212,11 +303,14 @@ public class StreamingContext implements SubscriptionStreamer {
         private SubscriptionOutput out;
         private StreamParameters parameters;
         private Session session;
-        private ScheduledExecutorService timer;
+        private HashedWheelTimer timer;
+        private StreamingFetcher fetcher;
         private ZkSubscriptionClient zkClient;
         private KafkaClient kafkaClient;
         private BiFunction<Session[], Partition[], Partition[]> rebalancer;
         private long kafkaPollTimeout;
+        private long kafkaPollMaxIdleTimeout;
+        private ConsumptionThrottle consumptionThrottle = ConsumptionThrottle.NONE;
         private String loggingPath;
         private AtomicBoolean connectionReady;
         private Map<String, String> eventTypesForTopics;
@@ -224,6 +318,10 @@ public class StreamingContext implements SubscriptionStreamer {
         private ObjectMapper objectMapper;
         private BlacklistService blacklistService;
         private CursorConverter cursorConverter;
+        private StreamingMailbox mailbox;
+        private String multiplexedSubscriptionId;
+        private String subscriptionId;
+        private LocalStreamRegistry localStreamRegistry;
 
         public Builder setOut(final SubscriptionOutput out) {
             this.out = out;
@@ -240,11 +338,16 @@ public class StreamingContext implements SubscriptionStreamer {
             return this;
         }
 
-        public Builder setTimer(final ScheduledExecutorService timer) {
+        public Builder setTimer(final HashedWheelTimer timer) {
             this.timer = timer;
             return this;
         }
 
+        public Builder setFetcher(final StreamingFetcher fetcher) {
+            this.fetcher = fetcher;
+            return this;
+        }
+
         public Builder setZkClient(final ZkSubscriptionClient zkClient) {
             this.zkClient = zkClient;
             return this;
@@ -265,6 +368,16 @@ public class StreamingContext implements SubscriptionStreamer {
             return this;
         }
 
+        public Builder setKafkaPollMaxIdleTimeout(final long kafkaPollMaxIdleTimeout) {
+            this.kafkaPollMaxIdleTimeout = kafkaPollMaxIdleTimeout;
+            return this;
+        }
+
+        public Builder setConsumptionThrottle(final ConsumptionThrottle consumptionThrottle) {
+            this.consumptionThrottle = consumptionThrottle;
+            return this;
+        }
+
         public Builder setLoggingPath(final String loggingPath) {
             this.loggingPath = loggingPath;
             return this;
@@ -300,6 +413,26 @@ public class StreamingContext implements SubscriptionStreamer {
             return this;
         }
 
+        public Builder setMailbox(final StreamingMailbox mailbox) {
+            this.mailbox = mailbox;
+            return this;
+        }
+
+        public Builder setMultiplexedSubscriptionId(final String multiplexedSubscriptionId) {
+            this.multiplexedSubscriptionId = multiplexedSubscriptionId;
+            return this;
+        }
+
+        public Builder setSubscriptionId(final String subscriptionId) {
+            this.subscriptionId = subscriptionId;
+            return this;
+        }
+
+        public Builder setLocalStreamRegistry(final LocalStreamRegistry localStreamRegistry) {
+            this.localStreamRegistry = localStreamRegistry;
+            return this;
+        }
+
         public StreamingContext build() {
             return new StreamingContext(this);
         }
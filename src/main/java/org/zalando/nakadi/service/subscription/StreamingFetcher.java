@@ -0,0 +1,75 @@
+package org.zalando.nakadi.service.subscription;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fetches events for idle subscription streams of the node on one shared thread. Stream that polled nothing is not
+ * polling again by itself, instead the fetcher keeps polling its consumer without waiting, and wakes the stream up as
+ * soon as records arrive. Records are kept for the stream, so it gets them with its next poll. This way events are
+ * reaching idle streams within one round of the fetcher, and workers of streams are never waiting for kafka.
+ */
+public class StreamingFetcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StreamingFetcher.class);
+
+    private final Set<WatchedConsumer> consumers = ConcurrentHashMap.newKeySet();
+    private final long idleIntervalMs;
+
+    /**
+     * @param idleIntervalMs pause between rounds of fetching that found no new records
+     */
+    public StreamingFetcher(final long idleIntervalMs) {
+        this.idleIntervalMs = idleIntervalMs;
+    }
+
+    /**
+     * @param consumer consumer of the stream, it is not used by the fetcher while the stream is not idle
+     * @param onData   called from the fetching thread when records arrive for the idle stream
+     * @return consumer that must be used by the stream instead of the original one
+     */
+    public WatchedConsumer register(final Consumer<String, String> consumer, final Runnable onData) {
+        final WatchedConsumer watched = new WatchedConsumer(this, consumer, onData);
+        consumers.add(watched);
+        return watched;
+    }
+
+    void unregister(final WatchedConsumer consumer) {
+        consumers.remove(consumer);
+    }
+
+    void fetchLoop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                if (!fetchOnce()) {
+                    Thread.sleep(idleIntervalMs);
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Polls consumers of all the idle streams once.
+     *
+     * @return true if any of the streams was woken up
+     */
+    boolean fetchOnce() {
+        boolean fetched = false;
+        for (final WatchedConsumer consumer : consumers) {
+            try {
+                if (consumer.fetchIfIdle()) {
+                    fetched = true;
+                }
+            } catch (final RuntimeException e) {
+                LOG.error("Failed to wake up stream", e);
+            }
+        }
+        return fetched;
+    }
+}
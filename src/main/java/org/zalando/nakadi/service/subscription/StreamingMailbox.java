@@ -0,0 +1,94 @@
+package org.zalando.nakadi.service.subscription;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Queue of tasks of streaming contexts, that is drained by workers of {@link StreamingScheduler}. Tasks of one
+ * mailbox are executed in order of arrival and never concurrently, so state transitions of contexts that are using
+ * the mailbox are still single threaded, even though consecutive tasks may be executed by different workers.
+ * Mailbox is occupying a worker only while it has tasks, and gives it up after a limited number of tasks.
+ * <p>
+ * Tasks that may block (zookeeper, offset storage, kafka consumer creation and closing) are offered with
+ * {@link #offerBlocking(Runnable)} and are executed by separate blocking workers. Mailbox is not executing anything
+ * else until the blocking task is finished, so workers are never waiting and the order of tasks is kept.
+ */
+public class StreamingMailbox {
+
+    static final int MAX_TASKS_PER_RUN = 64;
+
+    private final Executor executor;
+    private final Executor blockingExecutor;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    public StreamingMailbox(final Executor executor, final Executor blockingExecutor) {
+        this.executor = executor;
+        this.blockingExecutor = blockingExecutor;
+    }
+
+    public void offer(final Runnable task) {
+        tasks.offer(task);
+        schedule();
+    }
+
+    public void offerBlocking(final Runnable task) {
+        tasks.offer(new BlockingTask(task));
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        boolean suspended = false;
+        try {
+            for (int i = 0; i < MAX_TASKS_PER_RUN; ++i) {
+                final Runnable task = tasks.poll();
+                if (null == task) {
+                    break;
+                }
+                if (task instanceof BlockingTask) {
+                    // Mailbox stays scheduled, so the next task is started only after this one is finished
+                    blockingExecutor.execute(() -> runBlocking(task));
+                    suspended = true;
+                    return;
+                }
+                task.run();
+            }
+        } finally {
+            if (!suspended) {
+                scheduled.set(false);
+                if (!tasks.isEmpty()) {
+                    schedule();
+                }
+            }
+        }
+    }
+
+    private void runBlocking(final Runnable task) {
+        try {
+            task.run();
+        } finally {
+            executor.execute(this::drain);
+        }
+    }
+
+    private static class BlockingTask implements Runnable {
+        private final Runnable task;
+
+        BlockingTask(final Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+}
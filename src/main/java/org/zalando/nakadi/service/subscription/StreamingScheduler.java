@@ -0,0 +1,57 @@
+package org.zalando.nakadi.service.subscription;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Threads that are running subscription streams of the node. Tasks of streaming contexts are executed through
+ * {@link StreamingMailbox}es by a fixed pool of workers, that is shared by all the streams. Workers are never
+ * blocked: writes to clients are not waiting for the connection, and tasks that are calling zookeeper or offset
+ * storage, or are creating and closing kafka consumers, are executed by a separate fixed pool of blocking workers.
+ * Delayed tasks are kept by a shared {@link HashedWheelTimer} that is only handing them over to mailboxes, so idle
+ * streams are not holding threads while they wait. Events for idle streams are fetched by the shared
+ * {@link StreamingFetcher}. Number of threads does not depend on the number of streams.
+ */
+@Component
+public class StreamingScheduler {
+
+    private final ExecutorService workers;
+    private final ExecutorService blockingWorkers;
+    private final HashedWheelTimer timer;
+    private final StreamingFetcher fetcher;
+
+    @Autowired
+    public StreamingScheduler(@Value("${nakadi.subscription.workers:32}") final int workers,
+                              @Value("${nakadi.subscription.blockingWorkers:32}") final int blockingWorkers,
+                              @Value("${nakadi.subscription.timerTickMs:10}") final long timerTickMs,
+                              @Value("${nakadi.subscription.fetchIntervalMs:10}") final long fetchIntervalMs) {
+        this.workers = Executors.newFixedThreadPool(workers, new ThreadFactoryBuilder()
+                .setNameFormat("subscription-worker-%d").setDaemon(true).build());
+        this.blockingWorkers = Executors.newFixedThreadPool(blockingWorkers, new ThreadFactoryBuilder()
+                .setNameFormat("subscription-blocking-worker-%d").setDaemon(true).build());
+        // One turn of the wheel covers about 5 seconds with default tick, longer timeouts are waiting for their round
+        this.timer = new HashedWheelTimer(timerTickMs, TimeUnit.MILLISECONDS, 512, new ThreadFactoryBuilder()
+                .setNameFormat("subscription-timer").setDaemon(true).build());
+        this.fetcher = new StreamingFetcher(fetchIntervalMs);
+        new ThreadFactoryBuilder().setNameFormat("subscription-fetcher").setDaemon(true).build()
+                .newThread(fetcher::fetchLoop).start();
+    }
+
+    public StreamingMailbox createMailbox() {
+        return new StreamingMailbox(workers, blockingWorkers);
+    }
+
+    public HashedWheelTimer getTimer() {
+        return timer;
+    }
+
+    public StreamingFetcher getFetcher() {
+        return fetcher;
+    }
+}
@@ -1,6 +1,13 @@
 package org.zalando.nakadi.service.subscription;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface SubscriptionStreamer {
 
-    void stream() throws InterruptedException;
+    /**
+     * Starts streaming without blocking the calling thread.
+     *
+     * @return future that is completed when streaming is finished
+     */
+    CompletableFuture<Void> stream();
 }
@@ -11,34 +11,46 @@ import org.zalando.nakadi.exceptions.InternalNakadiException;
 import org.zalando.nakadi.exceptions.NoSuchEventTypeException;
 import org.zalando.nakadi.exceptions.NoSuchSubscriptionException;
 import org.zalando.nakadi.exceptions.ServiceUnavailableException;
+import org.zalando.nakadi.exceptions.UnprocessableEntityException;
 import org.zalando.nakadi.repository.EventTypeRepository;
+import org.zalando.nakadi.repository.SubscriptionOffsetRepository;
 import org.zalando.nakadi.repository.db.SubscriptionDbRepository;
 import org.zalando.nakadi.repository.kafka.KafkaTopicRepository;
 import org.zalando.nakadi.repository.zookeeper.ZooKeeperHolder;
+import org.zalando.nakadi.service.ConsumptionQuotaService;
 import org.zalando.nakadi.service.CursorConverter;
 import org.zalando.nakadi.service.CursorTokenService;
 import org.zalando.nakadi.service.BlacklistService;
 import org.zalando.nakadi.service.subscription.model.Session;
 import org.zalando.nakadi.service.subscription.zk.CuratorZkSubscriptionClient;
+import org.zalando.nakadi.util.FeatureToggleService;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 @Service
 public class SubscriptionStreamerFactory {
     @Value("${nakadi.kafka.poll.timeoutMs}")
     private long kafkaPollTimeout;
+    @Value("${nakadi.kafka.poll.maxIdleTimeoutMs}")
+    private long kafkaPollMaxIdleTimeout;
+    @Value("${nakadi.subscription.maxMultiplexed:50}")
+    private int maxMultiplexedSubscriptions;
     private final ZooKeeperHolder zkHolder;
     private final SubscriptionDbRepository subscriptionDbRepository;
     private final KafkaTopicRepository topicRepository;
     private final EventTypeRepository eventTypeRepository;
-    private final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+    private final StreamingScheduler streamingScheduler;
     private final CursorTokenService cursorTokenService;
     private final ObjectMapper objectMapper;
     private final CursorConverter cursorConverter;
+    private final ConsumptionQuotaService consumptionQuotaService;
+    private final LocalStreamRegistry localStreamRegistry;
+    private final SubscriptionOffsetRepository offsetRepository;
+    private final FeatureToggleService featureToggleService;
 
     @Autowired
     public SubscriptionStreamerFactory(
@@ -48,7 +60,12 @@ public class SubscriptionStreamerFactory {
             final EventTypeRepository eventTypeRepository,
             final CursorTokenService cursorTokenService,
             final ObjectMapper objectMapper,
-            final CursorConverter cursorConverter) {
+            final CursorConverter cursorConverter,
+            final ConsumptionQuotaService consumptionQuotaService,
+            final StreamingScheduler streamingScheduler,
+            final LocalStreamRegistry localStreamRegistry,
+            final SubscriptionOffsetRepository offsetRepository,
+            final FeatureToggleService featureToggleService) {
         this.zkHolder = zkHolder;
         this.subscriptionDbRepository = subscriptionDbRepository;
         this.topicRepository = topicRepository;
@@ -56,6 +73,11 @@ public class SubscriptionStreamerFactory {
         this.cursorTokenService = cursorTokenService;
         this.objectMapper = objectMapper;
         this.cursorConverter = cursorConverter;
+        this.consumptionQuotaService = consumptionQuotaService;
+        this.streamingScheduler = streamingScheduler;
+        this.localStreamRegistry = localStreamRegistry;
+        this.offsetRepository = offsetRepository;
+        this.featureToggleService = featureToggleService;
     }
 
     public SubscriptionStreamer build(
@@ -66,28 +88,77 @@ public class SubscriptionStreamerFactory {
             final BlacklistService blacklistService) throws NoSuchSubscriptionException, ServiceUnavailableException,
             InternalNakadiException, NoSuchEventTypeException {
 
+        return createContextBuilder(subscriptionId, Session.generate(1), streamParameters, output, connectionReady,
+                blacklistService).build();
+    }
+
+    /**
+     * Creates streamer of several subscriptions over one connection. All subscriptions are using the same session id,
+     * so the stream id that is sent to the client is valid for committing cursors of any of them.
+     */
+    public SubscriptionStreamer buildMultiplexed(
+            final List<String> subscriptionIds,
+            final StreamParameters streamParameters,
+            final SubscriptionOutput output,
+            final AtomicBoolean connectionReady,
+            final BlacklistService blacklistService) throws NoSuchSubscriptionException, ServiceUnavailableException,
+            InternalNakadiException, NoSuchEventTypeException, UnprocessableEntityException {
+
+        if (subscriptionIds.size() > maxMultiplexedSubscriptions) {
+            throw new UnprocessableEntityException("Not more than " + maxMultiplexedSubscriptions +
+                    " subscriptions can be streamed over one connection");
+        }
+        final Session session = Session.generate(1);
+        final StreamingMailbox mailbox = streamingScheduler.createMailbox();
+        final SubscriptionOutput sharedOutput = new MultiplexedSubscriptionOutput(output, subscriptionIds.size());
+        final List<StreamingContext> contexts = new ArrayList<>(subscriptionIds.size());
+        for (final String subscriptionId : subscriptionIds) {
+            contexts.add(createContextBuilder(subscriptionId, session, streamParameters, sharedOutput,
+                    connectionReady, blacklistService)
+                    .setMailbox(mailbox)
+                    .setMultiplexedSubscriptionId(subscriptionId)
+                    .build());
+        }
+        return new MultiplexedSubscriptionStreamer(contexts);
+    }
+
+    private StreamingContext.Builder createContextBuilder(
+            final String subscriptionId,
+            final Session session,
+            final StreamParameters streamParameters,
+            final SubscriptionOutput output,
+            final AtomicBoolean connectionReady,
+            final BlacklistService blacklistService) throws NoSuchSubscriptionException, ServiceUnavailableException,
+            InternalNakadiException, NoSuchEventTypeException {
+
         final Subscription subscription = subscriptionDbRepository.getSubscription(subscriptionId);
         final Map<String, String> eventTypesForTopics = createTopicsMap(subscription.getEventTypes());
-        final Session session = Session.generate(1);
         final String loggingPath = "subscription." + subscriptionId + "." + session.getId();
         // Create streaming context
         return new StreamingContext.Builder()
                 .setOut(output)
                 .setParameters(streamParameters)
                 .setSession(session)
-                .setTimer(executorService)
-                .setZkClient(new CuratorZkSubscriptionClient(subscription.getId(), zkHolder.get(), loggingPath))
+                .setSubscriptionId(subscription.getId())
+                .setLocalStreamRegistry(localStreamRegistry)
+                .setTimer(streamingScheduler.getTimer())
+                .setFetcher(streamingScheduler.getFetcher())
+                .setMailbox(streamingScheduler.createMailbox())
+                .setZkClient(new CuratorZkSubscriptionClient(
+                        subscription.getId(), zkHolder.get(), offsetRepository, featureToggleService, loggingPath))
                 .setKafkaClient(new KafkaClient(subscription, topicRepository, eventTypeRepository))
                 .setRebalancer(new ExactWeightRebalancer())
                 .setKafkaPollTimeout(kafkaPollTimeout)
+                .setKafkaPollMaxIdleTimeout(kafkaPollMaxIdleTimeout)
+                .setConsumptionThrottle(consumptionQuotaService.getThrottle(
+                        streamParameters.getConsumingAppId(), eventTypesForTopics.values()))
                 .setLoggingPath(loggingPath)
                 .setConnectionReady(connectionReady)
                 .setEventTypesForTopics(eventTypesForTopics)
                 .setCursorTokenService(cursorTokenService)
                 .setObjectMapper(objectMapper)
                 .setBlacklistService(blacklistService)
-                .setCursorConverter(cursorConverter)
-                .build();
+                .setCursorConverter(cursorConverter);
     }
 
     private Map<String, String> createTopicsMap(final Set<String> eventTypes) throws InternalNakadiException,
@@ -0,0 +1,133 @@
+package org.zalando.nakadi.service.subscription;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Kafka consumer of a subscription stream that is polled by {@link StreamingFetcher} while the stream is idle. The
+ * stream becomes idle when its poll returns nothing, and stops being idle when the fetcher finds records for it or
+ * when it polls again by itself.
+ */
+public class WatchedConsumer {
+
+    private final StreamingFetcher fetcher;
+    private final Consumer<String, String> consumer;
+    private final Runnable onData;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Records that were fetched for the idle stream and were not yet returned to it
+    private ConsumerRecords<String, String> fetched;
+    private RuntimeException fetchError;
+    private boolean idle;
+
+    WatchedConsumer(final StreamingFetcher fetcher, final Consumer<String, String> consumer,
+                    final Runnable onData) {
+        this.fetcher = fetcher;
+        this.consumer = consumer;
+        this.onData = onData;
+    }
+
+    /**
+     * Returns records fetched for the stream, or polls kafka without waiting if there are none. Stream is idle after
+     * the poll that returned nothing, until it is woken up.
+     */
+    public ConsumerRecords<String, String> poll() {
+        lock.lock();
+        try {
+            if (null != fetchError) {
+                final RuntimeException error = fetchError;
+                fetchError = null;
+                throw error;
+            }
+            final ConsumerRecords<String, String> records = null != fetched ? fetched : consumer.poll(0);
+            fetched = null;
+            idle = records.isEmpty();
+            return records;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Set<TopicPartition> assignment() {
+        lock.lock();
+        try {
+            return consumer.assignment();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs action that changes assignment or positions of the consumer. Records that were fetched and not returned
+     * yet are dropped, and their partitions are rewound to the first of them.
+     */
+    public void change(final java.util.function.Consumer<Consumer<String, String>> action) {
+        lock.lock();
+        try {
+            if (null != fetched) {
+                for (final TopicPartition tp : fetched.partitions()) {
+                    final List<ConsumerRecord<String, String>> records = fetched.records(tp);
+                    if (!records.isEmpty()) {
+                        consumer.seek(tp, records.get(0).offset());
+                    }
+                }
+                fetched = null;
+            }
+            fetchError = null;
+            action.accept(consumer);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void close() {
+        fetcher.unregister(this);
+        lock.lock();
+        try {
+            fetched = null;
+            idle = false;
+            consumer.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called by the fetcher, skips the consumer if the stream is using it right now.
+     *
+     * @return true if the stream was woken up
+     */
+    boolean fetchIfIdle() {
+        if (!lock.tryLock()) {
+            return false;
+        }
+        boolean woken = false;
+        try {
+            if (idle && !consumer.assignment().isEmpty()) {
+                final ConsumerRecords<String, String> records = consumer.poll(0);
+                if (!records.isEmpty()) {
+                    fetched = records;
+                    woken = true;
+                }
+            }
+        } catch (final RuntimeException e) {
+            // Thrown to the stream by its next poll, as it would be thrown by the consumer itself
+            fetchError = e;
+            woken = true;
+        } finally {
+            if (woken) {
+                idle = false;
+            }
+            lock.unlock();
+        }
+        if (woken) {
+            onData.run();
+        }
+        return woken;
+    }
+}
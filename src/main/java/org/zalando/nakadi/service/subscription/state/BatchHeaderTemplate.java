@@ -0,0 +1,48 @@
+package org.zalando.nakadi.service.subscription.state;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.annotation.Nullable;
+
+/**
+ * Beginning of json batches of one partition of subscription stream, up to the end of the cursor. Everything except
+ * offset and cursor token is the same for all the batches of the partition, so it is serialized once and batches
+ * only append the parts that are changing. The result is the same as serialization of
+ * {@link org.zalando.nakadi.view.SubscriptionCursor} with object mapper.
+ */
+class BatchHeaderTemplate {
+
+    private final String beforeOffset;
+    private final String beforeToken;
+
+    /**
+     * @param subscriptionId id of subscription to tag batches with, if the stream is multiplexed
+     */
+    BatchHeaderTemplate(final ObjectMapper objectMapper, @Nullable final String subscriptionId,
+                        final String partition, final String eventType) throws JsonProcessingException {
+        final StringBuilder prefix = new StringBuilder("{");
+        if (null != subscriptionId) {
+            prefix.append("\"subscription_id\":").append(objectMapper.writeValueAsString(subscriptionId)).append(",");
+        }
+        this.beforeOffset = prefix.append("\"cursor\":{\"partition\":")
+                .append(objectMapper.writeValueAsString(partition))
+                .append(",\"offset\":")
+                .toString();
+        this.beforeToken = ",\"event_type\":" + objectMapper.writeValueAsString(eventType) + ",\"cursor_token\":\"";
+    }
+
+    /**
+     * Appends beginning of the batch, the cursor object is closed and the batch object is left open.
+     *
+     * @param offset offset of the cursor as it is sent to client, consists only of characters that are not escaped
+     * @param token  cursor token, consists only of characters that are not escaped
+     */
+    void append(final StringBuilder output, final String offset, final String token) {
+        output.append(beforeOffset)
+                .append('"').append(offset).append('"')
+                .append(beforeToken)
+                .append(token)
+                .append("\"}");
+    }
+}
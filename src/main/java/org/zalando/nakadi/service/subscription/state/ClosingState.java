@@ -43,7 +43,7 @@ class ClosingState extends State {
                 - lastCommitMillis);
         if (timeToWaitMillis > 0) {
             scheduleTask(() -> switchState(new CleanupState()), timeToWaitMillis, TimeUnit.MILLISECONDS);
-            topologyListener = getZk().subscribeForTopologyChanges(() -> addTask(this::onTopologyChanged));
+            topologyListener = getZk().subscribeForTopologyChanges(() -> addBlockingTask(this::onTopologyChanged));
             reactOnTopologyChange();
         } else {
             switchState(new CleanupState());
@@ -95,7 +95,7 @@ class ClosingState extends State {
         listeners.put(
                 key,
                 getZk().subscribeForOffsetChanges(
-                        key, () -> addTask(() -> this.offsetChanged(key))));
+                        key, () -> addBlockingTask(() -> this.offsetChanged(key))));
         reactOnOffset(key);
     }
 
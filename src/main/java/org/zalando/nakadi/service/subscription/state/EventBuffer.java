@@ -0,0 +1,180 @@
+package org.zalando.nakadi.service.subscription.state;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Buffer of events of one partition that were read from kafka, but are not sent to client yet. Offsets are kept in
+ * a primitive array and events are kept as utf-8 in one contiguous byte storage, so buffered events are not creating
+ * objects per event. Appending and taking events is O(1) amortized, as events are coming from kafka in order of
+ * offsets. Events that are out of order are still placed according to their offsets, but at the cost of a copy.
+ */
+class EventBuffer {
+
+    private static final Charset UTF8 = StandardCharsets.UTF_8;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int INITIAL_DATA_CAPACITY = 4096;
+
+    private long[] offsets = new long[INITIAL_CAPACITY];
+    // End of event i in data, event starts at the end of the previous one (or at dataHead for the first event)
+    private int[] ends = new int[INITIAL_CAPACITY];
+    private byte[] data = new byte[INITIAL_DATA_CAPACITY];
+    private int head;
+    private int tail;
+    private int dataHead;
+    private int dataTail;
+
+    int size() {
+        return tail - head;
+    }
+
+    boolean isEmpty() {
+        return head == tail;
+    }
+
+    /**
+     * @return size of all buffered events in bytes
+     */
+    long getBytes() {
+        return dataTail - dataHead;
+    }
+
+    long firstOffset() {
+        checkNotEmpty();
+        return offsets[head];
+    }
+
+    long lastOffset() {
+        checkNotEmpty();
+        return offsets[tail - 1];
+    }
+
+    /**
+     * @return size of the first event in bytes
+     */
+    int firstSize() {
+        checkNotEmpty();
+        return ends[head] - dataHead;
+    }
+
+    void add(final long offset, final String event) {
+        final byte[] bytes = event.getBytes(UTF8);
+        if (!isEmpty() && offset <= offsets[tail - 1]) {
+            insert(offset, bytes);
+            return;
+        }
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, data, dataTail, bytes.length);
+        dataTail += bytes.length;
+        offsets[tail] = offset;
+        ends[tail] = dataTail;
+        tail++;
+    }
+
+    String pollFirst() {
+        checkNotEmpty();
+        final String event = new String(data, dataHead, ends[head] - dataHead, UTF8);
+        removeFirst();
+        return event;
+    }
+
+    void removeFirst() {
+        checkNotEmpty();
+        dataHead = ends[head];
+        head++;
+        if (isEmpty()) {
+            clear();
+        }
+    }
+
+    void clear() {
+        head = 0;
+        tail = 0;
+        dataHead = 0;
+        dataTail = 0;
+    }
+
+    private void checkNotEmpty() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("Event buffer is empty");
+        }
+    }
+
+    private void ensureCapacity(final int eventBytes) {
+        if (tail == offsets.length) {
+            // Space of taken events is reused only if it is at least a half of buffer, so copying stays amortized
+            if (head >= offsets.length / 2) {
+                compact();
+            } else {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                ends = Arrays.copyOf(ends, ends.length * 2);
+            }
+        }
+        if (dataTail + eventBytes > data.length) {
+            final int used = dataTail - dataHead;
+            if (dataHead >= data.length / 2 && used + eventBytes <= data.length) {
+                compactData();
+            } else {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, dataTail + eventBytes));
+            }
+        }
+    }
+
+    private void compact() {
+        final int size = size();
+        System.arraycopy(offsets, head, offsets, 0, size);
+        System.arraycopy(ends, head, ends, 0, size);
+        head = 0;
+        tail = size;
+    }
+
+    private void compactData() {
+        final int shift = dataHead;
+        System.arraycopy(data, dataHead, data, 0, dataTail - dataHead);
+        for (int i = head; i < tail; ++i) {
+            ends[i] -= shift;
+        }
+        dataHead = 0;
+        dataTail -= shift;
+    }
+
+    private void insert(final long offset, final byte[] event) {
+        final int found = Arrays.binarySearch(offsets, head, tail, offset);
+        final boolean replace = found >= 0;
+        final int position = replace ? found : -found - 1;
+        final int count = size() + (replace ? 0 : 1);
+
+        final long[] newOffsets = new long[Math.max(offsets.length, count)];
+        final int[] newEnds = new int[newOffsets.length];
+        final byte[] newData = new byte[Math.max(data.length, dataTail - dataHead + event.length)];
+        int index = 0;
+        int dataEnd = 0;
+        for (int i = head; i <= tail; ++i) {
+            if (i == position) {
+                System.arraycopy(event, 0, newData, dataEnd, event.length);
+                dataEnd += event.length;
+                newOffsets[index] = offset;
+                newEnds[index++] = dataEnd;
+                if (replace) {
+                    continue;
+                }
+            }
+            if (i < tail) {
+                final int start = i == head ? dataHead : ends[i - 1];
+                System.arraycopy(data, start, newData, dataEnd, ends[i] - start);
+                dataEnd += ends[i] - start;
+                newOffsets[index] = offsets[i];
+                newEnds[index++] = dataEnd;
+            }
+        }
+        offsets = newOffsets;
+        ends = newEnds;
+        data = newData;
+        head = 0;
+        tail = count;
+        dataHead = 0;
+        dataTail = dataEnd;
+    }
+}
@@ -5,17 +5,20 @@ import org.slf4j.LoggerFactory;
 import org.zalando.nakadi.service.subscription.zk.ZKSubscription;
 
 import javax.annotation.Nullable;
-import java.util.NavigableMap;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.ArrayList;
+import java.util.List;
 
 class PartitionData {
     private final ZKSubscription subscription;
-    private final NavigableMap<Long, String> nakadiEvents = new TreeMap<>();
+    private final EventBuffer nakadiEvents = new EventBuffer();
     private final Logger log;
 
     private long commitOffset;
     private long sentOffset;
+    // Offset of the last event sent to client, sent offset also covers events that were filtered out
+    private long deliveredOffset;
+    // The highest offset of event that was filtered out and is not covered by sent offset yet
+    private long filteredOffset = -1;
     private long lastSendMillis;
     private int keepAliveInARow;
 
@@ -29,17 +32,33 @@ class PartitionData {
 
         this.commitOffset = commitOffset;
         this.sentOffset = commitOffset;
+        this.deliveredOffset = commitOffset;
         this.lastSendMillis = System.currentTimeMillis();
     }
 
     @Nullable
-    SortedMap<Long, String> takeEventsToStream(final long currentTimeMillis, final int batchSize,
-                                               final long batchTimeoutMillis) {
+    List<String> takeEventsToStream(final long currentTimeMillis, final int batchSize,
+                                    final long batchTimeoutMillis) {
+        return takeEventsToStream(currentTimeMillis, batchSize, 0, batchTimeoutMillis);
+    }
+
+    /**
+     * Takes events that should be sent to client in the next batch.
+     *
+     * @param batchLimitBytes Soft limit for the size of the batch, batch is sent as soon as buffered events take at
+     *                        least this amount of bytes. Not used if 0.
+     * @return events to send in order of offsets, empty list if keep alive should be sent and null if batch is not
+     * ready yet. Offset of the last event is available with {@link #getSentOffset()}.
+     */
+    @Nullable
+    List<String> takeEventsToStream(final long currentTimeMillis, final int batchSize,
+                                    final long batchLimitBytes, final long batchTimeoutMillis) {
         final boolean countReached = (nakadiEvents.size() >= batchSize) && batchSize > 0;
+        final boolean bytesReached = batchLimitBytes > 0 && nakadiEvents.getBytes() >= batchLimitBytes;
         final boolean timeReached = (currentTimeMillis - lastSendMillis) >= batchTimeoutMillis;
-        if (countReached || timeReached) {
+        if (countReached || bytesReached || timeReached) {
             lastSendMillis = currentTimeMillis;
-            return extract(batchSize);
+            return extract(batchSize, batchLimitBytes);
         } else {
             return null;
         }
@@ -53,18 +72,43 @@ class PartitionData {
         return lastSendMillis;
     }
 
-    private SortedMap<Long, String> extract(final int count) {
-        final SortedMap<Long, String> result = new TreeMap<>();
-        for (int i = 0; i < count && !nakadiEvents.isEmpty(); ++i) {
-            final Long offset = nakadiEvents.firstKey();
-            result.put(offset, nakadiEvents.remove(offset));
+    /**
+     * @return number of events that are read from kafka and are waiting to be sent
+     */
+    int getBufferedEvents() {
+        return nakadiEvents.size();
+    }
+
+    /**
+     * @return size in bytes of events that are read from kafka and are waiting to be sent
+     */
+    long getBufferedBytes() {
+        return nakadiEvents.getBytes();
+    }
+
+    private List<String> extract(final int count, final long limitBytes) {
+        final List<String> result = new ArrayList<>(Math.max(0, Math.min(count, nakadiEvents.size())));
+        long resultBytes = 0;
+        long lastOffset = sentOffset;
+        while (result.size() < count && !nakadiEvents.isEmpty()) {
+            if (limitBytes > 0 && resultBytes >= limitBytes) {
+                break;
+            }
+            resultBytes += nakadiEvents.firstSize();
+            lastOffset = nakadiEvents.firstOffset();
+            result.add(nakadiEvents.pollFirst());
         }
         if (!result.isEmpty()) {
-            this.sentOffset = result.lastKey();
+            this.sentOffset = lastOffset;
+            this.deliveredOffset = sentOffset;
             this.keepAliveInARow = 0;
         } else {
             this.keepAliveInARow += 1;
         }
+        // Filtered out events that are not followed by buffered ones are skipped with this batch (or keep alive)
+        if (nakadiEvents.isEmpty() && filteredOffset > sentOffset) {
+            this.sentOffset = filteredOffset;
+        }
         return result;
     }
 
@@ -119,34 +163,48 @@ class PartitionData {
             seekKafka = true;
             commitOffset = offset;
             sentOffset = commitOffset;
+            deliveredOffset = Math.min(deliveredOffset, commitOffset);
             committed = 0;
         }
-        while (nakadiEvents.floorKey(commitOffset) != null) {
-            nakadiEvents.pollFirstEntry();
+        while (!nakadiEvents.isEmpty() && nakadiEvents.firstOffset() <= commitOffset) {
+            nakadiEvents.removeFirst();
         }
         return new CommitResult(seekKafka, committed);
     }
 
     void addEventFromKafka(final long offset, final String event) {
-        if (offset > (sentOffset + nakadiEvents.size() + 1)) {
+        if (offset > (Math.max(sentOffset, filteredOffset) + nakadiEvents.size() + 1)) {
             log.warn(
                     "Adding event from kafka that is too far from last sent. " +
                             "Dunno how it happened, but it is. Sent offset: {}, Commit offset: {}, Adding offset: {}",
                     sentOffset, commitOffset, offset);
         }
-        nakadiEvents.put(offset, event);
+        nakadiEvents.add(offset, event);
+    }
+
+    /**
+     * Registers event that was read from kafka, but should not be sent to client. Cursors sent to client are moving
+     * over such events together with the next batch or keep alive.
+     */
+    void addFilteredEventFromKafka(final long offset) {
+        filteredOffset = Math.max(filteredOffset, offset);
     }
 
     void clearEvents() {
         nakadiEvents.clear();
+        filteredOffset = -1;
     }
 
+    /**
+     * @return true if all the events that were sent to client are committed. Keep alive cursors that only skipped
+     * filtered out events are not required to be committed.
+     */
     boolean isCommitted() {
-        return sentOffset <= commitOffset;
+        return deliveredOffset <= commitOffset;
     }
 
     long getUnconfirmed() {
-        return sentOffset - commitOffset;
+        return Math.max(0, deliveredOffset - commitOffset);
     }
 
     public ZKSubscription getSubscription() {
@@ -2,6 +2,7 @@ package org.zalando.nakadi.service.subscription.state;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.zalando.nakadi.service.ConsumptionThrottle;
 import org.zalando.nakadi.service.subscription.KafkaClient;
 import org.zalando.nakadi.service.subscription.StreamParameters;
 import org.zalando.nakadi.service.subscription.StreamingContext;
@@ -36,6 +37,14 @@ public abstract class State {
         return context.getKafkaPollTimeout();
     }
 
+    protected long getKafkaPollMaxIdleTimeout() {
+        return context.getKafkaPollMaxIdleTimeout();
+    }
+
+    protected ConsumptionThrottle getConsumptionThrottle() {
+        return context.getConsumptionThrottle();
+    }
+
     protected StreamParameters getParameters() {
         return context.getParameters();
     }
@@ -76,6 +85,13 @@ public abstract class State {
         context.addTask(linkTaskToState(task));
     }
 
+    /**
+     * Adds task that may block on zookeeper, offset storage or kafka consumer, see {@link StreamingContext}.
+     */
+    public void addBlockingTask(final Runnable task) {
+        context.addBlockingTask(linkTaskToState(task));
+    }
+
     private Runnable linkTaskToState(final Runnable task) {
         return () -> {
             if (!isCurrent()) {
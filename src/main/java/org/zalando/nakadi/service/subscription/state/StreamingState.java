@@ -3,6 +3,8 @@ package org.zalando.nakadi.service.subscription.state;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -10,41 +12,64 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.OptionalLong;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import org.apache.kafka.clients.consumer.Consumer;
+import javax.annotation.Nullable;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.common.TopicPartition;
 import org.slf4j.LoggerFactory;
+import org.zalando.nakadi.repository.kafka.AdaptivePollTimeout;
+import org.zalando.nakadi.service.BinaryBatchEncoder;
 import org.zalando.nakadi.service.EventStream;
+import org.zalando.nakadi.service.subscription.LocalStream;
+import org.zalando.nakadi.service.subscription.WatchedConsumer;
 import org.zalando.nakadi.service.subscription.model.Partition;
 import org.zalando.nakadi.service.subscription.zk.ZKSubscription;
-import org.zalando.nakadi.view.SubscriptionCursor;
 
 
 class StreamingState extends State {
     private ZKSubscription topologyChangeSubscription;
-    private Consumer<String, String> kafkaConsumer;
+    // Commits of streamed partitions that are received by this node, null if they are always going through zk
+    @Nullable
+    private LocalStream localStream;
+    private WatchedConsumer kafkaConsumer;
     private final Map<Partition.PartitionKey, PartitionData> offsets = new HashMap<>();
     // Maps partition barrier when releasing must be completed or stream will be closed.
     // The reasons for that if there are two partitions (p0, p1) and p0 is reassigned, if p1 is working
     // correctly, and p0 is not receiving any updates - reassignment won't complete.
     private final Map<Partition.PartitionKey, Long> releasingPartitions = new HashMap<>();
     private boolean pollPaused;
+    // Nothing was polled last time, next poll is done when the fetcher finds events or when poll timeout is over
+    private boolean waitingForData;
     private long lastCommitMillis;
     private long committedEvents;
     private long sentEvents;
     private long batchesSent;
+    // Batches that are not yet written to output, only one of them is used depending on requested framing
+    private final StringBuilder output = new StringBuilder();
+    private final Map<Partition.PartitionKey, BatchHeaderTemplate> batchHeaders = new HashMap<>();
+    @Nullable
+    private BinaryBatchEncoder binaryOutput;
+    private long eventsInOutput;
+    private AdaptivePollTimeout pollTimeout;
+    private long streamDeadlineMillis;
+    // Nothing is polled or streamed until this time, as consumption quota of application is exceeded
+    private long throttledUntilMillis;
 
     @Override
     public void onEnter() {
+        this.binaryOutput = getParameters().binaryFraming ? new BinaryBatchEncoder() : null;
+        this.pollTimeout = new AdaptivePollTimeout(getKafkaPollTimeout(), getKafkaPollMaxIdleTimeout());
+        this.streamDeadlineMillis = getParameters().streamTimeoutMillis
+                .map(timeout -> System.currentTimeMillis() + timeout).orElse(Long.MAX_VALUE);
         // Create kafka consumer
-        this.kafkaConsumer = getKafka().createKafkaConsumer();
+        this.kafkaConsumer = getContext().getFetcher().register(
+                getKafka().createKafkaConsumer(), () -> addTask(this::pollIfWaitingForData));
+        this.localStream = getContext().registerLocalStream(key -> addBlockingTask(() -> offsetCommitted(key)));
         // Subscribe for topology changes.
-        this.topologyChangeSubscription = getZk().subscribeForTopologyChanges(() -> addTask(this::topologyChanged));
+        this.topologyChangeSubscription = getZk().subscribeForTopologyChanges(
+                () -> addBlockingTask(this::topologyChanged));
         // and call directly
         reactOnTopologyChange();
         addTask(this::pollDataFromKafka);
@@ -82,7 +107,7 @@ class StreamingState extends State {
 
     private void sendMetadata(final String metadata) {
         offsets.entrySet().stream().findFirst()
-                .ifPresent(pk -> flushData(pk.getKey(), new TreeMap<>(), Optional.of(metadata)));
+                .ifPresent(pk -> flushData(pk.getKey(), Collections.emptyList(), Optional.of(metadata)));
     }
 
     private void shutdownGracefully(final String reason) {
@@ -115,26 +140,68 @@ class StreamingState extends State {
             return;
         }
 
+        final long throttledMillis = throttledUntilMillis - System.currentTimeMillis();
+        if (throttledMillis > 0) {
+            // Events that were already polled are streamed as soon as throttling is over
+            scheduleTask(this::streamToOutput, throttledMillis, TimeUnit.MILLISECONDS);
+            scheduleTask(this::pollDataFromKafka, throttledMillis, TimeUnit.MILLISECONDS);
+            return;
+        }
+
         if (kafkaConsumer.assignment().isEmpty() || pollPaused) {
             // Small optimization not to waste CPU while not yet assigned to any partitions
             scheduleTask(this::pollDataFromKafka, getKafkaPollTimeout(), TimeUnit.MILLISECONDS);
             return;
         }
-        final ConsumerRecords<String, String> records = kafkaConsumer.poll(getKafkaPollTimeout());
+        // Poll is not waiting for events, as the thread is shared with other streams. If there was nothing to read,
+        // the fetcher is polling consumer instead and wakes the stream up when events arrive.
+        final ConsumerRecords<String, String> records = kafkaConsumer.poll();
+        pollTimeout.onPoll(records.count());
         if (!records.isEmpty()) {
             for (final TopicPartition tp : records.partitions()) {
                 final Partition.PartitionKey pk = new Partition.PartitionKey(tp.topic(),
                         String.valueOf(tp.partition()));
                 Optional.ofNullable(offsets.get(pk))
-                        .ifPresent(pd -> records.records(tp)
-                                .forEach(record -> pd.addEventFromKafka(record.offset(), record.value())));
+                        .ifPresent(pd -> records.records(tp).forEach(record -> {
+                            final String event = getParameters().eventFilter.apply(record.value());
+                            if (null != event) {
+                                pd.addEventFromKafka(record.offset(), event);
+                            } else {
+                                pd.addFilteredEventFromKafka(record.offset());
+                            }
+                        }));
             }
             addTask(this::streamToOutput);
+            // It works because only one pollDataFromKafka task is present in queue each time. Poll process will stop
+            // when this state will be changed to any other state.
+            addTask(this::pollDataFromKafka);
+        } else {
+            // Stream is still checking its state from time to time, even if no events are coming
+            waitingForData = true;
+            scheduleTask(this::pollIfWaitingForData, getPollTimeout(), TimeUnit.MILLISECONDS);
         }
-        // Yep, no timeout. All waits are in kafka.
-        // It works because only one pollDataFromKafka task is present in queue each time. Poll process will stop
-        // when this state will be changed to any other state.
-        addTask(this::pollDataFromKafka);
+    }
+
+    /**
+     * Continues polling after the stream was woken up by the fetcher or by poll timeout, whichever is first.
+     */
+    private void pollIfWaitingForData() {
+        if (waitingForData) {
+            waitingForData = false;
+            pollDataFromKafka();
+        }
+    }
+
+    /**
+     * Delay of the next poll when nothing was read and the fetcher found nothing either, it should not be longer than
+     * the closest batch flush (or keep alive) and stream timeout. Idle streams are polling less often, see
+     * {@link AdaptivePollTimeout}.
+     */
+    private long getPollTimeout() {
+        final OptionalLong lastSent = offsets.values().stream().mapToLong(PartitionData::getLastSendMillis).min();
+        final long nextFlush = lastSent.isPresent() ?
+                lastSent.getAsLong() + getParameters().batchTimeoutMillis : Long.MAX_VALUE;
+        return pollTimeout.next(Math.min(nextFlush, streamDeadlineMillis) - System.currentTimeMillis());
     }
 
     private long getMessagesAllowedToSend() {
@@ -158,20 +225,38 @@ class StreamingState extends State {
 
     private void streamToOutput() {
         final long currentTimeMillis = System.currentTimeMillis();
+        if (currentTimeMillis < throttledUntilMillis) {
+            return;
+        }
         int freeSlots = (int) getMessagesAllowedToSend();
-        SortedMap<Long, String> toSend;
-        for (final Map.Entry<Partition.PartitionKey, PartitionData> e : offsets.entrySet()) {
-            while (null != (toSend = e.getValue().takeEventsToStream(
-                    currentTimeMillis,
-                    Math.min(getParameters().batchLimitEvents, freeSlots),
-                    getParameters().batchTimeoutMillis))) {
-                flushData(e.getKey(), toSend, batchesSent == 0 ? Optional.of("Stream started") : Optional.empty());
-                this.sentEvents += toSend.size();
-                if (toSend.isEmpty()) {
-                    break;
+        List<String> toSend;
+        // All the batches (and keep alives) that are ready are written to output with one call.
+        int batchesInOutput = 0;
+        try {
+            for (final Map.Entry<Partition.PartitionKey, PartitionData> e : offsets.entrySet()) {
+                while (null != (toSend = e.getValue().takeEventsToStream(
+                        currentTimeMillis,
+                        Math.min(getParameters().batchLimitEvents, freeSlots),
+                        getParameters().batchLimitBytes,
+                        getParameters().batchTimeoutMillis))) {
+                    serializeBatch(e.getKey(), e.getValue().getSentOffset(), toSend,
+                            batchesSent + batchesInOutput == 0 ? Optional.of("Stream started") : Optional.empty());
+                    batchesInOutput++;
+                    this.sentEvents += toSend.size();
+                    if (outputSize() >= EventStream.MAX_COALESCED_OUTPUT) {
+                        writeOutput(batchesInOutput);
+                        batchesInOutput = 0;
+                    }
+                    if (toSend.isEmpty()) {
+                        break;
+                    }
+                    freeSlots -= toSend.size();
                 }
-                freeSlots -= toSend.size();
             }
+            writeOutput(batchesInOutput);
+        } catch (final IOException e) {
+            getLog().error("Failed to write data to output.", e);
+            shutdownGracefully("Failed to write data to output");
         }
         pollPaused = getMessagesAllowedToSend() <= 0;
         if (!offsets.isEmpty() &&
@@ -181,43 +266,74 @@ class StreamingState extends State {
         }
     }
 
-    private void flushData(final Partition.PartitionKey pk, final SortedMap<Long, String> data,
+    private void flushData(final Partition.PartitionKey pk, final List<String> data,
                            final Optional<String> metadata) {
         try {
-            final long numberOffset = offsets.get(pk).getSentOffset();
-            final String batch = serializeBatch(pk, numberOffset, new ArrayList<>(data.values()), metadata);
-            getOut().streamData(batch.getBytes(EventStream.UTF8));
-            batchesSent++;
+            serializeBatch(pk, offsets.get(pk).getSentOffset(), data, metadata);
+            writeOutput(1);
         } catch (final IOException e) {
             getLog().error("Failed to write data to output.", e);
             shutdownGracefully("Failed to write data to output");
         }
     }
 
-    private String serializeBatch(final Partition.PartitionKey partitionKey, final long offset,
-                                  final List<String> events, final Optional<String> metadata)
+    private int outputSize() {
+        return null != binaryOutput ? binaryOutput.size() : output.length();
+    }
+
+    private void writeOutput(final int batchCount) throws IOException {
+        if (outputSize() > 0) {
+            final byte[] data;
+            if (null != binaryOutput) {
+                data = binaryOutput.toByteArray();
+                binaryOutput.reset();
+            } else {
+                data = output.toString().getBytes(EventStream.UTF8);
+                output.setLength(0);
+            }
+            getOut().streamData(data);
+            batchesSent += batchCount;
+            throttle(data.length);
+        }
+    }
+
+    private void throttle(final long bytes) {
+        final long throttleMillis = getConsumptionThrottle().acquire(eventsInOutput, bytes);
+        eventsInOutput = 0;
+        if (throttleMillis > 0) {
+            throttledUntilMillis = System.currentTimeMillis() + throttleMillis;
+        }
+    }
+
+    private void serializeBatch(final Partition.PartitionKey partitionKey, final long offset,
+                                final Collection<String> events, final Optional<String> metadata)
             throws JsonProcessingException {
 
         final String eventType = getContext().getEventTypesForTopics().get(partitionKey.getTopic());
         final String token = getContext().getCursorTokenService().generateToken();
-        final SubscriptionCursor cursor = getContext().getCursorConverter().convert(
-                partitionKey.createKafkaCursor(offset).toNakadiCursor(),
-                eventType,
-                token);
-        final String cursorSerialized = getContext().getObjectMapper().writeValueAsString(cursor);
-
-        final StringBuilder builder = new StringBuilder()
-                .append("{\"cursor\":")
-                .append(cursorSerialized);
+        eventsInOutput += events.size();
+        if (null != binaryOutput) {
+            binaryOutput.appendBatch(partitionKey.getPartition(), offset, eventType, token, events,
+                    metadata.orElse(null));
+            return;
+        }
+        BatchHeaderTemplate header = batchHeaders.get(partitionKey);
+        if (null == header) {
+            header = new BatchHeaderTemplate(getContext().getObjectMapper(),
+                    getContext().getMultiplexedSubscriptionId(), partitionKey.getPartition(), eventType);
+            batchHeaders.put(partitionKey, header);
+        }
+        final String cursorOffset = getContext().getCursorConverter()
+                .convert(partitionKey.createKafkaCursor(offset).toNakadiCursor()).getOffset();
+        header.append(output, cursorOffset, token);
         if (!events.isEmpty()) {
-            builder.append(",\"events\":[");
-            events.forEach(event -> builder.append(event).append(","));
-            builder.deleteCharAt(builder.length() - 1).append("]");
+            output.append(",\"events\":[");
+            events.forEach(event -> output.append(event).append(","));
+            output.deleteCharAt(output.length() - 1).append("]");
         }
-        metadata.ifPresent(s -> builder.append(",\"info\":{\"debug\":\"").append(s).append("\"}"));
+        metadata.ifPresent(s -> output.append(",\"info\":{\"debug\":\"").append(s).append("\"}"));
 
-        builder.append("}").append(EventStream.BATCH_SEPARATOR);
-        return builder.toString();
+        output.append("}").append(EventStream.BATCH_SEPARATOR);
     }
 
     @Override
@@ -239,6 +355,13 @@ class StreamingState extends State {
                 kafkaConsumer = null;
             }
         }
+        if (null != localStream) {
+            try {
+                getContext().unregisterLocalStream(localStream);
+            } finally {
+                localStream = null;
+            }
+        }
     }
 
     void topologyChanged() {
@@ -253,7 +376,7 @@ class StreamingState extends State {
             final Partition[] assignedPartitions = Stream.of(getZk().listPartitions())
                     .filter(p -> getSessionId().equals(p.getSession()))
                     .toArray(Partition[]::new);
-            addTask(() -> refreshTopologyUnlocked(assignedPartitions));
+            addBlockingTask(() -> refreshTopologyUnlocked(assignedPartitions));
         });
     }
 
@@ -348,25 +471,32 @@ class StreamingState extends State {
                     Collectors.toMap(
                             k -> k,
                             k -> new TopicPartition(k.getTopic(), Integer.valueOf(k.getPartition()))));
-            // Ignore order
-            kafkaConsumer.assign(new ArrayList<>(kafkaKeys.values()));
-            // Check if offsets are available in kafka
-            kafkaConsumer.seekToBeginning(kafkaKeys.values().toArray(new TopicPartition[kafkaKeys.size()]));
-            kafkaKeys.forEach((key, kafka) -> offsets.get(key).ensureDataAvailable(kafkaConsumer.position(kafka)));
-            //
-            kafkaKeys.forEach((k, v) -> kafkaConsumer.seek(v, offsets.get(k).getSentOffset() + 1));
+            kafkaConsumer.change(consumer -> {
+                // Ignore order
+                consumer.assign(new ArrayList<>(kafkaKeys.values()));
+                // Check if offsets are available in kafka
+                consumer.seekToBeginning(kafkaKeys.values().toArray(new TopicPartition[kafkaKeys.size()]));
+                kafkaKeys.forEach((key, kafka) -> offsets.get(key).ensureDataAvailable(consumer.position(kafka)));
+                //
+                kafkaKeys.forEach((k, v) -> consumer.seek(v, offsets.get(k).getSentOffset() + 1));
+            });
             offsets.values().forEach(PartitionData::clearEvents);
         }
     }
 
     private void addToStreaming(final Partition partition) {
+        final ZKSubscription offsetSubscription = getZk().subscribeForOffsetChanges(partition.getKey(),
+                () -> addBlockingTask(() -> offsetChanged(partition.getKey())));
+        final long offset = getZk().getOffset(partition.getKey());
         offsets.put(
                 partition.getKey(),
                 new PartitionData(
-                        getZk().subscribeForOffsetChanges(partition.getKey(), () -> addTask(()
-                                -> offsetChanged(partition.getKey()))),
-                        getZk().getOffset(partition.getKey()),
+                        offsetSubscription,
+                        offset,
                         LoggerFactory.getLogger("subscription." + getSessionId() + "." + partition.getKey())));
+        if (null != localStream) {
+            localStream.addPartition(partition.getKey(), offset);
+        }
     }
 
     private void reassignCommitted() {
@@ -384,34 +514,55 @@ class StreamingState extends State {
 
     void offsetChanged(final Partition.PartitionKey key) {
         if (offsets.containsKey(key)) {
-            final PartitionData data = offsets.get(key);
-            data.getSubscription().refresh();
+            offsets.get(key).getSubscription().refresh();
             final long offset = getZk().getOffset(key);
-            final PartitionData.CommitResult commitResult = data.onCommitOffset(offset);
-            if (commitResult.seekOnKafka) {
-                reconfigureKafkaConsumer(true);
-            }
-            if (commitResult.committedCount > 0) {
-                committedEvents += commitResult.committedCount;
-                this.lastCommitMillis = System.currentTimeMillis();
-                streamToOutput();
-            }
-            if (getParameters().isStreamLimitReached(committedEvents)) {
-                final String debugMessage = "Stream limit in events reached: " + committedEvents;
-                sendMetadata(debugMessage);
-                shutdownGracefully(debugMessage);
-            }
-            if (releasingPartitions.containsKey(key) && data.isCommitted()) {
-                reassignCommitted();
-                logPartitionAssignment("New offset received for releasing partition " + key);
+            // Offset in zk may be behind the one that was committed locally and is not written yet
+            onCommitOffset(key, null == localStream ? offset : localStream.onOffsetChanged(key, offset));
+        }
+    }
+
+    void offsetCommitted(final Partition.PartitionKey key) {
+        if (offsets.containsKey(key) && null != localStream) {
+            final Long offset = localStream.getOffset(key);
+            if (null != offset) {
+                onCommitOffset(key, offset);
             }
         }
     }
 
+    private void onCommitOffset(final Partition.PartitionKey key, final long offset) {
+        final PartitionData data = offsets.get(key);
+        final PartitionData.CommitResult commitResult = data.onCommitOffset(offset);
+        if (commitResult.seekOnKafka) {
+            reconfigureKafkaConsumer(true);
+        }
+        if (commitResult.committedCount > 0) {
+            committedEvents += commitResult.committedCount;
+            this.lastCommitMillis = System.currentTimeMillis();
+            streamToOutput();
+        }
+        if (getParameters().isStreamLimitReached(committedEvents)) {
+            final String debugMessage = "Stream limit in events reached: " + committedEvents;
+            sendMetadata(debugMessage);
+            shutdownGracefully(debugMessage);
+        }
+        if (releasingPartitions.containsKey(key) && data.isCommitted()) {
+            reassignCommitted();
+            logPartitionAssignment("New offset received for releasing partition " + key);
+        }
+    }
+
     private void removeFromStreaming(final Partition.PartitionKey key) {
         getLog().info("Removing partition {} from streaming", key);
         releasingPartitions.remove(key);
         final PartitionData data = offsets.remove(key);
+        if (null != localStream) {
+            try {
+                localStream.removePartition(key);
+            } catch (final RuntimeException ex) {
+                getLog().error("Failed to write offset of partition {} to zookeeper", key, ex);
+            }
+        }
         if (null != data) {
             try {
                 if (data.getUnconfirmed() > 0) {
@@ -1,6 +1,7 @@
 package org.zalando.nakadi.service.subscription.zk;
 
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.transaction.CuratorTransaction;
 import org.apache.curator.framework.recipes.locks.InterProcessSemaphoreMutex;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
@@ -8,15 +9,18 @@ import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.zalando.nakadi.exceptions.NakadiRuntimeException;
+import org.zalando.nakadi.repository.SubscriptionOffsetRepository;
 import org.zalando.nakadi.service.subscription.model.Partition;
 import org.zalando.nakadi.service.subscription.model.Session;
+import org.zalando.nakadi.util.FeatureToggleService;
 
-import javax.annotation.Nullable;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -28,16 +32,25 @@ public class CuratorZkSubscriptionClient implements ZkSubscriptionClient {
     private final CuratorFramework curatorFramework;
     private final InterProcessSemaphoreMutex lock;
     private final String subscriptionId;
+    private final SubscriptionOffsetRepository offsetRepository;
+    private final FeatureToggleService featureToggleService;
     private final Logger log;
 
-    public CuratorZkSubscriptionClient(final String subscriptionId, final CuratorFramework curatorFramework) {
-        this(subscriptionId, curatorFramework, CuratorZkSubscriptionClient.class.getName());
+    public CuratorZkSubscriptionClient(final String subscriptionId, final CuratorFramework curatorFramework,
+                                       final SubscriptionOffsetRepository offsetRepository,
+                                       final FeatureToggleService featureToggleService) {
+        this(subscriptionId, curatorFramework, offsetRepository, featureToggleService,
+                CuratorZkSubscriptionClient.class.getName());
     }
 
     public CuratorZkSubscriptionClient(final String subscriptionId, final CuratorFramework curatorFramework,
+                                       final SubscriptionOffsetRepository offsetRepository,
+                                       final FeatureToggleService featureToggleService,
                                        final String loggingPath) {
         this.subscriptionId = subscriptionId;
         this.curatorFramework = curatorFramework;
+        this.offsetRepository = offsetRepository;
+        this.featureToggleService = featureToggleService;
         this.lock = new InterProcessSemaphoreMutex(curatorFramework, "/nakadi/locks/subscription_" + subscriptionId);
         this.log = LoggerFactory.getLogger(loggingPath + ".zk");
     }
@@ -80,6 +93,14 @@ public class CuratorZkSubscriptionClient implements ZkSubscriptionClient {
         return getSubscriptionPath("/topics/" + key.getTopic() + "/" + key.getPartition());
     }
 
+    /**
+     * Topology is written to one node only when all the nodes of the cluster are able to read it. Until then
+     * partitions are written to nodes /topics/{topic}/{partition} and topology node contains only its version.
+     */
+    private boolean isTopologyNodeEnabled() {
+        return featureToggleService.isFeatureEnabled(FeatureToggleService.Feature.SUBSCRIPTION_TOPOLOGY_NODE);
+    }
+
     @Override
     public boolean isSubscriptionCreated() throws Exception {
         final Stat stat = curatorFramework.checkExists().forPath(getSubscriptionPath(""));
@@ -114,6 +135,7 @@ public class CuratorZkSubscriptionClient implements ZkSubscriptionClient {
         } catch (final Exception e) {
             throw new NakadiRuntimeException(e);
         }
+        offsetRepository.deleteOffsets(subscriptionId);
     }
 
     @Override
@@ -126,27 +148,32 @@ public class CuratorZkSubscriptionClient implements ZkSubscriptionClient {
             }
             curatorFramework.create().withMode(CreateMode.PERSISTENT).forPath(getSubscriptionPath("/sessions"));
 
-            log.info("Creating topics");
             if (null != curatorFramework.checkExists().forPath(getSubscriptionPath("/topics"))) {
                 log.info("deleting topics recursively");
                 curatorFramework.delete().guaranteed().deletingChildrenIfNeeded()
                         .forPath(getSubscriptionPath("/topics"));
             }
-            curatorFramework.create().withMode(CreateMode.PERSISTENT).forPath(getSubscriptionPath("/topics"));
-
-            log.info("Creating partitions");
-            for (final Map.Entry<Partition.PartitionKey, Long> p : partitionToOffset.entrySet()) {
-                final String partitionPath = getPartitionPath(p.getKey());
-                curatorFramework.create().creatingParentsIfNeeded().withMode(CreateMode.PERSISTENT).forPath(
-                        partitionPath,
-                        serializeNode(null, null, Partition.State.UNASSIGNED));
-                curatorFramework.create().withMode(CreateMode.PERSISTENT).forPath(
-                        partitionPath + "/offset",
-                        (String.valueOf(p.getValue())).getBytes(CHARSET));
+
+            final Partition[] partitions = partitionToOffset.keySet().stream()
+                    .map(key -> new Partition(key, null, null, Partition.State.UNASSIGNED))
+                    .toArray(Partition[]::new);
+            final boolean topologyNodeEnabled = isTopologyNodeEnabled();
+            if (!topologyNodeEnabled) {
+                log.info("Creating partitions");
+                curatorFramework.create().withMode(CreateMode.PERSISTENT).forPath(getSubscriptionPath("/topics"));
+                for (final Partition partition : partitions) {
+                    curatorFramework.create().creatingParentsIfNeeded().withMode(CreateMode.PERSISTENT)
+                            .forPath(getPartitionPath(partition.getKey()), serializeLegacyNode(partition));
+                }
             }
+
+            log.info("Creating offsets");
+            offsetRepository.createOffsets(subscriptionId, partitionToOffset);
+
             log.info("creating topology node");
+            final Topology topology = new Topology(partitions, 0);
             curatorFramework.create().withMode(CreateMode.PERSISTENT).forPath(getSubscriptionPath("/topology"),
-                    "0".getBytes(CHARSET));
+                    topologyNodeEnabled ? topology.serialize() : serializeLegacyVersion(topology));
             log.info("updating state");
             curatorFramework.setData().forPath(getSubscriptionPath("/state"), STATE_INITIALIZED.getBytes(CHARSET));
         } catch (final Exception e) {
@@ -154,15 +181,18 @@ public class CuratorZkSubscriptionClient implements ZkSubscriptionClient {
         }
     }
 
-    private static byte[] serializeNode(@Nullable final String session, @Nullable final String nextSession,
-                                        final Partition.State state) {
+    private static byte[] serializeLegacyNode(final Partition partition) {
         return Stream.of(
-                session == null ? NO_SESSION : session,
-                nextSession == null ? NO_SESSION : nextSession,
-                state.name()).collect(Collectors.joining(":")).getBytes(CHARSET);
+                partition.getSession() == null ? NO_SESSION : partition.getSession(),
+                partition.getNextSession() == null ? NO_SESSION : partition.getNextSession(),
+                partition.getState().name()).collect(Collectors.joining(":")).getBytes(CHARSET);
     }
 
-    public static Partition deserializeNode(final Partition.PartitionKey key, final byte[] data) {
+    private static byte[] serializeLegacyVersion(final Topology topology) {
+        return String.valueOf(topology.getVersion()).getBytes(CHARSET);
+    }
+
+    private static Partition deserializeLegacyNode(final Partition.PartitionKey key, final byte[] data) {
         final String[] parts = new String(data, CHARSET).split(":");
         return new Partition(
                 key,
@@ -171,45 +201,81 @@ public class CuratorZkSubscriptionClient implements ZkSubscriptionClient {
                 Partition.State.valueOf(parts[2]));
     }
 
-    @Override
-    public void updatePartitionConfiguration(final Partition partition) {
-        try {
-            log.info("updating partition state: " + partition.getKey() + ":" + partition.getState() + ":"
-                    + partition.getSession() + ":" + partition.getNextSession());
-            curatorFramework.setData().forPath(
-                    getPartitionPath(partition.getKey()),
-                    serializeNode(partition.getSession(), partition.getNextSession(), partition.getState()));
-        } catch (final Exception e) {
-            throw new NakadiRuntimeException(e);
+    /**
+     * Reads topology node. Topology node of subscriptions that were created before partitions were moved to it, or
+     * while the feature of topology node is disabled, contains only version, and their partitions are read from nodes
+     * /topics/{topic}/{partition}.
+     *
+     * @param stat filled with stat of topology node
+     */
+    public static Topology readTopology(final CuratorFramework curator, final String subscriptionId,
+                                        final Stat stat) throws Exception {
+        final String subscriptionPath = "/nakadi/subscriptions/" + subscriptionId;
+        final byte[] data = curator.getData().storingStatIn(stat).forPath(subscriptionPath + "/topology");
+        final Topology topology = Topology.deserialize(data);
+        return null != topology ? topology : readLegacyTopology(curator, subscriptionId, data);
+    }
+
+    private static Topology readLegacyTopology(final CuratorFramework curator, final String subscriptionId,
+                                               final byte[] data) throws Exception {
+        final String subscriptionPath = "/nakadi/subscriptions/" + subscriptionId;
+        final List<Partition> partitions = new ArrayList<>();
+        for (final String topic : curator.getChildren().forPath(subscriptionPath + "/topics")) {
+            for (final String partition : curator.getChildren().forPath(subscriptionPath + "/topics/" + topic)) {
+                partitions.add(deserializeLegacyNode(new Partition.PartitionKey(topic, partition),
+                        curator.getData().forPath(subscriptionPath + "/topics/" + topic + "/" + partition)));
+            }
         }
+        return new Topology(partitions.toArray(new Partition[partitions.size()]),
+                Integer.parseInt(new String(data, CHARSET)));
     }
 
     @Override
-    public void incrementTopology() {
+    public void updatePartitionsConfiguration(final Partition[] partitions) {
         try {
-            log.info("Incrementing topology version");
-            final Integer curVersion = Integer.parseInt(new String(curatorFramework.getData()
-                    .forPath(getSubscriptionPath("/topology")), CHARSET));
-            curatorFramework.setData().forPath(getSubscriptionPath("/topology"), String.valueOf(curVersion + 1)
-                    .getBytes(CHARSET));
+            updateTopology(topology -> partitions);
         } catch (final Exception e) {
             throw new NakadiRuntimeException(e);
         }
     }
 
+    /**
+     * Applies changes of partitions that are built from the current topology. Topology that is stored in the legacy
+     * format stays in it, while the feature of topology node is disabled, and it is moved to the topology node with
+     * the first update after the feature is enabled.
+     */
+    private void updateTopology(final Function<Topology, Partition[]> changesBuilder) throws Exception {
+        final Stat stat = new Stat();
+        final String topologyPath = getSubscriptionPath("/topology");
+        final byte[] data = curatorFramework.getData().storingStatIn(stat).forPath(topologyPath);
+        final Topology stored = Topology.deserialize(data);
+        final Topology topology = null != stored ? stored : readLegacyTopology(curatorFramework, subscriptionId, data);
+        final Partition[] changes = changesBuilder.apply(topology);
+        if (changes.length == 0) {
+            return;
+        }
+        final Topology updated = topology.withUpdatedPartitions(changes);
+        log.info("updating topology to version " + updated.getVersion() + ", changed partitions: "
+                + Arrays.toString(changes));
+        // Topology is updated under lock, version check is just a protection from writes without the lock
+        if (null == stored && !isTopologyNodeEnabled()) {
+            CuratorTransaction transaction = curatorFramework.inTransaction();
+            for (final Partition partition : changes) {
+                transaction = transaction.setData()
+                        .forPath(getPartitionPath(partition.getKey()), serializeLegacyNode(partition)).and();
+            }
+            transaction.setData().withVersion(stat.getVersion())
+                    .forPath(topologyPath, serializeLegacyVersion(updated)).and().commit();
+        } else {
+            curatorFramework.setData().withVersion(stat.getVersion()).forPath(topologyPath, updated.serialize());
+        }
+    }
+
     @Override
     public Partition[] listPartitions() {
         log.info("fetching partitions information");
         try {
-            final List<Partition> partitions = new ArrayList<>();
-            for (final String topic : curatorFramework.getChildren().forPath(getSubscriptionPath("/topics"))) {
-                for (final String partition : curatorFramework.getChildren().forPath(getSubscriptionPath("/topics/"
-                        + topic))) {
-                    final Partition.PartitionKey key = new Partition.PartitionKey(topic, partition);
-                    partitions.add(deserializeNode(key, curatorFramework.getData().forPath(getPartitionPath(key))));
-                }
-            }
-            return partitions.toArray(new Partition[partitions.size()]);
+            return readTopology(curatorFramework, subscriptionId, new Stat()).getPartitions();
         } catch (final Exception e) {
             throw new NakadiRuntimeException(e);
         }
@@ -246,17 +312,12 @@ public class CuratorZkSubscriptionClient implements ZkSubscriptionClient {
     @Override
     public ZKSubscription subscribeForOffsetChanges(final Partition.PartitionKey key, final Runnable commitListener) {
         log.info("subscribeForOffsetChanges");
-        return ChangeListener.forData(curatorFramework, getPartitionPath(key) + "/offset", commitListener);
+        return offsetRepository.subscribeForOffsetChanges(subscriptionId, key, commitListener);
     }
 
     @Override
     public long getOffset(final Partition.PartitionKey key) {
-        try {
-            return Long.parseLong(new String(curatorFramework.getData().forPath(getPartitionPath(key) + "/offset"),
-                    CHARSET));
-        } catch (final Exception e) {
-            throw new NakadiRuntimeException(e);
-        }
+        return offsetRepository.getOffset(subscriptionId, key);
     }
 
     @Override
@@ -283,22 +344,19 @@ public class CuratorZkSubscriptionClient implements ZkSubscriptionClient {
     @Override
     public void transfer(final String sessionId, final Collection<Partition.PartitionKey> partitions) {
         log.info("session " + sessionId + " releases partitions " + partitions);
-        boolean changed = false;
         try {
-            for (final Partition.PartitionKey pk : partitions) {
-                final Partition realPartition = deserializeNode(
-                        pk,
-                        curatorFramework.getData().forPath(getPartitionPath(pk)));
-                if (sessionId.equals(realPartition.getSession())
-                        && realPartition.getState() == Partition.State.REASSIGNING) {
-                    updatePartitionConfiguration(realPartition.toState(Partition.State.ASSIGNED,
-                            realPartition.getNextSession(), null));
-                    changed = true;
+            updateTopology(topology -> {
+                final List<Partition> changes = new ArrayList<>();
+                for (final Partition.PartitionKey pk : partitions) {
+                    final Partition realPartition = topology.getPartition(pk);
+                    if (null != realPartition && sessionId.equals(realPartition.getSession())
+                            && realPartition.getState() == Partition.State.REASSIGNING) {
+                        changes.add(realPartition.toState(
+                                Partition.State.ASSIGNED, realPartition.getNextSession(), null));
+                    }
                 }
-            }
-            if (changed) {
-                incrementTopology();
-            }
+                return changes.toArray(new Partition[changes.size()]);
+            });
         } catch (final Exception e) {
             throw new NakadiRuntimeException(e);
         }
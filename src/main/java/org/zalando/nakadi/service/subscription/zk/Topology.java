@@ -0,0 +1,134 @@
+package org.zalando.nakadi.service.subscription.zk;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.zalando.nakadi.service.subscription.model.Partition;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assignment of all the partitions of a subscription, stored in one zookeeper node
+ * /nakadi/subscriptions/{subscriptionId}/topology, so it is read and updated with one request. Every update
+ * increments version of the topology. Partitions are grouped by topic and session ids are stored once:
+ * <pre>
+ * {"version":3,"sessions":["s1","s2"],"topics":{"t1":[["0",0,-1,"ASSIGNED"],["1",0,1,"REASSIGNING"]]}}
+ * </pre>
+ * where numbers are indexes of session and next session in the list of sessions, -1 for no session.
+ */
+public class Topology {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int NO_SESSION = -1;
+
+    private final Partition[] partitions;
+    private final int version;
+
+    public Topology(final Partition[] partitions, final int version) {
+        this.partitions = partitions;
+        this.version = version;
+    }
+
+    public Partition[] getPartitions() {
+        return partitions;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    @Nullable
+    public Partition getPartition(final Partition.PartitionKey key) {
+        for (final Partition partition : partitions) {
+            if (partition.getKey().equals(key)) {
+                return partition;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return topology with the next version, where partitions are replaced with the changed ones
+     */
+    public Topology withUpdatedPartitions(final Partition[] changes) {
+        final Map<Partition.PartitionKey, Partition> updated = new LinkedHashMap<>();
+        Arrays.stream(partitions).forEach(partition -> updated.put(partition.getKey(), partition));
+        Arrays.stream(changes).forEach(partition -> updated.put(partition.getKey(), partition));
+        return new Topology(updated.values().toArray(new Partition[updated.size()]), version + 1);
+    }
+
+    public byte[] serialize() {
+        final Map<String, Integer> sessionIndexes = new HashMap<>();
+        final ObjectNode root = MAPPER.createObjectNode();
+        root.put("version", version);
+        final ArrayNode sessions = root.putArray("sessions");
+        final ObjectNode topics = root.putObject("topics");
+        for (final Partition partition : partitions) {
+            final ArrayNode topic = topics.has(partition.getKey().getTopic()) ?
+                    (ArrayNode) topics.get(partition.getKey().getTopic()) :
+                    topics.putArray(partition.getKey().getTopic());
+            topic.addArray()
+                    .add(partition.getKey().getPartition())
+                    .add(indexOf(partition.getSession(), sessionIndexes, sessions))
+                    .add(indexOf(partition.getNextSession(), sessionIndexes, sessions))
+                    .add(partition.getState().name());
+        }
+        try {
+            return MAPPER.writeValueAsBytes(root);
+        } catch (final IOException e) {
+            throw new IllegalStateException("Failed to serialize topology", e);
+        }
+    }
+
+    /**
+     * @return topology or null if the node contains only version of topology, as it was before partitions were
+     * moved to the node
+     */
+    @Nullable
+    public static Topology deserialize(final byte[] data) throws IOException {
+        final JsonNode root = MAPPER.readTree(data);
+        if (null == root || !root.isObject()) {
+            return null;
+        }
+        final List<String> sessions = new ArrayList<>();
+        root.get("sessions").forEach(session -> sessions.add(session.asText()));
+        final List<Partition> partitions = new ArrayList<>();
+        final Iterator<Map.Entry<String, JsonNode>> topics = root.get("topics").fields();
+        while (topics.hasNext()) {
+            final Map.Entry<String, JsonNode> topic = topics.next();
+            for (final JsonNode partition : topic.getValue()) {
+                partitions.add(new Partition(
+                        new Partition.PartitionKey(topic.getKey(), partition.get(0).asText()),
+                        sessionAt(sessions, partition.get(1).asInt()),
+                        sessionAt(sessions, partition.get(2).asInt()),
+                        Partition.State.valueOf(partition.get(3).asText())));
+            }
+        }
+        return new Topology(partitions.toArray(new Partition[partitions.size()]), root.get("version").asInt());
+    }
+
+    private static int indexOf(@Nullable final String session, final Map<String, Integer> sessionIndexes,
+                               final ArrayNode sessions) {
+        if (null == session) {
+            return NO_SESSION;
+        }
+        return sessionIndexes.computeIfAbsent(session, s -> {
+            sessions.add(s);
+            return sessions.size() - 1;
+        });
+    }
+
+    @Nullable
+    private static String sessionAt(final List<String> sessions, final int index) {
+        return NO_SESSION == index ? null : sessions.get(index);
+    }
+}
@@ -46,19 +46,9 @@ public interface ZkSubscriptionClient {
      * nakadi
      * - {subscription_id}
      * |- state: INITIALIZED
-     * |- event-types:
-     * ||- et1:
-     * |||- partitions:
-     * || |- 0: {session: null, next_session: null, state: UNASSIGNED}
-     * || ||- offset: {OFFSET}
-     * || |- 1: {session: null, next_session: null, state: UNASSIGNED}
-     * ||  |- offset: {OFFSET}
-     * ||- et2:
-     * | |-partitions:
-     * |  |- 0: {session: null, next_session: null, state: UNASSIGNED}
-     * |  ||- offset: {OFFSET}
-     * |  |- 1: {session: null, next_session: null, state: UNASSIGNED}
-     * |   |- offset: {OFFSET}
+     * |- sessions:
+     * |- topology: all partitions in state UNASSIGNED, version 0 (see {@link Topology})
+     * Offsets of partitions are stored by {@link org.zalando.nakadi.repository.SubscriptionOffsetRepository}.
      *
      * @param partitions Data to use for subscription filling.
      */
@@ -66,15 +56,10 @@ public interface ZkSubscriptionClient {
 
 
     /**
-     * Updates specified partition in zk.
-     *
-     */
-    void updatePartitionConfiguration(Partition partition);
-
-    /**
-     * Increments value in /nakadi/subscriptions/{subscriptionId}/topology_version
+     * Updates specified partitions in /nakadi/subscriptions/{subscriptionId}/topology and increments version of the
+     * topology, with one write.
      */
-    void incrementTopology();
+    void updatePartitionsConfiguration(Partition[] partitions);
 
 
     /**
@@ -85,7 +70,7 @@ public interface ZkSubscriptionClient {
     Session[] listSessions();
 
     /**
-     * List partitions
+     * List partitions, they are read with one request from topology node.
      *
      * @return list of partitions related to this subscription.
      */
@@ -1,16 +1,24 @@
 package org.zalando.nakadi.service.subscription.zk;
 
+import org.zalando.nakadi.repository.SubscriptionOffsetRepository;
 import org.zalando.nakadi.repository.zookeeper.ZooKeeperHolder;
+import org.zalando.nakadi.util.FeatureToggleService;
 
 public class ZkSubscriptionClientFactory {
 
     private final ZooKeeperHolder zkHolder;
+    private final SubscriptionOffsetRepository offsetRepository;
+    private final FeatureToggleService featureToggleService;
 
-    public ZkSubscriptionClientFactory(final ZooKeeperHolder zkHolder) {
+    public ZkSubscriptionClientFactory(final ZooKeeperHolder zkHolder,
+                                       final SubscriptionOffsetRepository offsetRepository,
+                                       final FeatureToggleService featureToggleService) {
         this.zkHolder = zkHolder;
+        this.offsetRepository = offsetRepository;
+        this.featureToggleService = featureToggleService;
     }
 
     public ZkSubscriptionClient createZkSubscriptionClient(final String subscriptionId) {
-        return new CuratorZkSubscriptionClient(subscriptionId, zkHolder.get());
+        return new CuratorZkSubscriptionClient(subscriptionId, zkHolder.get(), offsetRepository, featureToggleService);
     }
 }
@@ -30,7 +30,8 @@ public interface FeatureToggleService {
         CHECK_PARTITIONS_KEYS("check_partitions_keys"),
         CHECK_OWNING_APPLICATION("check_owning_application"),
         LIMIT_CONSUMERS_NUMBER("limit_consumers_number"),
-        ZERO_PADDED_OFFSETS("zero_padded_offsets");
+        ZERO_PADDED_OFFSETS("zero_padded_offsets"),
+        SUBSCRIPTION_TOPOLOGY_NODE("subscription_topology_node");
 
         private final String id;
 
@@ -0,0 +1,71 @@
+package org.zalando.nakadi.view;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import javax.annotation.concurrent.Immutable;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Range of events of one partition to export. Start offset is not inclusive, the same as for cursors, end offset is
+ * inclusive.
+ */
+@Immutable
+public class ExportRange {
+
+    @NotNull
+    private final String partition;
+
+    @NotNull
+    private final String start;
+
+    @NotNull
+    private final String end;
+
+    public ExportRange(@JsonProperty("partition") final String partition,
+                       @JsonProperty("start") final String start,
+                       @JsonProperty("end") final String end) {
+        this.partition = partition;
+        this.start = start;
+        this.end = end;
+    }
+
+    public String getPartition() {
+        return partition;
+    }
+
+    public String getStart() {
+        return start;
+    }
+
+    public String getEnd() {
+        return end;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final ExportRange that = (ExportRange) o;
+        return partition.equals(that.partition) && start.equals(that.start) && end.equals(that.end);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = partition.hashCode();
+        result = 31 * result + start.hashCode();
+        result = 31 * result + end.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "ExportRange{" +
+                "partition='" + partition + '\'' +
+                ", start='" + start + '\'' +
+                ", end='" + end + '\'' +
+                '}';
+    }
+}
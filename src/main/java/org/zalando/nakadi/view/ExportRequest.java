@@ -0,0 +1,37 @@
+package org.zalando.nakadi.view;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.validation.Valid;
+
+/**
+ * Export is requested either with ranges of partitions or with continuation token of interrupted export.
+ */
+@Immutable
+public class ExportRequest {
+
+    @Nullable
+    @Valid
+    private final List<ExportRange> ranges;
+
+    @Nullable
+    private final String continuationToken;
+
+    public ExportRequest(@Nullable @JsonProperty("ranges") final List<ExportRange> ranges,
+                         @Nullable @JsonProperty("continuation_token") final String continuationToken) {
+        this.ranges = ranges;
+        this.continuationToken = continuationToken;
+    }
+
+    @Nullable
+    public List<ExportRange> getRanges() {
+        return ranges;
+    }
+
+    @Nullable
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+}
@@ -0,0 +1,69 @@
+package org.zalando.nakadi.view;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import java.util.List;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import org.zalando.nakadi.domain.BatchItemResponse;
+import org.zalando.nakadi.domain.EventPublishingStatus;
+import org.zalando.nakadi.domain.EventPublishingStep;
+
+/**
+ * Acknowledgement of a micro-batch of publishing stream. Micro-batches are numbered from 0 and contain consecutive
+ * events of the stream, so the client can match them with the events that were sent.
+ */
+@Immutable
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PublishingAck {
+
+    private final long batch;
+    private final int count;
+    private final EventPublishingStatus publishingStatus;
+    @Nullable
+    private final EventPublishingStep step;
+    @Nullable
+    private final String detail;
+    @Nullable
+    private final List<BatchItemResponse> items;
+
+    public PublishingAck(final long batch, final int count, final EventPublishingStatus publishingStatus,
+                         @Nullable final EventPublishingStep step, @Nullable final String detail,
+                         @Nullable final List<BatchItemResponse> items) {
+        this.batch = batch;
+        this.count = count;
+        this.publishingStatus = publishingStatus;
+        this.step = step;
+        this.detail = detail;
+        this.items = items;
+    }
+
+    public long getBatch() {
+        return batch;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public EventPublishingStatus getPublishingStatus() {
+        return publishingStatus;
+    }
+
+    @Nullable
+    public EventPublishingStep getStep() {
+        return step;
+    }
+
+    @Nullable
+    public String getDetail() {
+        return detail;
+    }
+
+    /**
+     * @return responses of items of the micro-batch, present only if micro-batch was not submitted completely
+     */
+    @Nullable
+    public List<BatchItemResponse> getItems() {
+        return items;
+    }
+}
@@ -7,11 +7,14 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
 import org.springframework.http.converter.StringHttpMessageConverter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.zalando.nakadi.config.JsonConfig;
+import org.zalando.nakadi.config.NakadiSettings;
 import org.zalando.nakadi.config.SecuritySettings;
 import org.zalando.nakadi.domain.BatchItemResponse;
 import org.zalando.nakadi.domain.EventPublishResult;
@@ -26,11 +29,16 @@ import org.zalando.nakadi.security.Client;
 import org.zalando.nakadi.security.ClientResolver;
 import org.zalando.nakadi.service.EventPublisher;
 import org.zalando.nakadi.service.BlacklistService;
+import org.zalando.nakadi.service.StreamingEventPublisher;
 import org.zalando.nakadi.util.FeatureToggleService;
 import org.zalando.nakadi.utils.JsonTestHelper;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -64,6 +72,7 @@ public class EventPublishingControllerTest {
     private MockMvc mockMvc;
     private EventTypeMetricRegistry eventTypeMetricRegistry;
     private BlacklistService blacklistService;
+    private EventPublishingController controller;
 
     @Before
     public void setUp() throws Exception {
@@ -74,10 +83,12 @@ public class EventPublishingControllerTest {
         featureToggleService = mock(FeatureToggleService.class);
         settings = mock(SecuritySettings.class);
         blacklistService = Mockito.mock(BlacklistService.class);
+        final NakadiSettings nakadiSettings = mock(NakadiSettings.class);
+        Mockito.when(nakadiSettings.getEventMaxBytes()).thenReturn(1000000L);
         Mockito.when(blacklistService.isProductionBlocked(any(), any())).thenReturn(false);
 
-        final EventPublishingController controller =
-                new EventPublishingController(publisher, eventTypeMetricRegistry, blacklistService);
+        controller = new EventPublishingController(publisher, eventTypeMetricRegistry, blacklistService,
+                new StreamingEventPublisher(publisher, objectMapper, nakadiSettings, 2, 1000000), objectMapper);
 
         final MappingJackson2HttpMessageConverter jackson2HttpMessageConverter
                 = new MappingJackson2HttpMessageConverter(objectMapper);
@@ -180,6 +191,54 @@ public class EventPublishingControllerTest {
         assertThat(eventTypeMetrics.getResponseCount(500), equalTo(1L));
     }
 
+    @Test
+    public void whenEventsOfSeveralEventTypesArePublishedThenResponsesAreGroupedByEventType() throws Exception {
+        final Map<String, EventPublishResult> results = new HashMap<>();
+        results.put("et1", new EventPublishResult(SUBMITTED, null, submittedResponses(1)));
+        results.put("et2", new EventPublishResult(ABORTED, VALIDATING, responses()));
+        Mockito.doReturn(results).when(publisher).publishMultiple(any(), any(Client.class));
+
+        final Map<String, List<BatchItemResponse>> expected = new HashMap<>();
+        expected.put("et1", submittedResponses(1));
+        expected.put("et2", responses());
+        mockMvc.perform(post("/events")
+                .contentType(APPLICATION_JSON)
+                .content("{\"et1\":" + EVENT_BATCH + ",\"et2\":" + EVENT_BATCH + "}"))
+                .andExpect(status().isMultiStatus())
+                .andExpect(content().string(jsonHelper.matchesObject(expected)));
+
+        assertThat(eventTypeMetricRegistry.metricsFor("et1").getResponseCount(200), equalTo(1L));
+        assertThat(eventTypeMetricRegistry.metricsFor("et2").getResponseCount(422), equalTo(1L));
+    }
+
+    @Test
+    public void whenEventsOfSeveralEventTypesAreNotJsonObjectThen400() throws Exception {
+        mockMvc.perform(post("/events").contentType(APPLICATION_JSON).content(EVENT_BATCH))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void whenEventsAreStreamedThenMicroBatchesAreAcknowledged() throws Exception {
+        Mockito.doReturn(new EventPublishResult(SUBMITTED, null, submittedResponses(2)))
+                .doReturn(new EventPublishResult(SUBMITTED, null, submittedResponses(1)))
+                .when(publisher)
+                .publish(any(String.class), eq(TOPIC), any(Client.class));
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setContent("{\"a\":1}\n{\"a\":2}\n\n{\"a\":3}\n".getBytes(StandardCharsets.UTF_8));
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        controller.postEventStream(TOPIC, request, response, mock(Client.class)).writeTo(out);
+
+        assertThat(response.getStatus(), equalTo(200));
+        assertThat(out.toString(), equalTo(
+                "{\"batch\":0,\"count\":2,\"publishing_status\":\"submitted\"}\n" +
+                        "{\"batch\":1,\"count\":1,\"publishing_status\":\"submitted\"}\n"));
+        Mockito.verify(publisher).publish(eq("[{\"a\":1},{\"a\":2}]"), eq(TOPIC), any(Client.class));
+        Mockito.verify(publisher).publish(eq("[{\"a\":3}]"), eq(TOPIC), any(Client.class));
+        assertThat(eventTypeMetricRegistry.metricsFor(TOPIC).getResponseCount(200), equalTo(1L));
+    }
+
     private List<BatchItemResponse> responses() {
         final BatchItemResponse response = new BatchItemResponse();
         response.setPublishingStatus(ABORTED);
@@ -12,6 +12,7 @@ import java.net.UnknownHostException;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
@@ -30,7 +31,9 @@ import org.springframework.http.converter.json.MappingJackson2HttpMessageConvert
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.zalando.nakadi.config.JsonConfig;
+import org.zalando.nakadi.config.NakadiSettings;
 import org.zalando.nakadi.config.SecuritySettings;
+import org.zalando.nakadi.domain.ConsumedEvent;
 import org.zalando.nakadi.domain.CursorError;
 import org.zalando.nakadi.domain.EventType;
 import org.zalando.nakadi.domain.NakadiCursor;
@@ -51,7 +54,10 @@ import org.zalando.nakadi.security.NakadiClient;
 import org.zalando.nakadi.service.BlacklistService;
 import org.zalando.nakadi.service.ClosedConnectionsCrutch;
 import org.zalando.nakadi.service.ConsumerLimitingService;
+import org.zalando.nakadi.service.ConsumptionQuotaService;
+import org.zalando.nakadi.service.ConsumptionThrottle;
 import org.zalando.nakadi.service.CursorConverter;
+import org.zalando.nakadi.service.EventFetcher;
 import org.zalando.nakadi.service.EventStream;
 import org.zalando.nakadi.service.EventStreamConfig;
 import org.zalando.nakadi.service.EventStreamFactory;
@@ -138,10 +144,16 @@ public class EventStreamControllerTest {
 
         featureToggleService = mock(FeatureToggleService.class);
 
+        final ConsumptionQuotaService consumptionQuotaService = mock(ConsumptionQuotaService.class);
+        when(consumptionQuotaService.getThrottle(any(), any())).thenReturn(ConsumptionThrottle.NONE);
+        final CursorConverter cursorConverter = new CursorConverter(featureToggleService);
+        final NakadiSettings nakadiSettings = mock(NakadiSettings.class);
+        when(nakadiSettings.getEventMaxBytes()).thenReturn(1000000L);
+
         controller = new EventStreamController(
                 eventTypeRepository, topicRepositoryMock, objectMapper, eventStreamFactoryMock, metricRegistry, crutch,
-                blacklistService, consumerLimitingService, featureToggleService,
-                new CursorConverter(featureToggleService));
+                blacklistService, consumerLimitingService, featureToggleService, cursorConverter,
+                new EventFetcher(topicRepositoryMock, cursorConverter, consumptionQuotaService, nakadiSettings));
 
         settings = mock(SecuritySettings.class);
 
@@ -491,17 +503,51 @@ public class EventStreamControllerTest {
     }
 
     protected StreamingResponseBody createStreamingResponseBody() throws IOException {
-        return controller.streamEvents(TEST_EVENT_TYPE_NAME, 0, 0, 0, 0, 0, null, requestMock, responseMock,
+        return controller.streamEvents(TEST_EVENT_TYPE_NAME, 0, null, 0, 0, null, 0, 0, null, null, null, requestMock,
+                responseMock, FULL_ACCESS_CLIENT);
+    }
+
+    @Test
+    public void whenFetchingEventsThenBatchPerPartitionIsReturned() throws Exception {
+        when(eventTypeRepository.findByName(TEST_EVENT_TYPE_NAME)).thenReturn(EVENT_TYPE);
+        final EventConsumer consumer = mock(EventConsumer.class);
+        when(consumer.readEvent(Mockito.anyLong()))
+                .thenReturn(Optional.of(new ConsumedEvent("{\"a\":1}", new NakadiCursor(TEST_TOPIC, "1", "5"))))
+                .thenReturn(Optional.empty());
+        when(topicRepositoryMock.createFetchConsumer(any(), Mockito.anyLong())).thenReturn(consumer);
+
+        final StreamingResponseBody responseBody = controller.fetchEvents(TEST_EVENT_TYPE_NAME, null, null, 100L,
+                "[{\"partition\":\"0\",\"offset\":\"3\"},{\"partition\":\"1\",\"offset\":\"4\"}]",
+                responseMock, FULL_ACCESS_CLIENT);
+
+        assertThat(responseToString(responseBody), equalTo("{\"items\":[" +
+                "{\"cursor\":{\"partition\":\"0\",\"offset\":\"3\"}}," +
+                "{\"cursor\":{\"partition\":\"1\",\"offset\":\"5\"},\"events\":[{\"a\":1}]}]}"));
+        verify(topicRepositoryMock).createFetchConsumer(eq(ImmutableList.of(
+                new NakadiCursor(TEST_TOPIC, "0", "3"), new NakadiCursor(TEST_TOPIC, "1", "4"))), eq(100L));
+        verify(consumer).close();
+        verify(topicRepositoryMock, times(0)).topicExists(any());
+    }
+
+    @Test
+    public void whenFetchWaitIsTooLongThenUnprocessableEntity() throws Exception {
+        when(eventTypeRepository.findByName(TEST_EVENT_TYPE_NAME)).thenReturn(EVENT_TYPE);
+
+        final StreamingResponseBody responseBody = controller.fetchEvents(TEST_EVENT_TYPE_NAME, null, null,
+                EventFetcher.MAX_WAIT_MILLIS + 1, "[{\"partition\":\"0\",\"offset\":\"3\"}]", responseMock,
                 FULL_ACCESS_CLIENT);
+
+        assertThat(responseToString(responseBody), jsonHelper.matchesObject(Problem.valueOf(UNPROCESSABLE_ENTITY,
+                "max_wait_ms should be between 0 and " + EventFetcher.MAX_WAIT_MILLIS)));
     }
 
     private StreamingResponseBody createStreamingResponseBody(final Client client) throws Exception {
-        return controller.streamEvents(TEST_EVENT_TYPE_NAME, 1, 2, 3, 4, 5, "[{\"partition\":\"0\",\"offset\":\"0\"}]",
-                requestMock, responseMock, client);
+        return controller.streamEvents(TEST_EVENT_TYPE_NAME, 1, null, 2, 3, null, 4, 5, null, null,
+                "[{\"partition\":\"0\",\"offset\":\"0\"}]", requestMock, responseMock, client);
     }
 
     private StreamingResponseBody createStreamingResponseBody(final String cursorsStr) throws Exception {
-        return controller.streamEvents(TEST_EVENT_TYPE_NAME, 1, 2, 3, 4, 5, cursorsStr,
+        return controller.streamEvents(TEST_EVENT_TYPE_NAME, 1, null, 2, 3, null, 4, 5, null, null, cursorsStr,
                 requestMock, responseMock, FULL_ACCESS_CLIENT);
     }
 
@@ -511,8 +557,9 @@ public class EventStreamControllerTest {
                                                               final Integer streamTimeout,
                                                               final Integer streamKeepAliveLimit,
                                                               final String cursorsStr) throws IOException {
-        return controller.streamEvents(TEST_EVENT_TYPE_NAME, batchLimit, streamLimit, batchTimeout, streamTimeout,
-                streamKeepAliveLimit, cursorsStr, requestMock, responseMock, FULL_ACCESS_CLIENT);
+        return controller.streamEvents(TEST_EVENT_TYPE_NAME, batchLimit, null, streamLimit, batchTimeout,
+                null, streamTimeout, streamKeepAliveLimit, null, null, cursorsStr, requestMock, responseMock,
+                FULL_ACCESS_CLIENT);
     }
 
 }
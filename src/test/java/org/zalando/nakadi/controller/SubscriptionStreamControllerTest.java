@@ -0,0 +1,184 @@
+package org.zalando.nakadi.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zalando.nakadi.config.JsonConfig;
+import org.zalando.nakadi.config.NakadiSettings;
+import org.zalando.nakadi.security.Client;
+import org.zalando.nakadi.service.BlacklistService;
+import org.zalando.nakadi.service.ClosedConnectionsCrutch;
+import org.zalando.nakadi.service.subscription.SubscriptionOutput;
+import org.zalando.nakadi.service.subscription.SubscriptionStreamer;
+import org.zalando.nakadi.service.subscription.SubscriptionStreamerFactory;
+import org.zalando.nakadi.util.FeatureToggleService;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SubscriptionStreamControllerTest {
+
+    private static final String SUBSCRIPTION_ID = "sid";
+
+    private final ObjectMapper objectMapper = new JsonConfig().jacksonObjectMapper();
+    private final SubscriptionStreamerFactory streamerFactory = mock(SubscriptionStreamerFactory.class);
+    private final BlacklistService blacklistService = mock(BlacklistService.class);
+    private final HttpServletRequest request = mock(HttpServletRequest.class);
+    private final HttpServletResponse response = mock(HttpServletResponse.class);
+    private final AsyncContext asyncContext = mock(AsyncContext.class);
+    private final NonBlockingOutputStream out = new NonBlockingOutputStream();
+    private final Client client = mock(Client.class);
+    private final AtomicBoolean connectionReady = new AtomicBoolean(true);
+    private final CompletableFuture<Void> streamFinished = new CompletableFuture<>();
+    private SubscriptionStreamController controller;
+    private SubscriptionOutput output;
+
+    @Before
+    public void setUp() throws Exception {
+        final FeatureToggleService featureToggleService = mock(FeatureToggleService.class);
+        when(featureToggleService.isFeatureEnabled(any())).thenReturn(true);
+        final ClosedConnectionsCrutch closedConnectionsCrutch = mock(ClosedConnectionsCrutch.class);
+        when(closedConnectionsCrutch.listenForConnectionClose(request)).thenReturn(connectionReady);
+        when(client.getClientId()).thenReturn("app");
+        when(request.startAsync(request, response)).thenReturn(asyncContext);
+        when(response.getOutputStream()).thenReturn(out);
+
+        final SubscriptionStreamer streamer = mock(SubscriptionStreamer.class);
+        when(streamer.stream()).thenReturn(streamFinished);
+        when(streamerFactory.build(eq(SUBSCRIPTION_ID), any(), any(), any(), any())).thenAnswer(invocation -> {
+            output = (SubscriptionOutput) invocation.getArguments()[2];
+            return streamer;
+        });
+
+        controller = new SubscriptionStreamController(streamerFactory, featureToggleService, objectMapper,
+                closedConnectionsCrutch, mock(NakadiSettings.class), blacklistService);
+    }
+
+    @Test
+    public void whenStreamingIsStartedThenRequestIsReleasedAndCompletedWhenStreamIsFinished() throws Exception {
+        streamEvents();
+
+        // Stream is running, while the calling thread is already released
+        verify(asyncContext, never()).complete();
+        output.onInitialized("stream-id");
+        output.streamData(bytes("batch1"));
+        verify(response).setStatus(200);
+        verify(response).setHeader("X-Nakadi-StreamId", "stream-id");
+        Assert.assertEquals("batch1", out.written());
+
+        streamFinished.complete(null);
+        verify(asyncContext).complete();
+    }
+
+    @Test
+    public void whenClientIsNotReadyThenDataIsWrittenOnceItIsReady() throws Exception {
+        streamEvents();
+        output.onInitialized("stream-id");
+
+        out.ready = false;
+        output.streamData(bytes("batch1"));
+        output.streamData(bytes("batch2"));
+        streamFinished.complete(null);
+        Assert.assertEquals("", out.written());
+        verify(asyncContext, never()).complete();
+
+        out.becomeReady();
+        Assert.assertEquals("batch1batch2", out.written());
+        verify(asyncContext).complete();
+    }
+
+    @Test
+    public void whenWritingToClientFailsThenStreamIsStopped() throws Exception {
+        streamEvents();
+        output.onInitialized("stream-id");
+
+        out.listener.onError(new IOException("Connection reset"));
+        Assert.assertFalse(connectionReady.get());
+        try {
+            output.streamData(bytes("batch1"));
+            Assert.fail("Write to the failed connection is expected to fail");
+        } catch (final IOException ignore) {
+        }
+
+        streamFinished.complete(null);
+        verify(asyncContext).complete();
+    }
+
+    @Test
+    public void whenConsumptionIsBlockedThenForbiddenIsWrittenAndRequestIsCompleted() throws Exception {
+        when(blacklistService.isSubscriptionConsumptionBlocked(eq(SUBSCRIPTION_ID), anyString())).thenReturn(true);
+
+        streamEvents();
+
+        verify(response).setStatus(403);
+        Assert.assertTrue(out.written().contains("Application or event type is blocked"));
+        verify(asyncContext).complete();
+        verify(streamerFactory, never()).build(any(), any(), any(), any(), any());
+    }
+
+    private void streamEvents() throws IOException {
+        controller.streamEvents(SUBSCRIPTION_ID, 10, 1, 0, null, 30, null, null, null, null, null,
+                request, response, client);
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static class NonBlockingOutputStream extends ServletOutputStream {
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        private boolean ready = true;
+        private WriteListener listener;
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public void setWriteListener(final WriteListener writeListener) {
+            this.listener = writeListener;
+        }
+
+        @Override
+        public void write(final int b) {
+            if (!ready) {
+                throw new IllegalStateException("Written while not ready");
+            }
+            data.write(b);
+        }
+
+        @Override
+        public void flush() {
+            if (!ready) {
+                throw new IllegalStateException("Flushed while not ready");
+            }
+        }
+
+        void becomeReady() throws IOException {
+            ready = true;
+            listener.onWritePossible();
+        }
+
+        String written() {
+            return new String(data.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.zalando.nakadi.repository.kafka;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptivePollTimeoutTest {
+
+    @Test
+    public void whenPollsAreEmptyThenTimeoutGrowsUpToMaximum() {
+        final AdaptivePollTimeout timeout = new AdaptivePollTimeout(100, 1000);
+        Assert.assertEquals(100, timeout.next(Long.MAX_VALUE));
+        timeout.onPoll(0);
+        Assert.assertEquals(200, timeout.next(Long.MAX_VALUE));
+        timeout.onPoll(0);
+        timeout.onPoll(0);
+        Assert.assertEquals(800, timeout.next(Long.MAX_VALUE));
+        timeout.onPoll(0);
+        Assert.assertEquals(1000, timeout.next(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void whenEventsArePolledThenTimeoutIsReset() {
+        final AdaptivePollTimeout timeout = new AdaptivePollTimeout(100, 1000);
+        timeout.onPoll(0);
+        timeout.onPoll(0);
+        timeout.onPoll(5);
+        Assert.assertEquals(100, timeout.next(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void whenDeadlineIsCloseThenTimeoutIsLimitedByIt() {
+        final AdaptivePollTimeout timeout = new AdaptivePollTimeout(100, 1000);
+        Assert.assertEquals(30, timeout.next(30));
+        Assert.assertEquals(0, timeout.next(-10));
+    }
+
+    @Test
+    public void whenMaximumIsLowerThanBaseThenTimeoutIsNotChanged() {
+        final AdaptivePollTimeout timeout = new AdaptivePollTimeout(100, 0);
+        timeout.onPoll(0);
+        Assert.assertEquals(100, timeout.next(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void whenStreamIsIdleThenItWakesUpRarely() {
+        // Idle stream with default flush timeout of 30 seconds
+        Assert.assertEquals(300, idlePolls(new AdaptivePollTimeout(100, 100), 30_000));
+        Assert.assertTrue(idlePolls(new AdaptivePollTimeout(100, 1000), 30_000) <= 35);
+    }
+
+    private static int idlePolls(final AdaptivePollTimeout timeout, final long flushMillis) {
+        int polls = 0;
+        for (long now = 0; now < flushMillis; ++polls) {
+            now += timeout.next(flushMillis - now);
+            timeout.onPoll(0);
+        }
+        return polls;
+    }
+}
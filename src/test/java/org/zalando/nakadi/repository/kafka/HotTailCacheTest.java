@@ -0,0 +1,127 @@
+package org.zalando.nakadi.repository.kafka;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Assert;
+import org.junit.Test;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class HotTailCacheTest {
+
+    private static final TopicPartition TP0 = new TopicPartition("topic", 0);
+    private static final TopicPartition TP1 = new TopicPartition("topic", 1);
+
+    private static List<ConsumerRecord<String, String>> records(final TopicPartition tp, final long from,
+                                                               final long to) {
+        return LongStream.range(from, to)
+                .mapToObj(offset -> new ConsumerRecord<>(tp.topic(), tp.partition(), offset, (String) null,
+                        "event-" + offset))
+                .collect(Collectors.toList());
+    }
+
+    private static List<Long> offsets(final List<ConsumerRecord<String, String>> records) {
+        return records.stream().map(ConsumerRecord::offset).collect(Collectors.toList());
+    }
+
+    private static List<Long> range(final long from, final long to) {
+        return LongStream.range(from, to).boxed().collect(Collectors.toList());
+    }
+
+    @Test
+    public void whenOffsetIsResidentThenEventsAreReturned() {
+        final HotTailCache cache = new HotTailCache(1024 * 1024, 1024, new MetricRegistry());
+        cache.append(TP0, records(TP0, 10, 20));
+
+        final List<ConsumerRecord<String, String>> result = cache.read(TP0, 15);
+        Assert.assertEquals(range(15, 20), offsets(result));
+        Assert.assertEquals("event-15", result.get(0).value());
+
+        Assert.assertTrue(cache.read(TP0, 9).isEmpty());
+        Assert.assertTrue(cache.read(TP0, 20).isEmpty());
+        Assert.assertTrue(cache.read(TP1, 15).isEmpty());
+    }
+
+    @Test
+    public void whenGapInOffsetsThenCacheStartsFromScratch() {
+        final HotTailCache cache = new HotTailCache(1024 * 1024, 1024, new MetricRegistry());
+        cache.append(TP0, records(TP0, 10, 20));
+        cache.append(TP0, records(TP0, 30, 35));
+
+        Assert.assertTrue(cache.read(TP0, 15).isEmpty());
+        Assert.assertEquals(range(30, 35), offsets(cache.read(TP0, 30)));
+    }
+
+    @Test
+    public void whenOldDataAppendedThenItIsIgnored() {
+        final HotTailCache cache = new HotTailCache(1024 * 1024, 1024, new MetricRegistry());
+        cache.append(TP0, records(TP0, 10, 20));
+        cache.append(TP0, records(TP0, 0, 15));
+        cache.append(TP0, records(TP0, 15, 25));
+
+        Assert.assertEquals(range(10, 25), offsets(cache.read(TP0, 10)));
+    }
+
+    @Test
+    public void whenPartitionBudgetExceededThenOldestEventsAreEvicted() {
+        // 4 chunks of 64 bytes each, every event takes 8 bytes
+        final HotTailCache cache = new HotTailCache(1024 * 1024, 256, new MetricRegistry());
+        cache.append(TP0, records(TP0, 0, 100));
+
+        Assert.assertTrue(cache.read(TP0, 0).isEmpty());
+        final List<ConsumerRecord<String, String>> tail = cache.read(TP0, 80);
+        Assert.assertEquals(range(80, 100), offsets(tail));
+        Assert.assertTrue(cache.getAllocatedBytes() <= 5 * 64);
+    }
+
+    @Test
+    public void whenNodeBudgetExceededThenLeastRecentlyUsedPartitionIsEvicted() throws InterruptedException {
+        // 2 chunks of 64 bytes for the whole node
+        final HotTailCache cache = new HotTailCache(128, 256, new MetricRegistry());
+        cache.append(TP0, records(TP0, 0, 8));
+        Thread.sleep(5);
+        cache.append(TP1, records(TP1, 0, 8));
+        Thread.sleep(5);
+        cache.append(TP1, records(TP1, 8, 16));
+
+        Assert.assertEquals(128, cache.getAllocatedBytes());
+        Assert.assertTrue(cache.read(TP0, 0).isEmpty());
+        Assert.assertEquals(range(0, 16), offsets(cache.read(TP1, 0)));
+    }
+
+    @Test
+    public void whenDataIsCachedThenConsumerServesFromCacheAndSeeksKafka() {
+        final HotTailCache cache = new HotTailCache(1024 * 1024, 1024, new MetricRegistry());
+        cache.append(TP0, records(TP0, 10, 20));
+
+        final Consumer<String, String> kafkaConsumer = mock(Consumer.class);
+        when(kafkaConsumer.assignment()).thenReturn(ImmutableSet.of(TP0, TP1));
+        when(kafkaConsumer.position(TP0)).thenReturn(12L);
+        when(kafkaConsumer.position(TP1)).thenReturn(0L);
+        when(kafkaConsumer.poll(anyLong())).thenReturn(new ConsumerRecords<>(ImmutableMap.of(
+                TP0, records(TP0, 20, 22),
+                TP1, records(TP1, 0, 3))));
+
+        final ConsumerRecords<String, String> result =
+                new CachingConsumer(kafkaConsumer, Collections.singletonList(cache)).poll(100);
+
+        verify(kafkaConsumer).seek(TP0, 20L);
+        verify(kafkaConsumer).poll(0L);
+        Assert.assertEquals(range(12, 22), offsets(result.records(TP0)));
+        Assert.assertEquals(range(0, 3), offsets(result.records(TP1)));
+        // Data read from kafka is cached as well
+        Assert.assertEquals(range(0, 3), offsets(cache.read(TP1, 0)));
+        Assert.assertEquals(range(10, 22), offsets(cache.read(TP0, 10)));
+    }
+}
@@ -0,0 +1,105 @@
+package org.zalando.nakadi.repository.kafka;
+
+import com.codahale.metrics.MetricRegistry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Assert;
+import org.junit.Test;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class KafkaConsumerPoolTest {
+
+    private final List<Consumer<String, String>> created = new ArrayList<>();
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    @SuppressWarnings("unchecked")
+    private KafkaConsumerPool createPool(final int minIdle, final int maxIdle, final long maxIdleTimeMs) {
+        return new KafkaConsumerPool(() -> {
+            final Consumer<String, String> consumer = mock(Consumer.class);
+            created.add(consumer);
+            return consumer;
+        }, minIdle, maxIdle, maxIdleTimeMs, metricRegistry);
+    }
+
+    @Test
+    public void whenConsumerClosedThenItIsResetAndReused() {
+        final KafkaConsumerPool pool = createPool(0, 2, 60000);
+
+        final Consumer<String, String> first = pool.take();
+        first.assign(Collections.singletonList(new TopicPartition("topic", 0)));
+        first.close();
+        final Consumer<String, String> second = pool.take();
+        second.position(new TopicPartition("topic", 0));
+
+        Assert.assertEquals(1, created.size());
+        verify(created.get(0)).unsubscribe();
+        verify(created.get(0), never()).close();
+        Assert.assertEquals(2, metricRegistry.timer("nakadi.kafka.consumer_pool.wait").getCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void whenConsumerReturnedToPoolThenItCanNotBeUsed() {
+        final KafkaConsumerPool pool = createPool(0, 2, 60000);
+        final Consumer<String, String> consumer = pool.take();
+        consumer.close();
+        consumer.poll(0);
+    }
+
+    @Test
+    public void whenTooManyIdleConsumersThenTheyAreClosed() {
+        final KafkaConsumerPool pool = createPool(0, 1, 60000);
+        final Consumer<String, String> first = pool.take();
+        final Consumer<String, String> second = pool.take();
+        first.close();
+        second.close();
+
+        Assert.assertEquals(1, pool.getIdleCount());
+        verify(created.get(0), never()).close();
+        verify(created.get(1)).close();
+    }
+
+    @Test
+    public void whenConsumerWasWokenUpThenItIsNotReused() {
+        final KafkaConsumerPool pool = createPool(0, 2, 60000);
+        final Consumer<String, String> consumer = pool.take();
+        consumer.wakeup();
+        consumer.close();
+
+        Assert.assertEquals(0, pool.getIdleCount());
+        verify(created.get(0)).close();
+    }
+
+    @Test
+    public void whenMaintainedThenIdleConsumersAreConnectedAndExpired() throws InterruptedException {
+        final KafkaConsumerPool pool = createPool(2, 4, 50);
+        pool.maintain();
+
+        Assert.assertEquals(2, pool.getIdleCount());
+        created.forEach(consumer -> verify(consumer).listTopics());
+
+        Thread.sleep(100);
+        pool.maintain();
+        Assert.assertEquals(2, pool.getIdleCount());
+        Assert.assertEquals(4, created.size());
+        verify(created.get(0)).close();
+        verify(created.get(1)).close();
+    }
+
+    @Test(timeout = 10000)
+    public void whenConsumerIsLeakedThenItIsClosed() throws InterruptedException {
+        final KafkaConsumerPool pool = createPool(0, 2, 60000);
+        pool.take();
+
+        while (metricRegistry.meter("nakadi.kafka.consumer_pool.leaked").getCount() == 0) {
+            System.gc();
+            Thread.sleep(10);
+            pool.maintain();
+        }
+        verify(created.get(0)).close();
+    }
+}
@@ -14,7 +14,8 @@ public class KafkaFactoryTest {
     private static class FakeKafkaFactory extends KafkaFactory {
 
         public FakeKafkaFactory(final MetricRegistry metricRegistry) {
-            super(null, metricRegistry);
+            super(null, metricRegistry, Mockito.mock(HotTailCache.class), Mockito.mock(SegmentCache.class),
+                    0, 0, 0, 0, 0);
         }
 
         @Override
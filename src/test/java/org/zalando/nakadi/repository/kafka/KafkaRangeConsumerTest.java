@@ -0,0 +1,66 @@
+package org.zalando.nakadi.repository.kafka;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.Optional;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+import org.zalando.nakadi.domain.ConsumedEvent;
+import org.zalando.nakadi.domain.NakadiCursor;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class KafkaRangeConsumerTest {
+
+    private static final String TOPIC = "topic";
+    private static final TopicPartition TP0 = new TopicPartition(TOPIC, 0);
+    private static final TopicPartition TP1 = new TopicPartition(TOPIC, 1);
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void whenEndOfRangeIsReachedThenPartitionIsPausedAndRestIsDropped() {
+        final Consumer<String, String> kafkaConsumer = mock(Consumer.class);
+        when(kafkaConsumer.poll(anyLong())).thenReturn(new ConsumerRecords<>(ImmutableMap.of(
+                TP0, ImmutableList.of(record(TP0, 5), record(TP0, 6), record(TP0, 7)),
+                TP1, ImmutableList.of(record(TP1, 20)))));
+
+        final KafkaRangeConsumer consumer = new KafkaRangeConsumer(kafkaConsumer,
+                ImmutableList.of(new KafkaCursor(TOPIC, 0, 5), new KafkaCursor(TOPIC, 1, 20)),
+                ImmutableList.of(new KafkaCursor(TOPIC, 0, 6), new KafkaCursor(TOPIC, 1, 30)), 100);
+
+        verify(kafkaConsumer).seek(TP0, 5);
+        verify(kafkaConsumer).seek(TP1, 20);
+        assertThat(consumer.readEvent().map(e -> e.getPosition().getOffset()), equalTo(Optional.of("5")));
+        assertThat(consumer.readEvent().map(e -> e.getPosition().getOffset()), equalTo(Optional.of("6")));
+        assertThat(consumer.readEvent().map(ConsumedEvent::getPosition),
+                equalTo(Optional.of(new NakadiCursor(TOPIC, "1", "20"))));
+        verify(kafkaConsumer).pause(TP0);
+        verify(kafkaConsumer, never()).pause(TP1);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void whenRangeIsEmptyThenPartitionIsNotRead() {
+        final Consumer<String, String> kafkaConsumer = mock(Consumer.class);
+
+        final KafkaRangeConsumer consumer = new KafkaRangeConsumer(kafkaConsumer,
+                ImmutableList.of(new KafkaCursor(TOPIC, 0, 11)),
+                ImmutableList.of(new KafkaCursor(TOPIC, 0, 10)), 100);
+
+        verify(kafkaConsumer).assign(ImmutableList.of());
+        assertThat(consumer.readEvent(), equalTo(Optional.empty()));
+        verify(kafkaConsumer, never()).poll(anyLong());
+    }
+
+    private static ConsumerRecord<String, String> record(final TopicPartition tp, final long offset) {
+        return new ConsumerRecord<>(tp.topic(), tp.partition(), offset, "key", "event" + offset);
+    }
+}
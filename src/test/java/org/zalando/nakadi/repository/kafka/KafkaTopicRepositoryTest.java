@@ -1,14 +1,18 @@
 package org.zalando.nakadi.repository.kafka;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Future;
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.ExistsBuilder;
 import org.apache.curator.framework.api.GetChildrenBuilder;
 import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.producer.BufferExhaustedException;
@@ -19,6 +23,7 @@ import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.Node;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.zookeeper.data.Stat;
 import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mockito;
@@ -46,6 +51,8 @@ import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.anyVararg;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class KafkaTopicRepositoryTest {
@@ -309,6 +316,35 @@ public class KafkaTopicRepositoryTest {
                 .count() >= 1);
     }
 
+    @Test
+    public void whenBatchOfOneTopicFailsThenBatchesOfOtherTopicsAreSubmitted() throws Exception {
+        final BatchItem firstItem = new BatchItem("{}");
+        firstItem.setPartition("1");
+        final BatchItem secondItem = new BatchItem("{}");
+        secondItem.setPartition("1");
+        final Map<String, List<BatchItem>> batches = new HashMap<>();
+        batches.put(MY_TOPIC, ImmutableList.of(firstItem));
+        batches.put(ANOTHER_TOPIC, ImmutableList.of(secondItem));
+
+        when(kafkaProducer.partitionsFor(any())).thenAnswer(invocation -> ImmutableList.of(new PartitionInfo(
+                (String) invocation.getArguments()[0], 1, new Node(1, "host", 9091), null, null)));
+        when(kafkaProducer.send(any(), any())).thenAnswer(invocation -> {
+            final ProducerRecord record = (ProducerRecord) invocation.getArguments()[0];
+            final Callback callback = (Callback) invocation.getArguments()[1];
+            callback.onCompletion(null, ANOTHER_TOPIC.equals(record.topic()) ? new Exception() : null);
+            return null;
+        });
+
+        try {
+            kafkaTopicRepository.syncPostBatches(batches);
+            fail();
+        } catch (final EventPublishingException e) {
+            assertThat(firstItem.getResponse().getPublishingStatus(), equalTo(EventPublishingStatus.SUBMITTED));
+            assertThat(secondItem.getResponse().getPublishingStatus(), equalTo(EventPublishingStatus.FAILED));
+        }
+        verify(kafkaFactory, times(1)).takeProducer();
+    }
+
     private static Cursor cursor(final String partition, final String offset) {
         return new Cursor(partition, offset);
     }
@@ -317,6 +353,7 @@ public class KafkaTopicRepositoryTest {
         try {
             return new KafkaTopicRepository(createZooKeeperHolder(),
                     kafkaFactory,
+                    new KafkaWatermarks(kafkaFactory, 60000, new MetricRegistry()),
                     nakadiSettings,
                     kafkaSettings,
                     zookeeperSettings,
@@ -331,9 +368,17 @@ public class KafkaTopicRepositoryTest {
         final GetChildrenBuilder getChildrenBuilder = mock(GetChildrenBuilder.class);
         when(getChildrenBuilder.forPath("/brokers/topics")).thenReturn(allTopics());
 
+        // ExistsBuilder
+        final ExistsBuilder existsBuilder = mock(ExistsBuilder.class);
+        when(existsBuilder.forPath(anyString())).thenReturn(null);
+        for (final String topic : allTopics()) {
+            when(existsBuilder.forPath("/brokers/topics/" + topic)).thenReturn(new Stat());
+        }
+
         // Curator Framework
         final CuratorFramework curatorFramework = mock(CuratorFramework.class);
         when(curatorFramework.getChildren()).thenReturn(getChildrenBuilder);
+        when(curatorFramework.checkExists()).thenReturn(existsBuilder);
 
         // ZooKeeperHolder
         final ZooKeeperHolder zkHolder = mock(ZooKeeperHolder.class);
@@ -383,6 +428,7 @@ public class KafkaTopicRepositoryTest {
 
         when(kafkaFactory.getConsumer(KAFKA_CLIENT_ID)).thenReturn(consumer);
         when(kafkaFactory.getConsumer()).thenReturn(consumer);
+        when(kafkaFactory.takeConsumer()).thenReturn(consumer);
         when(kafkaFactory.takeProducer()).thenReturn(kafkaProducer);
 
         return kafkaFactory;
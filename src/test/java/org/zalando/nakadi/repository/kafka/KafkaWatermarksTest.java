@@ -0,0 +1,126 @@
+package org.zalando.nakadi.repository.kafka;
+
+import com.codahale.metrics.MetricRegistry;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zalando.nakadi.domain.PartitionStatistics;
+import org.zalando.nakadi.exceptions.ServiceUnavailableException;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class KafkaWatermarksTest {
+
+    private static final String TOPIC = "topic";
+
+    private final AtomicLong end = new AtomicLong(10);
+    private Consumer<String, String> consumer;
+    private KafkaFactory kafkaFactory;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        consumer = mock(Consumer.class);
+        when(consumer.partitionsFor(TOPIC)).thenReturn(Arrays.asList(
+                new PartitionInfo(TOPIC, 0, null, null, null),
+                new PartitionInfo(TOPIC, 1, null, null, null)));
+        final boolean[] atEnd = new boolean[1];
+        doAnswer(invocation -> atEnd[0] = false).when(consumer).seekToBeginning(anyVararg());
+        doAnswer(invocation -> atEnd[0] = true).when(consumer).seekToEnd(anyVararg());
+        when(consumer.position(any(TopicPartition.class))).then(invocation -> atEnd[0] ? end.get() : 0L);
+
+        kafkaFactory = mock(KafkaFactory.class);
+        when(kafkaFactory.takeConsumer()).thenReturn(consumer);
+    }
+
+    @Test
+    public void whenOffsetsAreFreshThenTheyAreNotReloaded() throws ServiceUnavailableException {
+        final KafkaWatermarks watermarks = new KafkaWatermarks(kafkaFactory, 60000, new MetricRegistry());
+
+        final List<PartitionStatistics> first = watermarks.getStatistics(Collections.singletonList(TOPIC), false);
+        end.set(20);
+        final List<PartitionStatistics> second = watermarks.getStatistics(Collections.singletonList(TOPIC), false);
+
+        Assert.assertEquals(2, first.size());
+        Assert.assertEquals("9", second.get(0).getLast().getOffset());
+        verify(kafkaFactory, times(1)).takeConsumer();
+        verify(consumer, times(1)).close();
+        verify(consumer, times(1)).partitionsFor(TOPIC);
+        verify(consumer, times(4)).position(any(TopicPartition.class));
+    }
+
+    @Test
+    public void whenRefreshIsForcedThenOffsetsAreReloaded() throws ServiceUnavailableException {
+        final KafkaWatermarks watermarks = new KafkaWatermarks(kafkaFactory, 60000, new MetricRegistry());
+
+        watermarks.getStatistics(Collections.singletonList(TOPIC), false);
+        end.set(20);
+        final List<PartitionStatistics> refreshed = watermarks.getStatistics(Collections.singletonList(TOPIC), true);
+
+        Assert.assertEquals("19", refreshed.get(1).getLast().getOffset());
+        verify(kafkaFactory, times(2)).takeConsumer();
+        verify(consumer, times(2)).close();
+    }
+
+    @Test
+    public void whenKafkaFailsThenConsumerIsReturnedToPool() throws ServiceUnavailableException {
+        final KafkaWatermarks watermarks = new KafkaWatermarks(kafkaFactory, 0, new MetricRegistry());
+        doThrow(new KafkaException("test")).when(consumer).position(any(TopicPartition.class));
+
+        try {
+            watermarks.getStatistics(Collections.singletonList(TOPIC), false);
+            Assert.fail("ServiceUnavailableException expected");
+        } catch (final ServiceUnavailableException ignore) {
+        }
+        verify(consumer).close();
+
+        doReturn(5L).when(consumer).position(any(TopicPartition.class));
+        Assert.assertEquals(2, watermarks.getStatistics(Collections.singletonList(TOPIC), false).size());
+        verify(kafkaFactory, times(2)).takeConsumer();
+    }
+
+    @Test(timeout = 5000)
+    @SuppressWarnings("unchecked")
+    public void whenOffsetsAreLoadedThenOtherTopicsAreNotWaitingForThem() throws Exception {
+        final KafkaWatermarks watermarks = new KafkaWatermarks(kafkaFactory, 60000, new MetricRegistry());
+        final Consumer<String, String> blockedConsumer = mock(Consumer.class);
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(blockedConsumer.partitionsFor("blocked")).then(invocation -> {
+            loading.countDown();
+            release.await();
+            return Collections.singletonList(new PartitionInfo("blocked", 0, null, null, null));
+        });
+        when(kafkaFactory.takeConsumer()).thenReturn(blockedConsumer, consumer);
+        final Thread blocked = new Thread(() -> {
+            try {
+                watermarks.getStatistics(Collections.singletonList("blocked"), false);
+            } catch (final ServiceUnavailableException ignore) {
+            }
+        });
+        blocked.start();
+        loading.await();
+
+        Assert.assertEquals(2, watermarks.getStatistics(Collections.singletonList(TOPIC), false).size());
+
+        release.countDown();
+        blocked.join();
+        verify(blockedConsumer).close();
+    }
+}
@@ -21,6 +21,7 @@ import static junit.framework.TestCase.fail;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasSize;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
@@ -136,6 +137,25 @@ public class NakadiKafkaConsumerTest {
             equalTo(POLL_TIMEOUT));
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void whenReadEventWithMaxWaitThenPollTimeoutIsAdaptedAndLimited() {
+        final KafkaConsumer<String, String> kafkaConsumerMock = mock(KafkaConsumer.class);
+        when(kafkaConsumerMock.poll(anyLong())).thenReturn(new ConsumerRecords<>(ImmutableMap.of()));
+        final NakadiKafkaConsumer consumer = new NakadiKafkaConsumer(kafkaConsumerMock, ImmutableList.of(),
+                new AdaptivePollTimeout(100, 400));
+
+        consumer.readEvent(20);
+        consumer.readEvent(500);
+        consumer.readEvent(500);
+        consumer.readEvent(-5);
+
+        verify(kafkaConsumerMock).poll(20);
+        verify(kafkaConsumerMock).poll(200);
+        verify(kafkaConsumerMock).poll(400);
+        verify(kafkaConsumerMock).poll(0);
+    }
+
     @Test
     @SuppressWarnings("unchecked")
     public void whenReadEventsThenNakadiException() {
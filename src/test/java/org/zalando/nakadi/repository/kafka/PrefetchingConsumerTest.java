@@ -0,0 +1,221 @@
+package org.zalando.nakadi.repository.kafka;
+
+import com.codahale.metrics.Meter;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PrefetchingConsumerTest {
+
+    private static final TopicPartition TP0 = new TopicPartition("topic", 0);
+    private static final TopicPartition TP1 = new TopicPartition("topic", 1);
+
+    private final AtomicLong fetches = new AtomicLong();
+    private final List<Consumer<String, String>> toClose = new ArrayList<>();
+
+    @After
+    public void closeConsumers() {
+        toClose.forEach(Consumer::close);
+    }
+
+    private PrefetchingConsumer prefetch(final Consumer<String, String> consumer, final long maxBytes) {
+        final PrefetchingConsumer result = new PrefetchingConsumer(consumer, maxBytes, Thread::new, new Meter());
+        toClose.add(result);
+        return result;
+    }
+
+    /**
+     * Consumer that returns {@code batchSize} records of both partitions per poll, starting from partition
+     * positions. Each event is 8 bytes long.
+     */
+    @SuppressWarnings("unchecked")
+    private Consumer<String, String> simulatedBroker(final int batchSize, final long fetchMillis) {
+        final AtomicLong[] positions = {new AtomicLong(), new AtomicLong()};
+        final Consumer<String, String> consumer = mock(Consumer.class);
+        when(consumer.assignment()).thenReturn(ImmutableSet.of(TP0, TP1));
+        when(consumer.position(eq(TP0))).then(invocation -> positions[0].get());
+        doAnswer(invocation -> {
+            final TopicPartition tp = (TopicPartition) invocation.getArguments()[0];
+            positions[tp.partition()].set((Long) invocation.getArguments()[1]);
+            return null;
+        }).when(consumer).seek(any(TopicPartition.class), anyLong());
+        when(consumer.poll(anyLong())).then(invocation -> {
+            if (fetchMillis > 0) {
+                Thread.sleep(fetchMillis);
+            }
+            fetches.incrementAndGet();
+            final List<ConsumerRecord<String, String>> records0 = records(TP0, positions[0].getAndAdd(batchSize),
+                    batchSize);
+            final List<ConsumerRecord<String, String>> records1 = records(TP1, positions[1].getAndAdd(batchSize),
+                    batchSize);
+            final Map<TopicPartition, List<ConsumerRecord<String, String>>> result = new HashMap<>();
+            result.put(TP0, records0);
+            result.put(TP1, records1);
+            return new ConsumerRecords<>(result);
+        });
+        return consumer;
+    }
+
+    private static List<ConsumerRecord<String, String>> records(final TopicPartition tp, final long from,
+                                                               final int count) {
+        return LongStream.range(from, from + count)
+                .mapToObj(offset -> new ConsumerRecord<>(tp.topic(), tp.partition(), offset, (String) null,
+                        String.format("event-%02d", offset % 100)))
+                .collect(Collectors.toList());
+    }
+
+    private static List<Long> offsets(final ConsumerRecords<String, String> records, final TopicPartition tp) {
+        return records.records(tp).stream().map(ConsumerRecord::offset).collect(Collectors.toList());
+    }
+
+    @Test(timeout = 10000)
+    public void whenBufferIsFullThenFetchingWaitsForOwner() throws InterruptedException {
+        // Every fetch brings 2 events of 8 bytes, so each fetch fills the buffer
+        final PrefetchingConsumer consumer = prefetch(simulatedBroker(1, 0), 10);
+
+        Assert.assertEquals(2, consumer.poll(1000).count());
+        while (fetches.get() < 2) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(50);
+        Assert.assertEquals(2, fetches.get());
+
+        final ConsumerRecords<String, String> records = consumer.poll(1000);
+        Assert.assertEquals(Collections.singletonList(1L), offsets(records, TP0));
+        Assert.assertEquals(Collections.singletonList(1L), offsets(records, TP1));
+    }
+
+    @Test(timeout = 10000)
+    public void whenPositionIsChangedThenPrefetchedRecordsAreDroppedAndPartitionsRewound()
+            throws InterruptedException {
+        final Consumer<String, String> kafkaConsumer = simulatedBroker(5, 0);
+        final PrefetchingConsumer consumer = prefetch(kafkaConsumer, 10);
+        Assert.assertEquals(10, consumer.poll(1000).count());
+        while (fetches.get() < 2) {
+            Thread.sleep(1);
+        }
+        // Fetcher has to release consumer before owner can use it
+        Assert.assertEquals(5, consumer.position(TP0));
+
+        consumer.seek(TP0, 100);
+
+        final ConsumerRecords<String, String> records = consumer.poll(1000);
+        Assert.assertEquals(Long.valueOf(100), offsets(records, TP0).get(0));
+        Assert.assertEquals(Long.valueOf(5), offsets(records, TP1).get(0));
+        consumer.close();
+        verify(kafkaConsumer).seek(eq(TP1), eq(5L));
+        verify(kafkaConsumer).close();
+    }
+
+    @Test(timeout = 10000, expected = WakeupException.class)
+    public void whenWokenUpThenPollIsInterrupted() {
+        @SuppressWarnings("unchecked")
+        final Consumer<String, String> kafkaConsumer = mock(Consumer.class);
+        when(kafkaConsumer.assignment()).thenReturn(Collections.emptySet());
+        final PrefetchingConsumer consumer = prefetch(kafkaConsumer, 20);
+        consumer.wakeup();
+        consumer.poll(60000);
+    }
+
+    @Test(timeout = 10000, expected = KafkaException.class)
+    public void whenFetchFailsThenErrorIsThrownToOwner() {
+        @SuppressWarnings("unchecked")
+        final Consumer<String, String> kafkaConsumer = mock(Consumer.class);
+        when(kafkaConsumer.assignment()).thenReturn(ImmutableSet.of(TP0));
+        when(kafkaConsumer.poll(anyLong())).thenThrow(new KafkaException("test"));
+        prefetch(kafkaConsumer, 20).poll(60000);
+    }
+
+    @Test(timeout = 10000)
+    public void whenFetchFailsThenErrorIsThrownOnceAndFetchingIsRestarted() {
+        @SuppressWarnings("unchecked")
+        final Consumer<String, String> kafkaConsumer = mock(Consumer.class);
+        when(kafkaConsumer.assignment()).thenReturn(ImmutableSet.of(TP0));
+        when(kafkaConsumer.poll(anyLong()))
+                .thenThrow(new KafkaException("test"))
+                .thenReturn(new ConsumerRecords<>(Collections.singletonMap(TP0, records(TP0, 0, 2))));
+        final PrefetchingConsumer consumer = prefetch(kafkaConsumer, 20);
+
+        try {
+            consumer.poll(60000);
+            Assert.fail("Error of fetching is expected");
+        } catch (final KafkaException e) {
+            Assert.assertEquals("test", e.getMessage());
+        }
+
+        Assert.assertEquals(2, consumer.poll(60000).count());
+    }
+
+    @Test(timeout = 10000)
+    public void whenPositionIsChangedThenErrorOfFetchingIsDiscarded() throws InterruptedException {
+        @SuppressWarnings("unchecked")
+        final Consumer<String, String> kafkaConsumer = mock(Consumer.class);
+        when(kafkaConsumer.assignment()).thenReturn(ImmutableSet.of(TP0));
+        final CountDownLatch failed = new CountDownLatch(1);
+        when(kafkaConsumer.poll(anyLong()))
+                .then(invocation -> {
+                    failed.countDown();
+                    throw new KafkaException("test");
+                })
+                .thenReturn(new ConsumerRecords<>(Collections.singletonMap(TP0, records(TP0, 5, 2))));
+        final PrefetchingConsumer consumer = prefetch(kafkaConsumer, 20);
+        Assert.assertTrue(consumer.poll(0).isEmpty());
+        failed.await();
+
+        // Fetcher holds the lock until the error is stored, so the error is pending when the position is changed
+        consumer.seek(TP0, 5);
+
+        Assert.assertEquals(2, consumer.poll(60000).count());
+    }
+
+    @Ignore("Benchmark, run manually")
+    @Test
+    public void slowClientThroughputBenchmark() throws InterruptedException {
+        final int events = 200_000;
+        // Broker round trip of 2 ms for 500 events, client needs 2 ms to receive them
+        final long direct = stream(simulatedBroker(250, 2), events);
+        final long prefetched = stream(prefetch(simulatedBroker(250, 2), 1024 * 1024), events);
+
+        System.out.println(String.format("Streaming of %d events to slow client: without prefetch %d ms " +
+                        "(%d events/s), with prefetch %d ms (%d events/s)",
+                events, direct, events * 1000L / Math.max(1, direct),
+                prefetched, events * 1000L / Math.max(1, prefetched)));
+    }
+
+    private static long stream(final Consumer<String, String> consumer, final int events)
+            throws InterruptedException {
+        final long start = System.currentTimeMillis();
+        int read = 0;
+        while (read < events) {
+            final ConsumerRecords<String, String> records = consumer.poll(100);
+            read += records.count();
+            // Simulated socket write to a client that is reading slowly
+            Thread.sleep(2 * records.count() / 500);
+        }
+        return System.currentTimeMillis() - start;
+    }
+}
@@ -0,0 +1,180 @@
+package org.zalando.nakadi.repository.kafka;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SegmentCacheTest {
+
+    private static final TopicPartition TP0 = new TopicPartition("topic", 0);
+    private static final TopicPartition TP1 = new TopicPartition("topic", 1);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<ConsumerRecord<String, String>> records(final TopicPartition tp, final long from,
+                                                               final long to) {
+        return LongStream.range(from, to)
+                .mapToObj(offset -> new ConsumerRecord<>(tp.topic(), tp.partition(), offset, (String) null,
+                        "event-" + offset))
+                .collect(Collectors.toList());
+    }
+
+    private static List<Long> offsets(final List<ConsumerRecord<String, String>> records) {
+        return records.stream().map(ConsumerRecord::offset).collect(Collectors.toList());
+    }
+
+    private static List<Long> range(final long from, final long to) {
+        return LongStream.range(from, to).boxed().collect(Collectors.toList());
+    }
+
+    private SegmentCache createCache(final long maxBytes, final int segmentBytes, final long maxAgeMs) {
+        return new SegmentCache(folder.getRoot().getAbsolutePath(), maxBytes, segmentBytes, maxAgeMs,
+                new MetricRegistry());
+    }
+
+    @Test
+    public void whenNoDirectoryConfiguredThenCacheIsDisabled() {
+        Assert.assertFalse(new SegmentCache("", 1024 * 1024, 1024, 1000, new MetricRegistry()).isEnabled());
+        Assert.assertFalse(createCache(0, 1024, 1000).isEnabled());
+        Assert.assertTrue(createCache(1024 * 1024, 1024, 1000).isEnabled());
+    }
+
+    @Test
+    public void whenCacheCreatedThenOldSegmentsAreRemoved() throws IOException {
+        final File leftover = folder.newFile("segment-0");
+        final File other = folder.newFile("other");
+        createCache(1024 * 1024, 1024, 1000);
+        Assert.assertFalse(leftover.exists());
+        Assert.assertTrue(other.exists());
+    }
+
+    @Test
+    public void whenRangeIsCachedThenItIsReadAcrossSegments() {
+        // Every event takes 7-8 bytes, so range is split into several segments
+        final SegmentCache cache = createCache(64 * 1024, 64, 60000);
+        cache.append(TP0, records(TP0, 0, 100));
+
+        Assert.assertEquals(range(0, 100), offsets(cache.read(TP0, 0)));
+        Assert.assertEquals("event-42", cache.read(TP0, 42).get(0).value());
+        Assert.assertTrue(cache.read(TP0, 100).isEmpty());
+        Assert.assertTrue(cache.read(TP1, 0).isEmpty());
+    }
+
+    @Test
+    public void whenOverlappingRangesAppendedThenTheyAreMerged() {
+        final SegmentCache cache = createCache(64 * 1024, 1024, 60000);
+        cache.append(TP0, records(TP0, 50, 60));
+        cache.append(TP0, records(TP0, 0, 10));
+        cache.append(TP0, records(TP0, 5, 55));
+        cache.append(TP0, records(TP0, 60, 70));
+
+        Assert.assertEquals(range(0, 70), offsets(cache.read(TP0, 0)));
+    }
+
+    @Test
+    public void whenNoFreeSegmentsThenLeastRecentlyUsedIsEvicted() throws InterruptedException {
+        final SegmentCache cache = createCache(2 * 1024, 1024, 60000);
+        cache.append(TP0, records(TP0, 0, 10));
+        Thread.sleep(5);
+        cache.append(TP1, records(TP1, 0, 10));
+        Thread.sleep(5);
+        cache.read(TP0, 0);
+        Thread.sleep(5);
+        cache.append(TP1, records(TP1, 1000, 1010));
+
+        Assert.assertEquals(2 * 1024, cache.getAllocatedBytes());
+        Assert.assertEquals(range(0, 10), offsets(cache.read(TP0, 0)));
+        Assert.assertTrue(cache.read(TP1, 0).isEmpty());
+        Assert.assertEquals(range(1000, 1010), offsets(cache.read(TP1, 1000)));
+    }
+
+    @Test
+    public void whenSegmentsExpiredThenTheyAreEvicted() throws InterruptedException {
+        final SegmentCache cache = createCache(64 * 1024, 1024, 1);
+        cache.append(TP0, records(TP0, 0, 10));
+        Thread.sleep(5);
+        cache.evictExpired();
+
+        Assert.assertTrue(cache.read(TP0, 0).isEmpty());
+        Assert.assertEquals(cache.getAllocatedBytes(), cache.getFreeBytes());
+    }
+
+    @Ignore("Benchmark, run manually")
+    @Test
+    public void replayThroughputBenchmark() {
+        final int events = 500_000;
+        final String payload = "{\"metadata\":{\"eid\":\"" + Strings.repeat("x", 36) + "\"},\"data\":\"" +
+                Strings.repeat("y", 400) + "\"}";
+        final SegmentCache cache = createCache(1024L * 1024 * 1024, 64 * 1024 * 1024, 60000);
+
+        final long withoutCache = replay(simulatedBroker(payload), events);
+        // First pass fills the cache, second one is the replay
+        replay(new CachingConsumer(simulatedBroker(payload), Collections.singletonList(cache)), events);
+        final long withCache = replay(
+                new CachingConsumer(simulatedBroker(payload), Collections.singletonList(cache)), events);
+
+        System.out.println(String.format("Replay of %d events: without cache %d ms (%d events/s), " +
+                        "with segment cache %d ms (%d events/s)",
+                events, withoutCache, events * 1000L / Math.max(1, withoutCache),
+                withCache, events * 1000L / Math.max(1, withCache)));
+    }
+
+    private static long replay(final Consumer<String, String> consumer, final int events) {
+        consumer.seek(TP0, 0);
+        final long start = System.currentTimeMillis();
+        int read = 0;
+        while (read < events) {
+            read += consumer.poll(100).count();
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    /**
+     * Consumer that returns 500 records per poll, each fetch costs 2 ms of simulated broker round trip. Nothing is
+     * prefetched, so polls without timeout are returning nothing.
+     */
+    private static Consumer<String, String> simulatedBroker(final String payload) {
+        final AtomicLong position = new AtomicLong();
+        final Consumer<String, String> consumer = mock(Consumer.class);
+        when(consumer.assignment()).thenReturn(ImmutableSet.of(TP0));
+        when(consumer.position(eq(TP0))).then(invocation -> position.get());
+        doAnswer(invocation -> {
+            position.set((Long) invocation.getArguments()[1]);
+            return null;
+        }).when(consumer).seek(eq(TP0), anyLong());
+        when(consumer.poll(anyLong())).then(invocation -> {
+            if ((Long) invocation.getArguments()[0] == 0) {
+                return new ConsumerRecords<>(Collections.emptyMap());
+            }
+            Thread.sleep(2);
+            final long from = position.getAndAdd(500);
+            return new ConsumerRecords<>(Collections.singletonMap(TP0, LongStream.range(from, from + 500)
+                    .mapToObj(offset -> new ConsumerRecord<>(TP0.topic(), TP0.partition(), offset, (String) null,
+                            payload))
+                    .collect(Collectors.toList())));
+        });
+        return consumer;
+    }
+}
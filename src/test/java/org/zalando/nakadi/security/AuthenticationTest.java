@@ -10,6 +10,7 @@ import org.zalando.nakadi.metrics.EventTypeMetricRegistry;
 import org.zalando.nakadi.repository.EventTypeRepository;
 import org.zalando.nakadi.repository.db.EventTypeCache;
 import org.zalando.nakadi.repository.db.EventTypeDbRepository;
+import org.zalando.nakadi.repository.SubscriptionOffsetRepository;
 import org.zalando.nakadi.repository.db.SubscriptionDbRepository;
 import org.zalando.nakadi.repository.kafka.KafkaLocationManager;
 import org.zalando.nakadi.repository.kafka.KafkaTopicRepository;
@@ -127,6 +128,11 @@ public abstract class AuthenticationTest {
         public SubscriptionDbRepository mockSubscriptionDbRepo() {
             return mock(SubscriptionDbRepository.class);
         }
+
+        @Bean
+        public SubscriptionOffsetRepository mockSubscriptionOffsetRepo() {
+            return mock(SubscriptionOffsetRepository.class);
+        }
         @Bean
         public EventTypeCache eventTypeCache() {
             return mock(EventTypeCache.class);
@@ -215,10 +221,15 @@ public abstract class AuthenticationTest {
             new Endpoint(PUT, "/event-types/foo", TOKEN_WITH_EVENT_TYPE_WRITE_SCOPE),
             new Endpoint(DELETE, "/event-types/foo", TOKEN_WITH_NAKADI_ADMIN_SCOPE),
             new Endpoint(POST, "/event-types/foo/events", TOKEN_WITH_EVENT_STREAM_WRITE_SCOPE),
+            new Endpoint(POST, "/event-types/foo/events/stream", TOKEN_WITH_EVENT_STREAM_WRITE_SCOPE),
+            new Endpoint(POST, "/events", TOKEN_WITH_EVENT_STREAM_WRITE_SCOPE),
             new Endpoint(GET, "/event-types/foo/events", TOKEN_WITH_EVENT_STREAM_READ_SCOPE),
+            new Endpoint(GET, "/event-types/foo/events/fetch", TOKEN_WITH_EVENT_STREAM_READ_SCOPE),
+            new Endpoint(POST, "/event-types/foo/export", TOKEN_WITH_EVENT_STREAM_READ_SCOPE),
             new Endpoint(GET, "/event-types/foo/partitions", TOKEN_WITH_EVENT_STREAM_READ_SCOPE),
             new Endpoint(GET, "/event-types/foo/partitions/bar", TOKEN_WITH_EVENT_STREAM_READ_SCOPE),
             new Endpoint(GET, "/subscriptions/foo/events", TOKEN_WITH_EVENT_STREAM_READ_SCOPE),
+            new Endpoint(GET, "/subscriptions/events", TOKEN_WITH_EVENT_STREAM_READ_SCOPE),
             new Endpoint(POST, "/subscriptions", TOKEN_WITH_EVENT_STREAM_READ_SCOPE),
             new Endpoint(GET, "/subscriptions", TOKEN_WITH_EVENT_STREAM_READ_SCOPE),
             new Endpoint(PUT, "/subscriptions/foo/cursors", TOKEN_WITH_EVENT_STREAM_READ_SCOPE),
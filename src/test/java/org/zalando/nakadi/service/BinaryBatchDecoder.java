@@ -0,0 +1,80 @@
+package org.zalando.nakadi.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reference decoder of streams written with {@link BinaryBatchEncoder}. Events are returned as they were published,
+ * without being parsed.
+ */
+public class BinaryBatchDecoder {
+
+    public static class Batch {
+        public final String partition;
+        public final long offset;
+        public final String eventType;
+        public final String cursorToken;
+        public final String info;
+        public final List<String> events;
+
+        private Batch(final String partition, final long offset, final String eventType, final String cursorToken,
+                      final String info, final List<String> events) {
+            this.partition = partition;
+            this.offset = offset;
+            this.eventType = eventType;
+            this.cursorToken = cursorToken;
+            this.info = info;
+            this.events = events;
+        }
+    }
+
+    private final DataInputStream input;
+
+    public BinaryBatchDecoder(final InputStream input) {
+        this.input = new DataInputStream(input);
+    }
+
+    /**
+     * @return next batch of the stream or null if stream is finished.
+     */
+    public Batch next() throws IOException {
+        final int length;
+        try {
+            length = input.readInt();
+        } catch (final EOFException e) {
+            return null;
+        }
+        final byte[] frame = new byte[length];
+        input.readFully(frame);
+        final DataInputStream body = new DataInputStream(new ByteArrayInputStream(frame));
+        final byte version = body.readByte();
+        if (version != BinaryBatchEncoder.VERSION) {
+            throw new IOException("Unsupported version of frame: " + version);
+        }
+        final String partition = readString(body);
+        final long offset = body.readLong();
+        final String eventType = readString(body);
+        final String cursorToken = readString(body);
+        final String info = readString(body);
+        final int count = body.readInt();
+        final List<String> events = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            final byte[] event = new byte[body.readInt()];
+            body.readFully(event);
+            events.add(new String(event, StandardCharsets.UTF_8));
+        }
+        return new Batch(partition, offset, eventType, cursorToken, info, events);
+    }
+
+    private static String readString(final DataInputStream body) throws IOException {
+        final byte[] bytes = new byte[body.readUnsignedShort()];
+        body.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,119 @@
+package org.zalando.nakadi.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class BinaryBatchEncoderTest {
+
+    private static final String EVENT = "{\"metadata\":{\"eid\":\"9cd5ce1e-f8e6-4a1f-9e5c-1a2b3c4d5e6f\"," +
+            "\"occurred_at\":\"2016-10-19T10:00:00Z\"},\"order_number\":\"ORD-123456\",\"amount\":42}";
+
+    @Test
+    public void whenBatchesAreEncodedThenDecoderReadsThemBack() throws IOException {
+        final BinaryBatchEncoder encoder = new BinaryBatchEncoder();
+        encoder.appendBatch("0", 12, "order.created", "token", ImmutableList.of(EVENT, "{\"ü\":\"€\"}"), null);
+        encoder.appendBatch("1", -1, null, null, Collections.emptyList(), "{\"debug\":true}");
+
+        final BinaryBatchDecoder decoder = new BinaryBatchDecoder(new ByteArrayInputStream(encoder.toByteArray()));
+        final BinaryBatchDecoder.Batch first = decoder.next();
+        Assert.assertEquals("0", first.partition);
+        Assert.assertEquals(12, first.offset);
+        Assert.assertEquals("order.created", first.eventType);
+        Assert.assertEquals("token", first.cursorToken);
+        Assert.assertEquals("", first.info);
+        Assert.assertEquals(ImmutableList.of(EVENT, "{\"ü\":\"€\"}"), first.events);
+
+        final BinaryBatchDecoder.Batch second = decoder.next();
+        Assert.assertEquals("1", second.partition);
+        Assert.assertEquals(-1, second.offset);
+        Assert.assertEquals("", second.eventType);
+        Assert.assertEquals("{\"debug\":true}", second.info);
+        Assert.assertTrue(second.events.isEmpty());
+
+        Assert.assertNull(decoder.next());
+    }
+
+    @Test
+    public void whenBatchExceedsBufferThenBufferGrows() throws IOException {
+        final BinaryBatchEncoder encoder = new BinaryBatchEncoder();
+        final List<String> events = Collections.nCopies(1000, EVENT);
+        encoder.appendBatch("0", 0, null, null, events, null);
+        final BinaryBatchDecoder.Batch batch =
+                new BinaryBatchDecoder(new ByteArrayInputStream(encoder.toByteArray())).next();
+        Assert.assertEquals(events, batch.events);
+
+        encoder.reset();
+        Assert.assertEquals(0, encoder.size());
+    }
+
+    @Test
+    public void whenAcceptHeaderContainsBinaryTypeThenItIsAccepted() {
+        Assert.assertTrue(BinaryBatchEncoder.isAccepted(BinaryBatchEncoder.MEDIA_TYPE));
+        Assert.assertTrue(BinaryBatchEncoder.isAccepted("application/json, " + BinaryBatchEncoder.MEDIA_TYPE));
+        Assert.assertFalse(BinaryBatchEncoder.isAccepted("application/json"));
+        Assert.assertFalse(BinaryBatchEncoder.isAccepted(null));
+        Assert.assertTrue(BinaryBatchEncoder.isAccepted(BinaryBatchEncoder.MEDIA_TYPE + ";q=0.5, application/json"));
+        Assert.assertFalse(BinaryBatchEncoder.isAccepted(BinaryBatchEncoder.MEDIA_TYPE + ";q=0"));
+        Assert.assertFalse(BinaryBatchEncoder.isAccepted(BinaryBatchEncoder.MEDIA_TYPE + "-v2"));
+        Assert.assertFalse(BinaryBatchEncoder.isAccepted("*/*"));
+        Assert.assertFalse(BinaryBatchEncoder.isAccepted("not a media type"));
+    }
+
+    @Ignore("Benchmark, run manually")
+    @Test
+    public void clientDecodingThroughputBenchmark() throws IOException {
+        final int batches = 20_000;
+        final List<String> events = Collections.nCopies(10, EVENT);
+        final ObjectMapper mapper = new ObjectMapper();
+
+        final StringBuilder json = new StringBuilder();
+        final BinaryBatchEncoder encoder = new BinaryBatchEncoder();
+        for (int i = 0; i < batches; ++i) {
+            json.append("{\"cursor\":{\"partition\":\"0\",\"offset\":\"").append(i * 10).append("\"},\"events\":[")
+                    .append(String.join(",", events)).append("]}\n");
+            encoder.appendBatch("0", i * 10, null, null, events, null);
+        }
+        final byte[] jsonBytes = json.toString().getBytes(StandardCharsets.UTF_8);
+        final byte[] binaryBytes = encoder.toByteArray();
+
+        long jsonMs = Long.MAX_VALUE;
+        long binaryMs = Long.MAX_VALUE;
+        for (int round = 0; round < 5; ++round) {
+            // Json client has to parse the batch to get to the events, binary client only splits the frame
+            long start = System.currentTimeMillis();
+            final List<String> jsonEvents = new ArrayList<>();
+            for (final String line : new String(jsonBytes, StandardCharsets.UTF_8).split("\n")) {
+                for (final JsonNode event : mapper.readTree(line).get("events")) {
+                    jsonEvents.add(event.toString());
+                }
+            }
+            jsonMs = Math.min(jsonMs, System.currentTimeMillis() - start);
+
+            start = System.currentTimeMillis();
+            final List<String> binaryEvents = new ArrayList<>();
+            final BinaryBatchDecoder decoder = new BinaryBatchDecoder(new ByteArrayInputStream(binaryBytes));
+            BinaryBatchDecoder.Batch batch;
+            while (null != (batch = decoder.next())) {
+                binaryEvents.addAll(batch.events);
+            }
+            binaryMs = Math.min(binaryMs, System.currentTimeMillis() - start);
+            Assert.assertEquals(jsonEvents.size(), binaryEvents.size());
+        }
+
+        final int total = batches * events.size();
+        System.out.println(String.format("Decoding of %d events: json %d bytes, %d ms (%d events/s); " +
+                        "binary %d bytes, %d ms (%d events/s)",
+                total, jsonBytes.length, jsonMs, total * 1000L / Math.max(1, jsonMs),
+                binaryBytes.length, binaryMs, total * 1000L / Math.max(1, binaryMs)));
+    }
+}
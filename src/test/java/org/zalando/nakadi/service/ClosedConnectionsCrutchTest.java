@@ -1,24 +1,41 @@
 package org.zalando.nakadi.service;
 
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.io.Files;
+import com.google.common.net.InetAddresses;
 import org.zalando.nakadi.util.FeatureToggleService;
+import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 public class ClosedConnectionsCrutchTest {
 
+    private static final String TCP_HEADING = "  sl  local_address rem_address   st tx_queue rx_queue tr tm->when " +
+            "retrnsmt   uid  timeout inode\n";
+    private static final String TCP6_HEADING = "  sl  local_address                         remote_address" +
+            "                        st tx_queue rx_queue tr tm->when retrnsmt   uid  timeout inode\n";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
     private ClosedConnectionsCrutch crutch;
+    private FeatureToggleService fts;
 
     @Before
     public void prepareCrutch() {
-        final FeatureToggleService fts = mock(FeatureToggleService.class);
+        fts = mock(FeatureToggleService.class);
         when(fts.isFeatureEnabled(any())).thenReturn(true);
 
         crutch = new ClosedConnectionsCrutch(8080, mock(MetricRegistry.class), fts);
@@ -42,4 +59,80 @@ public class ClosedConnectionsCrutchTest {
                 InetAddress.getByName("127.0.0.1"), 4369)));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void whenConnectionIsNotOpenThenListenerIsNotified() throws IOException {
+        final File tcp = folder.newFile("tcp");
+        final File tcp6 = folder.newFile("tcp6");
+        final ClosedConnectionsCrutch fileCrutch =
+                new ClosedConnectionsCrutch(8080, new MetricRegistry(), fts, new File[]{tcp, tcp6});
+
+        // 10.161.143.106:5220 is open in tcp, 172.17.0.2:9000 is open in tcp6 as IPv4-mapped address,
+        // 10.161.143.106:5221 is closing.
+        Files.write(TCP_HEADING +
+                "   0: 0100007F:1F90 6A8FA10A:1464 01 00000000:00000000 00:00000000 00000000  0 0 1 1 0 20 4 30\n" +
+                "   1: 0100007F:1F90 6A8FA10A:1465 08 00000000:00000000 00:00000000 00000000  0 0 1 1 0 20 4 30\n",
+                tcp, StandardCharsets.UTF_8);
+        Files.write(TCP6_HEADING +
+                "   0: 0000000000000000FFFF0000020011AC:1F90 0000000000000000FFFF0000020011AC:2328 01 " +
+                "00000000:00000000 00:00000000 00000000   999        0 17851 1 ffff8800e8a19740 20 4 0 10 -1\n",
+                tcp6, StandardCharsets.UTF_8);
+
+        final AtomicBoolean openV4 = listen(fileCrutch, "10.161.143.106", 5220);
+        final AtomicBoolean openMapped = listen(fileCrutch, "172.17.0.2", 9000);
+        final AtomicBoolean closing = listen(fileCrutch, "10.161.143.106", 5221);
+        final AtomicBoolean missing = listen(fileCrutch, "10.161.143.106", 5222);
+        fileCrutch.refresh();
+
+        Assert.assertTrue(openV4.get());
+        Assert.assertTrue(openMapped.get());
+        Assert.assertFalse(closing.get());
+        Assert.assertFalse(missing.get());
+
+        // Once connection disappears, listener is notified on the next refresh
+        Files.write(TCP_HEADING, tcp, StandardCharsets.UTF_8);
+        fileCrutch.refresh();
+        Assert.assertFalse(openV4.get());
+        Assert.assertTrue(openMapped.get());
+    }
+
+    @Ignore("Benchmark, run manually")
+    @Test
+    public void refreshBenchmark() throws IOException {
+        final int lines = 100_000;
+        final int listenersCount = 5_000;
+        final StringBuilder tcp6 = new StringBuilder(TCP6_HEADING);
+        for (int i = 0; i < lines; ++i) {
+            // Every 10th line belongs to server port
+            final int localPort = i % 10 == 0 ? 8080 : 30000 + i % 20000;
+            tcp6.append(String.format("%6d: 0000000000000000FFFF0000020011AC:%04X " +
+                    "0000000000000000FFFF0000%08X:%04X 01 00000000:00000000 00:00000000 00000000   999        0 " +
+                    "17851 1 ffff8800e8a19740 20 4 0 10 -1\n",
+                    i, localPort, Integer.reverseBytes(0x0A000000 + i), 1024 + i % 60000));
+        }
+        final File tcp6File = folder.newFile("tcp6");
+        Files.write(tcp6.toString(), tcp6File, StandardCharsets.UTF_8);
+        final ClosedConnectionsCrutch fileCrutch =
+                new ClosedConnectionsCrutch(8080, new MetricRegistry(), fts, new File[]{tcp6File});
+
+        // Connections of the server port are never closed, so the amount of listeners stays the same
+        for (int i = 0; i < listenersCount; ++i) {
+            final int line = (i * 10) % lines;
+            listen(fileCrutch, InetAddresses.fromInteger(0x0A000000 + line).getHostAddress(), 1024 + line % 60000);
+        }
+        final int iterations = 100;
+        final long start = System.nanoTime();
+        for (int iteration = 0; iteration < iterations; ++iteration) {
+            fileCrutch.refresh();
+        }
+        final long elapsedMicros = (System.nanoTime() - start) / 1000;
+        System.out.println(String.format("Refresh of %d lines with %d listeners took %d us on average",
+                lines, listenersCount, elapsedMicros / iterations));
+    }
+
+    private static AtomicBoolean listen(final ClosedConnectionsCrutch crutch, final String address, final int port)
+            throws IOException {
+        final AtomicBoolean ready = new AtomicBoolean(true);
+        crutch.listenForConnectionClose(InetAddress.getByName(address), port, () -> ready.compareAndSet(true, false));
+        return ready;
+    }
+}
@@ -0,0 +1,103 @@
+package org.zalando.nakadi.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.TreeCacheEvent;
+import org.apache.zookeeper.data.Stat;
+import org.junit.Assert;
+import org.junit.Test;
+import org.zalando.nakadi.config.JsonConfig;
+import org.zalando.nakadi.domain.ConsumptionQuota;
+import org.zalando.nakadi.repository.zookeeper.ZooKeeperHolder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.mockito.Mockito.mock;
+
+public class ConsumptionQuotaServiceTest {
+
+    private static final String APP_PATH = "/nakadi/quotas/consumers/app";
+    private static final String ET_PATH = "/nakadi/quotas/consumers/app/et";
+
+    private final ObjectMapper objectMapper = new JsonConfig().jacksonObjectMapper();
+    private final ConsumptionQuotaService service = new ConsumptionQuotaService(
+            mock(ZooKeeperHolder.class), objectMapper, new MetricRegistry());
+
+    @Test
+    public void whenQuotaIsAddedThenItIsListed() throws Exception {
+        setQuota(TreeCacheEvent.Type.NODE_ADDED, APP_PATH, new ConsumptionQuota(1000, 0));
+        setQuota(TreeCacheEvent.Type.NODE_ADDED, ET_PATH, new ConsumptionQuota(0, 10));
+
+        Assert.assertEquals(
+                ImmutableMap.of("app", ImmutableMap.of(
+                        "quota", new ConsumptionQuota(1000, 0),
+                        "event_types", ImmutableMap.of("et", new ConsumptionQuota(0, 10)))),
+                service.getQuotas());
+    }
+
+    @Test
+    public void whenQuotaIsInvalidOrEmptyThenItIsIgnored() {
+        onEvent(TreeCacheEvent.Type.NODE_ADDED, APP_PATH, "not a quota".getBytes(StandardCharsets.UTF_8));
+        onEvent(TreeCacheEvent.Type.NODE_ADDED, ET_PATH, new byte[0]);
+
+        Assert.assertTrue(service.getQuotas().isEmpty());
+        Assert.assertEquals(0, service.getThrottle("app", Collections.singletonList("et")).acquire(1000, 1000));
+    }
+
+    @Test
+    public void whenQuotaIsExceededThenStreamWaits() throws Exception {
+        setQuota(TreeCacheEvent.Type.NODE_ADDED, APP_PATH, new ConsumptionQuota(0, 100));
+        final ConsumptionThrottle throttle = service.getThrottle("app", Collections.emptyList());
+
+        Assert.assertEquals(0, throttle.acquire(100, 0));
+        final long waitMillis = throttle.acquire(100, 0);
+
+        Assert.assertTrue(waitMillis > 900 && waitMillis <= 1000);
+    }
+
+    @Test
+    public void whenQuotaOfEventTypeIsSetThenOnlyItsStreamsAreThrottled() throws Exception {
+        setQuota(TreeCacheEvent.Type.NODE_ADDED, ET_PATH, new ConsumptionQuota(0, 10));
+
+        Assert.assertEquals(0, service.getThrottle("app", ImmutableList.of("other")).acquire(100, 0));
+        Assert.assertTrue(service.getThrottle("app", ImmutableList.of("other", "et")).acquire(100, 0) > 0);
+        Assert.assertEquals(0, service.getThrottle("other-app", ImmutableList.of("et")).acquire(100, 0));
+    }
+
+    @Test
+    public void whenQuotaIsUpdatedThenDebtIsKept() throws Exception {
+        setQuota(TreeCacheEvent.Type.NODE_ADDED, APP_PATH, new ConsumptionQuota(0, 100));
+        final ConsumptionThrottle throttle = service.getThrottle("app", Collections.emptyList());
+        throttle.acquire(1100, 0);
+
+        setQuota(TreeCacheEvent.Type.NODE_UPDATED, APP_PATH, new ConsumptionQuota(0, 200));
+
+        Assert.assertEquals(new ConsumptionQuota(0, 200), service.getQuotas().get("app").get("quota"));
+        Assert.assertTrue(throttle.acquire(0, 0) > 4000);
+    }
+
+    @Test
+    public void whenQuotaIsRemovedThenStreamIsNotThrottled() throws Exception {
+        setQuota(TreeCacheEvent.Type.NODE_ADDED, APP_PATH, new ConsumptionQuota(0, 100));
+        final ConsumptionThrottle throttle = service.getThrottle("app", Collections.emptyList());
+        throttle.acquire(1000, 0);
+
+        onEvent(TreeCacheEvent.Type.NODE_REMOVED, APP_PATH, null);
+
+        Assert.assertTrue(service.getQuotas().isEmpty());
+        Assert.assertEquals(0, throttle.acquire(1000, 0));
+    }
+
+    private void setQuota(final TreeCacheEvent.Type type, final String path, final ConsumptionQuota quota)
+            throws Exception {
+        onEvent(type, path, objectMapper.writeValueAsBytes(quota));
+    }
+
+    private void onEvent(final TreeCacheEvent.Type type, final String path, final byte[] data) {
+        service.onQuotaEvent(new TreeCacheEvent(type, new ChildData(path, new Stat(), data)));
+    }
+}
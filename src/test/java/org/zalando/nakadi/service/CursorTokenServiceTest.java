@@ -0,0 +1,42 @@
+package org.zalando.nakadi.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class CursorTokenServiceTest {
+
+    @Test
+    public void whenTokensAreGeneratedConcurrentlyThenTheyAreUnique() throws InterruptedException {
+        final CursorTokenService tokenService = new CursorTokenService();
+        final Set<String> tokens = ConcurrentHashMap.newKeySet();
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; ++t) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 10000; ++i) {
+                    tokens.add(tokenService.generateToken());
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(80000, tokens.size());
+    }
+
+    @Test
+    public void whenTokensAreGeneratedByDifferentNodesThenTheyAreDifferent() {
+        final String token = new CursorTokenService().generateToken();
+
+        Assert.assertNotEquals(token, new CursorTokenService().generateToken());
+        // Token keeps the format of uuid
+        Assert.assertEquals(token, UUID.fromString(token).toString());
+    }
+}
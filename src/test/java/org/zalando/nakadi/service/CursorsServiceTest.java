@@ -0,0 +1,145 @@
+package org.zalando.nakadi.service;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.GetDataBuilder;
+import org.apache.curator.framework.api.WatchPathable;
+import org.apache.zookeeper.data.Stat;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zalando.nakadi.domain.CursorCommitResult;
+import org.zalando.nakadi.domain.NakadiCursor;
+import org.zalando.nakadi.repository.EventTypeRepository;
+import org.zalando.nakadi.repository.SubscriptionOffsetRepository;
+import org.zalando.nakadi.repository.TopicRepository;
+import org.zalando.nakadi.repository.db.SubscriptionDbRepository;
+import org.zalando.nakadi.repository.zookeeper.ZooKeeperHolder;
+import org.zalando.nakadi.service.subscription.LocalStream;
+import org.zalando.nakadi.service.subscription.LocalStreamRegistry;
+import org.zalando.nakadi.service.subscription.model.Partition;
+import org.zalando.nakadi.service.subscription.zk.Topology;
+import org.zalando.nakadi.utils.EventTypeTestBuilder;
+import org.zalando.nakadi.view.SubscriptionCursor;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CursorsServiceTest {
+
+    private static final String SID = "sid";
+    private static final String STREAM_ID = "stream";
+    private static final String EVENT_TYPE = "et";
+    private static final Partition.PartitionKey P0 = new Partition.PartitionKey("topic", "0");
+    private static final Partition.PartitionKey P1 = new Partition.PartitionKey("topic", "1");
+
+    private final CuratorFramework curator = mock(CuratorFramework.class);
+    private final TopicRepository topicRepository = mock(TopicRepository.class);
+    private final SubscriptionOffsetRepository offsetRepository = mock(SubscriptionOffsetRepository.class);
+    private LocalStreamRegistry localStreamRegistry;
+    private LocalStream localStream;
+    private CursorsService service;
+
+    @Before
+    public void setUp() throws Exception {
+        final ZooKeeperHolder zkHolder = mock(ZooKeeperHolder.class);
+        when(zkHolder.get()).thenReturn(curator);
+        final EventTypeRepository eventTypeRepository = mock(EventTypeRepository.class);
+        when(eventTypeRepository.findByName(EVENT_TYPE))
+                .thenReturn(EventTypeTestBuilder.builder().name(EVENT_TYPE).topic("topic").build());
+        when(topicRepository.compareOffsets(any(), any())).thenAnswer(invocation -> Long.compare(
+                Long.parseLong(((NakadiCursor) invocation.getArguments()[0]).getOffset()),
+                Long.parseLong(((NakadiCursor) invocation.getArguments()[1]).getOffset())));
+        when(offsetRepository.commitOffsets(any(), any())).thenReturn(CompletableFuture.completedFuture(null));
+
+        localStreamRegistry = new LocalStreamRegistry(offsetRepository, 60000);
+        localStream = localStreamRegistry.register(SID, STREAM_ID, key -> {
+        });
+        service = new CursorsService(zkHolder, topicRepository, mock(SubscriptionDbRepository.class),
+                eventTypeRepository, mock(CursorTokenService.class), mock(CursorConverter.class),
+                localStreamRegistry, offsetRepository);
+    }
+
+    @After
+    public void tearDown() {
+        localStreamRegistry.stop();
+    }
+
+    @Test
+    public void whenStreamOwnsAllPartitionsThenCursorsAreCommittedLocallyInRequestOrder() throws Exception {
+        localStream.addPartition(P0, 10L);
+        localStream.addPartition(P1, 20L);
+
+        final List<CursorCommitResult> result = service.commitCursors(STREAM_ID, SID, ImmutableList.of(
+                cursor("1", "25"), cursor("0", "12"), cursor("1", "21"), cursor("0", "15")));
+
+        Assert.assertEquals(ImmutableList.of("1:25", "0:12", "1:21", "0:15"), cursorsOf(result));
+        Assert.assertEquals(ImmutableList.of(CursorCommitResult.COMMITTED, CursorCommitResult.COMMITTED,
+                CursorCommitResult.OUTDATED, CursorCommitResult.COMMITTED), resultsOf(result));
+        Assert.assertEquals(Long.valueOf(15L), localStream.getOffset(P0));
+        Assert.assertEquals(Long.valueOf(25L), localStream.getOffset(P1));
+        // Session is not checked in zookeeper and offsets are not read from the storage
+        verify(curator, never()).checkExists();
+        verify(curator, never()).getData();
+        verify(offsetRepository, never()).getOffsets(any(), any());
+    }
+
+    @Test
+    public void whenStreamOwnsOnlySomePartitionsThenCursorsAreCommittedThroughStorage() throws Exception {
+        localStream.addPartition(P0, 10L);
+        mockTopology(new Topology(new Partition[]{
+                new Partition(P0, STREAM_ID, null, Partition.State.ASSIGNED),
+                new Partition(P1, STREAM_ID, null, Partition.State.ASSIGNED)}, 3), 7);
+        when(offsetRepository.getOffsets(eq(SID), any())).thenReturn(ImmutableMap.of(
+                P0, new SubscriptionOffsetRepository.Offset("10", 0),
+                P1, new SubscriptionOffsetRepository.Offset("20", 0)));
+        when(offsetRepository.updateOffsets(eq(SID), any(), any(), anyInt())).thenReturn(true);
+
+        final List<CursorCommitResult> result = service.commitCursors(STREAM_ID, SID, ImmutableList.of(
+                cursor("1", "25"), cursor("0", "12"), cursor("1", "21")));
+
+        Assert.assertEquals(ImmutableList.of("1:25", "0:12", "1:21"), cursorsOf(result));
+        Assert.assertEquals(ImmutableList.of(CursorCommitResult.COMMITTED, CursorCommitResult.COMMITTED,
+                CursorCommitResult.OUTDATED), resultsOf(result));
+        verify(offsetRepository).updateOffsets(eq(SID), any(), eq(ImmutableMap.of(P0, "12", P1, "25")), eq(7));
+        // Nothing is committed locally when the stream does not own all the partitions
+        Assert.assertEquals(Long.valueOf(10L), localStream.getOffset(P0));
+        verify(curator, never()).checkExists();
+    }
+
+    private void mockTopology(final Topology topology, final int nodeVersion) throws Exception {
+        final GetDataBuilder getDataBuilder = mock(GetDataBuilder.class);
+        final WatchPathable<byte[]> topologyReader = mock(WatchPathable.class);
+        when(curator.getData()).thenReturn(getDataBuilder);
+        when(getDataBuilder.storingStatIn(any())).thenAnswer(invocation -> {
+            ((Stat) invocation.getArguments()[0]).setVersion(nodeVersion);
+            return topologyReader;
+        });
+        when(topologyReader.forPath("/nakadi/subscriptions/" + SID + "/topology")).thenReturn(topology.serialize());
+    }
+
+    private static SubscriptionCursor cursor(final String partition, final String offset) {
+        return new SubscriptionCursor(partition, offset, EVENT_TYPE, "token");
+    }
+
+    private static List<String> cursorsOf(final List<CursorCommitResult> result) {
+        return result.stream()
+                .map(r -> r.getCursor().getPartition() + ":" + r.getCursor().getOffset())
+                .collect(Collectors.toList());
+    }
+
+    private static List<String> resultsOf(final List<CursorCommitResult> result) {
+        return result.stream().map(CursorCommitResult::getResult).collect(Collectors.toList());
+    }
+}
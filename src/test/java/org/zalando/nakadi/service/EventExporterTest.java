@@ -0,0 +1,77 @@
+package org.zalando.nakadi.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.zalando.nakadi.config.JsonConfig;
+import org.zalando.nakadi.domain.NakadiCursor;
+import org.zalando.nakadi.exceptions.NoConnectionSlotsException;
+import org.zalando.nakadi.exceptions.UnprocessableEntityException;
+import org.zalando.nakadi.repository.EventConsumer;
+import org.zalando.nakadi.repository.TopicRepository;
+import org.zalando.nakadi.repository.kafka.KafkaCursor;
+import org.zalando.nakadi.util.FeatureToggleService;
+import org.zalando.nakadi.view.ExportRange;
+import org.zalando.nakadi.view.ExportRequest;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class EventExporterTest {
+
+    private static final String TOPIC = "topic";
+    private static final ObjectMapper MAPPER = new JsonConfig().jacksonObjectMapper();
+
+    private TopicRepository topicRepository;
+    private EventExporter eventExporter;
+
+    @Before
+    public void setUp() throws Exception {
+        topicRepository = mock(TopicRepository.class);
+        when(topicRepository.compareOffsets(any(), any())).thenAnswer(invocation -> {
+            final NakadiCursor first = (NakadiCursor) invocation.getArguments()[0];
+            final NakadiCursor second = (NakadiCursor) invocation.getArguments()[1];
+            return KafkaCursor.fromNakadiCursor(first).compareTo(KafkaCursor.fromNakadiCursor(second));
+        });
+        when(topicRepository.createRangeConsumer(any(), any())).thenReturn(mock(EventConsumer.class));
+        final ConsumptionQuotaService quotaService = mock(ConsumptionQuotaService.class);
+        when(quotaService.getThrottle(any(), any())).thenReturn(ConsumptionThrottle.NONE);
+        eventExporter = new EventExporter(topicRepository, new CursorConverter(mock(FeatureToggleService.class)),
+                MAPPER, quotaService, 1);
+    }
+
+    @Test
+    public void whenContinuationTokenIsUsedThenRangesAreTakenFromIt() throws Exception {
+        final List<ExportRange> ranges = ImmutableList.of(new ExportRange("0", "5", "10"));
+        eventExporter.createExport("client", "et", TOPIC,
+                new ExportRequest(null, ExportStream.encodeContinuationToken(MAPPER, ranges)),
+                new ByteArrayOutputStream()).close();
+
+        verify(topicRepository).createRangeConsumer(ImmutableList.of(new NakadiCursor(TOPIC, "0", "5")),
+                ImmutableList.of(new NakadiCursor(TOPIC, "0", "10")));
+    }
+
+    @Test(expected = UnprocessableEntityException.class)
+    public void whenStartIsAfterEndThenUnprocessableEntity() throws Exception {
+        eventExporter.createExport("client", "et", TOPIC,
+                new ExportRequest(ImmutableList.of(new ExportRange("0", "11", "10")), null),
+                new ByteArrayOutputStream());
+    }
+
+    @Test(expected = UnprocessableEntityException.class)
+    public void whenContinuationTokenIsInvalidThenUnprocessableEntity() throws Exception {
+        eventExporter.createExport("client", "et", TOPIC, new ExportRequest(null, "not a token"),
+                new ByteArrayOutputStream());
+    }
+
+    @Test(expected = NoConnectionSlotsException.class)
+    public void whenAllExportSlotsAreTakenThenNoConnectionSlots() throws Exception {
+        final ExportRequest request = new ExportRequest(ImmutableList.of(new ExportRange("0", "1", "10")), null);
+        eventExporter.createExport("client", "et", TOPIC, request, new ByteArrayOutputStream());
+        eventExporter.createExport("client", "et", TOPIC, request, new ByteArrayOutputStream());
+    }
+}
@@ -0,0 +1,149 @@
+package org.zalando.nakadi.service;
+
+import com.google.common.collect.ImmutableList;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.Before;
+import org.junit.Test;
+import org.zalando.nakadi.config.NakadiSettings;
+import org.zalando.nakadi.domain.ConsumedEvent;
+import org.zalando.nakadi.domain.NakadiCursor;
+import org.zalando.nakadi.exceptions.UnprocessableEntityException;
+import org.zalando.nakadi.repository.EventConsumer;
+import org.zalando.nakadi.repository.TopicRepository;
+import org.zalando.nakadi.util.FeatureToggleService;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class EventFetcherTest {
+
+    private static final String TOPIC = "topic";
+    private static final List<NakadiCursor> CURSORS = ImmutableList.of(new NakadiCursor(TOPIC, "0", "9"));
+
+    private TopicRepository topicRepository;
+    private EventConsumer consumer;
+    private EventFetcher eventFetcher;
+
+    @Before
+    public void setUp() throws Exception {
+        topicRepository = mock(TopicRepository.class);
+        consumer = mock(EventConsumer.class);
+        when(topicRepository.createFetchConsumer(any(), anyLong())).thenReturn(consumer);
+        final ConsumptionQuotaService quotaService = mock(ConsumptionQuotaService.class);
+        when(quotaService.getThrottle(any(), any())).thenReturn(ConsumptionThrottle.NONE);
+        final NakadiSettings nakadiSettings = mock(NakadiSettings.class);
+        // every event is 5 bytes long, so responses are limited to 4 events
+        when(nakadiSettings.getEventMaxBytes()).thenReturn(2L);
+        eventFetcher = new EventFetcher(topicRepository,
+                new CursorConverter(mock(FeatureToggleService.class)), quotaService, nakadiSettings);
+    }
+
+    @Test
+    public void whenLimitIsReachedThenRestOfEventsIsNotRead() throws Exception {
+        final Queue<ConsumedEvent> events = events(10);
+        when(consumer.readEvent(anyLong())).thenAnswer(invocation -> Optional.ofNullable(events.poll()));
+
+        final String response = fetch(3, null, 0L);
+
+        assertThat(response, equalTo("{\"items\":[{\"cursor\":{\"partition\":\"0\",\"offset\":\"12\"}," +
+                "\"events\":[\"e10\",\"e11\",\"e12\"]}]}"));
+        assertThat(events.size(), equalTo(7));
+        verify(consumer).close();
+    }
+
+    @Test
+    public void whenBytesLimitIsReachedThenCursorPointsToLastReturnedEvent() throws Exception {
+        final Queue<ConsumedEvent> events = events(10);
+        when(consumer.readEvent(anyLong())).thenAnswer(invocation -> Optional.ofNullable(events.poll()));
+
+        // every event is 5 bytes long
+        final String response = fetch(null, 12L, 0L);
+
+        assertThat(response, equalTo("{\"items\":[{\"cursor\":{\"partition\":\"0\",\"offset\":\"11\"}," +
+                "\"events\":[\"e10\",\"e11\"]}]}"));
+    }
+
+    @Test
+    public void whenThereAreNoEventsThenFetchWaitsForThemAndReturnsRequestedCursors() throws Exception {
+        when(consumer.readEvent(anyLong())).thenAnswer(invocation -> {
+            Thread.sleep(Math.min(10, (Long) invocation.getArguments()[0]));
+            return Optional.empty();
+        });
+
+        final long start = System.currentTimeMillis();
+        final String response = fetch(null, null, 200L);
+        final long duration = System.currentTimeMillis() - start;
+
+        assertThat(response, equalTo("{\"items\":[{\"cursor\":{\"partition\":\"0\",\"offset\":\"9\"}}]}"));
+        assertThat(duration, greaterThanOrEqualTo(200L));
+        assertThat(duration, lessThan(1000L));
+    }
+
+    @Test
+    public void whenEventsAreReadThenFetchReturnsWithoutWaitingForMore() throws Exception {
+        final Queue<ConsumedEvent> events = events(2);
+        when(consumer.readEvent(anyLong())).thenAnswer(invocation -> {
+            final long wait = (Long) invocation.getArguments()[0];
+            if (events.isEmpty()) {
+                Thread.sleep(wait);
+            }
+            return Optional.ofNullable(events.poll());
+        });
+
+        final long start = System.currentTimeMillis();
+        final String response = fetch(null, null, EventFetcher.MAX_WAIT_MILLIS);
+
+        assertThat(response, equalTo("{\"items\":[{\"cursor\":{\"partition\":\"0\",\"offset\":\"11\"}," +
+                "\"events\":[\"e10\",\"e11\"]}]}"));
+        assertThat(System.currentTimeMillis() - start, lessThan(1000L));
+    }
+
+    @Test(expected = UnprocessableEntityException.class)
+    public void whenLimitIsNotPositiveThenUnprocessableEntity() throws Exception {
+        fetch(0, null, null);
+    }
+
+    @Test(expected = UnprocessableEntityException.class)
+    public void whenLimitIsTooBigThenUnprocessableEntity() throws Exception {
+        fetch(EventFetcher.MAX_LIMIT + 1, null, null);
+    }
+
+    @Test(expected = UnprocessableEntityException.class)
+    public void whenBytesLimitIsTooBigThenUnprocessableEntity() throws Exception {
+        fetch(null, 21L, null);
+    }
+
+    @Test
+    public void whenBytesLimitIsNotSetThenResponseIsLimitedByMaximum() throws Exception {
+        final Queue<ConsumedEvent> events = events(10);
+        when(consumer.readEvent(anyLong())).thenAnswer(invocation -> Optional.ofNullable(events.poll()));
+
+        final String response = fetch(null, 0L, 0L);
+
+        assertThat(response, equalTo("{\"items\":[{\"cursor\":{\"partition\":\"0\",\"offset\":\"13\"}," +
+                "\"events\":[\"e10\",\"e11\",\"e12\",\"e13\"]}]}"));
+    }
+
+    private String fetch(final Integer limit, final Long limitBytes, final Long maxWaitMillis) throws Exception {
+        return new String(eventFetcher.fetchEvents("client", "et", CURSORS, limit, limitBytes, maxWaitMillis),
+                StandardCharsets.UTF_8);
+    }
+
+    private static Queue<ConsumedEvent> events(final int count) {
+        return IntStream.range(10, 10 + count)
+                .mapToObj(i -> new ConsumedEvent("\"e" + i + "\"", new NakadiCursor(TOPIC, "0", String.valueOf(i))))
+                .collect(Collectors.toCollection(LinkedList::new));
+    }
+}
@@ -0,0 +1,66 @@
+package org.zalando.nakadi.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.zalando.nakadi.exceptions.UnprocessableEntityException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static uk.co.datumedge.hamcrest.json.SameJSONAs.sameJSONAs;
+
+public class EventFilterTest {
+
+    private static final String EVENT = "{\"metadata\":{\"eid\":\"e1\",\"event_type\":\"order.created\"}," +
+            "\"data\":{\"key\":\"a\",\"amount\":10,\"flag\":true,\"items\":[{\"id\":1}],\"note\":null}}";
+
+    @Test
+    public void whenNothingIsSetThenEventIsNotChanged() throws UnprocessableEntityException {
+        final EventFilter filter = EventFilter.of(null, " ");
+        Assert.assertTrue(filter.isEmpty());
+        Assert.assertSame(EVENT, filter.apply(EVENT));
+    }
+
+    @Test
+    public void whenAllFieldsMatchThenEventIsStreamed() throws UnprocessableEntityException {
+        Assert.assertSame(EVENT, EventFilter.of("{\"metadata.event_type\":\"order.created\"," +
+                "\"data.key\":[\"b\",\"a\"],\"data.amount\":10.0,\"data.flag\":true,\"data.note\":null}", null)
+                .apply(EVENT));
+    }
+
+    @Test
+    public void whenFieldDoesNotMatchOrIsAbsentThenEventIsFilteredOut() throws UnprocessableEntityException {
+        Assert.assertNull(EventFilter.of("{\"data.key\":[\"b\",\"c\"]}", null).apply(EVENT));
+        Assert.assertNull(EventFilter.of("{\"data.amount\":\"10\"}", null).apply(EVENT));
+        Assert.assertNull(EventFilter.of("{\"data.missing\":\"a\"}", null).apply(EVENT));
+        Assert.assertNull(EventFilter.of("{\"data.items\":1}", null).apply(EVENT));
+        Assert.assertNull(EventFilter.of("{\"data.key\":\"a\",\"metadata.eid\":\"e2\"}", null).apply(EVENT));
+    }
+
+    @Test
+    public void whenFieldsAreSetThenOnlyTheyAreStreamed() throws UnprocessableEntityException {
+        final String projected = EventFilter.of("{\"data.key\":\"a\"}", "metadata.eid, data.items,data.missing")
+                .apply(EVENT);
+        assertThat(projected, sameJSONAs("{\"metadata\":{\"eid\":\"e1\"},\"data\":{\"items\":[{\"id\":1}]}}"));
+    }
+
+    @Test
+    public void whenEventIsNotJsonObjectThenItIsStreamedAsIs() throws UnprocessableEntityException {
+        Assert.assertEquals("not json", EventFilter.of(null, "data").apply("not json"));
+        Assert.assertNull(EventFilter.of("{\"data\":1}", null).apply("[1]"));
+    }
+
+    @Test
+    public void whenFilterIsInvalidThenItIsRejected() {
+        for (final String filter : new String[]{"{", "[]", "{}", "{\"data\":{\"a\":1}}", "{\"data..key\":1}"}) {
+            try {
+                EventFilter.of(filter, null);
+                Assert.fail("Filter " + filter + " should be rejected");
+            } catch (final UnprocessableEntityException ignore) {
+            }
+        }
+    }
+
+    @Test(expected = UnprocessableEntityException.class)
+    public void whenFieldsAreInvalidThenTheyAreRejected() throws UnprocessableEntityException {
+        EventFilter.of(null, "metadata.eid,,data");
+    }
+}
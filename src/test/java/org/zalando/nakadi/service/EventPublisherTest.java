@@ -6,6 +6,7 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mockito;
 import org.zalando.nakadi.config.NakadiSettings;
+import org.zalando.nakadi.domain.BatchFactory;
 import org.zalando.nakadi.domain.BatchItem;
 import org.zalando.nakadi.domain.BatchItemResponse;
 import org.zalando.nakadi.domain.EventPublishResult;
@@ -17,6 +18,7 @@ import org.zalando.nakadi.exceptions.EnrichmentException;
 import org.zalando.nakadi.exceptions.EventPublishingException;
 import org.zalando.nakadi.exceptions.EventTypeTimeoutException;
 import org.zalando.nakadi.exceptions.IllegalScopeException;
+import org.zalando.nakadi.exceptions.NoSuchEventTypeException;
 import org.zalando.nakadi.exceptions.PartitioningException;
 import org.zalando.nakadi.partitioning.PartitionResolver;
 import org.zalando.nakadi.repository.TopicRepository;
@@ -33,9 +35,12 @@ import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.TimeoutException;
 
 import static org.hamcrest.CoreMatchers.is;
@@ -75,8 +80,8 @@ public class EventPublisherTest {
     private final TimelineSync timelineSync = mock(TimelineSync.class);
     private final Enrichment enrichment = mock(Enrichment.class);
     private final NakadiSettings nakadiSettings = new NakadiSettings(0, 0, 0, TOPIC_RETENTION_TIME_MS, 0, 60,
-            NAKADI_POLL_TIMEOUT, NAKADI_SEND_TIMEOUT, TIMELINE_WAIT_TIMEOUT_MS, NAKADI_EVENT_MAX_BYTES,
-            NAKADI_SUBSCRIPTION_MAX_PARTITIONS);
+            NAKADI_POLL_TIMEOUT, NAKADI_POLL_TIMEOUT, NAKADI_SEND_TIMEOUT, TIMELINE_WAIT_TIMEOUT_MS,
+            NAKADI_EVENT_MAX_BYTES, NAKADI_SUBSCRIPTION_MAX_PARTITIONS);
     private final EventPublisher publisher = new EventPublisher(topicRepository, cache, partitionResolver,
             enrichment, nakadiSettings, timelineSync);
 
@@ -433,6 +438,88 @@ public class EventPublisherTest {
                 new NakadiClient(CLIENT_ID, Collections.emptySet()));
     }
 
+    @Test
+    public void whenPublishingMultipleThenOnlyPreparedBatchesAreSubmittedTogether() throws Exception {
+        final EventType eventType1 = EventTypeTestBuilder.builder().name("et1").topic("topic1").build();
+        final EventType eventType2 = EventTypeTestBuilder.builder().name("et2").topic("topic2").build();
+        final EventType eventType3 = EventTypeTestBuilder.builder().name("et3").topic("topic3").build();
+        mockSuccessfulValidation(eventType1);
+        mockFaultValidation(eventType2, "error");
+        mockSuccessfulValidation(eventType3);
+        final Map<String, List<BatchItem>> batches = new TreeMap<>();
+        batches.put("et1", BatchFactory.from(buildDefaultBatch(2).toString()));
+        batches.put("et2", BatchFactory.from(buildDefaultBatch(1).toString()));
+        batches.put("et3", BatchFactory.from(buildDefaultBatch(1).toString()));
+        Mockito.doAnswer(invocation -> {
+            batches.get("et1").forEach(item -> item.updateStatusAndDetail(EventPublishingStatus.SUBMITTED, ""));
+            batches.get("et3").forEach(item -> item.updateStatusAndDetail(EventPublishingStatus.FAILED, "error"));
+            throw new EventPublishingException("error");
+        }).when(topicRepository).syncPostBatches(any());
+
+        final Map<String, EventPublishResult> results = publisher.publishMultiple(batches, FULL_ACCESS_CLIENT);
+
+        assertThat(results.get("et1").getStatus(), equalTo(EventPublishingStatus.SUBMITTED));
+        assertThat(results.get("et2").getStatus(), equalTo(EventPublishingStatus.ABORTED));
+        assertThat(results.get("et2").getStep(), equalTo(EventPublishingStep.VALIDATING));
+        assertThat(results.get("et3").getStatus(), equalTo(EventPublishingStatus.FAILED));
+        final Map<String, List<BatchItem>> submitted = new HashMap<>();
+        submitted.put("topic1", batches.get("et1"));
+        submitted.put("topic3", batches.get("et3"));
+        verify(topicRepository, times(1)).syncPostBatches(eq(submitted));
+        verify(topicRepository, times(0)).syncPostBatch(any(), any());
+    }
+
+    @Test
+    public void whenPublishingMultipleThenAllEventTypesAreLockedAndReleased() throws Exception {
+        final EventType eventType1 = EventTypeTestBuilder.builder().name("et1").topic("topic1").build();
+        final EventType eventType2 = EventTypeTestBuilder.builder().name("et2").topic("topic2").build();
+        mockSuccessfulValidation(eventType1);
+        mockSuccessfulValidation(eventType2);
+        final Closeable etCloser = mock(Closeable.class);
+        Mockito.when(timelineSync.workWithEventType(any(String.class), anyLong())).thenReturn(etCloser);
+        final Map<String, List<BatchItem>> batches = new TreeMap<>();
+        batches.put("et1", BatchFactory.from(buildDefaultBatch(1).toString()));
+        batches.put("et2", BatchFactory.from(buildDefaultBatch(1).toString()));
+
+        publisher.publishMultiple(batches, FULL_ACCESS_CLIENT);
+
+        verify(timelineSync, times(1)).workWithEventType(eq("et1"), eq(TIMELINE_WAIT_TIMEOUT_MS));
+        verify(timelineSync, times(1)).workWithEventType(eq("et2"), eq(TIMELINE_WAIT_TIMEOUT_MS));
+        verify(etCloser, times(2)).close();
+    }
+
+    @Test
+    public void whenPublishingMultipleAndEventTypeCanNotBeUsedThenOnlyItsBatchIsNotPublished() throws Exception {
+        final EventType eventType1 = EventTypeTestBuilder.builder().name("et1").topic("topic1").build();
+        final EventType eventType2 = EventTypeTestBuilder.builder().name("et2").topic("topic2")
+                .writeScopes(SCOPE_WRITE).build();
+        mockSuccessfulValidation(eventType1);
+        mockSuccessfulValidation(eventType2);
+        Mockito.when(cache.getEventType("et3")).thenThrow(new NoSuchEventTypeException("not found"));
+        Mockito.when(timelineSync.workWithEventType(eq("et4"), anyLong())).thenThrow(new TimeoutException());
+        final Map<String, List<BatchItem>> batches = new TreeMap<>();
+        batches.put("et1", BatchFactory.from(buildDefaultBatch(1).toString()));
+        batches.put("et2", BatchFactory.from(buildDefaultBatch(1).toString()));
+        batches.put("et3", BatchFactory.from(buildDefaultBatch(1).toString()));
+        batches.put("et4", BatchFactory.from(buildDefaultBatch(1).toString()));
+        Mockito.doAnswer(invocation -> {
+            batches.get("et1").forEach(item -> item.updateStatusAndDetail(EventPublishingStatus.SUBMITTED, ""));
+            return null;
+        }).when(topicRepository).syncPostBatches(any());
+
+        final Map<String, EventPublishResult> results = publisher.publishMultiple(batches,
+                new NakadiClient(CLIENT_ID, Collections.emptySet()));
+
+        assertThat(results.get("et1").getStatus(), equalTo(EventPublishingStatus.SUBMITTED));
+        assertThat(results.get("et2").getStatus(), equalTo(EventPublishingStatus.ABORTED));
+        assertThat(results.get("et3").getStatus(), equalTo(EventPublishingStatus.ABORTED));
+        assertThat(results.get("et3").getResponses().get(0).getDetail(), equalTo("not found"));
+        assertThat(results.get("et4").getStatus(), equalTo(EventPublishingStatus.FAILED));
+        assertThat(results.get("et4").getResponses().get(0).getPublishingStatus(),
+                equalTo(EventPublishingStatus.FAILED));
+        verify(topicRepository, times(1)).syncPostBatches(eq(Collections.singletonMap("topic1", batches.get("et1"))));
+    }
+
     private void mockFailedPublishing() throws Exception {
         Mockito
                 .doThrow(EventPublishingException.class)
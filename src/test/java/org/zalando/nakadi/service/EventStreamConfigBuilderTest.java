@@ -15,7 +15,7 @@ public class EventStreamConfigBuilderTest {
                 .withBatchTimeout(0)
                 .build();
 
-        assertThat(config.getBatchTimeout(), is(30));
+        assertThat(config.getBatchTimeoutMillis(), is(30000L));
     }
 
     @Test
@@ -25,7 +25,7 @@ public class EventStreamConfigBuilderTest {
                 .withBatchLimit(1)
                 .build();
 
-        assertThat(config.getBatchTimeout(), is(30));
+        assertThat(config.getBatchTimeoutMillis(), is(30000L));
     }
 
     @Test
@@ -36,7 +36,36 @@ public class EventStreamConfigBuilderTest {
                 .withBatchTimeout(29)
                 .build();
 
-        assertThat(config.getBatchTimeout(), is(29));
+        assertThat(config.getBatchTimeoutMillis(), is(29000L));
+    }
+
+    @Test
+    public void batchTimeoutMillisTakesPrecedence() throws UnprocessableEntityException {
+        final EventStreamConfig config = EventStreamConfig
+                .builder()
+                .withBatchLimit(1)
+                .withBatchTimeout(29)
+                .withBatchTimeoutMillis(50)
+                .build();
+
+        assertThat(config.getBatchTimeoutMillis(), is(50L));
+    }
+
+    @Test(expected = UnprocessableEntityException.class)
+    public void batchTimeoutMillisBelowMinimum() throws UnprocessableEntityException {
+        EventStreamConfig
+                .builder()
+                .withBatchTimeoutMillis(1)
+                .build();
+    }
+
+    @Test(expected = UnprocessableEntityException.class)
+    public void streamTimeoutLessThenBatchTimeoutMillis() throws UnprocessableEntityException {
+        EventStreamConfig
+                .builder()
+                .withBatchTimeoutMillis(1500)
+                .withStreamTimeout(1)
+                .build();
     }
 
     @Test(expected = UnprocessableEntityException.class)
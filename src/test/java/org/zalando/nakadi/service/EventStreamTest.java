@@ -1,6 +1,7 @@
 package org.zalando.nakadi.service;
 
 import com.google.common.collect.ImmutableList;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -25,7 +26,10 @@ import static java.util.Collections.nCopies;
 import static java.util.Optional.empty;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.arrayWithSize;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.core.Is.is;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
@@ -196,6 +200,106 @@ public class EventStreamTest {
         assertThat(batches[2], sameJSONAs(jsonBatch("0", "000000000000000000", Optional.of(nCopies(2, DUMMY)))));
     }
 
+    @Test(timeout = 10000)
+    public void whenBatchTimeoutMillisIsSetThenWaitingForEventsIsLimitedByIt()
+            throws NakadiException, IOException, InterruptedException {
+        final EventStreamConfig config = EventStreamConfig
+                .builder()
+                .withCursors(ImmutableList.of(new NakadiCursor(TOPIC, "0", "0")))
+                .withBatchTimeoutMillis(50)
+                .withStreamKeepAliveLimit(4)
+                .build();
+        final NakadiKafkaConsumer consumer = mock(NakadiKafkaConsumer.class);
+        final List<Long> waits = new ArrayList<>();
+        when(consumer.readEvent(anyLong())).thenAnswer(invocation -> {
+            final long wait = (Long) invocation.getArguments()[0];
+            waits.add(wait);
+            Thread.sleep(Math.max(0, Math.min(wait, 100)));
+            return empty();
+        });
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final EventStream eventStream = new EventStream(consumer, out, config, mock(BlacklistService.class),
+                cursorConverter);
+        final long start = System.currentTimeMillis();
+        eventStream.streamEvents(new AtomicBoolean(true));
+        final long duration = System.currentTimeMillis() - start;
+
+        assertThat(out.toString().split(BATCH_SEPARATOR), arrayWithSize(4));
+        assertThat(waits.stream().allMatch(wait -> wait <= 50), is(true));
+        assertThat(duration >= 200 && duration < 1000, is(true));
+    }
+
+    @Test(timeout = 10000)
+    public void whenConsumptionIsThrottledThenStreamWaitsAfterWritingBatches()
+            throws NakadiException, IOException, InterruptedException {
+        final EventStreamConfig config = EventStreamConfig
+                .builder()
+                .withCursors(ImmutableList.of(new NakadiCursor(TOPIC, "0", "0")))
+                .withBatchLimit(2)
+                .withStreamLimit(6)
+                .build();
+        final List<Long> acquiredEvents = new ArrayList<>();
+        final ConsumptionThrottle throttle = (events, bytes) -> {
+            acquiredEvents.add(events);
+            return 100;
+        };
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final EventStream eventStream = new EventStream(nCountDummyConsumerForPartition(6, "0"), out, config,
+                mock(BlacklistService.class), cursorConverter, throttle);
+        final long start = System.currentTimeMillis();
+        eventStream.streamEvents(new AtomicBoolean(true));
+        final long duration = System.currentTimeMillis() - start;
+
+        assertThat(out.toString().split(BATCH_SEPARATOR), arrayWithSize(3));
+        assertThat(acquiredEvents, equalTo(ImmutableList.of(2L, 2L, 2L)));
+        assertThat(duration >= 300, is(true));
+    }
+
+    @Test(timeout = 5000)
+    public void whenConnectionIsClosedWhileThrottledThenStreamStopsWaiting()
+            throws NakadiException, IOException, InterruptedException {
+        final EventStreamConfig config = EventStreamConfig
+                .builder()
+                .withCursors(ImmutableList.of(new NakadiCursor(TOPIC, "0", "0")))
+                .withBatchLimit(1)
+                .withStreamLimit(2)
+                .build();
+        final AtomicBoolean connectionReady = new AtomicBoolean(true);
+        final ConsumptionThrottle throttle = (events, bytes) -> {
+            connectionReady.set(false);
+            return 60000;
+        };
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final EventStream eventStream = new EventStream(nCountDummyConsumerForPartition(2, "0"), out, config,
+                mock(BlacklistService.class), cursorConverter, throttle);
+        eventStream.streamEvents(connectionReady);
+
+        assertThat(out.toString().split(BATCH_SEPARATOR), arrayWithSize(1));
+    }
+
+    @Test(timeout = 5000)
+    public void whenStreamTimeoutIsReachedWhileThrottledThenStreamStopsWaiting()
+            throws NakadiException, IOException, InterruptedException {
+        final EventStreamConfig config = EventStreamConfig
+                .builder()
+                .withCursors(ImmutableList.of(new NakadiCursor(TOPIC, "0", "0")))
+                .withBatchLimit(1)
+                .withStreamTimeout(1)
+                .withBatchTimeout(1)
+                .build();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final EventStream eventStream = new EventStream(nCountDummyConsumerForPartition(2, "0"), out, config,
+                mock(BlacklistService.class), cursorConverter, (events, bytes) -> 60000);
+        final long start = System.currentTimeMillis();
+        eventStream.streamEvents(new AtomicBoolean(true));
+
+        assertThat(System.currentTimeMillis() - start < 2000, is(true));
+    }
+
     @Test(timeout = 10000)
     public void whenReadingEventsTheOrderIsCorrect() throws NakadiException, IOException, InterruptedException {
         final EventStreamConfig config = EventStreamConfig
@@ -269,15 +373,152 @@ public class EventStreamTest {
         assertThat(batches[2], sameJSONAs(jsonBatch("2", "000000000000000000", Optional.of(nCopies(2, DUMMY)))));
     }
 
+    @Test(timeout = 10000)
+    public void whenBatchLimitBytesIsSetThenBatchesAreSplitBySize()
+            throws NakadiException, IOException, InterruptedException {
+        final EventStreamConfig config = EventStreamConfig
+                .builder()
+                .withCursors(ImmutableList.of(new NakadiCursor(TOPIC, "0", "0")))
+                .withBatchLimit(6)
+                .withBatchLimitBytes((long) (DUMMY.length() * 2))
+                .withStreamLimit(6)
+                .withBatchTimeout(30)
+                .build();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        final EventStream eventStream = new EventStream(
+                nCountDummyConsumerForPartition(6, "0"), out, config, mock(BlacklistService.class), cursorConverter);
+        eventStream.streamEvents(new AtomicBoolean(true));
+
+        final String[] batches = out.toString().split(BATCH_SEPARATOR);
+
+        assertThat(batches, arrayWithSize(3));
+        Arrays.stream(batches).forEach(batch ->
+                assertThat(batch, sameJSONAs(jsonBatch("0", "000000000000000000", Optional.of(nCopies(2, DUMMY))))));
+    }
+
+    @Test(timeout = 10000)
+    public void whenBatchesAreReadyTogetherThenTheyAreWrittenAtOnce()
+            throws NakadiException, IOException, InterruptedException {
+        final EventStreamConfig config = EventStreamConfig
+                .builder()
+                .withCursors(ImmutableList.of(
+                        new NakadiCursor(TOPIC, "0", "0"),
+                        new NakadiCursor(TOPIC, "1", "0"),
+                        new NakadiCursor(TOPIC, "2", "0")))
+                .withBatchLimit(1)
+                .withBatchTimeout(1)
+                .withStreamKeepAliveLimit(1)
+                .build();
+
+        final List<String> writes = new ArrayList<>();
+        final OutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(final byte[] b, final int off, final int len) {
+                writes.add(new String(b, off, len, EventStream.UTF8));
+            }
+        };
+
+        final EventStream eventStream =
+                new EventStream(emptyConsumer(), out, config, mock(BlacklistService.class), cursorConverter);
+        eventStream.streamEvents(new AtomicBoolean(true));
+
+        assertThat(writes.size(), is(1));
+        assertThat(writes.get(0).split(BATCH_SEPARATOR), arrayWithSize(3));
+    }
+
+    @Test(timeout = 10000)
+    public void whenFilterAndFieldsAreSetThenOnlyMatchingEventsAreProjected()
+            throws NakadiException, IOException, InterruptedException {
+        final EventStreamConfig config = EventStreamConfig
+                .builder()
+                .withCursors(ImmutableList.of(new NakadiCursor(TOPIC, "0", "0")))
+                .withBatchLimit(1)
+                .withStreamLimit(2)
+                .withFilter("{\"key\":[1,3]}")
+                .withFields("key")
+                .build();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final EventStream eventStream = new EventStream(predefinedConsumer(keyedEvents(4)), out, config,
+                mock(BlacklistService.class), cursorConverter);
+        eventStream.streamEvents(new AtomicBoolean(true));
+
+        final String[] batches = out.toString().split(BATCH_SEPARATOR);
+        assertThat(batches, arrayWithSize(2));
+        assertThat(batches[0], sameJSONAs(
+                "{\"cursor\":{\"partition\":\"0\",\"offset\":\"000000000000000001\"},\"events\":[{\"key\":1}]}"));
+        assertThat(batches[1], sameJSONAs(
+                "{\"cursor\":{\"partition\":\"0\",\"offset\":\"000000000000000003\"},\"events\":[{\"key\":3}]}"));
+    }
+
+    @Test(timeout = 10000)
+    public void whenAllEventsAreFilteredOutThenKeepAliveCursorIsMoved()
+            throws NakadiException, IOException, InterruptedException {
+        final EventStreamConfig config = EventStreamConfig
+                .builder()
+                .withCursors(ImmutableList.of(new NakadiCursor(TOPIC, "0", "0")))
+                .withBatchLimit(1)
+                .withBatchTimeout(1)
+                .withStreamKeepAliveLimit(1)
+                .withFilter("{\"key\":\"none\"}")
+                .build();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final EventStream eventStream = new EventStream(predefinedConsumer(keyedEvents(4)), out, config,
+                mock(BlacklistService.class), cursorConverter);
+        eventStream.streamEvents(new AtomicBoolean(true));
+
+        final String[] batches = out.toString().split(BATCH_SEPARATOR);
+        assertThat(batches, arrayWithSize(1));
+        assertThat(batches[0], sameJSONAs(jsonBatch("0", "000000000000000003", empty())));
+    }
+
+    @Test(timeout = 10000)
+    public void whenBinaryFramingIsSetThenBatchesAreWrittenInFrames()
+            throws NakadiException, IOException, InterruptedException {
+        final EventStreamConfig config = EventStreamConfig
+                .builder()
+                .withCursors(ImmutableList.of(new NakadiCursor(TOPIC, "0", "0")))
+                .withBatchLimit(2)
+                .withStreamLimit(4)
+                .withBinaryFraming(true)
+                .build();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final EventStream eventStream = new EventStream(predefinedConsumer(keyedEvents(4)), out, config,
+                mock(BlacklistService.class), cursorConverter);
+        eventStream.streamEvents(new AtomicBoolean(true));
+
+        final BinaryBatchDecoder decoder = new BinaryBatchDecoder(new ByteArrayInputStream(out.toByteArray()));
+        final BinaryBatchDecoder.Batch first = decoder.next();
+        assertThat(first.partition, equalTo("0"));
+        assertThat(first.offset, equalTo(1L));
+        assertThat(first.events, equalTo(keyedEvents(4).stream().limit(2).map(ConsumedEvent::getEvent)
+                .collect(Collectors.toList())));
+        final BinaryBatchDecoder.Batch second = decoder.next();
+        assertThat(second.offset, equalTo(3L));
+        assertThat(second.events.size(), equalTo(2));
+        assertThat(decoder.next(), nullValue());
+    }
+
+    private static Queue<ConsumedEvent> keyedEvents(final int count) {
+        return IntStream.range(0, count)
+                .mapToObj(index -> new ConsumedEvent("{\"key\":" + index + ",\"data\":\"" + DUMMY + "\"}",
+                        new NakadiCursor(TOPIC, "0", String.valueOf(index))))
+                .collect(Collectors.toCollection(LinkedList::new));
+    }
+
     private static NakadiKafkaConsumer emptyConsumer() throws NakadiException {
         final NakadiKafkaConsumer nakadiKafkaConsumer = mock(NakadiKafkaConsumer.class);
-        when(nakadiKafkaConsumer.readEvent()).thenReturn(empty());
+        when(nakadiKafkaConsumer.readEvent(anyLong())).thenReturn(empty());
         return nakadiKafkaConsumer;
     }
 
     private static NakadiKafkaConsumer endlessDummyConsumerForPartition(final String partition) throws NakadiException {
         final NakadiKafkaConsumer nakadiKafkaConsumer = mock(NakadiKafkaConsumer.class);
-        when(nakadiKafkaConsumer.readEvent())
+        when(nakadiKafkaConsumer.readEvent(anyLong()))
                 .thenReturn(Optional.of(new ConsumedEvent(DUMMY, new NakadiCursor(TOPIC, partition, "0"))));
         return nakadiKafkaConsumer;
     }
@@ -286,7 +527,7 @@ public class EventStreamTest {
             throws NakadiException {
         final NakadiKafkaConsumer nakadiKafkaConsumer = mock(NakadiKafkaConsumer.class);
         final AtomicInteger eventsToCreate = new AtomicInteger(eventNum);
-        when(nakadiKafkaConsumer.readEvent()).thenAnswer(invocation -> {
+        when(nakadiKafkaConsumer.readEvent(anyLong())).thenAnswer(invocation -> {
             if (eventsToCreate.get() > 0) {
                 eventsToCreate.set(eventsToCreate.get() - 1);
                 return Optional.of(new ConsumedEvent(DUMMY, new NakadiCursor(TOPIC, partition, "0")));
@@ -300,7 +541,7 @@ public class EventStreamTest {
     private static NakadiKafkaConsumer predefinedConsumer(final Queue<ConsumedEvent> events)
             throws NakadiException {
         final NakadiKafkaConsumer nakadiKafkaConsumer = mock(NakadiKafkaConsumer.class);
-        when(nakadiKafkaConsumer.readEvent()).thenAnswer(invocation -> Optional.ofNullable(events.poll()));
+        when(nakadiKafkaConsumer.readEvent(anyLong())).thenAnswer(invocation -> Optional.ofNullable(events.poll()));
         return nakadiKafkaConsumer;
     }
 
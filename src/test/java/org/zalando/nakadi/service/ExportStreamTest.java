@@ -0,0 +1,134 @@
+package org.zalando.nakadi.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import java.io.ByteArrayOutputStream;
+import java.util.Base64;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.Test;
+import org.zalando.nakadi.config.JsonConfig;
+import org.zalando.nakadi.domain.ConsumedEvent;
+import org.zalando.nakadi.domain.NakadiCursor;
+import org.zalando.nakadi.repository.EventConsumer;
+import org.zalando.nakadi.util.FeatureToggleService;
+import org.zalando.nakadi.view.ExportRange;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ExportStreamTest {
+
+    private static final String TOPIC = "topic";
+    private static final ObjectMapper MAPPER = new JsonConfig().jacksonObjectMapper();
+    private static final CursorConverter CURSOR_CONVERTER = new CursorConverter(mock(FeatureToggleService.class));
+
+    @Test(timeout = 10000)
+    public void whenRangesAreExportedThenStreamStopsAtEndOffsets() throws Exception {
+        final Queue<ConsumedEvent> events = new LinkedList<>();
+        events.addAll(events("0", 1, 3));
+        events.addAll(events("1", 11, 12));
+        final EventConsumer consumer = consumerOf(events);
+        final AtomicInteger closed = new AtomicInteger();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ExportStream exportStream = new ExportStream(consumer, out,
+                ImmutableList.of(cursor("0", 0), cursor("1", 10)),
+                ImmutableList.of(cursor("0", 3), cursor("1", 12)),
+                CURSOR_CONVERTER, MAPPER, ConsumptionThrottle.NONE, closed::incrementAndGet)) {
+            exportStream.exportEvents(new AtomicBoolean(true));
+        }
+
+        final List<JsonNode> lines = parseLines(out);
+        assertThat(lines.size(), equalTo(2));
+        assertThat(lines.get(0).get("cursor").get("offset").asText(), equalTo("3"));
+        assertThat(lines.get(0).get("events").size(), equalTo(3));
+        assertThat(decodeToken(lines.get(0)), equalTo(ImmutableList.of(new ExportRange("1", "10", "12"))));
+        assertThat(lines.get(1).get("cursor").get("partition").asText(), equalTo("1"));
+        assertThat(decodeToken(lines.get(1)), equalTo(ImmutableList.of()));
+        verify(consumer).close();
+        assertThat(closed.get(), equalTo(1));
+    }
+
+    @Test(timeout = 10000)
+    public void whenExportIsInterruptedThenTokenPointsAfterLastWrittenBatch() throws Exception {
+        final Queue<ConsumedEvent> events = new LinkedList<>(events("0", 1, ExportStream.BATCH_LIMIT + 1));
+        final AtomicBoolean connectionReady = new AtomicBoolean(true);
+        final EventConsumer consumer = mock(EventConsumer.class);
+        when(consumer.readEvent(anyLong())).thenAnswer(invocation -> {
+            final ConsumedEvent event = events.poll();
+            if (null == event) {
+                connectionReady.set(false);
+            }
+            return Optional.ofNullable(event);
+        });
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ExportStream(consumer, out, ImmutableList.of(cursor("0", 0)),
+                ImmutableList.of(cursor("0", 5000)), CURSOR_CONVERTER, MAPPER, ConsumptionThrottle.NONE, () -> {
+        }).exportEvents(connectionReady);
+
+        final List<JsonNode> lines = parseLines(out);
+        assertThat(lines.size(), equalTo(2));
+        assertThat(decodeToken(lines.get(0)), equalTo(ImmutableList.of(
+                new ExportRange("0", String.valueOf(ExportStream.BATCH_LIMIT), "5000"))));
+        assertThat(decodeToken(lines.get(1)), equalTo(ImmutableList.of(
+                new ExportRange("0", String.valueOf(ExportStream.BATCH_LIMIT + 1), "5000"))));
+    }
+
+    @Test(timeout = 10000)
+    public void whenExportIsThrottledThenConsumptionIsAcquiredForWrittenEvents() throws Exception {
+        final EventConsumer consumer = consumerOf(new LinkedList<>(events("0", 1, 4)));
+        final List<Long> acquired = new LinkedList<>();
+
+        new ExportStream(consumer, new ByteArrayOutputStream(), ImmutableList.of(cursor("0", 0)),
+                ImmutableList.of(cursor("0", 4)), CURSOR_CONVERTER, MAPPER, (events, bytes) -> {
+            acquired.add(events);
+            return 0;
+        }, () -> {
+        }).exportEvents(new AtomicBoolean(true));
+
+        assertThat(acquired, equalTo(ImmutableList.of(4L)));
+    }
+
+    private static EventConsumer consumerOf(final Queue<ConsumedEvent> events) {
+        final EventConsumer consumer = mock(EventConsumer.class);
+        when(consumer.readEvent(anyLong())).thenAnswer(invocation -> Optional.ofNullable(events.poll()));
+        return consumer;
+    }
+
+    private static List<ConsumedEvent> events(final String partition, final int from, final int to) {
+        return IntStream.rangeClosed(from, to)
+                .mapToObj(i -> new ConsumedEvent("{\"i\":" + i + "}", cursor(partition, i)))
+                .collect(Collectors.toList());
+    }
+
+    private static NakadiCursor cursor(final String partition, final long offset) {
+        return new NakadiCursor(TOPIC, partition, String.valueOf(offset));
+    }
+
+    private static List<JsonNode> parseLines(final ByteArrayOutputStream out) throws Exception {
+        final List<JsonNode> result = new LinkedList<>();
+        for (final String line : out.toString().split("\n")) {
+            result.add(MAPPER.readTree(line));
+        }
+        return result;
+    }
+
+    private static List<ExportRange> decodeToken(final JsonNode line) throws Exception {
+        return MAPPER.readValue(Base64.getUrlDecoder().decode(line.get("continuation_token").asText()),
+                new TypeReference<List<ExportRange>>() {
+                });
+    }
+}
@@ -0,0 +1,166 @@
+package org.zalando.nakadi.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Test;
+import org.zalando.nakadi.config.JsonConfig;
+import org.zalando.nakadi.config.NakadiSettings;
+import org.zalando.nakadi.domain.BatchItemResponse;
+import org.zalando.nakadi.domain.EventPublishResult;
+import org.zalando.nakadi.domain.EventPublishingStatus;
+import org.zalando.nakadi.domain.EventPublishingStep;
+import org.zalando.nakadi.security.Client;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class StreamingEventPublisherTest {
+
+    private static final String EVENT_TYPE = "et";
+    private final ObjectMapper objectMapper = new JsonConfig().jacksonObjectMapper();
+    private final Client client = mock(Client.class);
+    private EventPublisher publisher;
+    private StreamingEventPublisher streamingPublisher;
+
+    @Before
+    public void setUp() {
+        publisher = mock(EventPublisher.class);
+        final NakadiSettings nakadiSettings = mock(NakadiSettings.class);
+        when(nakadiSettings.getEventMaxBytes()).thenReturn(20L);
+        streamingPublisher = new StreamingEventPublisher(publisher, objectMapper, nakadiSettings, 3, 20);
+    }
+
+    @Test
+    public void whenEventsArriveTogetherThenTheyArePublishedInBatchesOfLimitedSize() throws Exception {
+        when(publisher.publish(any(), eq(EVENT_TYPE), eq(client)))
+                .thenReturn(new EventPublishResult(EventPublishingStatus.SUBMITTED, EventPublishingStep.NONE,
+                        Collections.emptyList()));
+
+        final List<String> published = new ArrayList<>();
+        final String acks = publish(input("{\"a\":1}\n{\"bytes\":\"limit\"}\n{\"a\":3}\n{\"a\":4}\n1\n{\"a\":6}"),
+                (events, result) -> published.add(events));
+
+        assertThat(published, equalTo(Arrays.asList(
+                "[{\"a\":1},{\"bytes\":\"limit\"}]", "[{\"a\":3},{\"a\":4},1]", "[{\"a\":6}]")));
+        assertThat(acks.split("\n").length, equalTo(3));
+        assertThat(acks.split("\n")[2], equalTo("{\"batch\":2,\"count\":1,\"publishing_status\":\"submitted\"}"));
+    }
+
+    @Test
+    public void whenDataIsNotAvailableThenBatchIsPublishedWithoutWaitingForMore() throws Exception {
+        when(publisher.publish(any(), eq(EVENT_TYPE), eq(client)))
+                .thenReturn(new EventPublishResult(EventPublishingStatus.SUBMITTED, EventPublishingStep.NONE,
+                        Collections.emptyList()));
+        // Input that delivers one line per read and has nothing more available in between
+        final byte[] data = "{\"a\":1}\n{\"a\":2}\n".getBytes(StandardCharsets.UTF_8);
+        final InputStream slowInput = new InputStream() {
+            private int position;
+
+            @Override
+            public int read() {
+                return position < data.length ? data[position++] : -1;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) {
+                if (position >= data.length) {
+                    return -1;
+                }
+                int count = 0;
+                while (count < len && position < data.length) {
+                    b[off + count++] = data[position];
+                    if (data[position++] == '\n') {
+                        break;
+                    }
+                }
+                return count;
+            }
+        };
+
+        publish(slowInput, (events, result) -> {
+        });
+
+        verify(publisher).publish(eq("[{\"a\":1}]"), eq(EVENT_TYPE), eq(client));
+        verify(publisher).publish(eq("[{\"a\":2}]"), eq(EVENT_TYPE), eq(client));
+    }
+
+    @Test
+    public void whenBatchIsNotPublishedThenAckContainsDetails() throws Exception {
+        final BatchItemResponse item = new BatchItemResponse();
+        item.setStep(EventPublishingStep.VALIDATING);
+        item.setDetail("bad event");
+        when(publisher.publish(any(), eq(EVENT_TYPE), eq(client)))
+                .thenReturn(new EventPublishResult(EventPublishingStatus.ABORTED, EventPublishingStep.VALIDATING,
+                        Collections.singletonList(item)))
+                .thenThrow(new JSONException("Unexpected character"));
+
+        final String acks = publish(input("{\"a\":1}\n{\"a\":2}\n{\"a\":3}\n{\"a\":4"), (events, result) -> {
+        });
+
+        assertThat(acks, equalTo("{\"batch\":0,\"count\":3,\"publishing_status\":\"aborted\"," +
+                "\"step\":\"validating\",\"items\":[{\"publishing_status\":\"aborted\",\"detail\":\"bad event\"," +
+                "\"step\":\"validating\",\"eid\":\"\"}]}\n" +
+                "{\"batch\":1,\"count\":1,\"publishing_status\":\"aborted\",\"step\":\"validating\"," +
+                "\"detail\":\"Unexpected character\"}\n"));
+    }
+
+    @Test
+    public void whenLineIsLongerThanEventMaxBytesThenOnlyThisEventIsRejected() throws Exception {
+        when(publisher.publish(any(), eq(EVENT_TYPE), eq(client)))
+                .thenReturn(new EventPublishResult(EventPublishingStatus.SUBMITTED, EventPublishingStep.NONE,
+                        Collections.emptyList()));
+        final List<String> published = new ArrayList<>();
+
+        final String acks = publish(input("{\"a\":1}\n{\"too\":\"large event\"}\n{\"a\":3}"),
+                (events, result) -> published.add(events));
+
+        assertThat(published, equalTo(Arrays.asList("[{\"a\":1}]", "[{\"a\":3}]")));
+        assertThat(acks, equalTo("{\"batch\":0,\"count\":1,\"publishing_status\":\"submitted\"}\n" +
+                "{\"batch\":1,\"count\":1,\"publishing_status\":\"aborted\",\"step\":\"validating\"," +
+                "\"items\":[{\"publishing_status\":\"aborted\",\"detail\":\"Event too large, max size is 20 " +
+                "bytes\",\"step\":\"validating\",\"eid\":\"\"}]}\n" +
+                "{\"batch\":2,\"count\":1,\"publishing_status\":\"submitted\"}\n"));
+    }
+
+    @Test
+    public void whenLastLineIsTooLongThenItIsNotPublished() throws Exception {
+        final StringBuilder data = new StringBuilder("{\"a\":\"");
+        for (int i = 0; i < 10000; ++i) {
+            data.append('x');
+        }
+
+        final String acks = publish(input(data.toString()), (events, result) -> {
+        });
+
+        verify(publisher, never()).publish(any(), any(), any());
+        assertThat(acks.split("\n").length, equalTo(1));
+    }
+
+    private InputStream input(final String data) {
+        return new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String publish(final InputStream input,
+                           final BiConsumer<String, EventPublishResult> onPublished)
+            throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        streamingPublisher.publish(EVENT_TYPE, client, input, out, onPublished);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,50 @@
+package org.zalando.nakadi.service;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void whenTokensAreAvailableThenNoWaitIsRequired() {
+        final TokenBucket bucket = new TokenBucket(100, 0);
+        Assert.assertEquals(0, bucket.take(60, 0));
+        Assert.assertEquals(0, bucket.take(40, 0));
+    }
+
+    @Test
+    public void whenBucketIsInDebtThenWaitIsProportionalToDebt() {
+        final TokenBucket bucket = new TokenBucket(100, 0);
+        Assert.assertEquals(500, bucket.take(150, 0));
+        // half a second later debt is paid off
+        Assert.assertEquals(0, bucket.take(0, SECOND / 2));
+        Assert.assertEquals(100, bucket.take(10, SECOND / 2));
+    }
+
+    @Test
+    public void whenBucketIsIdleThenItIsRefilledOnlyUpToRate() {
+        final TokenBucket bucket = new TokenBucket(100, 0);
+        Assert.assertEquals(0, bucket.take(100, 0));
+        Assert.assertEquals(0, bucket.take(100, 10 * SECOND));
+        Assert.assertEquals(10, bucket.take(1, 10 * SECOND));
+    }
+
+    @Test
+    public void whenRateIsChangedThenDebtIsKept() {
+        final TokenBucket bucket = new TokenBucket(100, 0);
+        Assert.assertEquals(1000, bucket.take(200, 0));
+        bucket.setRatePerSecond(200, 0);
+        Assert.assertEquals(500, bucket.take(0, 0));
+    }
+
+    @Test
+    public void whenRateIsDecreasedThenTokensAreLimitedByNewRate() {
+        final TokenBucket bucket = new TokenBucket(100, 0);
+        bucket.setRatePerSecond(10, 0);
+        Assert.assertEquals(0, bucket.take(10, 0));
+        Assert.assertEquals(100, bucket.take(1, 0));
+    }
+}
@@ -0,0 +1,159 @@
+package org.zalando.nakadi.service.subscription;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+public class HashedWheelTimerTest {
+
+    private final HashedWheelTimer timer =
+            new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 8, Executors.defaultThreadFactory());
+
+    @After
+    public void tearDown() {
+        timer.stop();
+    }
+
+    @Test(timeout = 5000)
+    public void whenTimeoutExpiresThenTaskIsPassedToTargetNotEarlierThanDelay() throws InterruptedException {
+        final CountDownLatch executed = new CountDownLatch(1);
+        final long start = System.nanoTime();
+        final long[] expiredAfter = new long[1];
+
+        timer.schedule(tasks -> {
+            expiredAfter[0] = System.nanoTime() - start;
+            tasks.forEach(Runnable::run);
+        }, executed::countDown, 50, TimeUnit.MILLISECONDS);
+
+        Assert.assertTrue(executed.await(1, TimeUnit.SECONDS));
+        Assert.assertTrue(expiredAfter[0] >= TimeUnit.MILLISECONDS.toNanos(50));
+        Assert.assertEquals(0, timer.getPending());
+    }
+
+    @Test(timeout = 5000)
+    public void whenDelayIsLongerThanWheelThenTimeoutWaitsForItsRound() throws InterruptedException {
+        // Wheel of 8 ticks covers 80 ms
+        final CountDownLatch executed = new CountDownLatch(1);
+        final long start = System.nanoTime();
+
+        timer.schedule(tasks -> tasks.forEach(Runnable::run), executed::countDown, 200, TimeUnit.MILLISECONDS);
+
+        Assert.assertTrue(executed.await(1, TimeUnit.SECONDS));
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    @Test(timeout = 5000)
+    public void whenTimeoutIsCancelledThenTaskIsNotExecuted() throws InterruptedException {
+        final AtomicInteger executed = new AtomicInteger();
+        final CountDownLatch other = new CountDownLatch(1);
+        final Consumer<List<Runnable>> target = tasks -> tasks.forEach(Runnable::run);
+
+        final HashedWheelTimer.Timeout timeout =
+                timer.schedule(target, executed::incrementAndGet, 30, TimeUnit.MILLISECONDS);
+        timer.schedule(target, other::countDown, 60, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(timeout.cancel());
+        Assert.assertFalse(timeout.cancel());
+
+        Assert.assertTrue(other.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(0, executed.get());
+        Assert.assertTrue(timeout.isCancelled());
+        Assert.assertEquals(0, timer.getPending());
+    }
+
+    @Test(timeout = 5000)
+    public void whenTimeoutsOfTargetExpireOnSameTickThenTheyArePassedTogether() throws InterruptedException {
+        final List<List<Runnable>> calls = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch executed = new CountDownLatch(3);
+        final Consumer<List<Runnable>> target = tasks -> {
+            calls.add(tasks);
+            tasks.forEach(Runnable::run);
+        };
+
+        for (int i = 0; i < 3; ++i) {
+            timer.schedule(target, executed::countDown, 0, TimeUnit.MILLISECONDS);
+        }
+
+        Assert.assertTrue(executed.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(1, calls.size());
+        Assert.assertEquals(3, calls.get(0).size());
+    }
+
+    @Ignore("Benchmark, run manually")
+    @Test
+    public void scheduleMillionTimersBenchmark() throws InterruptedException {
+        final int timers = 1_000_000;
+        final int targets = 10_000;
+        final List<Consumer<List<Runnable>>> contexts = new ArrayList<>(targets);
+        final AtomicInteger targetCalls = new AtomicInteger();
+        for (int i = 0; i < targets; ++i) {
+            contexts.add(tasks -> {
+                targetCalls.incrementAndGet();
+                tasks.forEach(Runnable::run);
+            });
+        }
+        final Runnable noop = () -> {
+        };
+
+        final HashedWheelTimer wheel =
+                new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 512, Executors.defaultThreadFactory());
+        try {
+            final CountDownLatch expired = new CountDownLatch(timers / 2);
+            final Runnable countDown = expired::countDown;
+            final List<HashedWheelTimer.Timeout> timeouts = new ArrayList<>(timers);
+            long start = System.nanoTime();
+            for (int i = 0; i < timers; ++i) {
+                timeouts.add(wheel.schedule(contexts.get(i % targets), i % 2 == 0 ? countDown : noop,
+                        1000 + i % 1000, TimeUnit.MILLISECONDS));
+            }
+            final long wheelSchedule = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 1; i < timers; i += 2) {
+                timeouts.get(i).cancel();
+            }
+            final long wheelCancel = System.nanoTime() - start;
+            expired.await();
+            System.out.println(String.format("Hashed wheel: schedule %d ms, cancel half %d ms, %d target calls " +
+                            "for %d expired timeouts",
+                    TimeUnit.NANOSECONDS.toMillis(wheelSchedule), TimeUnit.NANOSECONDS.toMillis(wheelCancel),
+                    targetCalls.get(), timers / 2));
+        } finally {
+            wheel.stop();
+        }
+
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        try {
+            final CountDownLatch expired = new CountDownLatch(timers / 2);
+            final List<ScheduledFuture<?>> futures = new ArrayList<>(timers);
+            long start = System.nanoTime();
+            for (int i = 0; i < timers; ++i) {
+                futures.add(executor.schedule(i % 2 == 0 ? expired::countDown : noop,
+                        1000 + i % 1000, TimeUnit.MILLISECONDS));
+            }
+            final long executorSchedule = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 1; i < timers; i += 2) {
+                futures.get(i).cancel(false);
+            }
+            final long executorCancel = System.nanoTime() - start;
+            expired.await();
+            System.out.println(String.format("Scheduled executor: schedule %d ms, cancel half %d ms, " +
+                            "%d cancelled tasks left in queue",
+                    TimeUnit.NANOSECONDS.toMillis(executorSchedule), TimeUnit.NANOSECONDS.toMillis(executorCancel),
+                    executor.getQueue().size()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.zalando.nakadi.service.subscription;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.zalando.nakadi.domain.NakadiCursor;
+import org.zalando.nakadi.repository.SubscriptionOffsetRepository;
+import org.zalando.nakadi.service.subscription.model.Partition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class LocalStreamTest {
+
+    private static final Partition.PartitionKey P0 = new Partition.PartitionKey("t", "0");
+    private static final Partition.PartitionKey P1 = new Partition.PartitionKey("t", "1");
+
+    private SubscriptionOffsetRepository offsetRepository;
+    private List<Partition.PartitionKey> notified;
+    private LocalStream stream;
+
+    @Before
+    public void setUp() {
+        offsetRepository = Mockito.mock(SubscriptionOffsetRepository.class);
+        Mockito.when(offsetRepository.commitOffsets(Mockito.any(), Mockito.any()))
+                .thenReturn(CompletableFuture.completedFuture(null));
+        notified = new ArrayList<>();
+        stream = new LocalStream("s", "stream", offsetRepository, notified::add);
+        stream.addPartition(P0, 10L);
+        stream.addPartition(P1, 20L);
+    }
+
+    @Test
+    public void whenCursorsAreCommittedThenOffsetsAreMovedForwardOnly() {
+        final List<Boolean> result = stream.commit(ImmutableList.of(
+                cursor("0", 12), cursor("0", 11), cursor("1", 20), cursor("0", 15)));
+
+        Assert.assertEquals(ImmutableList.of(true, false, false, true), result);
+        Assert.assertEquals(Long.valueOf(15L), stream.getOffset(P0));
+        Assert.assertEquals(Long.valueOf(20L), stream.getOffset(P1));
+        Assert.assertEquals(ImmutableList.of(P0), notified);
+        Mockito.verifyZeroInteractions(offsetRepository);
+    }
+
+    @Test
+    public void whenPartitionIsNotStreamedThenNothingIsCommitted() {
+        stream.removePartition(P1);
+
+        Assert.assertNull(stream.commit(ImmutableList.of(cursor("0", 12), cursor("1", 25))));
+        Assert.assertEquals(Long.valueOf(10L), stream.getOffset(P0));
+        Assert.assertTrue(notified.isEmpty());
+    }
+
+    @Test
+    public void whenFlushedThenOnlyCommittedOffsetsAreWritten() {
+        stream.commit(ImmutableList.of(cursor("0", 12)));
+
+        stream.flush().join();
+        stream.flush().join();
+
+        Mockito.verify(offsetRepository, Mockito.times(1)).commitOffsets("s", ImmutableMap.of(P0, 12L));
+        Mockito.verifyNoMoreInteractions(offsetRepository);
+    }
+
+    @Test
+    public void whenPartitionIsRemovedThenItsOffsetIsWritten() {
+        stream.commit(ImmutableList.of(cursor("0", 12), cursor("1", 22)));
+
+        stream.removePartition(P0);
+
+        Mockito.verify(offsetRepository).commitOffsets("s", ImmutableMap.of(P0, 12L));
+        stream.flush().join();
+        Mockito.verify(offsetRepository).commitOffsets("s", ImmutableMap.of(P1, 22L));
+    }
+
+    @Test
+    public void whenFlushFailsThenOffsetsAreWrittenLater() {
+        stream.commit(ImmutableList.of(cursor("0", 12)));
+        final CompletableFuture<Void> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new RuntimeException());
+        Mockito.when(offsetRepository.commitOffsets(Mockito.any(), Mockito.any()))
+                .thenReturn(failed)
+                .thenReturn(CompletableFuture.completedFuture(null));
+
+        stream.flush().join();
+        stream.flush().join();
+
+        Mockito.verify(offsetRepository, Mockito.times(2)).commitOffsets("s", ImmutableMap.of(P0, 12L));
+    }
+
+    @Test
+    public void whenPartitionIsRemovedThenRunningFlushIsAwaited() throws InterruptedException {
+        final CompletableFuture<Void> running = new CompletableFuture<>();
+        Mockito.when(offsetRepository.commitOffsets(Mockito.any(), Mockito.any())).thenReturn(running);
+        stream.commit(ImmutableList.of(cursor("0", 12)));
+        stream.flush();
+
+        final Thread remover = new Thread(() -> stream.removePartition(P0));
+        remover.start();
+        remover.join(100);
+        Assert.assertTrue(remover.isAlive());
+        running.complete(null);
+        remover.join();
+
+        Assert.assertNull(stream.getOffset(P0));
+        Mockito.verify(offsetRepository, Mockito.times(1)).commitOffsets("s", ImmutableMap.of(P0, 12L));
+    }
+
+    @Test
+    public void whenOffsetInZkIsBehindThenLocalOffsetIsUsed() {
+        stream.commit(ImmutableList.of(cursor("0", 15)));
+
+        Assert.assertEquals(15L, stream.onOffsetChanged(P0, 12L));
+        Assert.assertEquals(17L, stream.onOffsetChanged(P0, 17L));
+        Assert.assertEquals(Long.valueOf(17L), stream.getOffset(P0));
+        Assert.assertEquals(ImmutableList.of(false), stream.commit(ImmutableList.of(cursor("0", 16))));
+    }
+
+    private static NakadiCursor cursor(final String partition, final long offset) {
+        return new NakadiCursor("t", partition, String.valueOf(offset));
+    }
+}
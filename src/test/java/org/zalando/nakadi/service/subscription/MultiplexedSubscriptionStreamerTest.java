@@ -0,0 +1,103 @@
+package org.zalando.nakadi.service.subscription;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.zalando.nakadi.service.subscription.model.Session;
+import org.zalando.nakadi.service.subscription.state.State;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+public class MultiplexedSubscriptionStreamerTest {
+
+    private final ExecutorService workers = Executors.newFixedThreadPool(2);
+    private final StreamingMailbox mailbox = new StreamingMailbox(workers, workers);
+
+    @After
+    public void tearDown() {
+        workers.shutdownNow();
+    }
+
+    private StreamingContext createTestContext(final String subscriptionId, final SubscriptionOutput output) {
+        return new StreamingContext.Builder()
+                .setOut(output)
+                .setSession(Session.generate(1))
+                .setLoggingPath("stream." + subscriptionId)
+                .setConnectionReady(new AtomicBoolean(true))
+                .setMailbox(mailbox)
+                .setMultiplexedSubscriptionId(subscriptionId)
+                .build();
+    }
+
+    @Test(timeout = 5000)
+    public void whenSubscriptionStopsThenOtherSubscriptionsAreStopped() throws InterruptedException {
+        final List<String> log = new CopyOnWriteArrayList<>();
+        final RuntimeException killerException = new RuntimeException();
+        final SubscriptionOutput output = mock(SubscriptionOutput.class);
+        final StreamingContext ctx1 = createTestContext("s1", output);
+        final StreamingContext ctx2 = createTestContext("s2", output);
+        final MultiplexedSubscriptionStreamer streamer =
+                new MultiplexedSubscriptionStreamer(ImmutableList.of(ctx1, ctx2));
+
+        streamer.start(() -> new State() {
+            private int iterations;
+
+            @Override
+            public void onEnter() {
+                addTask(this::iterate);
+            }
+
+            private void iterate() {
+                final String id = getContext().getMultiplexedSubscriptionId();
+                log.add(id);
+                iterations++;
+                if ("s2".equals(id) && iterations == 3) {
+                    throw killerException;
+                }
+                addTask(this::iterate);
+            }
+        }).join();
+
+        Assert.assertTrue(ctx1.isInState(StreamingContext.DEAD_STATE));
+        Assert.assertTrue(ctx2.isInState(StreamingContext.DEAD_STATE));
+        // Both subscriptions were streaming until the second one failed
+        Assert.assertTrue(log.contains("s1"));
+        Assert.assertEquals(3, Collections.frequency(log, "s2"));
+        verify(output).onException(killerException);
+        verifyNoMoreInteractions(output);
+    }
+
+    @Test
+    public void whenAllSubscriptionsAreInitializedThenPendingDataIsStreamed() throws IOException {
+        final SubscriptionOutput output = mock(SubscriptionOutput.class);
+        final MultiplexedSubscriptionOutput multiplexedOutput = new MultiplexedSubscriptionOutput(output, 2);
+        final byte[] data1 = new byte[]{1};
+        final byte[] data2 = new byte[]{2};
+
+        multiplexedOutput.onInitialized("session");
+        multiplexedOutput.streamData(data1);
+        verifyNoMoreInteractions(output);
+
+        multiplexedOutput.onInitialized("session");
+        multiplexedOutput.streamData(data2);
+
+        final InOrder inOrder = inOrder(output);
+        inOrder.verify(output).onInitialized("session");
+        inOrder.verify(output).streamData(data1);
+        inOrder.verify(output).streamData(data2);
+        verifyNoMoreInteractions(output);
+    }
+}
@@ -10,11 +10,15 @@ import org.zalando.nakadi.service.subscription.state.DummyState;
 import org.zalando.nakadi.service.subscription.state.State;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 public class StreamingContextTest {
+    private static final ExecutorService WORKERS = Executors.newFixedThreadPool(2);
+
     private static StreamingContext createTestContext(final Consumer<Exception> onException) {
         final SubscriptionOutput output = new SubscriptionOutput() {
             @Override
@@ -48,6 +52,7 @@ public class StreamingContextTest {
                 .setCursorTokenService(null)
                 .setObjectMapper(null)
                 .setBlacklistService(null)
+                .setMailbox(new StreamingMailbox(WORKERS, WORKERS))
                 .build();
     }
 
@@ -64,12 +69,7 @@ public class StreamingContextTest {
                 throw killerException;
             }
         };
-        final Thread t = new Thread(() -> {
-            try {
-                ctx.streamInternal(killerState);
-            } catch (final InterruptedException ignore) {
-            }
-        });
+        final Thread t = new Thread(() -> ctx.start(killerState).join());
         t.start();
         t.join(1000);
         // Check that thread died
@@ -124,7 +124,7 @@ public class StreamingContextTest {
             }
         };
 
-        ctx.streamInternal(state2);
+        ctx.start(state2).join();
         Assert.assertArrayEquals(new boolean[]{true, true}, contextsSet);
         Assert.assertArrayEquals(new boolean[]{true, true}, onEnterCalls);
         // Check that onExit called even if onEnter throws exception.
@@ -135,16 +135,11 @@ public class StreamingContextTest {
     @Ignore
     public void testOnNodeShutdown() throws Exception {
         final StreamingContext ctxSpy = Mockito.spy(createTestContext(null));
-        final Thread t = new Thread(() -> {
-            try {
-                ctxSpy.streamInternal(new State() {
-                    @Override
-                    public void onEnter() {
-                    }
-                });
-            } catch (final InterruptedException ignore) {
+        final Thread t = new Thread(() -> ctxSpy.start(new State() {
+            @Override
+            public void onEnter() {
             }
-        });
+        }).join());
         t.start();
         t.join(1000);
 
@@ -0,0 +1,100 @@
+package org.zalando.nakadi.service.subscription;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class StreamingFetcherTest {
+
+    private static final TopicPartition TP = new TopicPartition("t", 0);
+
+    private final StreamingFetcher fetcher = new StreamingFetcher(10);
+    private final MockConsumer<String, String> kafkaConsumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+    private final AtomicInteger wakeUps = new AtomicInteger();
+    private WatchedConsumer consumer;
+
+    @Before
+    public void setUp() {
+        kafkaConsumer.updateBeginningOffsets(ImmutableMap.of(TP, 0L));
+        consumer = fetcher.register(kafkaConsumer, wakeUps::incrementAndGet);
+        consumer.change(c -> {
+            c.assign(ImmutableList.of(TP));
+            c.seek(TP, 0);
+        });
+    }
+
+    @Test
+    public void whenStreamIsNotIdleThenConsumerIsNotPolledByFetcher() {
+        kafkaConsumer.addRecord(record(0));
+
+        Assert.assertFalse(fetcher.fetchOnce());
+        Assert.assertEquals(0, wakeUps.get());
+        Assert.assertEquals(1, consumer.poll().count());
+    }
+
+    @Test
+    public void whenEventsArriveForIdleStreamThenStreamIsWokenUpOnceAndGetsThem() {
+        Assert.assertTrue(consumer.poll().isEmpty());
+        Assert.assertFalse(fetcher.fetchOnce());
+
+        kafkaConsumer.addRecord(record(0));
+        Assert.assertTrue(fetcher.fetchOnce());
+        kafkaConsumer.addRecord(record(1));
+        Assert.assertFalse(fetcher.fetchOnce());
+        Assert.assertEquals(1, wakeUps.get());
+
+        final ConsumerRecords<String, String> records = consumer.poll();
+        Assert.assertEquals(1, records.count());
+        Assert.assertEquals(0, records.records(TP).get(0).offset());
+        Assert.assertEquals(1, consumer.poll().records(TP).get(0).offset());
+    }
+
+    @Test
+    public void whenConsumerIsChangedThenItIsRewoundToFetchedEvents() {
+        Assert.assertTrue(consumer.poll().isEmpty());
+        kafkaConsumer.addRecord(record(0));
+        Assert.assertTrue(fetcher.fetchOnce());
+        Assert.assertEquals(1, kafkaConsumer.position(TP));
+
+        consumer.change(c -> Assert.assertEquals(0, c.position(TP)));
+    }
+
+    @Test
+    public void whenFetchingFailsThenErrorIsThrownToStreamOnce() {
+        Assert.assertTrue(consumer.poll().isEmpty());
+        kafkaConsumer.setException(new KafkaException("test"));
+        Assert.assertTrue(fetcher.fetchOnce());
+        Assert.assertEquals(1, wakeUps.get());
+
+        try {
+            consumer.poll();
+            Assert.fail("Fetch error is expected to be thrown");
+        } catch (final KafkaException ignore) {
+        }
+        Assert.assertTrue(consumer.poll().isEmpty());
+    }
+
+    @Test
+    public void whenConsumerIsClosedThenFetcherIsNotUsingIt() {
+        Assert.assertTrue(consumer.poll().isEmpty());
+        consumer.close();
+
+        Assert.assertTrue(kafkaConsumer.closed());
+        Assert.assertFalse(fetcher.fetchOnce());
+        Assert.assertEquals(0, wakeUps.get());
+    }
+
+    private static ConsumerRecord<String, String> record(final long offset) {
+        return new ConsumerRecord<>(TP.topic(), TP.partition(), offset, null, "{}");
+    }
+}
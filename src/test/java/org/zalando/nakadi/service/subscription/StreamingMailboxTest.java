@@ -0,0 +1,131 @@
+package org.zalando.nakadi.service.subscription;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class StreamingMailboxTest {
+
+    private final ExecutorService workers = Executors.newFixedThreadPool(4);
+
+    @After
+    public void tearDown() {
+        workers.shutdownNow();
+    }
+
+    @Test(timeout = 10000)
+    public void whenTasksAreAddedConcurrentlyThenTheyAreExecutedOneByOne() throws InterruptedException {
+        final StreamingMailbox mailbox = new StreamingMailbox(workers, workers);
+        final int producers = 4;
+        final int tasksPerProducer = 10000;
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(producers * tasksPerProducer);
+        final List<List<Integer>> executed = new ArrayList<>();
+        for (int p = 0; p < producers; ++p) {
+            executed.add(new ArrayList<>());
+        }
+
+        final List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; ++p) {
+            final List<Integer> producerLog = executed.get(p);
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < tasksPerProducer; ++i) {
+                    final int task = i;
+                    mailbox.offer(() -> {
+                        if (running.incrementAndGet() > 1) {
+                            overlaps.incrementAndGet();
+                        }
+                        producerLog.add(task);
+                        running.decrementAndGet();
+                        done.countDown();
+                    });
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        Assert.assertEquals(0, overlaps.get());
+        for (final List<Integer> producerLog : executed) {
+            Assert.assertEquals(tasksPerProducer, producerLog.size());
+            for (int i = 0; i < tasksPerProducer; ++i) {
+                Assert.assertEquals(i, producerLog.get(i).intValue());
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void whenMailboxIsBusyThenOtherMailboxesAreNotStarving() throws InterruptedException {
+        final ExecutorService singleWorker = Executors.newSingleThreadExecutor();
+        try {
+            final StreamingMailbox busy = new StreamingMailbox(singleWorker, singleWorker);
+            final StreamingMailbox other = new StreamingMailbox(singleWorker, singleWorker);
+            final CountDownLatch otherExecuted = new CountDownLatch(1);
+            final Runnable[] loop = new Runnable[1];
+            loop[0] = () -> {
+                if (otherExecuted.getCount() > 0) {
+                    busy.offer(loop[0]);
+                }
+            };
+            busy.offer(loop[0]);
+            other.offer(otherExecuted::countDown);
+
+            Assert.assertTrue(otherExecuted.await(5, TimeUnit.SECONDS));
+        } finally {
+            singleWorker.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void whenBlockingTaskIsRunningThenMailboxWaitsForItWithoutHoldingWorker() throws InterruptedException {
+        final ExecutorService singleWorker = Executors.newSingleThreadExecutor();
+        final ExecutorService blockingWorker = Executors.newSingleThreadExecutor();
+        try {
+            final StreamingMailbox blocked = new StreamingMailbox(singleWorker, blockingWorker);
+            final StreamingMailbox other = new StreamingMailbox(singleWorker, blockingWorker);
+            final CountDownLatch blockingStarted = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            final CountDownLatch otherExecuted = new CountDownLatch(1);
+            final CountDownLatch nextExecuted = new CountDownLatch(1);
+            final List<String> order = new CopyOnWriteArrayList<>();
+
+            blocked.offerBlocking(() -> {
+                blockingStarted.countDown();
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                order.add("blocking");
+            });
+            blocked.offer(() -> {
+                order.add("next");
+                nextExecuted.countDown();
+            });
+            Assert.assertTrue(blockingStarted.await(5, TimeUnit.SECONDS));
+
+            // The only worker is free, while the next task of the mailbox is waiting for the blocking one
+            other.offer(otherExecuted::countDown);
+            Assert.assertTrue(otherExecuted.await(5, TimeUnit.SECONDS));
+            Assert.assertFalse(nextExecuted.await(100, TimeUnit.MILLISECONDS));
+
+            release.countDown();
+            Assert.assertTrue(nextExecuted.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(ImmutableList.of("blocking", "next"), order);
+        } finally {
+            singleWorker.shutdownNow();
+            blockingWorker.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package org.zalando.nakadi.service.subscription.state;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+import org.zalando.nakadi.config.JsonConfig;
+import org.zalando.nakadi.view.SubscriptionCursor;
+
+public class BatchHeaderTemplateTest {
+
+    private static final ObjectMapper MAPPER = new JsonConfig().jacksonObjectMapper();
+
+    @Test
+    public void whenHeaderIsAppendedThenItMatchesSerializedCursor() throws Exception {
+        final BatchHeaderTemplate template = new BatchHeaderTemplate(MAPPER, null, "3", "my.event-type");
+        final StringBuilder output = new StringBuilder();
+
+        template.append(output, "000000000000000042", "token");
+
+        Assert.assertEquals("{\"cursor\":" + MAPPER.writeValueAsString(
+                new SubscriptionCursor("3", "000000000000000042", "my.event-type", "token")),
+                output.toString());
+    }
+
+    @Test
+    public void whenStreamIsMultiplexedThenHeaderContainsSubscriptionId() throws Exception {
+        final BatchHeaderTemplate template = new BatchHeaderTemplate(MAPPER, "sub-1", "0", "et");
+        final StringBuilder output = new StringBuilder();
+
+        template.append(output, "BEGIN", "t1");
+        output.append("}");
+        template.append(output, "5", "t2");
+
+        Assert.assertEquals("{\"subscription_id\":\"sub-1\",\"cursor\":" +
+                MAPPER.writeValueAsString(new SubscriptionCursor("0", "BEGIN", "et", "t1")) + "}" +
+                "{\"subscription_id\":\"sub-1\",\"cursor\":" +
+                MAPPER.writeValueAsString(new SubscriptionCursor("0", "5", "et", "t2")),
+                output.toString());
+    }
+}
@@ -0,0 +1,77 @@
+package org.zalando.nakadi.service.subscription.state;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventBufferTest {
+
+    @Test
+    public void whenEventsAreAddedAndTakenThenOrderAndBytesArePreserved() {
+        final EventBuffer buffer = new EventBuffer();
+        long expectedBytes = 0;
+        for (long i = 0; i < 1000; ++i) {
+            buffer.add(i, "event_" + i);
+            expectedBytes += ("event_" + i).length();
+        }
+        assertEquals(1000, buffer.size());
+        assertEquals(expectedBytes, buffer.getBytes());
+
+        for (long i = 0; i < 500; ++i) {
+            assertEquals(i, buffer.firstOffset());
+            assertEquals(("event_" + i).length(), buffer.firstSize());
+            assertEquals("event_" + i, buffer.pollFirst());
+        }
+        // Space of taken events is reused by the following ones
+        for (long i = 1000; i < 2000; ++i) {
+            buffer.add(i, "event_" + i);
+        }
+        for (long i = 500; i < 2000; ++i) {
+            assertEquals("event_" + i, buffer.pollFirst());
+        }
+        assertTrue(buffer.isEmpty());
+        assertEquals(0L, buffer.getBytes());
+    }
+
+    @Test
+    public void whenEventsAreOutOfOrderThenTheyAreOrderedByOffsets() {
+        final EventBuffer buffer = new EventBuffer();
+        buffer.add(3L, "c");
+        buffer.add(1L, "a");
+        buffer.add(5L, "e");
+        buffer.add(2L, "b");
+        buffer.add(5L, "eee");
+
+        assertEquals(4, buffer.size());
+        assertEquals(6L, buffer.getBytes());
+        assertEquals(5L, buffer.lastOffset());
+        assertEquals("a", buffer.pollFirst());
+        assertEquals("b", buffer.pollFirst());
+        assertEquals("c", buffer.pollFirst());
+        assertEquals("eee", buffer.pollFirst());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void whenEventsAreNotAsciiThenSizeIsInUtf8() {
+        final EventBuffer buffer = new EventBuffer();
+        buffer.add(1L, "ü€");
+        assertEquals(5L, buffer.getBytes());
+        assertEquals(5, buffer.firstSize());
+        assertEquals("ü€", buffer.pollFirst());
+    }
+
+    @Test
+    public void whenEventsAreRemovedThenBufferIsEmpty() {
+        final EventBuffer buffer = new EventBuffer();
+        for (long i = 0; i < 10; ++i) {
+            buffer.add(i, "x");
+        }
+        buffer.removeFirst();
+        assertEquals(1L, buffer.firstOffset());
+        buffer.clear();
+        assertTrue(buffer.isEmpty());
+        assertEquals(0L, buffer.getBytes());
+    }
+}
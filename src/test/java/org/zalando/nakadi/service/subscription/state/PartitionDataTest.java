@@ -1,6 +1,6 @@
 package org.zalando.nakadi.service.subscription.state;
 
-import java.util.SortedMap;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import org.junit.Test;
 
@@ -9,6 +9,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class PartitionDataTest {
 
@@ -59,20 +60,21 @@ public class PartitionDataTest {
         }
         pd.addEventFromKafka(201L, "fake");
         for (int i = 0; i < 10; ++i) {
-            final SortedMap<Long, String> data = pd.takeEventsToStream(currentTimeMillis(), 10, 0L);
+            final List<String> data = pd.takeEventsToStream(currentTimeMillis(), 10, 0L);
             assertNotNull(data);
             assertEquals(10, data.size());
             assertEquals((i + 1) * 10, pd.getUnconfirmed());
             assertEquals(0, pd.getKeepAliveInARow());
-            assertEquals(100L + i * 10L + 1L, data.firstKey().longValue());
-            assertEquals(100L + i * 10L + 10L, data.lastKey().longValue());
-            data.forEach((k, v) -> assertEquals("test_" + k, v));
+            for (int j = 0; j < data.size(); ++j) {
+                assertEquals("test_" + (100L + i * 10L + j + 1L), data.get(j));
+            }
+            assertEquals(100L + i * 10L + 10L, pd.getSentOffset());
         }
-        final SortedMap<Long, String> data = pd.takeEventsToStream(currentTimeMillis(), 10, 0L);
+        final List<String> data = pd.takeEventsToStream(currentTimeMillis(), 10, 0L);
         assertNotNull(data);
         assertEquals(1, data.size());
-        assertEquals(201L, data.firstKey().longValue());
-        assertEquals("fake", data.get(data.firstKey()));
+        assertEquals(201L, pd.getSentOffset());
+        assertEquals("fake", data.get(0));
         assertEquals(0, pd.getKeepAliveInARow());
     }
 
@@ -98,7 +100,7 @@ public class PartitionDataTest {
         for (int i = 0; i < 100; ++i) {
             pd.addEventFromKafka(i + 100L + 1, "test");
         }
-        SortedMap<Long, String> data = pd.takeEventsToStream(currentTimeMillis(), 1000, timeout);
+        List<String> data = pd.takeEventsToStream(currentTimeMillis(), 1000, timeout);
         assertNull(data);
         assertEquals(0, pd.getKeepAliveInARow());
         Thread.sleep(timeout);
@@ -128,8 +130,65 @@ public class PartitionDataTest {
             pd.addEventFromKafka(i + 100L + 1, "test");
         }
         assertNull(pd.takeEventsToStream(currentTimeMillis(), 1000, timeout));
-        final SortedMap<Long, String> eventsToStream = pd.takeEventsToStream(currentTimeMillis(), 99, timeout);
+        final List<String> eventsToStream = pd.takeEventsToStream(currentTimeMillis(), 99, timeout);
         assertNotNull(eventsToStream);
         assertEquals(99, eventsToStream.size());
     }
+
+    @Test
+    public void eventsShouldBeStreamedOnBatchBytesLimit() {
+        final long timeout = TimeUnit.SECONDS.toMillis(1);
+        final PartitionData pd = new PartitionData(null, 100L);
+        pd.addEventFromKafka(101L, "test_1");
+        pd.addEventFromKafka(102L, "test_2");
+        assertNull(pd.takeEventsToStream(currentTimeMillis(), 1000, 15L, timeout));
+
+        for (long i = 3; i <= 10; ++i) {
+            pd.addEventFromKafka(100L + i, "test_" + i);
+        }
+        // Limit is soft, so batch is closed by the event that crossed it
+        final List<String> eventsToStream = pd.takeEventsToStream(currentTimeMillis(), 1000, 15L, timeout);
+        assertNotNull(eventsToStream);
+        assertEquals(3, eventsToStream.size());
+        assertEquals(103L, pd.getSentOffset());
+        assertEquals(7, pd.getBufferedEvents());
+        assertEquals(43L, pd.getBufferedBytes());
+
+        // Committing the data that is still in buffer releases its bytes
+        pd.onCommitOffset(108L);
+        assertEquals(2, pd.getBufferedEvents());
+        assertEquals(13L, pd.getBufferedBytes());
+        assertNull(pd.takeEventsToStream(currentTimeMillis(), 1000, 15L, timeout));
+    }
+
+    @Test
+    public void filteredEventsShouldBeSkippedByNextBatchOrKeepAlive() {
+        final long timeout = TimeUnit.SECONDS.toMillis(1);
+        final PartitionData pd = new PartitionData(null, 100L);
+        pd.addFilteredEventFromKafka(101L);
+        pd.addEventFromKafka(102L, "test_2");
+        pd.addFilteredEventFromKafka(103L);
+        pd.addEventFromKafka(104L, "test_4");
+        pd.addFilteredEventFromKafka(105L);
+
+        final List<String> first = pd.takeEventsToStream(currentTimeMillis(), 1, timeout);
+        assertNotNull(first);
+        assertEquals(1, first.size());
+        assertEquals(102L, pd.getSentOffset());
+
+        final List<String> second = pd.takeEventsToStream(currentTimeMillis(), 1, timeout);
+        assertNotNull(second);
+        assertEquals(105L, pd.getSentOffset());
+        assertEquals(4L, pd.getUnconfirmed());
+
+        // Keep alive skips filtered events, but client is not required to commit it
+        pd.onCommitOffset(104L);
+        pd.addFilteredEventFromKafka(106L);
+        final List<String> keepAlive = pd.takeEventsToStream(currentTimeMillis() + timeout, 1, timeout);
+        assertNotNull(keepAlive);
+        assertEquals(0, keepAlive.size());
+        assertEquals(106L, pd.getSentOffset());
+        assertEquals(0L, pd.getUnconfirmed());
+        assertTrue(pd.isCommitted());
+    }
 }
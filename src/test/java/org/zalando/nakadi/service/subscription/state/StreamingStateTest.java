@@ -1,23 +1,47 @@
 package org.zalando.nakadi.service.subscription.state;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
 import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
+import org.zalando.nakadi.domain.NakadiCursor;
+import org.zalando.nakadi.service.ConsumptionThrottle;
+import org.zalando.nakadi.service.CursorConverter;
+import org.zalando.nakadi.service.CursorTokenService;
+import org.zalando.nakadi.service.EventFilter;
 import org.zalando.nakadi.service.subscription.KafkaClient;
+import org.zalando.nakadi.service.subscription.LocalStream;
 import org.zalando.nakadi.service.subscription.StreamParameters;
 import org.zalando.nakadi.service.subscription.StreamingContext;
+import org.zalando.nakadi.service.subscription.StreamingFetcher;
+import org.zalando.nakadi.service.subscription.StreamingScheduler;
+import org.zalando.nakadi.service.subscription.SubscriptionOutput;
 import org.zalando.nakadi.service.subscription.model.Partition;
 import org.zalando.nakadi.service.subscription.zk.ZKSubscription;
 import org.zalando.nakadi.service.subscription.zk.ZkSubscriptionClient;
+import org.zalando.nakadi.view.Cursor;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class StreamingStateTest {
 
     private StreamingState state;
     private KafkaClient kafkaMock;
     private ZkSubscriptionClient zkMock;
+    private StreamingContext contextMock;
 
     private static final String SESSION_ID = "ssid";
 
@@ -25,28 +49,34 @@ public class StreamingStateTest {
     public void prepareMocks() {
         state = new StreamingState();
 
-        final StreamingContext contextMock = Mockito.mock(StreamingContext.class);
+        contextMock = Mockito.mock(StreamingContext.class);
 
         Mockito.when(contextMock.getSessionId()).thenReturn(SESSION_ID);
         Mockito.when(contextMock.isInState(Mockito.same(state))).thenReturn(true);
 
         kafkaMock = Mockito.mock(KafkaClient.class);
         Mockito.when(contextMock.getKafkaClient()).thenReturn(kafkaMock);
+        Mockito.when(kafkaMock.createKafkaConsumer()).thenReturn(Mockito.mock(Consumer.class));
 
         zkMock = Mockito.mock(ZkSubscriptionClient.class);
         Mockito.when(contextMock.getZkClient()).thenReturn(zkMock);
 
         final StreamParameters spMock = StreamParameters.of(
                 1000,
+                0L,
                 100L,
                 100,
                 100L,
                 100,
                 100,
                 100,
-                "consumingAppId"
+                "consumingAppId",
+                EventFilter.NONE,
+                false
         );
         Mockito.when(contextMock.getParameters()).thenReturn(spMock);
+        Mockito.when(contextMock.getConsumptionThrottle()).thenReturn(ConsumptionThrottle.NONE);
+        Mockito.when(contextMock.getFetcher()).thenReturn(new StreamingFetcher(10));
 
         state.setContext(contextMock, "test");
     }
@@ -104,4 +134,98 @@ public class StreamingStateTest {
         Mockito.verify(offsetSubscription, Mockito.times(1)).refresh();
     }
 
-}
+    @Test
+    public void ensurePartitionsAreRegisteredForLocalCommits() {
+        final LocalStream localStream = Mockito.mock(LocalStream.class);
+        Mockito.when(contextMock.registerLocalStream(Mockito.any())).thenReturn(localStream);
+        final Partition.PartitionKey pk = new Partition.PartitionKey("t", "0");
+        Mockito.when(zkMock.subscribeForOffsetChanges(Mockito.eq(pk), Mockito.any()))
+                .thenReturn(Mockito.mock(ZKSubscription.class));
+        Mockito.when(zkMock.getOffset(pk)).thenReturn(5L);
+        Mockito.when(zkMock.subscribeForTopologyChanges(Mockito.anyObject()))
+                .thenReturn(Mockito.mock(ZKSubscription.class));
+        final Consumer kafkaConsumer = Mockito.mock(Consumer.class);
+        Mockito.when(kafkaConsumer.assignment()).thenReturn(Collections.emptySet());
+        Mockito.when(kafkaMock.createKafkaConsumer()).thenReturn(kafkaConsumer);
+
+        state.onEnter();
+        state.refreshTopologyUnlocked(new Partition[]{new Partition(pk, SESSION_ID, null, Partition.State.ASSIGNED)});
+        Mockito.verify(localStream).addPartition(pk, 5L);
+
+        // Offset in zk that is behind the local one is not moving commit offset back
+        Mockito.when(localStream.onOffsetChanged(pk, 5L)).thenReturn(7L);
+        state.offsetChanged(pk);
+        Mockito.verify(localStream).onOffsetChanged(pk, 5L);
+
+        state.onExit();
+        final InOrder inOrder = Mockito.inOrder(localStream, contextMock);
+        inOrder.verify(localStream).removePartition(pk);
+        inOrder.verify(contextMock).unregisterLocalStream(localStream);
+    }
+
+    @Test(timeout = 10000)
+    public void whenEventArrivesAtIdleStreamThenItIsStreamedWithoutWaitingForPollTimeout() throws Exception {
+        final Partition.PartitionKey pk = new Partition.PartitionKey("t", "0");
+        final TopicPartition tp = new TopicPartition("t", 0);
+        final MockConsumer<String, String> kafkaConsumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        kafkaConsumer.updateBeginningOffsets(ImmutableMap.of(tp, 0L));
+        Mockito.when(kafkaMock.createKafkaConsumer()).thenReturn(kafkaConsumer);
+        Mockito.when(zkMock.subscribeForTopologyChanges(Mockito.anyObject()))
+                .thenReturn(Mockito.mock(ZKSubscription.class));
+        Mockito.when(zkMock.subscribeForOffsetChanges(Mockito.eq(pk), Mockito.any()))
+                .thenReturn(Mockito.mock(ZKSubscription.class));
+        Mockito.when(zkMock.getOffset(pk)).thenReturn(-1L);
+
+        Mockito.when(contextMock.getParameters()).thenReturn(StreamParameters.of(
+                1, 0L, null, 30000, null, null, 100, 60, "consumingAppId", EventFilter.NONE, false));
+        Mockito.when(contextMock.getKafkaPollTimeout()).thenReturn(100L);
+        Mockito.when(contextMock.getKafkaPollMaxIdleTimeout()).thenReturn(1000L);
+        Mockito.when(contextMock.isConnectionReady()).thenReturn(true);
+        Mockito.when(contextMock.getFetcher()).thenReturn(new StreamingScheduler(1, 1, 10, 10).getFetcher());
+        Mockito.when(contextMock.getEventTypesForTopics()).thenReturn(ImmutableMap.of("t", "et"));
+        Mockito.when(contextMock.getCursorTokenService()).thenReturn(Mockito.mock(CursorTokenService.class));
+        Mockito.when(contextMock.getObjectMapper()).thenReturn(new ObjectMapper());
+        final CursorConverter cursorConverter = Mockito.mock(CursorConverter.class);
+        Mockito.when(cursorConverter.convert(Mockito.any(NakadiCursor.class))).thenReturn(new Cursor("0", "0"));
+        Mockito.when(contextMock.getCursorConverter()).thenReturn(cursorConverter);
+
+        final CompletableFuture<Long> streamedNanos = new CompletableFuture<>();
+        final SubscriptionOutput output = Mockito.mock(SubscriptionOutput.class);
+        Mockito.doAnswer(invocation -> {
+            final byte[] data = (byte[]) invocation.getArguments()[0];
+            if (new String(data, StandardCharsets.UTF_8).contains("\"events\"")) {
+                streamedNanos.complete(System.nanoTime());
+            }
+            return null;
+        }).when(output).streamData(Mockito.any());
+        Mockito.when(contextMock.getOut()).thenReturn(output);
+
+        // Tasks are executed one by one, while delayed tasks (including poll timeouts) are never executed
+        final ExecutorService mailbox = Executors.newSingleThreadExecutor();
+        Mockito.doAnswer(invocation -> {
+            mailbox.execute((Runnable) invocation.getArguments()[0]);
+            return null;
+        }).when(contextMock).addTask(Mockito.any());
+        try {
+            mailbox.submit(() -> {
+                state.onEnter();
+                state.refreshTopologyUnlocked(
+                        new Partition[]{new Partition(pk, SESSION_ID, null, Partition.State.ASSIGNED)});
+            }).get();
+            // Stream polls nothing and becomes idle
+            mailbox.submit(() -> {
+            }).get();
+            Thread.sleep(100);
+
+            final long arrivedNanos = System.nanoTime();
+            kafkaConsumer.addRecord(new ConsumerRecord<>("t", 0, 0, null, "{\"foo\":\"bar\"}"));
+
+            final long delayMillis = TimeUnit.NANOSECONDS.toMillis(streamedNanos.get() - arrivedNanos);
+            Assert.assertTrue("Event was streamed " + delayMillis + " ms after its arrival", delayMillis < 250);
+        } finally {
+            mailbox.submit(state::onExit).get();
+            mailbox.shutdown();
+        }
+    }
+
+}
\ No newline at end of file
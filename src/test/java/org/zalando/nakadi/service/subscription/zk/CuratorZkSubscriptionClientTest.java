@@ -0,0 +1,105 @@
+package org.zalando.nakadi.service.subscription.zk;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundPathAndBytesable;
+import org.apache.curator.framework.api.GetChildrenBuilder;
+import org.apache.curator.framework.api.GetDataBuilder;
+import org.apache.curator.framework.api.SetDataBuilder;
+import org.apache.curator.framework.api.WatchPathable;
+import org.apache.zookeeper.data.Stat;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zalando.nakadi.repository.SubscriptionOffsetRepository;
+import org.zalando.nakadi.service.subscription.model.Partition;
+import org.zalando.nakadi.util.FeatureToggleService;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CuratorZkSubscriptionClientTest {
+
+    private static final String SUBSCRIPTION_PATH = "/nakadi/subscriptions/sid";
+    private static final Partition.PartitionKey T1P0 = new Partition.PartitionKey("t1", "0");
+    private static final Partition.PartitionKey T1P1 = new Partition.PartitionKey("t1", "1");
+
+    private final CuratorFramework curator = mock(CuratorFramework.class);
+    private final GetDataBuilder getDataBuilder = mock(GetDataBuilder.class);
+    private final GetChildrenBuilder getChildrenBuilder = mock(GetChildrenBuilder.class);
+    private final WatchPathable<byte[]> topologyReader = mock(WatchPathable.class);
+    private final FeatureToggleService featureToggleService = mock(FeatureToggleService.class);
+
+    @Before
+    public void setUp() throws Exception {
+        when(curator.getData()).thenReturn(getDataBuilder);
+        when(curator.getChildren()).thenReturn(getChildrenBuilder);
+        when(getDataBuilder.storingStatIn(any())).thenReturn(topologyReader);
+        when(getChildrenBuilder.forPath(SUBSCRIPTION_PATH + "/topics")).thenReturn(ImmutableList.of("t1"));
+        when(getChildrenBuilder.forPath(SUBSCRIPTION_PATH + "/topics/t1")).thenReturn(ImmutableList.of("0", "1"));
+        when(getDataBuilder.forPath(SUBSCRIPTION_PATH + "/topics/t1/0")).thenReturn(bytes("s1::ASSIGNED"));
+        when(getDataBuilder.forPath(SUBSCRIPTION_PATH + "/topics/t1/1")).thenReturn(bytes("s1:s2:REASSIGNING"));
+    }
+
+    @Test
+    public void whenTopologyNodeContainsVersionThenPartitionsAreReadFromLegacyNodes() throws Exception {
+        when(topologyReader.forPath(SUBSCRIPTION_PATH + "/topology")).thenReturn(bytes("5"));
+
+        final Topology topology = CuratorZkSubscriptionClient.readTopology(curator, "sid", new Stat());
+
+        Assert.assertEquals(5, topology.getVersion());
+        Assert.assertEquals(2, topology.getPartitions().length);
+        Assert.assertEquals("s1", topology.getPartition(T1P0).getSession());
+        Assert.assertNull(topology.getPartition(T1P0).getNextSession());
+        Assert.assertEquals(Partition.State.ASSIGNED, topology.getPartition(T1P0).getState());
+        Assert.assertEquals("s2", topology.getPartition(T1P1).getNextSession());
+        Assert.assertEquals(Partition.State.REASSIGNING, topology.getPartition(T1P1).getState());
+    }
+
+    @Test
+    public void whenTopologyNodeContainsTopologyThenLegacyNodesAreNotRead() throws Exception {
+        final Topology stored = new Topology(new Partition[]{
+                new Partition(T1P0, "s3", null, Partition.State.ASSIGNED)}, 7);
+        when(topologyReader.forPath(SUBSCRIPTION_PATH + "/topology")).thenReturn(stored.serialize());
+
+        final Topology topology = CuratorZkSubscriptionClient.readTopology(curator, "sid", new Stat());
+
+        Assert.assertEquals(7, topology.getVersion());
+        Assert.assertEquals(1, topology.getPartitions().length);
+        Assert.assertEquals("s3", topology.getPartition(T1P0).getSession());
+        verify(getChildrenBuilder, never()).forPath(anyString());
+    }
+
+    @Test
+    public void whenLegacyTopologyUpdatedWithFeatureEnabledThenTopologyIsWrittenToNode() throws Exception {
+        when(topologyReader.forPath(SUBSCRIPTION_PATH + "/topology")).thenReturn(bytes("5"));
+        when(featureToggleService.isFeatureEnabled(FeatureToggleService.Feature.SUBSCRIPTION_TOPOLOGY_NODE))
+                .thenReturn(true);
+        final SetDataBuilder setDataBuilder = mock(SetDataBuilder.class);
+        final BackgroundPathAndBytesable<Stat> topologyWriter = mock(BackgroundPathAndBytesable.class);
+        when(curator.setData()).thenReturn(setDataBuilder);
+        when(setDataBuilder.withVersion(anyInt())).thenReturn(topologyWriter);
+
+        new CuratorZkSubscriptionClient("sid", curator, mock(SubscriptionOffsetRepository.class),
+                featureToggleService).updatePartitionsConfiguration(new Partition[]{
+                new Partition(T1P1, "s2", null, Partition.State.ASSIGNED)});
+
+        final Topology expected = new Topology(new Partition[]{
+                new Partition(T1P0, "s1", null, Partition.State.ASSIGNED),
+                new Partition(T1P1, "s2", null, Partition.State.ASSIGNED)}, 6);
+        verify(topologyWriter).forPath(eq(SUBSCRIPTION_PATH + "/topology"), eq(expected.serialize()));
+        verify(curator, never()).inTransaction();
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
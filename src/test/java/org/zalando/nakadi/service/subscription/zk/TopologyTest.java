@@ -0,0 +1,66 @@
+package org.zalando.nakadi.service.subscription.zk;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.zalando.nakadi.service.subscription.model.Partition;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class TopologyTest {
+
+    private static final Partition.PartitionKey T1P0 = new Partition.PartitionKey("t1", "0");
+    private static final Partition.PartitionKey T1P1 = new Partition.PartitionKey("t1", "1");
+    private static final Partition.PartitionKey T2P0 = new Partition.PartitionKey("t2", "0");
+
+    @Test
+    public void whenSerializedThenDeserializedTheSame() throws IOException {
+        final Topology topology = new Topology(new Partition[]{
+                new Partition(T1P0, "s1", null, Partition.State.ASSIGNED),
+                new Partition(T1P1, "s1", "s2", Partition.State.REASSIGNING),
+                new Partition(T2P0, null, null, Partition.State.UNASSIGNED)}, 7);
+
+        final Topology deserialized = Topology.deserialize(topology.serialize());
+
+        Assert.assertEquals(7, deserialized.getVersion());
+        Assert.assertEquals(3, deserialized.getPartitions().length);
+        for (final Partition expected : topology.getPartitions()) {
+            final Partition actual = deserialized.getPartition(expected.getKey());
+            Assert.assertEquals(expected.getSession(), actual.getSession());
+            Assert.assertEquals(expected.getNextSession(), actual.getNextSession());
+            Assert.assertEquals(expected.getState(), actual.getState());
+        }
+    }
+
+    @Test
+    public void whenSerializedThenSessionsAreStoredOnce() {
+        final Topology topology = new Topology(new Partition[]{
+                new Partition(T1P0, "session-id", null, Partition.State.ASSIGNED),
+                new Partition(T1P1, "session-id", null, Partition.State.ASSIGNED)}, 0);
+
+        final String data = new String(topology.serialize(), StandardCharsets.UTF_8);
+
+        Assert.assertEquals(data.indexOf("session-id"), data.lastIndexOf("session-id"));
+    }
+
+    @Test
+    public void whenPartitionsUpdatedThenVersionIsIncremented() {
+        final Topology topology = new Topology(new Partition[]{
+                new Partition(T1P0, null, null, Partition.State.UNASSIGNED),
+                new Partition(T1P1, null, null, Partition.State.UNASSIGNED)}, 3);
+
+        final Topology updated = topology.withUpdatedPartitions(new Partition[]{
+                new Partition(T1P1, "s1", null, Partition.State.ASSIGNED)});
+
+        Assert.assertEquals(4, updated.getVersion());
+        Assert.assertEquals(2, updated.getPartitions().length);
+        Assert.assertEquals(Partition.State.UNASSIGNED, updated.getPartition(T1P0).getState());
+        Assert.assertEquals("s1", updated.getPartition(T1P1).getSession());
+        Assert.assertEquals(Partition.State.UNASSIGNED, topology.getPartition(T1P1).getState());
+    }
+
+    @Test
+    public void whenNodeContainsOnlyVersionThenNull() throws IOException {
+        Assert.assertNull(Topology.deserialize("12".getBytes(StandardCharsets.UTF_8)));
+    }
+}